@@ -18,21 +18,18 @@ import mklab.JGNN.nn.optimizers.Adam;
 
 public class GAT {
 	
-	// THIS EXAMPLE DOES NOT ACCURATELY IMPLEMENT THE GAT ARCHITECTURE BUT SHOWCASES HOW TO ADD NODE ATTENTION
-
 	public static void main(String[] args) throws Exception {
 		Dataset dataset = new Citeseer();
-		//dataset.graph().setMainDiagonal(1).setToSymmetricNormalization();
+		dataset.graph().setMainDiagonal(1);
 		
 		long numClasses = dataset.labels().getCols();
 		ModelBuilder modelBuilder = new FastBuilder(dataset.graph(), dataset.features())
 				.config("reg", 0.005)
 				.config("classes", numClasses)
-				.config("hidden", 16)
-				.config("2hidden", 32)
-				.layer("h{l+1}=relu(h{l}@matrix(features, hidden, reg)+vector(hidden))")
-				.layer("h{l+1}=(L1(nexp(att(A, h{l})))@h{l} | h{l})@matrix(2hidden, hidden, reg)+vector(hidden)")
-				.layer("h{l+1}=(L1(nexp(att(A, h{l})))@h{l} | h{l})@matrix(2hidden, classes, reg)+vector(classes)")
+				.config("hidden", 64)
+				.config("heads", 8)
+				.layer("h{l+1}=relu(gat(A, h{l}@matrix(features, hidden, reg), matrix(2, hidden), heads))")
+				.layer("h{l+1}=gat(A, h{l}@matrix(hidden, classes, reg), matrix(2, classes))")
 				.classify()
 				.assertBackwardValidity();
 		
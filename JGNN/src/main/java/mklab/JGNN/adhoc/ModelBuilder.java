@@ -38,8 +38,10 @@ import mklab.JGNN.nn.operations.Attention;
 import mklab.JGNN.nn.operations.Complement;
 import mklab.JGNN.nn.operations.Concat;
 import mklab.JGNN.nn.operations.Dropout;
+import mklab.JGNN.nn.operations.EdgeSoftMax;
 import mklab.JGNN.nn.operations.From;
 import mklab.JGNN.nn.operations.Gather;
+import mklab.JGNN.nn.operations.GraphAttention;
 import mklab.JGNN.nn.operations.Identity;
 import mklab.JGNN.nn.operations.Log;
 import mklab.JGNN.nn.operations.MatMul;
@@ -49,6 +51,11 @@ import mklab.JGNN.nn.operations.Repeat;
 import mklab.JGNN.nn.operations.Reshape;
 import mklab.JGNN.nn.operations.To;
 import mklab.JGNN.nn.operations.Transpose;
+import mklab.JGNN.nn.pooling.SegmentMax;
+import mklab.JGNN.nn.pooling.SegmentMean;
+import mklab.JGNN.nn.pooling.SegmentSoftMax;
+import mklab.JGNN.nn.pooling.SegmentSort;
+import mklab.JGNN.nn.pooling.SegmentSum;
 import mklab.JGNN.nn.pooling.SoftMax;
 import mklab.JGNN.nn.pooling.Sort;
 import mklab.JGNN.nn.pooling.Sum;
@@ -111,12 +118,10 @@ public class ModelBuilder {
 			writer.write(this.getClass().getCanonicalName() + "\n");
 			for (String configurationName : configurations.keySet())
 				writer.write(configurationName + " = config: " + configurations.get(configurationName) + "\n");
+			for (Variable input : model.getInputs()) // in declaration order, which determines the order of model inputs
+				writer.write(input.getDescription() + " = var: null\n");
 			for (String componentName : components.keySet())
 				if (components.get(componentName) instanceof Parameter) {
-					if (components.get(componentName) instanceof Variable) {
-						writer.write(componentName + " = var: null\n");
-						continue;
-					}
 					writer.write(componentName + " = ");
 					Tensor value = ((Parameter) components.get(componentName)).get();
 					writer.write((((Parameter) components.get(componentName)).isConstant() ? "const " : "param ")
@@ -195,8 +200,10 @@ public class ModelBuilder {
 					builder.var(name);
 				else if (type.equals("out"))
 					builder.out(name);
-				else if (type.equals("config"))
-					builder.config(name, Double.parseDouble(line.substring(initPosition + 1)));
+				else if (type.equals("config")) {
+					if (!name.equals("?")) // reserved configuration that builders declare on their own
+						builder.config(name, Double.parseDouble(line.substring(initPosition + 1)));
+				}
 				else if (type.contains("Tensor ") || type.contains("Matrix ")) {
 					boolean isDense = line.charAt(initPosition + 2) == '[';
 					Tensor tensor;
@@ -271,6 +278,11 @@ public class ModelBuilder {
 		for (String componentName : components.keySet())
 			if (model.getOutputs().contains(components.get(componentName)))
 				ret += "return " + componentName + "\n";
+		for (String componentName : components.keySet())
+			if (model.getCheckpoints().contains(components.get(componentName)))
+				ret += "checkpoint " + componentName + "\n";
+		if (model.getPrecision() != 64)
+			ret += "precision " + model.getPrecision() + "\n";
 		return ret;
 	}
 
@@ -279,9 +291,36 @@ public class ModelBuilder {
 			out(data);
 			return true;
 		}
+		if (command.equals("checkpoint")) {
+			checkpoint(data);
+			return true;
+		}
+		if (command.equals("precision")) {
+			setPrecision(Integer.parseInt(data));
+			return true;
+		}
 		return false;
 	}
 
+	/**
+	 * Sets the floating point precision of the managed model and converts all
+	 * dense parameters and constants declared so far, as well as those declared
+	 * afterwards, to it. The precision is preserved by {@link #save(Path)} and
+	 * {@link #load(Path)}.
+	 * 
+	 * @param precision Either 32 for single precision (floats) or 64 for double
+	 *                  precision (default).
+	 * @return The builder's instance.
+	 * @see Model#setPrecision(int)
+	 */
+	public ModelBuilder setPrecision(int precision) {
+		model.setPrecision(precision);
+		for (NNOperation component : components.values())
+			if (component instanceof Parameter && !(component instanceof Variable))
+				((Parameter) component).set(model.toPrecision(((Parameter) component).get()));
+		return this;
+	}
+
 	/**
 	 * Checks whether the builder has added to its managed model a component of the
 	 * given name.
@@ -349,6 +388,22 @@ public class ModelBuilder {
 		return this;
 	}
 
+	/**
+	 * Marks the component with the given name as a gradient checkpoint of the
+	 * managed model, so that training keeps its value but recomputes other
+	 * intermediate values during backpropagation. Checkpoints are preserved by
+	 * {@link #save(Path)} and {@link #load(Path)}.
+	 * 
+	 * @param name A component name.
+	 * @return The builder's instance.
+	 * @see Model#addCheckpoint(NNOperation)
+	 */
+	public ModelBuilder checkpoint(String name) {
+		assertExists(name);
+		model.addCheckpoint(components.get(name));
+		return this;
+	}
+
 	/**
 	 * Declares a learnable {@link Paramater} component with the given name,
 	 * learning L2 regularization, and initial value.
@@ -367,7 +422,7 @@ public class ModelBuilder {
 	 */
 	public ModelBuilder param(String name, double regularization, Tensor value) {
 		assertValidName(name);
-		NNOperation variable = new Parameter(value, regularization);
+		NNOperation variable = new Parameter(model.toPrecision(value), regularization);
 		components.put(name, variable);
 		variable.setDescription(name);
 		return this;
@@ -470,7 +525,7 @@ public class ModelBuilder {
 	 */
 	public ModelBuilder param(String name, Tensor value) {
 		assertValidName(name);
-		NNOperation variable = new Parameter(value);
+		NNOperation variable = new Parameter(model.toPrecision(value));
 		components.put(name, variable);
 		variable.setDescription(name);
 		return this;
@@ -502,6 +557,7 @@ public class ModelBuilder {
 	 * @see #constant(String, double)
 	 */
 	public ModelBuilder constant(String name, Tensor value) {
+		value = model.toPrecision(value);
 		if (components.containsKey(name)) {
 			((Constant) components.get(name)).set(value);
 			((Constant) components.get(name)).setDescription(name);
@@ -665,6 +721,8 @@ public class ModelBuilder {
 									|| (newDesc.endsWith(" matrix ") && isDouble(arg))
 									|| (newDesc.endsWith(" vector ") && isDouble(arg))
 									|| (newDesc.endsWith(" sort ") && isDouble(arg))
+									|| (newDesc.endsWith(" segment_sort ") && isDouble(arg))
+									|| (newDesc.endsWith(" gat ") && isDouble(arg))
 									|| (newDesc.endsWith(" reshape ") && isDouble(arg))
 									|| ((arg.equals("\"col\"") || arg.equals("\"row\"") || arg.contains(":"))
 											&& !arg.contains(",")))
@@ -755,6 +813,7 @@ public class ModelBuilder {
 		String name = splt[0];
 		String arg0 = null;
 		String arg1 = null;
+		String arg2 = null;
 		assertValidName(name);
 		NNOperation component;
 		if (splt.length == 3) {
@@ -870,6 +929,29 @@ public class ModelBuilder {
 			component = new Sort((int) (splt.length > 4 ? parseConfigValue(splt[4]) : 0))
 					.setDimensionName(splt.length <= 4 || isDouble(splt[4]) ? null : splt[4]);
 			arg0 = splt[3];
+		} else if (splt[2].equals("segment_sum")) {
+			component = new SegmentSum();
+			arg0 = splt[3];
+			arg1 = splt[4];
+		} else if (splt[2].equals("segment_mean")) {
+			component = new SegmentMean();
+			arg0 = splt[3];
+			arg1 = splt[4];
+		} else if (splt[2].equals("segment_max")) {
+			component = new SegmentMax();
+			arg0 = splt[3];
+			arg1 = splt[4];
+		} else if (splt[2].equals("segment_softmax")) {
+			component = new SegmentSoftMax();
+			arg0 = splt[3];
+			arg1 = splt[4];
+		} else if (splt[2].equals("segment_sort")) {
+			if (splt.length <= 5)
+				throw new IllegalArgumentException(
+						"segment_sort(h, segments, k) requires the number k of rows to keep per segment: " + desc);
+			component = new SegmentSort((int) parseConfigValue(splt[5]));
+			arg0 = splt[3];
+			arg1 = splt[4];
 		} else if (splt[2].equals("reshape")) {
 			component = new Reshape((long) (splt.length > 4 ? parseConfigValue(splt[4]) : 1),
 					(long) (splt.length > 5 ? parseConfigValue(splt[5]) : 1)).setDimensionName(
@@ -896,6 +978,14 @@ public class ModelBuilder {
 		} else if (splt[2].equals("monitor")) {
 			component = this.get(splt[3]);
 			component.debugging = true;
+		} else if (splt[2].equals("edge_softmax")) {
+			component = new EdgeSoftMax();
+			arg0 = splt[3];
+		} else if (splt[2].equals("gat")) {
+			component = new GraphAttention(splt.length > 6 ? (int) parseConfigValue(splt[6]) : 1);
+			arg0 = splt[3];
+			arg1 = splt[4];
+			arg2 = splt[5];
 		} else if (splt[2].equals("transpose")) {
 			component = new Transpose();
 			arg0 = splt[3];
@@ -1029,9 +1119,10 @@ public class ModelBuilder {
 			keywords.addAll(functions.keySet());
 			keywords.addAll(Arrays.asList(".", "+", "-", "*", "/", "@", ",", "(", ")", ";", "=", "\"", "max", "min",
 					"vector", "matrix", "vec", "mat", "[", "]", "{", "}", "|", "#", "!", ":", "extern", "softmax",
-					"from", "to", "reduce", "transpose", "attention", "att", "dropout", "drop", "repeat", "exp", "nexp",
+					"from", "to", "reduce", "transpose", "attention", "att", "edge_softmax", "gat", "dropout", "drop", "repeat", "exp", "nexp",
 					"L1", "sigmoid", "transpose", "monitor", "log", "tanh", "prelu", "lrelu", "relu", "reshape",
-					"mean"));
+					"mean", "segment_sum", "segment_mean", "segment_max", "segment_softmax",
+					"segment_sort"));
 			keywords.addAll(this.components.keySet());
 			keywords.addAll(this.configurations.keySet());
 			customNames.put("return", splt[0] + " = ");
@@ -1090,6 +1181,10 @@ public class ModelBuilder {
 			assertExists(arg1);
 			component.addInput(components.get(arg1));
 		}
+		if (arg2 != null) {
+			assertExists(arg2);
+			component.addInput(components.get(arg2));
+		}
 
 		components.put(name, component);
 		component.setDescription(name);
@@ -14,6 +14,7 @@ import mklab.JGNN.nn.Optimizer;
 import mklab.JGNN.nn.inputs.Parameter;
 import mklab.JGNN.nn.optimizers.Adam;
 import mklab.JGNN.nn.optimizers.BatchOptimizer;
+import mklab.JGNN.nn.optimizers.DataParallelOptimizer;
 
 /**
  * This is a helper class that automates the definition of training processes of
@@ -30,6 +31,7 @@ public abstract class ModelTraining {
 	protected int patience = Integer.MAX_VALUE;
 	protected boolean paralellization = false;
 	protected boolean stochasticGradientDescent = false;
+	protected boolean dataParallelism = false;
 	protected Loss loss, validationLoss;
 	protected boolean verbose = false;
 
@@ -144,6 +146,27 @@ public abstract class ModelTraining {
 		return this;
 	}
 
+	/**
+	 * Sets whether the batches of each epoch should run as shards of one global
+	 * batch in parallel threads of the {@link ThreadPool}. Each shard accumulates
+	 * derivatives separately, and once all shards conclude their derivatives are
+	 * summed with a {@link DataParallelOptimizer} to perform one optimizer step.
+	 * This reaches the same parameters as training without parallelization or
+	 * stochastic gradient descent (up to the order of floating point additions),
+	 * and results do not depend on thread scheduling. If enabled, this takes
+	 * precedence over {@link #setParallelizedStochasticGradientDescent(boolean)}
+	 * in determining when parameters are updated.
+	 * 
+	 * @param dataParallelism A boolean value indicating whether this feature is
+	 *                        enabled.
+	 * @return <code>this</code> model training instance.
+	 * @see #setNumBatches(int)
+	 */
+	public ModelTraining setDataParallelism(boolean dataParallelism) {
+		this.dataParallelism = dataParallelism;
+		return this;
+	}
+
 	/**
 	 * Sets the maximum number of epochs for which training runs. If no patience has
 	 * been set, training runs for exactly this number of epochs.
@@ -253,6 +276,7 @@ public abstract class ModelTraining {
 		HashMap<Parameter, Tensor> minLossParameters = new HashMap<Parameter, Tensor>();
 		int currentPatience = patience;
 		Loss validLoss = validationLoss != null ? validationLoss : loss;
+		DataParallelOptimizer shards = dataParallelism ? new DataParallelOptimizer(optimizer, numBatches) : null;
 		for (int epoch = 0; epoch < epochs; epoch++) {
 			onStartEpoch(epoch);
 			int epochId = epoch;
@@ -261,21 +285,26 @@ public abstract class ModelTraining {
 				Runnable batchCode = new Runnable() {
 					@Override
 					public void run() {
+						Optimizer batchOptimizer = shards == null ? optimizer : shards.getShard(batchId);
 						for (BatchData batchData : getBatchData(batchId, epochId)) 
-							model.train(loss, optimizer, batchData.getInputs(), batchData.getOutputs());
-						if (stochasticGradientDescent)
+							model.train(loss, batchOptimizer, batchData.getInputs(), batchData.getOutputs());
+						if (stochasticGradientDescent && shards == null)
 							optimizer.updateAll();
 					}
 				};
-				if (paralellization)
+				if (paralellization || shards != null)
 					ThreadPool.getInstance().submit(batchCode);
 				else
 					batchCode.run();
 				// System.out.println(System.currentTimeMillis()-tic);
 			}
-			if (paralellization)
+			if (paralellization || shards != null)
 				ThreadPool.getInstance().waitForConclusion();
-			if (!stochasticGradientDescent)
+			if (shards != null) {
+				shards.allReduce();
+				optimizer.updateAll();
+			}
+			else if (!stochasticGradientDescent)
 				optimizer.updateAll();
 			loss.onEndEpoch();
 			
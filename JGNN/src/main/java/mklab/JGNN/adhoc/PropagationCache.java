@@ -0,0 +1,222 @@
+package mklab.JGNN.adhoc;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Parallelism;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.matrix.CsrMatrix;
+import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.core.matrix.MappedMatrix;
+import mklab.JGNN.core.tensor.VectorizedTensor;
+
+/**
+ * Precomputes the propagation of node features through a graph for decoupled
+ * architectures, such as SGC, SIGN or APPNP variants that propagate features
+ * before learning. Given a (normalized) adjacency matrix <i>A</i> and node
+ * features <i>X</i>, this computes <i>A<sup>k</sup>X</i> for every hop
+ * <i>k=0,1,...,K</i> once, so that training only needs dense operations on the
+ * cached outcomes. If a restart probability <i>a</i> is set, hops instead follow
+ * the personalized PageRank recursion of APPNP, that is
+ * <i>X<sub>k+1</sub>=(1-a)AX<sub>k</sub>+aX</i>. <br>
+ * Each hop is computed from the previous one in ranges of rows that run in
+ * parallel when {@link Parallelism} is enabled, and every finished range is
+ * immediately written to the hop's storage. Storage is an in-memory
+ * {@link DenseMatrix} by default, but it can be spilled to a memory-mapped file
+ * with {@link #setSpillFile(Path)}, in which case computed hops do not occupy
+ * the heap. Computing each hop still keeps row-major copies of the previous and
+ * next hops in memory, as well as one of the features if a restart probability
+ * is set. Hop zero is always the features matrix itself.
+ *
+ * @author Emmanouil Krasanakis
+ * @see mklab.JGNN.adhoc.parsers.FastBuilder#propagate(PropagationCache)
+ */
+public class PropagationCache {
+	private final Matrix adjacency;
+	private final Matrix features;
+	private double restart = 0;
+	private int blockRows = 1024;
+	private Path spillFile = null;
+	private ArrayList<Matrix> hops = new ArrayList<Matrix>();
+
+	/**
+	 * Instantiates a cache for the propagation of node features.
+	 *
+	 * @param adjacency The adjacency matrix to propagate with. It should be
+	 *                  normalized beforehand.
+	 * @param features  The node features matrix.
+	 */
+	public PropagationCache(Matrix adjacency, Matrix features) {
+		if (adjacency.getRows() != adjacency.getCols() || adjacency.getCols() != features.getRows())
+			throw new IllegalArgumentException("Cannot propagate " + features.describe() + " with the square matrix "
+					+ adjacency.describe());
+		if (features.size() >= Integer.MAX_VALUE)
+			throw new IllegalArgumentException(
+					"Propagation needs less than MAXINT feature elements but " + features.describe() + " was provided");
+		this.adjacency = adjacency;
+		this.features = features;
+		hops.add(features);
+	}
+
+	/**
+	 * Sets the restart probability of personalized PageRank propagation.
+	 *
+	 * @param restart A value in the range [0,1). Zero (default) computes plain
+	 *                powers of the adjacency matrix.
+	 * @return <code>this</code> PropagationCache instance.
+	 */
+	public PropagationCache setRestart(double restart) {
+		if (restart < 0 || restart >= 1)
+			throw new IllegalArgumentException("Restart probability should be in the range [0,1) but given " + restart);
+		assertEmpty();
+		this.restart = restart;
+		return this;
+	}
+
+	/**
+	 * Sets the number of rows computed and written by each task.
+	 *
+	 * @param blockRows A positive number of rows. Default is 1024.
+	 * @return <code>this</code> PropagationCache instance.
+	 */
+	public PropagationCache setBlockRows(int blockRows) {
+		if (blockRows <= 0)
+			throw new IllegalArgumentException("The number of block rows should be positive but given " + blockRows);
+		this.blockRows = blockRows;
+		return this;
+	}
+
+	/**
+	 * Stores computed hops in a memory-mapped file instead of the heap. Hop
+	 * <i>k</i> occupies the region that starts at byte
+	 * <code>(k-1)*rows*cols*8</code> of the file.
+	 *
+	 * @param spillFile The file to write to, or <code>null</code> (default) to keep
+	 *                  hops in memory.
+	 * @return <code>this</code> PropagationCache instance.
+	 * @see MappedMatrix
+	 */
+	public PropagationCache setSpillFile(Path spillFile) {
+		assertEmpty();
+		this.spillFile = spillFile;
+		return this;
+	}
+
+	private void assertEmpty() {
+		if (hops.size() > 1)
+			throw new RuntimeException("Propagation settings cannot change after hops have been computed");
+	}
+
+	/**
+	 * Computes all hops up to the given one that have not been computed yet.
+	 *
+	 * @param maxHop The last hop to compute.
+	 * @return <code>this</code> PropagationCache instance.
+	 * @see #get(int)
+	 */
+	public PropagationCache compute(int maxHop) {
+		if (maxHop < 0)
+			throw new IllegalArgumentException("The number of hops should be non-negative but given " + maxHop);
+		if (maxHop < hops.size())
+			return this;
+		CsrMatrix graph = adjacency instanceof CsrMatrix ? (CsrMatrix) adjacency : adjacency.toCsr();
+		int rows = (int) features.getRows();
+		int cols = (int) features.getCols();
+		double[] previous = rowMajor(hops.get(hops.size() - 1));
+		// features are only needed to restart personalized PageRank propagation
+		double[] initial = restart == 0 ? null : hops.size() == 1 ? previous : rowMajor(features);
+		while (hops.size() <= maxHop) {
+			Matrix hop = spillFile == null ? new DenseMatrix(rows, cols)
+					: new MappedMatrix(rows, cols, spillFile, (long) (hops.size() - 1) * rows * cols * Double.BYTES);
+			hop.setDimensionName(features.getRowName(), features.getColName());
+			previous = propagate(graph, initial, previous, hop, rows, cols);
+			hops.add(hop);
+		}
+		return this;
+	}
+
+	private double[] propagate(CsrMatrix graph, double[] initial, double[] previous, Matrix hop, int rows,
+			int cols) {
+		int[] rowPtr = graph.getRowPtr();
+		int[] colIdx = graph.getColIdx();
+		double[] values = graph.getValues();
+		double[] next = new double[rows * cols];
+		boolean vectorized = Tensor.vectorization && cols >= VectorizedTensor.SPECIES.length();
+		double scale = 1 - restart;
+		Parallelism.forRange(0, rows, blockRows, (from, to) -> {
+			for (int row = from; row < to; row++) {
+				int offset = row * cols;
+				for (int pos = rowPtr[row]; pos < rowPtr[row + 1]; pos++) {
+					double value = scale * values[pos];
+					if (vectorized)
+						VectorizedTensor.axpy(value, previous, colIdx[pos] * cols, next, offset, cols);
+					else
+						for (int col = 0; col < cols; col++)
+							next[offset + col] += value * previous[colIdx[pos] * cols + col];
+				}
+				if (restart != 0)
+					for (int col = 0; col < cols; col++)
+						next[offset + col] += restart * initial[offset + col];
+			}
+			write(next, hop, from, to, rows, cols);
+		});
+		return next;
+	}
+
+	private static void write(double[] rowMajor, Matrix hop, int from, int to, int rows, int cols) {
+		if (hop instanceof DenseMatrix) {
+			double[] values = ((DenseMatrix) hop).getValues();
+			for (int col = 0; col < cols; col++)
+				for (int row = from; row < to; row++)
+					values[row + col * rows] = rowMajor[row * cols + col];
+			return;
+		}
+		double[] segment = new double[to - from];
+		for (int col = 0; col < cols; col++) {
+			for (int row = from; row < to; row++)
+				segment[row - from] = rowMajor[row * cols + col];
+			((MappedMatrix) hop).put((long) col * rows + from, segment, 0, segment.length);
+		}
+	}
+
+	private static double[] rowMajor(Matrix matrix) {
+		int cols = (int) matrix.getCols();
+		double[] ret = new double[(int) matrix.size()];
+		matrix.forEachNonZero((row, col, value) -> ret[(int) (row * cols + col)] = value);
+		return ret;
+	}
+
+	/**
+	 * Retrieves the outcome of a computed hop.
+	 *
+	 * @param hop The hop, where zero corresponds to the features.
+	 * @return A matrix with the same dimensions as the features.
+	 * @see #compute(int)
+	 */
+	public Matrix get(int hop) {
+		if (hop < 0 || hop >= hops.size())
+			throw new IllegalArgumentException(
+					"Hop " + hop + " has not been computed (computed hops: 0 to " + (hops.size() - 1) + ")");
+		return hops.get(hop);
+	}
+
+	/**
+	 * Retrieves the last computed hop.
+	 *
+	 * @return The last hop <i>K</i>, which is zero if nothing has been computed.
+	 */
+	public int getMaxHop() {
+		return hops.size() - 1;
+	}
+
+	/**
+	 * Retrieves the outcomes of all computed hops in order.
+	 *
+	 * @return A list of <i>K+1</i> matrices.
+	 */
+	public List<Matrix> getHops() {
+		return new ArrayList<Matrix>(hops);
+	}
+}
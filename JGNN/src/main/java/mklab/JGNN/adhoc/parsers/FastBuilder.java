@@ -5,7 +5,10 @@ import java.util.function.Function;
 
 import mklab.JGNN.core.Matrix;
 import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.matrix.CsrMatrix;
 import mklab.JGNN.adhoc.ModelBuilder;
+import mklab.JGNN.adhoc.PropagationCache;
+import mklab.JGNN.nn.inputs.Constant;
 
 /**
  * Extends the capabilities of {@link LayeredBuilder} to use for node
@@ -18,6 +21,7 @@ import mklab.JGNN.adhoc.ModelBuilder;
  */
 public class FastBuilder extends ModelBuilder {
 	private int layer = 0;
+	private int checkpointEvery = 0;
 	private HashMap<String, Integer> rememberAs = new HashMap<String, Integer>();
 
 	/**
@@ -45,6 +49,10 @@ public class FastBuilder extends ModelBuilder {
 		for (String rememberKey : rememberAs.keySet())
 			ret += "remember " + rememberKey + " as " + rememberAs.get(rememberKey) + "\n";
 		ret += "layer " + layer + "\n";
+		if (checkpointEvery != 0)
+			ret += "checkpointEvery " + checkpointEvery + "\n";
+		if (((Constant) get("A")).get() instanceof CsrMatrix)
+			ret += "adjacency csr\n";
 		return ret;
 	}
 
@@ -53,14 +61,71 @@ public class FastBuilder extends ModelBuilder {
 			layer = Integer.parseInt(data);
 			return true;
 		}
+		if (command.equals("checkpointEvery")) {
+			checkpointEvery = Integer.parseInt(data);
+			return true;
+		}
 		if (command.equals("remember")) {
 			int pos = data.lastIndexOf(" as ");
 			rememberAs.put(data.substring(0, pos), Integer.parseInt(data.substring(pos + 4)));
 			return true;
 		}
+		if (command.equals("adjacency") && data.equals("csr")) {
+			compressAdjacency();
+			return true;
+		}
 		return super.loadCommand(command, data);
 	}
 
+	/**
+	 * Stores the adjacency matrix <i>A</i> as a {@link CsrMatrix}, which speeds up
+	 * graph propagation by traversing its rows without hashing. Do this once the
+	 * adjacency matrix is fully normalized, as the compressed format does not
+	 * accept new non-zero elements. The choice is preserved when saving the
+	 * builder.
+	 * 
+	 * @return <code>this</code> builder.
+	 */
+	public FastBuilder compressAdjacency() {
+		Matrix adjacency = ((Constant) get("A")).get().cast(Matrix.class);
+		if (!(adjacency instanceof CsrMatrix))
+			constant("A", adjacency.toCsr());
+		return this;
+	}
+
+	/**
+	 * Precomputes the propagation of node features <i>h0</i> by the adjacency
+	 * matrix <i>A</i> for up to the given number of hops, and exposes the outcome
+	 * of each hop <i>k</i> as the constant <i>p{k}</i>. For example,
+	 * <code>propagate(2)</code> followed by
+	 * <code>layer("h{l+1}=p2@matrix(features, classes)")</code> creates a SGC
+	 * model, whose training does not need graph propagation.
+	 *
+	 * @param hops The number of hops.
+	 * @return <code>this</code> builder.
+	 * @see #propagate(PropagationCache)
+	 */
+	public FastBuilder propagate(int hops) {
+		Matrix adjacency = ((Constant) get("A")).get().cast(Matrix.class);
+		Matrix features = ((Constant) get("h0")).get().cast(Matrix.class);
+		return propagate(new PropagationCache(adjacency, features).compute(hops));
+	}
+
+	/**
+	 * Exposes the outcome of each computed hop <i>k</i> of a
+	 * {@link PropagationCache} as the constant <i>p{k}</i>. Use this instead of
+	 * {@link #propagate(int)} to customize propagation, for example to spill hops
+	 * to a memory-mapped file.
+	 *
+	 * @param cache The propagation cache.
+	 * @return <code>this</code> builder.
+	 */
+	public FastBuilder propagate(PropagationCache cache) {
+		for (int hop = 0; hop <= cache.getMaxHop(); hop++)
+			constant("p" + hop, cache.get(hop));
+		return this;
+	}
+
 	/**
 	 * Remembers the last layer's output per a given identifier so that {layerId}
 	 * within future {@link #layer(String)} definitions is made to refer to the
@@ -74,6 +139,26 @@ public class FastBuilder extends ModelBuilder {
 		return this;
 	}
 
+	/**
+	 * Marks the outputs of every few subsequently declared layers as gradient
+	 * checkpoints. Training then keeps only these outputs after the forward pass
+	 * and recomputes the activations of other layers when backpropagating, which
+	 * lets deep architectures train in memory that grows with the number of
+	 * checkpoints instead of the number of layers.
+	 * 
+	 * @param layers A positive number of layers between checkpoints, or zero to
+	 *               stop marking checkpoints.
+	 * @return <code>this</code> builder.
+	 * @see #checkpoint(String)
+	 * @see mklab.JGNN.nn.Model#addCheckpoint(mklab.JGNN.nn.NNOperation)
+	 */
+	public FastBuilder checkpointEvery(int layers) {
+		if (layers < 0)
+			throw new IllegalArgumentException("The number of layers between checkpoints should be non-negative");
+		checkpointEvery = layers;
+		return this;
+	}
+
 	/**
 	 * Applies an {@link #operation(String)} and increases the layer identifier
 	 * count.
@@ -81,6 +166,7 @@ public class FastBuilder extends ModelBuilder {
 	 * @param expression A parsable expression.
 	 * @return <code>this</code> builder.
 	 * @see #layerRepeat(String, int)
+	 * @see #checkpointEvery(int)
 	 */
 	public FastBuilder layer(String expression) {
 		expression = expression.replace("{l+1}", "" + (layer + 1)).replace("{l}", "" + layer);
@@ -88,6 +174,8 @@ public class FastBuilder extends ModelBuilder {
 			expression = expression.replace("{" + layerId + "}", "" + rememberAs.get(layerId));
 		layer += 1;
 		super.operation(expression);
+		if (checkpointEvery != 0 && layer % checkpointEvery == 0 && expression.contains("="))
+			checkpoint(expression.substring(0, expression.indexOf('=')).trim());
 		return this;
 	}
 
@@ -122,6 +210,11 @@ public class FastBuilder extends ModelBuilder {
 		return this;
 	}
 
+	public FastBuilder checkpoint(String name) {
+		super.checkpoint(name);
+		return this;
+	}
+
 	public FastBuilder function(String name, String value) {
 		super.function(name, value);
 		return this;
@@ -9,7 +9,11 @@ import mklab.JGNN.adhoc.ModelTraining;
 import mklab.JGNN.core.Matrix;
 import mklab.JGNN.core.Slice;
 import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.matrix.CsrMatrix;
+import mklab.JGNN.core.matrix.DenseMatrix;
 import mklab.JGNN.core.util.Range;
+import mklab.JGNN.nn.Loss;
+import mklab.JGNN.nn.Model;
 
 /**
  * Extends the {@link ModelTraining} class to be able to train
@@ -17,16 +21,64 @@ import mklab.JGNN.core.util.Range;
  * Training needs to account for a list of graphs, corresponding graph node
  * features, and corresponding graph labels. Each label holds the one-hot
  * encoding of each graph. Fill data with the method
- * {@link #addGraph(Matrix, Matrix, Tensor)}.
+ * {@link #addGraph(Matrix, Matrix, Tensor)}. By default, each graph is a
+ * separate model call, but {@link #setBlockDiagonalBatching(boolean)} merges
+ * the graphs of each batch into one call.
  * 
  * @author Emmanouil Krasanakis
  */
 public class AGFTraining extends ModelTraining {
+	/**
+	 * Wraps a loss to evaluate and differentiate each row of merged outputs as a
+	 * separate graph, and averages outcomes across graphs.
+	 */
+	private static class GraphAverageLoss extends Loss {
+		private final Loss baseLoss;
+
+		private GraphAverageLoss(Loss baseLoss) {
+			this.baseLoss = baseLoss;
+		}
+
+		@Override
+		public double evaluate(Tensor output, Tensor desired) {
+			Matrix outputs = output.cast(Matrix.class);
+			Matrix desiredOutputs = desired.cast(Matrix.class);
+			double ret = 0;
+			for (long graph = 0; graph < outputs.getRows(); graph++)
+				ret += baseLoss.evaluate(outputs.accessRows(graph), desiredOutputs.accessRows(graph));
+			return ret / outputs.getRows();
+		}
+
+		@Override
+		public Tensor derivative(Tensor output, Tensor desired) {
+			Matrix outputs = output.cast(Matrix.class);
+			Matrix desiredOutputs = desired.cast(Matrix.class);
+			Matrix ret = outputs.zeroCopy();
+			for (long graph = 0; graph < outputs.getRows(); graph++) {
+				Tensor derivative = baseLoss.derivative(outputs.accessRows(graph), desiredOutputs.accessRows(graph));
+				for (long col = 0; col < ret.getCols(); col++)
+					ret.put(graph, col, derivative.get(col) / outputs.getRows());
+			}
+			return ret;
+		}
+
+		@Override
+		public void onEndEpoch() {
+			baseLoss.onEndEpoch();
+		}
+
+		@Override
+		public void onEndTraining() {
+			baseLoss.onEndTraining();
+		}
+	}
+
 	private List<Matrix> graphs = new ArrayList<Matrix>();
 	private List<Matrix> nodeFeatures = new ArrayList<Matrix>();
 	private List<Tensor> graphLabels = new ArrayList<Tensor>();
 	private Slice trainingSamples;
 	private Slice validationSamples;
+	private boolean blockDiagonalBatching = false;
 
 	public AGFTraining setGraphs(List<Matrix> graphs) {
 		this.graphs = graphs;
@@ -52,6 +104,34 @@ public class AGFTraining extends ModelTraining {
 		return this;
 	}
 
+	/**
+	 * Sets whether all graphs of each batch (and all validation graphs) should be
+	 * merged into one instance of batch data, so that one forward and backward
+	 * pass covers all of them. Merged data comprise three model inputs: stacked
+	 * node features, a block-diagonal adjacency matrix in which node identifiers
+	 * of each graph are offset by the number of previous nodes, and a column
+	 * matrix that holds the position of each node's graph within the batch. The
+	 * output is a matrix whose rows are the labels of batch graphs. Thus, models
+	 * should declare a third input, for example with
+	 * <code>.var("graph")</code>, and pool node representations per graph with
+	 * segment operations like <code>segment_mean(h, graph)</code> or
+	 * <code>segment_sum(h[z], graph[z])</code> after
+	 * <code>z = segment_sort(h, graph, k)</code>. During {@link #train(Model)},
+	 * losses and their derivatives are computed for each graph separately and
+	 * averaged, so that updates are the same as when graphs run in separate
+	 * calls whose derivatives are averaged by the optimizer. All graphs need to
+	 * have at least one node.
+	 * 
+	 * @param blockDiagonalBatching Whether this feature is enabled. Default is
+	 *                              <code>false</code>.
+	 * @return <code>this</code> graph classification training instance.
+	 * @see mklab.JGNN.nn.pooling.SegmentSum
+	 */
+	public AGFTraining setBlockDiagonalBatching(boolean blockDiagonalBatching) {
+		this.blockDiagonalBatching = blockDiagonalBatching;
+		return this;
+	}
+
 	public AGFTraining setValidationSplit(double validationFraction) {
 		Slice indices = new Slice(new Range(0, graphs.size()));
 		indices.shuffle();
@@ -60,6 +140,23 @@ public class AGFTraining extends ModelTraining {
 		return this;
 	}
 
+	@Override
+	public Model train(Model model) {
+		if (!blockDiagonalBatching)
+			return super.train(model);
+		Loss graphLoss = loss;
+		Loss graphValidationLoss = validationLoss;
+		loss = new GraphAverageLoss(graphLoss);
+		if (graphValidationLoss != null)
+			validationLoss = new GraphAverageLoss(graphValidationLoss);
+		try {
+			return super.train(model);
+		} finally {
+			loss = graphLoss;
+			validationLoss = graphValidationLoss;
+		}
+	}
+
 	@Override
 	protected void onStartEpoch(int epoch) {
 		if (trainingSamples == null)
@@ -79,6 +176,8 @@ public class AGFTraining extends ModelTraining {
 	protected List<BatchData> getBatchData(int batch, int epoch) {
 		int start = (trainingSamples.size() / numBatches) * batch;
 		int end = Math.min(trainingSamples.size(), start + (trainingSamples.size() / numBatches));
+		if (blockDiagonalBatching)
+			return Arrays.asList(mergeGraphs(trainingSamples.range(start, end)));
 		List<BatchData> batchData = new ArrayList<BatchData>(end - start);
 		for (long i : trainingSamples.range(start, end))
 			batchData.add(new BatchData(Arrays.asList(nodeFeatures.get((int) i), graphs.get((int) i)),
@@ -88,6 +187,8 @@ public class AGFTraining extends ModelTraining {
 
 	@Override
 	protected List<BatchData> getValidationData(int epoch) {
+		if (blockDiagonalBatching)
+			return Arrays.asList(mergeGraphs(validationSamples));
 		List<BatchData> batchData = new ArrayList<BatchData>(validationSamples.size());
 		for (long i : validationSamples)
 			batchData.add(new BatchData(Arrays.asList(nodeFeatures.get((int) i), graphs.get((int) i)),
@@ -95,4 +196,65 @@ public class AGFTraining extends ModelTraining {
 		return batchData;
 	}
 
+	/**
+	 * Merges graphs into one instance of batch data, as described in
+	 * {@link #setBlockDiagonalBatching(boolean)}.
+	 * 
+	 * @param graphIds The positions of merged graphs.
+	 * @return A {@link BatchData} instance.
+	 */
+	public BatchData mergeGraphs(Slice graphIds) {
+		if (graphIds.size() == 0)
+			throw new RuntimeException("Cannot merge an empty list of graphs");
+		long numNodes = 0;
+		long numEdges = 0;
+		ArrayList<CsrMatrix> adjacencies = new ArrayList<CsrMatrix>(graphIds.size());
+		for (long i : graphIds) {
+			Matrix graph = graphs.get((int) i);
+			CsrMatrix adjacency = graph instanceof CsrMatrix ? (CsrMatrix) graph : graph.toCsr();
+			if (adjacency.getRows() == 0)
+				throw new RuntimeException("Cannot merge graphs without nodes");
+			adjacencies.add(adjacency);
+			numNodes += adjacency.getRows();
+			numEdges += adjacency.getValues().length;
+		}
+		if (numNodes >= Integer.MAX_VALUE || numEdges >= Integer.MAX_VALUE)
+			throw new RuntimeException("Merged graphs need less than MAXINT nodes and edges");
+		Matrix firstFeatures = nodeFeatures.get((int) (long) graphIds.iterator().next());
+		Tensor firstLabels = graphLabels.get((int) (long) graphIds.iterator().next());
+		int[] rowPtr = new int[(int) numNodes + 1];
+		int[] colIdx = new int[(int) numEdges];
+		double[] values = new double[(int) numEdges];
+		Matrix features = new DenseMatrix(numNodes, firstFeatures.getCols()).setDimensionName(firstFeatures);
+		Matrix membership = new DenseMatrix(numNodes, 1);
+		Matrix labels = new DenseMatrix(graphIds.size(), firstLabels.size())
+				.setColName(firstLabels.getDimensionName());
+		int nodeOffset = 0;
+		int edgeOffset = 0;
+		int position = 0;
+		for (long i : graphIds) {
+			CsrMatrix adjacency = adjacencies.get(position);
+			int[] graphPtr = adjacency.getRowPtr();
+			int[] graphIdx = adjacency.getColIdx();
+			int graphNodes = (int) adjacency.getRows();
+			for (int node = 0; node < graphNodes; node++) {
+				rowPtr[nodeOffset + node + 1] = edgeOffset + graphPtr[node + 1];
+				membership.put(nodeOffset + node, 0, position);
+			}
+			for (int edge = 0; edge < graphIdx.length; edge++)
+				colIdx[edgeOffset + edge] = nodeOffset + graphIdx[edge];
+			System.arraycopy(adjacency.getValues(), 0, values, edgeOffset, graphIdx.length);
+			int offset = nodeOffset;
+			nodeFeatures.get((int) i).forEachNonZero((row, col, value) -> features.put(offset + row, col, value));
+			Tensor graphLabel = graphLabels.get((int) i);
+			for (long label = 0; label < graphLabel.size(); label++)
+				labels.put(position, label, graphLabel.get(label));
+			nodeOffset += graphNodes;
+			edgeOffset += graphIdx.length;
+			position++;
+		}
+		Matrix adjacency = new CsrMatrix(numNodes, numNodes, rowPtr, colIdx, values)
+				.setDimensionName(adjacencies.get(0));
+		return new BatchData(Arrays.asList(features, adjacency, membership), Arrays.asList(labels));
+	}
 }
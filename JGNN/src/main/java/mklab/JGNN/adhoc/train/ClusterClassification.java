@@ -0,0 +1,429 @@
+package mklab.JGNN.adhoc.train;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import mklab.JGNN.adhoc.BatchData;
+import mklab.JGNN.adhoc.ModelBuilder;
+import mklab.JGNN.adhoc.ModelTraining;
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Slice;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.matrix.CsrMatrix;
+import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.core.matrix.WrapRows;
+import mklab.JGNN.nn.Model;
+import mklab.JGNN.nn.inputs.Constant;
+
+/**
+ * Extends the {@link ModelTraining} class to train node classification models
+ * created with {@link mklab.JGNN.adhoc.parsers.FastBuilder} on graphs that are
+ * too large for full-graph propagation, in the manner of Cluster-GCN. Before
+ * training starts, graph nodes are partitioned once into clusters of similar
+ * sizes with few edges between them. Then, each training batch selects some
+ * clusters and temporarily replaces the builder's constants <i>A</i> and
+ * <i>h0</i> with the adjacency matrix of the subgraph they induce and the
+ * features of their nodes. Thus, the memory of each training step is bounded
+ * by the size of selected clusters, and architectures are reused without
+ * changes. Clusters are spread across the number of batches set with
+ * {@link #setNumBatches(int)}, and are randomly grouped at each epoch. <br>
+ * Like Cluster-GCN, the adjacency matrix of each subgraph is renormalized.
+ * Since <i>A</i> is typically normalized already, each element <i>(u,v)</i>
+ * is multiplied with <i>sqrt(s<sub>u</sub>s<sub>v</sub>/(s'<sub>u</sub>
+ * s'<sub>v</sub>))</i>, where <i>s</i> and <i>s'</i> are the row sums of the
+ * whole graph and of the subgraph respectively. This compensates for the
+ * weight of edges that leave the selected clusters and leaves subgraphs
+ * without such edges unchanged. <br>
+ * Validation and predictions after training use the whole graph, and the
+ * builder's original constants are restored even if training fails. Since
+ * batches modify constants shared by all threads, they cannot run in parallel.
+ *
+ * @author Emmanouil Krasanakis
+ * @see #setBuilder(ModelBuilder)
+ * @see #setNumClusters(int)
+ */
+public class ClusterClassification extends ModelTraining {
+	private static final double maxImbalance = 1.1;
+	private static final int propagationRounds = 10;
+	private ModelBuilder builder;
+	private CsrMatrix graph;
+	private double[] rowSums;
+	private Tensor graphConstant;
+	private Matrix features;
+	private Matrix labels;
+	private Slice trainingSamples;
+	private Slice validationSamples;
+	private int numClusters = 0;
+	private long seed = 0;
+	private int[] clusterOf;
+	private int[] positionInCluster;
+	private int[][] clusters;
+	private boolean[] isTraining;
+	private int[] order;
+
+	/**
+	 * Sets the builder whose constants <i>A</i> and <i>h0</i> hold the graph's
+	 * adjacency matrix and node features, such as a
+	 * {@link mklab.JGNN.adhoc.parsers.FastBuilder}.
+	 *
+	 * @param builder The builder of the trained model.
+	 * @return <code>this</code> classification training instance.
+	 */
+	public ClusterClassification setBuilder(ModelBuilder builder) {
+		if (this.builder != null)
+			throw new RuntimeException("Can only set the builder once in a ClusterClassification instance.");
+		if (!(builder.get("A") instanceof Constant) || !(builder.get("h0") instanceof Constant))
+			throw new IllegalArgumentException("ClusterClassification needs a builder with constants A and h0");
+		this.builder = builder;
+		graphConstant = ((Constant) builder.get("A")).get();
+		Matrix adjacency = graphConstant.cast(Matrix.class);
+		graph = adjacency instanceof CsrMatrix ? (CsrMatrix) adjacency : adjacency.toCsr();
+		features = ((Constant) builder.get("h0")).get().cast(Matrix.class);
+		if (graph.getRows() != graph.getCols() || graph.getRows() != features.getRows())
+			throw new IllegalArgumentException("Mismatched graph " + graph.describe() + " and node features "
+					+ features.describe());
+		return this;
+	}
+
+	/**
+	 * Sets the label matrix of graph nodes, where each row corresponds to a
+	 * different node.
+	 *
+	 * @param labels The label matrix.
+	 * @return <code>this</code> classification training instance.
+	 */
+	public ClusterClassification setOutputs(Matrix labels) {
+		if (this.labels != null)
+			throw new RuntimeException("Can only set labels once in a ClusterClassification instance.");
+		this.labels = labels;
+		return this;
+	}
+
+	/**
+	 * Sets a slice of training node identifiers.
+	 *
+	 * @param trainingSamples The slice of training nodes.
+	 * @return <code>this</code> classification training instance.
+	 */
+	public ClusterClassification setTrainingSamples(Slice trainingSamples) {
+		if (this.trainingSamples != null)
+			throw new RuntimeException(
+					"Can only set a training sample slice once in a ClusterClassification instance.");
+		this.trainingSamples = trainingSamples;
+		return this;
+	}
+
+	/**
+	 * Sets a slice of validation node identifiers.
+	 *
+	 * @param validationSamples The slice of validation nodes.
+	 * @return <code>this</code> classification training instance.
+	 */
+	public ClusterClassification setValidationSamples(Slice validationSamples) {
+		if (this.validationSamples != null)
+			throw new RuntimeException(
+					"Can only set a validation sample slice once in a ClusterClassification instance.");
+		this.validationSamples = validationSamples;
+		return this;
+	}
+
+	/**
+	 * Sets the number of clusters in which to partition the graph. This should be
+	 * at least the number of batches.
+	 *
+	 * @param numClusters The number of clusters. Default is zero to create one
+	 *                    cluster per batch.
+	 * @return <code>this</code> classification training instance.
+	 */
+	public ClusterClassification setNumClusters(int numClusters) {
+		if (numClusters < 0)
+			throw new IllegalArgumentException("The number of clusters should be non-negative");
+		this.numClusters = numClusters;
+		clusters = null;
+		return this;
+	}
+
+	/**
+	 * Sets the seed with which the graph is partitioned and clusters are grouped
+	 * into batches.
+	 *
+	 * @param seed The randomization seed. Default is zero.
+	 * @return <code>this</code> classification training instance.
+	 */
+	public ClusterClassification setSeed(long seed) {
+		this.seed = seed;
+		clusters = null;
+		return this;
+	}
+
+	/**
+	 * Retrieves the clusters in which the graph is partitioned, creating them
+	 * if needed.
+	 *
+	 * @return A list of slices, each holding the nodes of one cluster.
+	 */
+	public List<Slice> getClusters() {
+		partition();
+		ArrayList<Slice> ret = new ArrayList<Slice>(clusters.length);
+		for (int[] cluster : clusters) {
+			ArrayList<Long> nodes = new ArrayList<Long>(cluster.length);
+			for (int node : cluster)
+				nodes.add((long) node);
+			ret.add(new Slice(nodes));
+		}
+		return ret;
+	}
+
+	/**
+	 * Partitions graph nodes with size-constrained label propagation. Clusters are
+	 * initialized as equally sized chunks of a breadth-first traversal, and nodes
+	 * then move to the cluster holding most of their edge weight if that does not
+	 * make it larger than the average size by more than the allowed imbalance.
+	 */
+	private void partition() {
+		if (clusters != null)
+			return;
+		if (graph == null)
+			throw new RuntimeException("Cannot partition nodes for ClusterClassification without first setting a builder.");
+		int numNodes = (int) graph.getRows();
+		int count = Math.max(1, Math.min(numNodes, numClusters == 0 ? numBatches : numClusters));
+		int[] rowPtr = graph.getRowPtr();
+		int[] colIdx = graph.getColIdx();
+		double[] weights = graph.getValues();
+		int[] traversal = new int[numNodes];
+		boolean[] visited = new boolean[numNodes];
+		int end = 0;
+		for (int root = 0; root < numNodes; root++) {
+			if (visited[root])
+				continue;
+			visited[root] = true;
+			traversal[end++] = root;
+			for (int start = end - 1; start < end; start++)
+				for (int pos = rowPtr[traversal[start]]; pos < rowPtr[traversal[start] + 1]; pos++)
+					if (!visited[colIdx[pos]]) {
+						visited[colIdx[pos]] = true;
+						traversal[end++] = colIdx[pos];
+					}
+		}
+		int[] assignments = new int[numNodes];
+		int[] sizes = new int[count];
+		for (int i = 0; i < numNodes; i++) {
+			assignments[traversal[i]] = (int) ((long) i * count / numNodes);
+			sizes[assignments[traversal[i]]]++;
+		}
+		int capacity = (int) Math.ceil(maxImbalance * numNodes / count);
+		double[] scores = new double[count];
+		int[] touched = new int[count];
+		Random randomizer = new Random(seed);
+		for (int round = 0; round < propagationRounds; round++) {
+			for (int i = numNodes - 1; i > 0; i--) {
+				int swap = randomizer.nextInt(i + 1);
+				int node = traversal[swap];
+				traversal[swap] = traversal[i];
+				traversal[i] = node;
+			}
+			int moves = 0;
+			for (int node : traversal) {
+				int numTouched = 0;
+				for (int pos = rowPtr[node]; pos < rowPtr[node + 1]; pos++) {
+					int label = assignments[colIdx[pos]];
+					if (colIdx[pos] == node)
+						continue;
+					if (scores[label] == 0)
+						touched[numTouched++] = label;
+					scores[label] += Math.abs(weights[pos]);
+				}
+				int current = assignments[node];
+				int best = current;
+				for (int k = 0; k < numTouched; k++)
+					if (scores[touched[k]] > scores[best] && sizes[touched[k]] < capacity)
+						best = touched[k];
+				for (int k = 0; k < numTouched; k++)
+					scores[touched[k]] = 0;
+				if (best != current && sizes[current] > 1) {
+					sizes[current]--;
+					sizes[best]++;
+					assignments[node] = best;
+					moves++;
+				}
+			}
+			if (moves == 0)
+				break;
+		}
+		clusters = new int[count][];
+		for (int label = 0; label < count; label++)
+			clusters[label] = new int[sizes[label]];
+		clusterOf = assignments;
+		positionInCluster = new int[numNodes];
+		Arrays.fill(sizes, 0);
+		for (int node = 0; node < numNodes; node++) {
+			positionInCluster[node] = sizes[assignments[node]]++;
+			clusters[assignments[node]][positionInCluster[node]] = node;
+		}
+		order = new int[count];
+		for (int i = 0; i < count; i++)
+			order[i] = i;
+	}
+
+	@Override
+	protected void onStartEpoch(int epoch) {
+		if (paralellization || dataParallelism)
+			throw new RuntimeException("ClusterClassification cannot run batches in parallel.");
+		if (builder == null)
+			throw new RuntimeException(
+					"Cannot obtain batch data for ClusterClassification without first setting a builder.");
+		if (labels == null)
+			throw new RuntimeException(
+					"Cannot obtain batch data for ClusterClassification without first setting node labels.");
+		if (trainingSamples == null)
+			throw new RuntimeException(
+					"Cannot obtain batch data for ClusterClassification without first setting a training data slice.");
+		partition();
+		if (clusters.length < numBatches)
+			throw new RuntimeException("ClusterClassification needs at least as many clusters as batches but "
+					+ clusters.length + " clusters were created for " + numBatches + " batches");
+		if (isTraining == null) {
+			isTraining = new boolean[(int) graph.getRows()];
+			for (long node : trainingSamples)
+				isTraining[(int) node] = true;
+		}
+		Random randomizer = new Random(seed + epoch);
+		for (int i = order.length - 1; i > 0; i--) {
+			int swap = randomizer.nextInt(i + 1);
+			int cluster = order[swap];
+			order[swap] = order[i];
+			order[i] = cluster;
+		}
+	}
+
+	@Override
+	public Model train(Model model) {
+		try {
+			return super.train(model);
+		} finally {
+			restoreGraph();
+			isTraining = null;
+		}
+	}
+
+	@Override
+	protected void onEndTraining() {
+		restoreGraph();
+		isTraining = null;
+	}
+
+	private void restoreGraph() {
+		if (builder != null) {
+			builder.constant("A", graphConstant);
+			builder.constant("h0", features);
+		}
+	}
+
+	/**
+	 * Rescales the adjacency matrix of a subgraph, as described in the class
+	 * documentation.
+	 */
+	private void renormalize(int[] nodes, int[] subgraphPtr, int[] subgraphIdx, double[] subgraphValues) {
+		if (rowSums == null) {
+			int[] rowPtr = graph.getRowPtr();
+			double[] weights = graph.getValues();
+			rowSums = new double[rowPtr.length - 1];
+			for (int node = 0; node < rowSums.length; node++)
+				for (int pos = rowPtr[node]; pos < rowPtr[node + 1]; pos++)
+					rowSums[node] += weights[pos];
+		}
+		double[] scales = new double[nodes.length];
+		for (int i = 0; i < nodes.length; i++) {
+			double sum = 0;
+			for (int pos = subgraphPtr[i]; pos < subgraphPtr[i + 1]; pos++)
+				sum += subgraphValues[pos];
+			scales[i] = sum > 0 && rowSums[nodes[i]] > 0 ? Math.sqrt(rowSums[nodes[i]] / sum) : 1;
+		}
+		for (int i = 0; i < nodes.length; i++)
+			for (int pos = subgraphPtr[i]; pos < subgraphPtr[i + 1]; pos++)
+				subgraphValues[pos] *= scales[i] * scales[subgraphIdx[pos]];
+	}
+
+	@Override
+	protected List<BatchData> getBatchData(int batch, int epoch) {
+		int from = (int) ((long) order.length * batch / numBatches);
+		int to = (int) ((long) order.length * (batch + 1) / numBatches);
+		int[] offsets = new int[to - from];
+		int numNodes = 0;
+		for (int i = from; i < to; i++) {
+			offsets[i - from] = numNodes;
+			numNodes += clusters[order[i]].length;
+		}
+		int[] nodes = new int[numNodes];
+		for (int i = from; i < to; i++)
+			System.arraycopy(clusters[order[i]], 0, nodes, offsets[i - from], clusters[order[i]].length);
+		int[] clusterOffsets = new int[clusters.length];
+		Arrays.fill(clusterOffsets, -1);
+		for (int i = from; i < to; i++)
+			clusterOffsets[order[i]] = offsets[i - from];
+
+		int[] rowPtr = graph.getRowPtr();
+		int[] colIdx = graph.getColIdx();
+		double[] weights = graph.getValues();
+		int[] subgraphPtr = new int[numNodes + 1];
+		for (int i = 0; i < numNodes; i++) {
+			subgraphPtr[i + 1] = subgraphPtr[i];
+			for (int pos = rowPtr[nodes[i]]; pos < rowPtr[nodes[i] + 1]; pos++)
+				if (clusterOffsets[clusterOf[colIdx[pos]]] != -1)
+					subgraphPtr[i + 1]++;
+		}
+		int[] subgraphIdx = new int[subgraphPtr[numNodes]];
+		double[] subgraphValues = new double[subgraphPtr[numNodes]];
+		long[] sorted = new long[0];
+		for (int i = 0; i < numNodes; i++) {
+			int count = 0;
+			if (sorted.length < subgraphPtr[i + 1] - subgraphPtr[i])
+				sorted = new long[subgraphPtr[i + 1] - subgraphPtr[i]];
+			for (int pos = rowPtr[nodes[i]]; pos < rowPtr[nodes[i] + 1]; pos++) {
+				int neighbor = colIdx[pos];
+				int offset = clusterOffsets[clusterOf[neighbor]];
+				if (offset != -1)
+					sorted[count++] = ((long) (offset + positionInCluster[neighbor]) << 32) | (pos - rowPtr[nodes[i]]);
+			}
+			Arrays.sort(sorted, 0, count);
+			for (int k = 0; k < count; k++) {
+				subgraphIdx[subgraphPtr[i] + k] = (int) (sorted[k] >>> 32);
+				subgraphValues[subgraphPtr[i] + k] = weights[rowPtr[nodes[i]] + (int) sorted[k]];
+			}
+		}
+		renormalize(nodes, subgraphPtr, subgraphIdx, subgraphValues);
+		Matrix subgraph = new CsrMatrix(numNodes, numNodes, subgraphPtr, subgraphIdx, subgraphValues)
+				.setDimensionName(graph);
+		Matrix subgraphFeatures = new DenseMatrix(numNodes, features.getCols()).setDimensionName(features);
+		ArrayList<Long> targets = new ArrayList<Long>();
+		ArrayList<Long> targetIds = new ArrayList<Long>();
+		for (int i = 0; i < numNodes; i++) {
+			for (long col = 0; col < features.getCols(); col++)
+				subgraphFeatures.put(i, col, features.get(nodes[i], col));
+			if (isTraining[nodes[i]]) {
+				targets.add((long) nodes[i]);
+				targetIds.add((long) i);
+			}
+		}
+		builder.constant("A", subgraph);
+		builder.constant("h0", subgraphFeatures);
+		if (targets.isEmpty())
+			return new ArrayList<BatchData>();
+		Matrix inputs = new Slice(targetIds).asTensor().asColumn();
+		Matrix outputs = new WrapRows(labels.accessRows(targets)).setDimensionName(labels);
+		return Arrays.asList(new BatchData(Arrays.asList(inputs), Arrays.asList(outputs)));
+	}
+
+	@Override
+	protected List<BatchData> getValidationData(int epoch) {
+		if (validationSamples == null)
+			throw new RuntimeException(
+					"Cannot obtain batch data for ClusterClassification without first setting a validation data slice.");
+		restoreGraph();
+		Matrix inputs = validationSamples.asTensor().asColumn();
+		Matrix outputs = new WrapRows(labels.accessRows(validationSamples)).setDimensionName(labels);
+		return Arrays.asList(new BatchData(Arrays.asList(inputs), Arrays.asList(outputs)));
+	}
+}
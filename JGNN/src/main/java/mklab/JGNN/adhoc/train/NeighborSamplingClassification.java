@@ -0,0 +1,312 @@
+package mklab.JGNN.adhoc.train;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import mklab.JGNN.adhoc.BatchData;
+import mklab.JGNN.adhoc.ModelTraining;
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Slice;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.matrix.CsrMatrix;
+import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.core.matrix.WrapRows;
+
+/**
+ * Extends the {@link ModelTraining} class to train node classification
+ * {@link mklab.JGNN.nn.Model} instances on large graphs, where each batch of
+ * target nodes sees only a sampled neighborhood of the graph. For every batch,
+ * a fixed number of neighbors (the fan-out) is sampled for each target node,
+ * then for each of those neighbors, and so on for as many hops as there are
+ * message passing layers. Thus, the cost of each training step is proportional
+ * to the batch size times the product of fan-outs instead of the number of
+ * graph edges. <br>
+ * Models should declare as inputs a feature matrix followed by one adjacency
+ * block for each layer, for example with
+ * <code>.var("x").var("A0").var("A1")</code> and operations like
+ * <code>h = relu(A0@x@matrix(features, hidden))</code> and
+ * <code>yhat = softmax(A1@h@matrix(hidden, classes), dim: "row")</code>. The
+ * block of layer <code>l</code> is a sparse matrix whose rows are the nodes
+ * computed by that layer and whose columns are the nodes computed by the
+ * previous one (or the rows of features for the first layer). Rows of each
+ * block always come first among its columns, in the same order, and the rows
+ * of the last block are the target nodes. Sampled edges keep the graph's edge
+ * weights multiplied by the ratio between node degrees and the number of
+ * sampled neighbors, so that blocks multiplied with node representations
+ * estimate multiplications with the whole adjacency matrix. <br>
+ * Validation uses the complete neighborhoods of validation nodes.
+ *
+ * @author Emmanouil Krasanakis
+ * @see #setFanouts(int...)
+ * @see #sample(Slice, long)
+ */
+public class NeighborSamplingClassification extends ModelTraining {
+	private CsrMatrix graph;
+	private Matrix features;
+	private Matrix labels;
+	private Slice trainingSamples;
+	private Slice validationSamples;
+	private int[] fanouts;
+	private long seed = 0;
+	private List<BatchData> validationData;
+
+	/**
+	 * Sets the graph whose neighborhoods are sampled. The graph is converted to a
+	 * {@link CsrMatrix} once, if it is not already one, so that the neighbors of
+	 * each node are accessed in constant time.
+	 *
+	 * @param graph A square adjacency matrix, where the element at row
+	 *              <code>u</code> and column <code>v</code> is the weight with
+	 *              which node <code>v</code> contributes to the representation
+	 *              of node <code>u</code>.
+	 * @return <code>this</code> classification training instance.
+	 */
+	public NeighborSamplingClassification setGraph(Matrix graph) {
+		if (this.graph != null)
+			throw new RuntimeException("Can only set the graph once in a NeighborSamplingClassification instance.");
+		if (graph.getRows() != graph.getCols())
+			throw new IllegalArgumentException("Neighbor sampling needs a square adjacency matrix but "
+					+ graph.describe() + " was provided");
+		this.graph = graph instanceof CsrMatrix ? (CsrMatrix) graph : graph.toCsr();
+		return this;
+	}
+
+	/**
+	 * Sets the feature matrix of graph nodes, where each row corresponds to a
+	 * different node.
+	 *
+	 * @param features The feature matrix.
+	 * @return <code>this</code> classification training instance.
+	 */
+	public NeighborSamplingClassification setFeatures(Matrix features) {
+		if (this.features != null)
+			throw new RuntimeException("Can only set features once in a NeighborSamplingClassification instance.");
+		this.features = features;
+		return this;
+	}
+
+	/**
+	 * Sets the label matrix of graph nodes, where each row corresponds to a
+	 * different node. For example, each row may be an one-hot encoding of the
+	 * respective node's class.
+	 *
+	 * @param labels The label matrix.
+	 * @return <code>this</code> classification training instance.
+	 */
+	public NeighborSamplingClassification setOutputs(Matrix labels) {
+		if (this.labels != null)
+			throw new RuntimeException("Can only set labels once in a NeighborSamplingClassification instance.");
+		this.labels = labels;
+		return this;
+	}
+
+	/**
+	 * Sets a slice of training node identifiers. If multiple batches are set, for
+	 * example with {@link #setNumBatches(int)}, then these nodes are further split
+	 * for each batch.
+	 *
+	 * @param trainingSamples The slice of training nodes.
+	 * @return <code>this</code> classification training instance.
+	 */
+	public NeighborSamplingClassification setTrainingSamples(Slice trainingSamples) {
+		if (this.trainingSamples != null)
+			throw new RuntimeException(
+					"Can only set a training sample slice once in a NeighborSamplingClassification instance.");
+		this.trainingSamples = trainingSamples;
+		return this;
+	}
+
+	/**
+	 * Sets a slice of validation node identifiers.
+	 *
+	 * @param validationSamples The slice of validation nodes.
+	 * @return <code>this</code> classification training instance.
+	 */
+	public NeighborSamplingClassification setValidationSamples(Slice validationSamples) {
+		if (this.validationSamples != null)
+			throw new RuntimeException(
+					"Can only set a validation sample slice once in a NeighborSamplingClassification instance.");
+		this.validationSamples = validationSamples;
+		return this;
+	}
+
+	/**
+	 * Sets the number of neighbors sampled for each node at each message passing
+	 * layer. The number of given values determines the number of adjacency blocks
+	 * provided to the model.
+	 *
+	 * @param fanouts The fan-out of each layer, in the order in which layers are
+	 *                applied; the last one concerns neighbors of target nodes.
+	 *                Zero or negative values keep all neighbors.
+	 * @return <code>this</code> classification training instance.
+	 */
+	public NeighborSamplingClassification setFanouts(int... fanouts) {
+		if (fanouts.length == 0)
+			throw new IllegalArgumentException("Neighbor sampling needs at least one layer fan-out");
+		this.fanouts = fanouts.clone();
+		return this;
+	}
+
+	/**
+	 * Sets the seed from which the neighborhoods of each batch and epoch are
+	 * sampled. Given the same seed, training samples the same neighborhoods
+	 * regardless of thread scheduling.
+	 *
+	 * @param seed The randomization seed. Default is zero.
+	 * @return <code>this</code> classification training instance.
+	 */
+	public NeighborSamplingClassification setSeed(long seed) {
+		this.seed = seed;
+		return this;
+	}
+
+	/**
+	 * Samples the neighborhood of some target nodes and gathers the model inputs
+	 * and outputs that correspond to it.
+	 *
+	 * @param targets The nodes whose labels should be predicted.
+	 * @param seed    The randomization seed of sampling.
+	 * @return A {@link BatchData} instance whose inputs are the gathered features
+	 *         followed by one adjacency block per layer, and whose output holds
+	 *         the labels of target nodes.
+	 * @see #neighborhood(Slice)
+	 */
+	public BatchData sample(Slice targets, long seed) {
+		return createBatch(targets, new Random(seed));
+	}
+
+	/**
+	 * Gathers model inputs and outputs for some target nodes like
+	 * {@link #sample(Slice, long)}, but without sampling. Instead, blocks contain
+	 * all edges of the nodes' multi-hop neighborhoods, so that predictions equal
+	 * those made over the whole graph.
+	 *
+	 * @param targets The nodes whose labels should be predicted.
+	 * @return A {@link BatchData} instance.
+	 */
+	public BatchData neighborhood(Slice targets) {
+		return createBatch(targets, null);
+	}
+
+	private BatchData createBatch(Slice targets, Random randomizer) {
+		if (graph == null)
+			throw new RuntimeException(
+					"Cannot obtain batch data for NeighborSamplingClassification without first setting a graph.");
+		if (features == null)
+			throw new RuntimeException(
+					"Cannot obtain batch data for NeighborSamplingClassification without first setting node features.");
+		if (labels == null)
+			throw new RuntimeException(
+					"Cannot obtain batch data for NeighborSamplingClassification without first setting node labels.");
+		if (fanouts == null)
+			throw new RuntimeException(
+					"Cannot obtain batch data for NeighborSamplingClassification without first setting fan-outs.");
+		int[] rowPtr = graph.getRowPtr();
+		int[] colIdx = graph.getColIdx();
+		double[] weights = graph.getValues();
+		long[] nodes = new long[targets.size()];
+		int numNodes = 0;
+		for (long node : targets)
+			nodes[numNodes++] = node;
+		Matrix[] blocks = new Matrix[fanouts.length];
+		int[] positions = new int[0];
+		for (int layer = fanouts.length - 1; layer >= 0; layer--) {
+			int numDestinations = numNodes;
+			Long2IntOpenHashMap ids = new Long2IntOpenHashMap(2 * numNodes);
+			ids.defaultReturnValue(-1);
+			for (int i = 0; i < numDestinations; i++)
+				if (ids.putIfAbsent(nodes[i], i) != -1)
+					throw new IllegalArgumentException("Duplicate target node " + nodes[i]);
+			int[] blockPtr = new int[numDestinations + 1];
+			int[] blockIdx = new int[0];
+			double[] blockValues = new double[0];
+			for (int i = 0; i < numDestinations; i++) {
+				int start = rowPtr[(int) nodes[i]];
+				int degree = rowPtr[(int) nodes[i] + 1] - start;
+				int taken = randomizer == null || fanouts[layer] <= 0 ? degree : Math.min(degree, fanouts[layer]);
+				if (positions.length < degree)
+					positions = new int[Math.max(degree, 2 * positions.length)];
+				for (int k = 0; k < degree; k++)
+					positions[k] = start + k;
+				if (taken < degree) // partial Fisher-Yates shuffle
+					for (int k = 0; k < taken; k++) {
+						int swap = k + randomizer.nextInt(degree - k);
+						int position = positions[swap];
+						positions[swap] = positions[k];
+						positions[k] = position;
+					}
+				int offset = blockPtr[i];
+				if (offset + taken > blockIdx.length) {
+					blockIdx = Arrays.copyOf(blockIdx, Math.max(offset + taken, 2 * blockIdx.length));
+					blockValues = Arrays.copyOf(blockValues, blockIdx.length);
+				}
+				long[] sorted = new long[taken];
+				for (int k = 0; k < taken; k++) {
+					long neighbor = colIdx[positions[k]];
+					int id = ids.putIfAbsent(neighbor, numNodes);
+					if (id == -1) {
+						if (numNodes == nodes.length)
+							nodes = Arrays.copyOf(nodes, 2 * nodes.length + 1);
+						nodes[numNodes] = neighbor;
+						id = numNodes++;
+					}
+					sorted[k] = ((long) id << 32) | k;
+				}
+				Arrays.sort(sorted);
+				double scale = taken == 0 ? 0 : (double) degree / taken;
+				for (int k = 0; k < taken; k++) {
+					blockIdx[offset + k] = (int) (sorted[k] >>> 32);
+					blockValues[offset + k] = weights[positions[(int) sorted[k]]] * scale;
+				}
+				blockPtr[i + 1] = offset + taken;
+			}
+			int nnz = blockPtr[numDestinations];
+			blocks[layer] = new CsrMatrix(numDestinations, numNodes, blockPtr, Arrays.copyOf(blockIdx, nnz),
+					Arrays.copyOf(blockValues, nnz));
+		}
+		Matrix gathered = new DenseMatrix(numNodes, features.getCols()).setDimensionName(features);
+		for (int i = 0; i < numNodes; i++)
+			for (long col = 0; col < features.getCols(); col++)
+				gathered.put(i, col, features.get(nodes[i], col));
+		ArrayList<Tensor> inputs = new ArrayList<Tensor>(blocks.length + 1);
+		inputs.add(gathered);
+		for (Matrix block : blocks)
+			inputs.add(block);
+		Matrix targetLabels = new WrapRows(labels.accessRows(targets)).setDimensionName(labels);
+		return new BatchData(inputs, Arrays.asList(targetLabels));
+	}
+
+	@Override
+	protected void onStartEpoch(int epoch) {
+		if (stochasticGradientDescent)
+			trainingSamples.shuffle(epoch);
+	}
+
+	@Override
+	protected void onEndTraining() {
+		validationData = null;
+	}
+
+	@Override
+	protected List<BatchData> getBatchData(int batch, int epoch) {
+		if (trainingSamples == null)
+			throw new RuntimeException(
+					"Cannot obtain batch data for NeighborSamplingClassification without first setting a training data slice.");
+		int start = (trainingSamples.size() / numBatches) * batch;
+		int end = Math.min(trainingSamples.size(), start + (trainingSamples.size() / numBatches));
+		return Arrays.asList(sample(trainingSamples.range(start, end), seed + (long) epoch * numBatches + batch));
+	}
+
+	@Override
+	protected List<BatchData> getValidationData(int epoch) {
+		if (validationSamples == null)
+			throw new RuntimeException(
+					"Cannot obtain batch data for NeighborSamplingClassification without first setting a validation data slice.");
+		if (validationData == null)
+			validationData = Arrays.asList(neighborhood(validationSamples));
+		return validationData;
+	}
+}
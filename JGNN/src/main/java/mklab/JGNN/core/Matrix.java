@@ -1,12 +1,18 @@
 package mklab.JGNN.core;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+
 import mklab.JGNN.core.matrix.AccessRow;
 import mklab.JGNN.core.matrix.AccessCol;
+import mklab.JGNN.core.matrix.CscMatrix;
+import mklab.JGNN.core.matrix.CsrMatrix;
 import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.core.matrix.FloatMatrix;
+import mklab.JGNN.core.matrix.SparseDenseMultiplication;
+import mklab.JGNN.core.matrix.SparseFloatMatrix;
 import mklab.JGNN.core.matrix.SparseMatrix;
 import mklab.JGNN.core.matrix.TransposedMatrix;
 import mklab.JGNN.core.matrix.VectorizedMatrix;
@@ -114,6 +120,33 @@ public abstract class Matrix extends Tensor {
 	 */
 	public abstract Iterable<Entry<Long, Long>> getNonZeroEntries();
 
+	/**
+	 * A callback that receives the rows, columns and values of matrix elements
+	 * without boxing them.
+	 * 
+	 * @see Matrix#forEachNonZero(EntryConsumer)
+	 */
+	public static interface EntryConsumer {
+		public void accept(long row, long col, double value);
+	}
+
+	/**
+	 * Calls a consumer for all matrix entries that may hold non-zero elements,
+	 * alongside their values. This follows the same guarantees as
+	 * {@link #getNonZeroEntries()}, but subclasses implement it over their
+	 * underlying storage so that no objects are created per visited element.
+	 * 
+	 * @param consumer The consumer to call.
+	 * @see #forEachNonZero(ElementConsumer)
+	 */
+	public void forEachNonZero(EntryConsumer consumer) {
+		for (Entry<Long, Long> element : getNonZeroEntries()) {
+			long row = element.getKey();
+			long col = element.getValue();
+			consumer.accept(row, col, get(row, col));
+		}
+	}
+
 	/**
 	 * Retrieves all dimension names from another prototype tensor.
 	 * 
@@ -273,8 +306,7 @@ public abstract class Matrix extends Tensor {
 	 */
 	public Matrix transposed() {
 		Matrix ret = zeroCopy(getCols(), getRows());
-		for (Entry<Long, Long> element : getNonZeroEntries())
-			ret.put(element.getValue(), element.getKey(), get(element.getKey(), element.getValue()));
+		forEachNonZero((row, col, value) -> ret.put(col, row, value));
 		return ret;
 	}
 
@@ -298,16 +330,10 @@ public abstract class Matrix extends Tensor {
 	public Tensor transform(Tensor x) {
 		x.assertSize(cols);
 		DenseTensor ret = new DenseTensor(rows);
-		for (Entry<Long, Long> element : getNonZeroEntries()) {
-			long row = element.getKey();
-			long col = element.getValue();
-			ret.putAdd(row, get(row, col) * x.get(col));
-		}
+		forEachNonZero((row, col, value) -> ret.putAdd(row, value * x.get(col)));
 		return ret;
 	}
 
-	private int parallelizedMultiplication = 0;
-
 	/**
 	 * Performs the matrix multiplication of <code>this*with</code> and the
 	 * recipient.
@@ -323,54 +349,25 @@ public abstract class Matrix extends Tensor {
 		if (colName != null && with.getRowName() != null && !colName.equals(with.getRowName()))
 			throw new IllegalArgumentException(
 					"Mismatched matrix dimension names between " + describe() + " and " + with.describe());
+		if (SparseDenseMultiplication.isApplicable(this, with))
+			return SparseDenseMultiplication.multiply(this, with, false, false).setRowName(getRowName())
+					.setColName(with.getColName());
 		Matrix ret = determineZeroCopy(with, getRows(), with.getCols(), getCols());
-		if (parallelizedMultiplication > 1) {
-			ArrayList<Entry<Long, Long>> entries = new ArrayList<Entry<Long, Long>>();
-			for (Entry<Long, Long> element : getNonZeroEntries())
-				entries.add(element);
-			Thread[] threads = new Thread[parallelizedMultiplication];
-			for (int i = 0; i < threads.length; i++) {
-				int threadId = i;
-				threads[i] = new Thread() {
-					@Override
-					public void run() {
-						int start = threadId * entries.size() / threads.length;
-						int end = (threadId + 1) * entries.size() / threads.length;
-						for (int entry = start; entry < end; entry++) {
-							Entry<Long, Long> element = entries.get(entry);
-							long row = element.getKey();
-							long col = element.getValue();
-							for (long col2 = 0; col2 < with.getCols(); col2++)
-								ret.put(row, col2, ret.get(row, col2) + get(row, col) * with.get(col, col2));
-						}
-					}
-				};
-			}
-			for (Thread thread : threads)
-				thread.start();
-			for (Thread thread : threads)
-				try {
-					thread.join();
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-		} else {
+		if (Parallelism.getParallelism() > 1 && Parallelism.isDense(this, ret))
+			multiplyRows(with, false, false, ret);
+		else {
 			if (estimateNumNonZeroElements() / getRows() < with.estimateNumNonZeroElements() / with.getCols()) {
 				long withCols = with.getCols();
-				for (Entry<Long, Long> element : getNonZeroEntries()) {
-					long row = element.getKey();
-					long col = element.getValue();
+				forEachNonZero((row, col, value) -> {
 					for (long col2 = 0; col2 < withCols; ++col2)
-						ret.put(row, col2, ret.get(row, col2) + get(row, col) * with.get(col, col2));
-				}
+						ret.put(row, col2, ret.get(row, col2) + value * with.get(col, col2));
+				});
 			} else {
 				long rows = getRows();
-				for (Entry<Long, Long> element : with.getNonZeroEntries()) {
-					long row = element.getKey();
-					long col = element.getValue();
+				with.forEachNonZero((row, col, value) -> {
 					for (long row1 = 0; row1 < rows; ++row1)
-						ret.put(row1, col, ret.get(row1, col) + get(row1, row) * with.get(row, col));
-				}
+						ret.put(row1, col, ret.get(row1, col) + get(row1, row) * value);
+				});
 			}
 		}
 		return ret.setRowName(getRowName()).setColName(with.getColName());
@@ -401,68 +398,64 @@ public abstract class Matrix extends Tensor {
 				&& (transposeWith ? with.getColName() : with.getRowName()) != null
 				&& !(transposeSelf ? rowName : colName).equals(transposeWith ? with.getColName() : with.getRowName()))
 			throw new IllegalArgumentException("Mismatched matrix dimension names");
+		if (SparseDenseMultiplication.isApplicable(this, with))
+			return SparseDenseMultiplication.multiply(this, with, transposeSelf, transposeWith)
+					.setRowName(transposeSelf ? getColName() : getRowName())
+					.setColName(transposeWith ? with.getRowName() : with.getColName());
 		Matrix ret = determineZeroCopy(with, transposeSelf ? cols : rows,
 				transposeWith ? with.getRows() : with.getCols(), transposeWith ? with.getCols() : with.getRows());
 
-		if (parallelizedMultiplication > 1) {
-			ArrayList<Entry<Long, Long>> entries = new ArrayList<Entry<Long, Long>>();
-			for (Entry<Long, Long> element : getNonZeroEntries())
-				entries.add(element);
-			Thread[] threads = new Thread[parallelizedMultiplication];
-			for (int i = 0; i < threads.length; i++) {
-				int threadId = i;
-				threads[i] = new Thread() {
-					@Override
-					public void run() {
-						int start = threadId * entries.size() / threads.length;
-						int end = (threadId + 1) * entries.size() / threads.length;
-						for (int entry = start; entry < end; entry++) {
-							Entry<Long, Long> element = entries.get(entry);
-							long row = transposeSelf ? element.getValue() : element.getKey();
-							long col = transposeSelf ? element.getKey() : element.getValue();
-							for (long col2 = 0; col2 < (transposeWith ? with.getRows() : with.getCols()); col2++) {
-								double val = get(element.getKey(), element.getValue())
-										* with.get(transposeWith ? col2 : col, transposeWith ? col : col2);
-								ret.put(row, col2, val + ret.get(row, col2));
-
-							}
-						}
-					}
-				};
-			}
-			for (Thread thread : threads)
-				thread.start();
-			for (Thread thread : threads)
-				try {
-					thread.join();
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-		} else {
+		if (Parallelism.getParallelism() > 1 && Parallelism.isDense(this, ret))
+			multiplyRows(with, transposeSelf, transposeWith, ret);
+		else {
 			if (estimateNumNonZeroElements() / (transposeSelf ? getCols() : getRows()) < with
 					.estimateNumNonZeroElements() / (transposeWith ? with.getRows() : with.getCols())) {
-				for (Entry<Long, Long> element : getNonZeroEntries()) {
-					long row = transposeSelf ? element.getValue() : element.getKey();
-					long col = transposeSelf ? element.getKey() : element.getValue();
-					for (long col2 = 0; col2 < (transposeWith ? with.getRows() : with.getCols()); col2++)
-						ret.put(row, col2, ret.get(row, col2) + get(element.getKey(), element.getValue())
-								* with.get(transposeWith ? col2 : col, transposeWith ? col : col2));
-				}
+				long withCols = transposeWith ? with.getRows() : with.getCols();
+				forEachNonZero((selfRow, selfCol, value) -> {
+					long row = transposeSelf ? selfCol : selfRow;
+					long col = transposeSelf ? selfRow : selfCol;
+					for (long col2 = 0; col2 < withCols; col2++)
+						ret.put(row, col2,
+								ret.get(row, col2) + value * with.get(transposeWith ? col2 : col, transposeWith ? col : col2));
+				});
 			} else {
-				for (Entry<Long, Long> element : with.getNonZeroEntries()) {
-					long row = transposeWith ? element.getValue() : element.getKey();
-					long col = transposeWith ? element.getKey() : element.getValue();
-					for (long row1 = 0; row1 < (transposeSelf ? getCols() : getRows()); row1++)
+				long selfRows = transposeSelf ? getCols() : getRows();
+				with.forEachNonZero((withRow, withCol, value) -> {
+					long row = transposeWith ? withCol : withRow;
+					long col = transposeWith ? withRow : withCol;
+					for (long row1 = 0; row1 < selfRows; row1++)
 						ret.put(row1, col,
-								ret.get(row1, col) + get(transposeSelf ? row : row1, transposeSelf ? row1 : row)
-										* with.get(element.getKey(), element.getValue()));
-				}
+								ret.get(row1, col) + get(transposeSelf ? row : row1, transposeSelf ? row1 : row) * value);
+				});
 			}
 		}
 		return ret.setRowName(transposeSelf ? getColName() : getRowName())
 				.setColName(transposeWith ? with.getRowName() : with.getColName());
 	}
 
+	/**
+	 * Accumulates a matrix multiplication in a dense result by splitting the
+	 * result's rows into disjoint ranges that run in parallel. This reads every
+	 * element of this matrix, so it should only be called for dense ones; sparse
+	 * ones are instead traversed through their non-zero elements.
+	 */
+	private void multiplyRows(Matrix with, boolean transposeSelf, boolean transposeWith, Matrix ret) {
+		long between = transposeSelf ? rows : cols;
+		long withCols = transposeWith ? with.getRows() : with.getCols();
+		Parallelism.forRange(0, (int) ret.getRows(), (int) Math.max(1, Parallelism.GRAIN / Math.max(1, between)),
+				(from, to) -> {
+					for (long row = from; row < to; row++)
+						for (long col = 0; col < between; col++) {
+							double value = transposeSelf ? get(col, row) : get(row, col);
+							if (value == 0)
+								continue;
+							for (long col2 = 0; col2 < withCols; col2++)
+								ret.put(row, col2, ret.get(row, col2)
+										+ value * (transposeWith ? with.get(col2, col) : with.get(col, col2)));
+						}
+				});
+	}
+
 	/**
 	 * Produces the external product of two tensors. This is equivalent but faster
 	 * to calling matmul(horizontal.asColum(), vertical.asRow()).
@@ -519,12 +512,10 @@ public abstract class Matrix extends Tensor {
 	 */
 	public Matrix onesMask() {
 		Matrix ones = zeroCopy(getRows(), getCols());
-		for (Entry<Long, Long> element : getNonZeroEntries()) {
-			long row = element.getKey();
-			long col = element.getValue();
-			if (get(row, col) != 0)
+		forEachNonZero((row, col, value) -> {
+			if (value != 0)
 				ones.put(row, col, 1.);
-		}
+		});
 		return ones;
 	}
 
@@ -578,22 +569,17 @@ public abstract class Matrix extends Tensor {
 	 * @see #symmetricNormalization()
 	 */
 	public Matrix setToSymmetricNormalization() {
-		HashMap<Long, Double> outDegrees = new HashMap<Long, Double>();
-		HashMap<Long, Double> inDegrees = new HashMap<Long, Double>();
-		for (Entry<Long, Long> element : getNonZeroEntries()) {
-			long row = element.getKey();
-			long col = element.getValue();
-			double value = get(row, col);
-			outDegrees.put(row, outDegrees.getOrDefault(row, 0.) + value);
-			inDegrees.put(col, inDegrees.getOrDefault(col, 0.) + value);
-		}
-		for (Entry<Long, Long> element : getNonZeroEntries()) {
-			long row = element.getKey();
-			long col = element.getValue();
+		Long2DoubleOpenHashMap outDegrees = new Long2DoubleOpenHashMap();
+		Long2DoubleOpenHashMap inDegrees = new Long2DoubleOpenHashMap();
+		forEachNonZero((row, col, value) -> {
+			outDegrees.addTo(row, value);
+			inDegrees.addTo(col, value);
+		});
+		forEachNonZero((row, col, value) -> {
 			double div = Math.sqrt(outDegrees.get(row) * inDegrees.get(col));
 			if (div != 0)
-				put(row, col, get(row, col) / div);
-		}
+				put(row, col, value / div);
+		});
 		return this;
 	}
 
@@ -605,22 +591,17 @@ public abstract class Matrix extends Tensor {
 	 * @see #symmetricNormalization()
 	 */
 	public Matrix setToASymmetricNormalization() {
-		HashMap<Long, Double> outDegrees = new HashMap<Long, Double>();
-		HashMap<Long, Double> inDegrees = new HashMap<Long, Double>();
-		for (Entry<Long, Long> element : getNonZeroEntries()) {
-			long row = element.getKey();
-			long col = element.getValue();
-			double value = get(row, col);
-			outDegrees.put(row, outDegrees.getOrDefault(row, 0.) + value);
-			inDegrees.put(col, inDegrees.getOrDefault(col, 0.) + value);
-		}
-		for (Entry<Long, Long> element : getNonZeroEntries()) {
-			long row = element.getKey();
-			long col = element.getValue();
+		Long2DoubleOpenHashMap outDegrees = new Long2DoubleOpenHashMap();
+		Long2DoubleOpenHashMap inDegrees = new Long2DoubleOpenHashMap();
+		forEachNonZero((row, col, value) -> {
+			outDegrees.addTo(row, value);
+			inDegrees.addTo(col, value);
+		});
+		forEachNonZero((row, col, value) -> {
 			double div = inDegrees.get(col);
 			if (div != 0)
-				put(row, col, get(row, col) / div);
-		}
+				put(row, col, value / div);
+		});
 		return this;
 	}
 
@@ -892,8 +873,12 @@ public abstract class Matrix extends Tensor {
 	}
 
 	protected Matrix determineZeroCopy(Matrix with, long rows, long cols, long intermediate) {
+		boolean singlePrecision = this instanceof FloatMatrix || this instanceof SparseFloatMatrix
+				|| with instanceof FloatMatrix || with instanceof SparseFloatMatrix;
 		if (1 - Math.pow(1 - density() * with.density(), intermediate) < 0.3)
-			return new SparseMatrix(rows, cols);
+			return singlePrecision ? new SparseFloatMatrix(rows, cols) : new SparseMatrix(rows, cols);
+		if (singlePrecision)
+			return new FloatMatrix(rows, cols);
 		/*
 		 * if(with instanceof SparseMatrix) return ((Matrix)with).zeroCopy(rows, cols);
 		 * try { return zeroCopy(rows, cols); } catch(UnsupportedOperationException e) {
@@ -927,6 +912,38 @@ public abstract class Matrix extends Tensor {
 		return (SparseMatrix) new SparseMatrix(getRows(), getCols()).selfAdd(this).setDimensionName(this);
 	}
 
+	/**
+	 * Creates a copy of the matrix organized as a dense single-precision matrix.
+	 * 
+	 * @return A {@link FloatMatrix} instance.
+	 */
+	@Override
+	public Matrix toFloat() {
+		return (FloatMatrix) new FloatMatrix(getRows(), getCols()).selfAdd(this).setDimensionName(this);
+	}
+
+	/**
+	 * Creates a copy of the matrix organized in compressed sparse row format. This
+	 * is the preferred format for adjacency matrices that are multiplied from the
+	 * left, as rows are traversed without hashing.
+	 *
+	 * @return A {@link CsrMatrix} instance.
+	 * @see #toCsc()
+	 */
+	public CsrMatrix toCsr() {
+		return new CsrMatrix(this);
+	}
+
+	/**
+	 * Creates a copy of the matrix organized in compressed sparse column format.
+	 *
+	 * @return A {@link CscMatrix} instance.
+	 * @see #toCsr()
+	 */
+	public CscMatrix toCsc() {
+		return new CscMatrix(this);
+	}
+
 	/**
 	 * Creates a sparse unit matrix.
 	 * 
@@ -1,134 +1,212 @@
 package mklab.JGNN.core;
 
-import java.lang.ref.SoftReference;
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Stack;
-import java.util.WeakHashMap;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 
 /**
- * A memory management system for thread-safe allocation and release of arrays
- * of doubles. Soft references to allocated arrays kept so that released ones
- * can be reused by future allocation calls without explicitly initializing
- * memory.
- * 
+ * A memory management system for the allocation and reuse of arrays of
+ * doubles. Each thread keeps its own pool of free arrays, grouped in stacks by
+ * their exact length, so that allocation never contends for locks and both
+ * acquiring and releasing an array take constant time.
+ * Arrays return to the pool of the thread that releases them either explicitly
+ * through {@link #release(double[])} (which {@link Tensor#release()} calls) or,
+ * for arrays allocated while a {@link Scope} is active, once the tensors they
+ * are bound to have been garbage collected and the scope exits. Reused arrays
+ * are zero-filled in bulk. Pool sizes are bounded by
+ * {@link #setPoolCapacity(long)} and small arrays, which are cheap to allocate
+ * anyway, bypass the pool as determined by {@link #setMinPooledLength(int)}.
+ *
  * @author Emmanouil Krasanakis
  */
 public class Memory {
+	/**
+	 * Tracks arrays allocated by the current thread between {@link #enter()} and
+	 * {@link #exit()} calls. Tracked arrays are returned to the pool once the
+	 * objects they are bound to are garbage collected. This is checked when
+	 * scopes exit, where no computations of the thread may be holding on to
+	 * arrays whose owners have expired.
+	 */
 	public static class Scope {
-		private Stack<ArrayList<WeakReference<double[]>>> values = new Stack<ArrayList<WeakReference<double[]>>>();
-		private ArrayList<WeakReference<double[]>> topValues = null;
+		private int depth = 0;
+		private final Pool pool;
 
-		private Scope() {
+		private Scope(Pool pool) {
+			this.pool = pool;
 		}
 
 		public void enter() {
-			values.push(topValues = new ArrayList<WeakReference<double[]>>());
+			depth++;
 		}
 
 		public void exit() {
-			for (WeakReference<double[]> ref : topValues) {
-				double[] value = ref.get();
-				if (value != null)
-					release(value);
-			}
-			topValues.clear();
-			topValues = values.pop();
+			if (depth == 0)
+				throw new IllegalStateException("Exited a memory scope that was never entered");
+			depth--;
+			pool.reclaim();
+		}
+
+		/**
+		 * Checks whether the scope is active, that is, whether it has been entered
+		 * more times than it has exited.
+		 *
+		 * @return Whether allocations are currently tracked.
+		 */
+		public boolean isActive() {
+			return depth != 0;
 		}
 
-		public void register(double[] value) {
-			if (topValues != null)
-				topValues.add(new WeakReference<double[]>(value));
+		public void register(double[] value, Object boundTo) {
+			if (depth != 0 && boundTo != null)
+				pool.track(value, boundTo);
 		}
 
 		public void unregister(double[] value) {
-			if (topValues != null) {
-				for (WeakReference<double[]> ref : topValues)
-					if (ref.get() == value) {
-						topValues.remove(ref);
-						break;
-					}
-			}
+			pool.untrack(value);
 		}
 	}
 
-	private static HashMap<Integer, Scope> scopes = new HashMap<Integer, Scope>();
+	private static class Allocation extends WeakReference<Object> {
+		private final double[] value;
 
-	public static Scope scope() {
-		int threadId = ThreadPool.getCurrentThreadId();
-		Scope ret;
-		synchronized (scopes) {
-			ret = scopes.get(threadId);
+		public Allocation(double[] value, Object boundTo, ReferenceQueue<Object> queue) {
+			super(boundTo, queue);
+			this.value = value;
 		}
-		if (ret == null) {
-			synchronized (scopes) {
-				scopes.put(threadId, ret = new Scope());
-			}
-		}
-		return ret;
 	}
 
-	private static class BoundAllocation {
-		private SoftReference<double[]> memory;
-		public WeakReference<Object> boundObject;
+	private static class Pool {
+		private final Int2ObjectOpenHashMap<ArrayDeque<double[]>> free = new Int2ObjectOpenHashMap<ArrayDeque<double[]>>();
+		private long pooledLength = 0;
+		private final ReferenceQueue<Object> expired = new ReferenceQueue<Object>();
+		private final IdentityHashMap<double[], Allocation> tracked = new IdentityHashMap<double[], Allocation>();
+		private final Scope scope = new Scope(this);
+
+		public double[] acquire(int length) {
+			ArrayDeque<double[]> candidates = free.get(length);
+			if (candidates == null)
+				return new double[length];
+			double[] ret = candidates.pop();
+			if (candidates.isEmpty())
+				free.remove(length);
+			pooledLength -= length;
+			Arrays.fill(ret, 0);
+			return ret;
+		}
 
-		public BoundAllocation(int length, Object boundObject) {
-			memory = new SoftReference<double[]>(new double[length]);
-			this.boundObject = new WeakReference<Object>(boundObject);
+		public void release(double[] value) {
+			if (value.length < minPooledLength || pooledLength + value.length > poolCapacity)
+				return;
+			ArrayDeque<double[]> candidates = free.get(value.length);
+			if (candidates == null) {
+				candidates = new ArrayDeque<double[]>();
+				free.put(value.length, candidates);
+			}
+			candidates.push(value);
+			pooledLength += value.length;
 		}
 
-		public void changeBoundObject(Object boundObject) {
-			this.boundObject = new WeakReference<Object>(boundObject);
+		public void track(double[] value, Object boundTo) {
+			tracked.put(value, new Allocation(value, boundTo, expired));
 		}
 
-		public boolean isReusable() {
-			return boundObject.get() == null && memory.get() != null;
+		public void untrack(double[] value) {
+			Allocation allocation = tracked.remove(value);
+			if (allocation != null)
+				allocation.clear();
 		}
 
-		public boolean isInvalid() {
-			return memory.get() == null;
+		public void reclaim() {
+			Allocation allocation;
+			while ((allocation = (Allocation) expired.poll()) != null)
+				if (tracked.remove(allocation.value) == allocation)
+					release(allocation.value);
 		}
 
-		public double[] value() {
-			return memory.get();
+		public void clear() {
+			free.clear();
+			pooledLength = 0;
 		}
 	}
 
-	private static HashMap<Integer, ArrayList<BoundAllocation>> allocated = new HashMap<Integer, ArrayList<BoundAllocation>>();
-	private static WeakHashMap<double[], BoundAllocation> bounded = new WeakHashMap<double[], BoundAllocation>();
-
-	public synchronized static double[] allocate(int length, Object boundTo) {
-		ArrayList<BoundAllocation> search = allocated.get(length);
-		if (search == null)
-			allocated.put(length, search = new ArrayList<BoundAllocation>());
-		ArrayList<BoundAllocation> toDelete = null;
-		for (BoundAllocation ref : search) {
-			if (ref.isReusable()) {
-				double[] ret = ref.value();
-				for (int i = 0; i < ret.length; i++)
-					ret[i] = 0;
-				ref.changeBoundObject(boundTo);
-				return ret;
-			}
-			if (ref.isInvalid()) {
-				if (toDelete == null)
-					toDelete = new ArrayList<BoundAllocation>();
-				toDelete.add(ref);
-			}
-		}
-		if (toDelete != null)
-			search.removeAll(toDelete);
-		BoundAllocation ret = new BoundAllocation(length, boundTo);
-		search.add(ret);
-		bounded.put(ret.value(), ret);
-		scope().register(ret.value());
-		return ret.value();
+	private static volatile long poolCapacity = 1L << 23;
+	private static volatile int minPooledLength = 1024;
+	private static final ThreadLocal<Pool> pools = ThreadLocal.withInitial(Pool::new);
+
+	/**
+	 * Retrieves the memory scope of the current thread.
+	 *
+	 * @return A {@link Scope}.
+	 */
+	public static Scope scope() {
+		return pools.get().scope;
+	}
+
+	/**
+	 * Sets the maximum total length of free arrays that each thread keeps for
+	 * reuse. Further released arrays are left to the garbage collector.
+	 *
+	 * @param capacity The maximum number of pooled doubles per thread. Default is
+	 *                 2<sup>23</sup>.
+	 */
+	public static void setPoolCapacity(long capacity) {
+		if (capacity < 0)
+			throw new IllegalArgumentException("Pool capacity should be non-negative");
+		poolCapacity = capacity;
+	}
+
+	/**
+	 * Sets the minimum length of arrays that are pooled for reuse.
+	 *
+	 * @param length The minimum length. Default is 1024.
+	 */
+	public static void setMinPooledLength(int length) {
+		if (length < 0)
+			throw new IllegalArgumentException("Minimum pooled length should be non-negative");
+		minPooledLength = length;
+	}
+
+	/**
+	 * Allocates a zero-filled array, reusing a free array of the current thread's
+	 * pool if one of the same length exists.
+	 *
+	 * @param length  The length of the array.
+	 * @param boundTo The object that holds the array. If a {@link Scope} is
+	 *                active, the array is reclaimed after this object is garbage
+	 *                collected. Can be null.
+	 * @return An array of zeros.
+	 */
+	public static double[] allocate(int length, Object boundTo) {
+		if (length < minPooledLength)
+			return new double[length];
+		Pool pool = pools.get();
+		double[] ret = pool.acquire(length);
+		pool.scope.register(ret, boundTo);
+		return ret;
+	}
+
+	/**
+	 * Returns an array to the current thread's pool. The array should not be
+	 * used afterwards by any object.
+	 *
+	 * @param value The array to release.
+	 */
+	public static void release(double[] value) {
+		if (value == null || value.length < minPooledLength)
+			return;
+		Pool pool = pools.get();
+		pool.untrack(value);
+		pool.release(value);
 	}
 
-	public static synchronized void release(double[] value) {
-		BoundAllocation ref = bounded.get(value);
-		if (ref != null)
-			ref.changeBoundObject(null);
+	/**
+	 * Empties the current thread's pool of free arrays.
+	 */
+	public static void clear() {
+		pools.get().clear();
 	}
 }
@@ -0,0 +1,191 @@
+package mklab.JGNN.core;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.core.matrix.FloatMatrix;
+import mklab.JGNN.core.matrix.VectorizedMatrix;
+import mklab.JGNN.core.tensor.DenseTensor;
+import mklab.JGNN.core.tensor.FloatTensor;
+import mklab.JGNN.core.tensor.VectorizedTensor;
+
+/**
+ * This class provides intra-operation parallelism, that is, it splits the work
+ * of a single tensor or matrix operation (for example, the rows of a matrix
+ * multiplication outcome) into disjoint ranges that run on a shared
+ * {@link ForkJoinPool}. This is disabled by default and can be enabled globally
+ * with {@link #setParallelism(int)} or per model with
+ * {@link mklab.JGNN.nn.Model#setParallelism(int)}. It complements the
+ * batch-level parallelism of {@link ThreadPool}.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class Parallelism {
+	/**
+	 * The default number of consecutive elements below which element-by-element
+	 * operations are not split further.
+	 */
+	public static final int GRAIN = 4096;
+
+	/**
+	 * A task that processes all positions in the range <code>[from, to)</code>.
+	 */
+	public static interface RangeTask {
+		public void run(int from, int to);
+	}
+
+	private static int globalParallelism = 1;
+	private static final ThreadLocal<Integer> localParallelism = new ThreadLocal<Integer>();
+	private static ForkJoinPool pool;
+
+	/**
+	 * Sets the number of disjoint ranges in which the work of operations is split
+	 * by default.
+	 *
+	 * @param parallelism The number of ranges. Use 1 to disable intra-operation
+	 *                    parallelism.
+	 * @see #getParallelism()
+	 */
+	public static void setParallelism(int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("Parallelism should be at least 1");
+		globalParallelism = parallelism;
+	}
+
+	/**
+	 * Overrides the global parallelism for operations running on the current
+	 * thread. This is how {@link mklab.JGNN.nn.Model} instances apply their own
+	 * setting.
+	 *
+	 * @param parallelism The number of ranges, or zero to fall back to the global
+	 *                    setting.
+	 * @return The previous thread-local setting, to be restored afterwards.
+	 */
+	public static int setLocalParallelism(int parallelism) {
+		Integer previous = localParallelism.get();
+		if (parallelism == 0)
+			localParallelism.remove();
+		else
+			localParallelism.set(parallelism);
+		return previous == null ? 0 : previous;
+	}
+
+	/**
+	 * Retrieves the number of disjoint ranges in which the work of operations
+	 * running on the current thread is split. Work already running on the shared
+	 * pool is never split further.
+	 *
+	 * @return The parallelism.
+	 */
+	public static int getParallelism() {
+		if (Thread.currentThread() instanceof ForkJoinWorkerThread
+				&& ((ForkJoinWorkerThread) Thread.currentThread()).getPool() == pool)
+			return 1;
+		Integer local = localParallelism.get();
+		return local == null ? globalParallelism : local;
+	}
+
+	private static synchronized ForkJoinPool getPool() {
+		if (pool == null)
+			pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		return pool;
+	}
+
+	/**
+	 * Runs a task over the range <code>[start, end)</code>, splitting it into up
+	 * to {@link #getParallelism()} disjoint sub-ranges of at least
+	 * <code>grain</code> positions. Returns only after all sub-ranges conclude.
+	 * Tasks should only write to positions of their own sub-range.
+	 *
+	 * @param start The first position of the range.
+	 * @param end   The end of the range (non-inclusive).
+	 * @param grain The minimum number of positions worth running in parallel.
+	 * @param task  The task to run.
+	 */
+	public static void forRange(int start, int end, int grain, RangeTask task) {
+		int parallelism = getParallelism();
+		int chunks = Math.min(parallelism, (end - start) / Math.max(grain, 1));
+		if (chunks <= 1) {
+			task.run(start, end);
+			return;
+		}
+		getPool().invoke(new RangeAction(task, start, end, (end - start + chunks - 1) / chunks));
+	}
+
+	/**
+	 * Wraps {@link #forRange(int, int, int, RangeTask)} with the default
+	 * {@link #GRAIN}.
+	 *
+	 * @param start The first position of the range.
+	 * @param end   The end of the range (non-inclusive).
+	 * @param task  The task to run.
+	 */
+	public static void forRange(int start, int end, RangeTask task) {
+		forRange(start, end, GRAIN, task);
+	}
+
+	/**
+	 * Checks whether tensors store their elements in plain arrays, which means
+	 * that different threads can safely write to different positions and that
+	 * non-zero traversal visits all positions.
+	 *
+	 * @param tensors The tensors to check.
+	 * @return Whether all tensors are dense.
+	 */
+	public static boolean isDense(Tensor... tensors) {
+		for (Tensor tensor : tensors)
+			if (!(tensor instanceof DenseTensor) && !(tensor instanceof VectorizedTensor)
+					&& !(tensor instanceof FloatTensor) && !(tensor instanceof DenseMatrix)
+					&& !(tensor instanceof VectorizedMatrix) && !(tensor instanceof FloatMatrix))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Applies an action on all positions of a tensor that may hold non-zero
+	 * elements and their values, as would {@link Tensor#forEachNonZero(Tensor.ElementConsumer)}.
+	 * If both the traversed and the output tensor are dense, positions are split
+	 * into parallel ranges.
+	 *
+	 * @param tensor The tensor whose elements to traverse.
+	 * @param output The tensor that the action writes to.
+	 * @param action The action to apply on each position and its value.
+	 * @see #isDense(Tensor...)
+	 */
+	public static void forEachNonZero(Tensor tensor, Tensor output, Tensor.ElementConsumer action) {
+		if (getParallelism() > 1 && isDense(tensor, output))
+			forRange(0, (int) tensor.size(), (from, to) -> {
+				for (long pos = from; pos < to; pos++)
+					action.accept(pos, tensor.get(pos));
+			});
+		else
+			tensor.forEachNonZero(action);
+	}
+
+	private static class RangeAction extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final RangeTask task;
+		private final int start;
+		private final int end;
+		private final int chunk;
+
+		RangeAction(RangeTask task, int start, int end, int chunk) {
+			this.task = task;
+			this.start = start;
+			this.end = end;
+			this.chunk = chunk;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start <= chunk) {
+				task.run(start, end);
+				return;
+			}
+			int middle = start + Math.max(1, (end - start) / chunk / 2) * chunk;
+			invokeAll(new RangeAction(task, start, middle, chunk), new RangeAction(task, middle, end, chunk));
+		}
+	}
+}
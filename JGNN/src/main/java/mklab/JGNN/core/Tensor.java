@@ -6,6 +6,8 @@ import mklab.JGNN.core.matrix.WrapCols;
 import mklab.JGNN.core.matrix.WrapRows;
 import mklab.JGNN.core.tensor.AccessSubtensor;
 import mklab.JGNN.core.tensor.DenseTensor;
+import mklab.JGNN.core.tensor.FloatTensor;
+import mklab.JGNN.core.tensor.VectorizedFloatTensor;
 import mklab.JGNN.core.util.Range;
 
 /**
@@ -93,32 +95,33 @@ public abstract class Tensor implements Iterable<Long> {
 	 * @throws RuntimeException if one or more tensor elements are NaN or Inf.
 	 */
 	public void assertFinite() {
-		for (long i : getNonZeroElements())
-			if (!Double.isFinite(get(i)))
+		forEachNonZero((i, element) -> {
+			if (!Double.isFinite(element))
 				throw new RuntimeException("Did not find a finite value");
+		});
 	}
 
 	protected abstract void allocate(long size);
 
 	/**
-	 * If the subclassed tensor allows it, release all memory it takes up so that
-	 * the garbage collector will eventually clean it up. This memory will be
-	 * released anyway by Java once there are no more references to the object.
+	 * If the subclassed tensor allows it, returns the memory it takes up to the
+	 * {@link Memory} pool of the current thread for reuse by future allocations.
+	 * The tensor should not be used afterwards. Compiled models call this to
+	 * recycle intermediate outcomes as soon as no operation needs them. Tensors
+	 * that do not pool memory leave it to the garbage collector, which reclaims
+	 * it anyway once there are no more references to the object.
 	 * 
 	 * @see #persist()
-	 * @deprecated This method may not be present in future versions of the library,
-	 *             depending on whether memory reuse proves useful or nor.
 	 */
 	public abstract void release();
 
 	/**
-	 * If supported by the subclassed tensor, invalidates calls to
-	 * {@link #release()} so that memory is de-allocated only when object references
-	 * expire.
+	 * If supported by the subclassed tensor, stops tracking its memory by the
+	 * current {@link Memory.Scope}, so that the memory is not reclaimed for reuse
+	 * when the scope exits after the tensor is garbage collected. Explicit
+	 * {@link #release()} calls still return memory to the pool.
 	 * 
 	 * @see #release()
-	 * @deprecated This method may not be present in future versions of the library,
-	 *             depending on whether memory reuse proves useful or nor.
 	 */
 	public abstract void persist();
 
@@ -315,6 +318,34 @@ public abstract class Tensor implements Iterable<Long> {
 	 */
 	public abstract Iterator<Long> traverseNonZeroElements();
 
+	/**
+	 * A callback that receives the positions and values of tensor elements without
+	 * boxing them.
+	 * 
+	 * @see Tensor#forEachNonZero(ElementConsumer)
+	 */
+	public static interface ElementConsumer {
+		public void accept(long pos, double value);
+	}
+
+	/**
+	 * Calls a consumer for all positions within the tensor that may hold non-zero
+	 * elements, alongside their values. This follows the same guarantees as
+	 * {@link #traverseNonZeroElements()}, but subclasses implement it over their
+	 * underlying storage so that no objects are created per visited element.
+	 * Consumers may edit visited elements, but should not add new non-zero
+	 * elements to sparse tensors.
+	 * 
+	 * @param consumer The consumer to call.
+	 */
+	public void forEachNonZero(ElementConsumer consumer) {
+		Iterator<Long> iterator = traverseNonZeroElements();
+		while (iterator.hasNext()) {
+			long pos = iterator.next();
+			consumer.accept(pos, get(pos));
+		}
+	}
+
 	/**
 	 * Creates a {@link #zeroCopy()} and transfers to it all potentially non-zero
 	 * element values.
@@ -325,8 +356,7 @@ public abstract class Tensor implements Iterable<Long> {
 	 */
 	public Tensor copy() {
 		Tensor res = zeroCopy();
-		for (long i : getNonZeroElements())
-			res.put(i, get(i));
+		forEachNonZero((i, element) -> res.put(i, element));
 		return res;
 	}
 
@@ -339,8 +369,7 @@ public abstract class Tensor implements Iterable<Long> {
 	 */
 	public Tensor assign(Tensor tensor) {
 		assertMatching(tensor);
-		for (long i : tensor.getNonZeroElements())
-			put(i, tensor.get(i));
+		tensor.forEachNonZero((i, element) -> put(i, element));
 		return this;
 	}
 
@@ -353,9 +382,7 @@ public abstract class Tensor implements Iterable<Long> {
 		if (density() < tensor.density())
 			return tensor.add(this);
 		Tensor res = copy();
-		for (long i : tensor.getNonZeroElements()) {
-			res.put(i, get(i) + tensor.get(i));
-		}
+		tensor.forEachNonZero((i, element) -> res.put(i, get(i) + element));
 		return res;
 	}
 
@@ -379,8 +406,7 @@ public abstract class Tensor implements Iterable<Long> {
 	public Tensor selfAdd(Tensor tensor) {
 		assertMatching(tensor);
 		Tensor res = this;
-		for (long i : tensor.getNonZeroElements())
-			res.put(i, get(i) + tensor.get(i));
+		tensor.forEachNonZero((i, element) -> res.put(i, get(i) + element));
 		return res;
 	}
 
@@ -396,8 +422,7 @@ public abstract class Tensor implements Iterable<Long> {
 	public Tensor selfAdd(Tensor tensor, double weight) {
 		assertMatching(tensor);
 		Tensor res = this;
-		for (long i : tensor.getNonZeroElements())
-			res.put(i, get(i) + weight * tensor.get(i));
+		tensor.forEachNonZero((i, element) -> res.put(i, get(i) + weight * element));
 		return res;
 	}
 
@@ -421,8 +446,7 @@ public abstract class Tensor implements Iterable<Long> {
 	public Tensor subtract(Tensor tensor) {
 		assertMatching(tensor);
 		Tensor res = copy();
-		for (long i : tensor.getNonZeroElements())
-			res.put(i, get(i) - tensor.get(i));
+		tensor.forEachNonZero((i, element) -> res.put(i, get(i) - element));
 		return res;
 	}
 
@@ -435,8 +459,7 @@ public abstract class Tensor implements Iterable<Long> {
 	public Tensor selfSubtract(Tensor tensor) {
 		assertMatching(tensor);
 		Tensor res = this;
-		for (long i : tensor.getNonZeroElements())
-			res.put(i, get(i) - tensor.get(i));
+		tensor.forEachNonZero((i, element) -> res.put(i, get(i) - element));
 		return res;
 	}
 
@@ -447,8 +470,7 @@ public abstract class Tensor implements Iterable<Long> {
 	public Tensor multiply(Tensor tensor) {
 		assertMatching(tensor);
 		Tensor res = determineZeroCopy(tensor);
-		for (long i : getNonZeroElements())
-			res.put(i, get(i) * tensor.get(i));
+		forEachNonZero((i, element) -> res.put(i, element * tensor.get(i)));
 		return res;
 	}
 
@@ -464,11 +486,9 @@ public abstract class Tensor implements Iterable<Long> {
 		assertMatching(tensor);
 		Tensor res = this;
 		if (density() < tensor.density())
-			for (long i : getNonZeroElements())
-				res.put(i, get(i) * tensor.get(i));
+			forEachNonZero((i, element) -> res.put(i, element * tensor.get(i)));
 		else
-			for (long i : tensor.getNonZeroElements())
-				res.put(i, get(i) * tensor.get(i));
+			tensor.forEachNonZero((i, element) -> res.put(i, get(i) * element));
 		return res;
 	}
 
@@ -478,8 +498,7 @@ public abstract class Tensor implements Iterable<Long> {
 	 */
 	public Tensor multiply(double value) {
 		Tensor res = zeroCopy();
-		for (long i : getNonZeroElements())
-			res.put(i, get(i) * value);
+		forEachNonZero((i, element) -> res.put(i, element * value));
 		return res;
 	}
 
@@ -492,8 +511,7 @@ public abstract class Tensor implements Iterable<Long> {
 	 */
 	public Tensor selfMultiply(double value) {
 		Tensor res = this;
-		for (long i : getNonZeroElements())
-			res.put(i, get(i) * value);
+		forEachNonZero((i, element) -> res.put(i, element * value));
 		return res;
 	}
 
@@ -505,8 +523,7 @@ public abstract class Tensor implements Iterable<Long> {
 	 */
 	public Tensor sqrt() {
 		Tensor res = zeroCopy();
-		for (long i : getNonZeroElements())
-			res.put(i, Math.sqrt(Math.abs(get(i))));
+		forEachNonZero((i, element) -> res.put(i, Math.sqrt(Math.abs(element))));
 		return res;
 	}
 
@@ -518,8 +535,7 @@ public abstract class Tensor implements Iterable<Long> {
 	 */
 	public Tensor selfSqrt() {
 		Tensor res = this;
-		for (long i : getNonZeroElements())
-			res.put(i, Math.sqrt(Math.abs(get(i))));
+		forEachNonZero((i, element) -> res.put(i, Math.sqrt(Math.abs(element))));
 		return res;
 	}
 
@@ -531,8 +547,7 @@ public abstract class Tensor implements Iterable<Long> {
 	 */
 	public Tensor expMinusOne() {
 		Tensor res = zeroCopy();
-		for (long i : getNonZeroElements())
-			res.put(i, Math.exp(get(i)));
+		forEachNonZero((i, element) -> res.put(i, Math.exp(element)));
 		return res;
 	}
 
@@ -543,8 +558,7 @@ public abstract class Tensor implements Iterable<Long> {
 	 */
 	public Tensor selfExpMinusOne() {
 		Tensor res = this;
-		for (long i : getNonZeroElements())
-			res.put(i, Math.exp(get(i)));
+		forEachNonZero((i, element) -> res.put(i, Math.exp(element)));
 		return res;
 	}
 
@@ -556,8 +570,7 @@ public abstract class Tensor implements Iterable<Long> {
 	 */
 	public Tensor log() {
 		Tensor res = zeroCopy();
-		for (long i : getNonZeroElements())
-			res.put(i, Math.log(Math.abs(get(i))));
+		forEachNonZero((i, element) -> res.put(i, Math.log(Math.abs(element))));
 		return res;
 	}
 
@@ -569,8 +582,7 @@ public abstract class Tensor implements Iterable<Long> {
 	 */
 	public Tensor selfLog() {
 		Tensor res = this;
-		for (long i : getNonZeroElements())
-			res.put(i, Math.log(Math.abs(get(i))));
+		forEachNonZero((i, element) -> res.put(i, Math.log(Math.abs(element))));
 		return res;
 	}
 
@@ -582,8 +594,7 @@ public abstract class Tensor implements Iterable<Long> {
 	 */
 	public Tensor negative() {
 		Tensor res = zeroCopy();
-		for (long i : getNonZeroElements())
-			res.put(i, -get(i));
+		forEachNonZero((i, element) -> res.put(i, -element));
 		return res;
 	}
 
@@ -594,8 +605,7 @@ public abstract class Tensor implements Iterable<Long> {
 	 */
 	public Tensor selfNegative() {
 		Tensor res = this;
-		for (long i : getNonZeroElements())
-			res.put(i, -get(i));
+		forEachNonZero((i, element) -> res.put(i, -element));
 		return res;
 	}
 
@@ -607,8 +617,7 @@ public abstract class Tensor implements Iterable<Long> {
 	 */
 	public Tensor abs() {
 		Tensor res = zeroCopy();
-		for (long i : getNonZeroElements())
-			res.put(i, Math.abs(get(i)));
+		forEachNonZero((i, element) -> res.put(i, Math.abs(element)));
 		return res;
 	}
 
@@ -619,8 +628,7 @@ public abstract class Tensor implements Iterable<Long> {
 	 */
 	public Tensor selfAbs() {
 		Tensor res = this;
-		for (long i : getNonZeroElements())
-			res.put(i, Math.abs(get(i)));
+		forEachNonZero((i, element) -> res.put(i, Math.abs(element)));
 		return res;
 	}
 
@@ -629,9 +637,10 @@ public abstract class Tensor implements Iterable<Long> {
 	 */
 	public Tensor inverse() {
 		Tensor res = zeroCopy();
-		for (long i : getNonZeroElements())
-			if (get(i) != 0)
-				res.put(i, 1. / get(i));
+		forEachNonZero((i, element) -> {
+			if (element != 0)
+				res.put(i, 1. / element);
+		});
 		return res;
 	}
 
@@ -642,9 +651,10 @@ public abstract class Tensor implements Iterable<Long> {
 	 */
 	public Tensor selfInverse() {
 		Tensor res = this;
-		for (long i : getNonZeroElements())
-			if (get(i) != 0)
-				res.put(i, 1. / get(i));
+		forEachNonZero((i, element) -> {
+			if (element != 0)
+				res.put(i, 1. / element);
+		});
 		return res;
 	}
 
@@ -656,14 +666,12 @@ public abstract class Tensor implements Iterable<Long> {
 	 */
 	public double dot(Tensor tensor) {
 		assertMatching(tensor);
-		double res = 0;
+		double[] res = new double[1];
 		if (density() < tensor.density())
-			for (long i : getNonZeroElements())
-				res += get(i) * tensor.get(i);
+			forEachNonZero((i, element) -> res[0] += element * tensor.get(i));
 		else
-			for (long i : tensor.getNonZeroElements())
-				res += get(i) * tensor.get(i);
-		return res;
+			tensor.forEachNonZero((i, element) -> res[0] += get(i) * element);
+		return res[0];
 	}
 
 	/**
@@ -676,30 +684,27 @@ public abstract class Tensor implements Iterable<Long> {
 	public double dot(Tensor tensor1, Tensor tensor2) {
 		assertMatching(tensor1);
 		assertMatching(tensor2);
-		double res = 0;
-		for (long i : getNonZeroElements())
-			res += get(i) * tensor1.get(i) * tensor2.get(i);
-		return res;
+		double[] res = new double[1];
+		forEachNonZero((i, element) -> res[0] += element * tensor1.get(i) * tensor2.get(i));
+		return res[0];
 	}
 
 	/**
 	 * @return The L2 norm of the tensor
 	 */
 	public double norm() {
-		double res = 0;
-		for (long i : getNonZeroElements())
-			res += get(i) * get(i);
-		return Math.sqrt(res);
+		double[] res = new double[1];
+		forEachNonZero((i, element) -> res[0] += element * element);
+		return Math.sqrt(res[0]);
 	}
 
 	/**
 	 * @return The sum of tensor elements
 	 */
 	public double sum() {
-		double res = 0;
-		for (long i : getNonZeroElements())
-			res += get(i);
-		return res;
+		double[] res = new double[1];
+		forEachNonZero((i, element) -> res[0] += element);
+		return res[0];
 	}
 
 	/**
@@ -835,8 +840,7 @@ public abstract class Tensor implements Iterable<Long> {
 		double norm = norm();
 		Tensor res = zeroCopy();
 		if (norm != 0)
-			for (long i : getNonZeroElements())
-				res.put(i, get(i) / norm);
+			forEachNonZero((i, element) -> res.put(i, element / norm));
 		return res;
 	}
 
@@ -850,11 +854,23 @@ public abstract class Tensor implements Iterable<Long> {
 		double norm = sum();
 		Tensor res = zeroCopy();
 		if (norm != 0)
-			for (long i : getNonZeroElements())
-				res.put(i, get(i) / norm);
+			forEachNonZero((i, element) -> res.put(i, element / norm));
 		return res;
 	}
 
+	/**
+	 * Creates a copy of the tensor that stores its elements with single
+	 * precision.
+	 * 
+	 * @return A {@link FloatTensor} instance.
+	 * @see Matrix#toFloat()
+	 */
+	public Tensor toFloat() {
+		Tensor res = size >= 100000 && vectorization ? new VectorizedFloatTensor(size) : new FloatTensor(size);
+		forEachNonZero((i, element) -> res.put(i, element));
+		return res.setDimensionName(this);
+	}
+
 	/**
 	 * L2-normalizes the tensor's elements. Does nothing if the {@link #norm()} is
 	 * zero.
@@ -865,8 +881,7 @@ public abstract class Tensor implements Iterable<Long> {
 	public Tensor setToNormalized() {
 		double norm = norm();
 		if (norm != 0)
-			for (long i : getNonZeroElements())
-				put(i, get(i) / norm);
+			forEachNonZero((i, element) -> put(i, element / norm));
 		return this;
 	}
 
@@ -880,8 +895,7 @@ public abstract class Tensor implements Iterable<Long> {
 	public Tensor setToProbability() {
 		double norm = sum();
 		if (norm != 0)
-			for (long i : getNonZeroElements())
-				put(i, get(i) / norm);
+			forEachNonZero((i, element) -> put(i, element / norm));
 		return this;
 	}
 
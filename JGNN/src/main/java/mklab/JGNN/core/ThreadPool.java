@@ -1,8 +1,7 @@
 package mklab.JGNN.core;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -10,21 +9,35 @@ import java.util.concurrent.TimeUnit;
  * This class provides thread execution pool utilities while keeping track of
  * thread identifiers for use by thread-specific
  * {@link mklab.JGNN.nn.NNOperation}. Threads scheduling relies on Java's
- * {@link ThreadPoolExecutor}.
- * 
+ * {@link ThreadPoolExecutor}, whose worker threads are assigned fixed ids in
+ * the range <code>[0, maxThreads)</code> upon creation. Workers are daemon
+ * threads that remain alive between {@link #waitForConclusion()} calls, so that
+ * the same pool is reused across training epochs.
+ *
  * @author Emmanouil Krasanakis
  */
 public class ThreadPool {
-	private static HashMap<Thread, Integer> threadIds = new HashMap<Thread, Integer>();
-	private static HashSet<Integer> usedIds = new HashSet<Integer>();
+	private static class Worker extends Thread {
+		private final int threadId;
+
+		public Worker(Runnable runnable, int threadId) {
+			super(runnable, "JGNN worker #" + threadId);
+			this.threadId = threadId;
+			setDaemon(true);
+		}
+	}
+
 	private ThreadPoolExecutor executor;
-	private int maxThreads;
+	private final int maxThreads;
+	private int nextThreadId = 0;
+	private int pendingTasks = 0;
+	private RuntimeException failure = null;
 
 	private static ThreadPool instance = new ThreadPool(Runtime.getRuntime().availableProcessors());
 
 	/**
 	 * Retrieves the singleton {@link ThreadPool} instance used by JGNN.
-	 * 
+	 *
 	 * @return A {@link ThreadPool}.
 	 */
 	public static ThreadPool getInstance() {
@@ -36,76 +49,83 @@ public class ThreadPool {
 		executor = null;
 	}
 
-	protected int getUnusedId() {
-		for (int i = 0; i < maxThreads; i++)
-			if (!usedIds.contains(i))
-				return i;
-		return -1;// new RuntimeException("Could not retrieve an unused thread id");*/
+	/**
+	 * Retrieves the maximum number of threads that run submitted tasks. Thread ids
+	 * returned by {@link #getCurrentThreadId()} are smaller than this number.
+	 *
+	 * @return The number of worker threads.
+	 */
+	public int getMaxThreads() {
+		return maxThreads;
+	}
+
+	private synchronized Thread createWorker(Runnable runnable) {
+		if (nextThreadId >= maxThreads)
+			throw new RuntimeException("Tried to instantiate thread without an available id");
+		return new Worker(runnable, nextThreadId++);
 	}
 
 	/**
 	 * Submits a runnable to be executed at some future point by a thread, for
 	 * example via
 	 * <code>ThreadPool.getInstance().submit(new Runnable(){public void run(){...}});</code>.
-	 * 
+	 *
 	 * @param runnable A Java {@link Runnable}.
 	 * @see #waitForConclusion()
 	 */
 	public synchronized void submit(Runnable runnable) {
-		Thread thread = new Thread() {
-			@Override
-			public void run() {
-				Thread current = Thread.currentThread();
-				int threadId;
-				synchronized (threadIds) {
-					threadId = getUnusedId();
-					if (threadId == -1)
-						throw new RuntimeException("Tried to instantiate thread without an available id");
-					//System.out.println("Starting thread #"+threadId);
-					threadIds.put(current, threadId);
-					usedIds.add(threadId);
-				}
+		if (executor == null)
+			executor = new ThreadPoolExecutor(maxThreads, maxThreads, 0L, TimeUnit.MILLISECONDS,
+					new LinkedBlockingQueue<Runnable>(), (ThreadFactory) this::createWorker);
+		pendingTasks++;
+		executor.execute(() -> {
+			try {
 				runnable.run();
-				synchronized (threadIds) {
-					threadIds.remove(current);
-					usedIds.remove(threadId);
-					//System.out.println("Ending thread #"+threadId);
+			} catch (RuntimeException | Error e) {
+				synchronized (this) {
+					if (failure == null)
+						failure = e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+				}
+			} finally {
+				synchronized (this) {
+					pendingTasks--;
+					if (pendingTasks == 0)
+						notifyAll();
 				}
 			}
-		};
-		if (executor == null)
-			executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(maxThreads);
-		executor.submit(thread);
+		});
 	}
 
 	/**
-	 * Retrieves a unique integer indicating the currently running thread.
-	 * 
-	 * @return An integer id.
+	 * Retrieves a unique integer indicating the currently running thread. This
+	 * does not involve any synchronization.
+	 *
+	 * @return An integer id in the range <code>[0, maxThreads)</code> for threads
+	 *         of the pool and -1 for all other threads.
 	 */
-	public static Integer getCurrentThreadId() {
-		Integer ret;
+	public static int getCurrentThreadId() {
 		Thread current = Thread.currentThread();
-		synchronized (threadIds) {
-			ret = threadIds.get(current);
-		}
-		return ret == null ? -1 : (int) ret;
+		return current instanceof Worker ? ((Worker) current).threadId : -1;
 	}
 
 	/**
-	 * Waits until all threads in the pool have finished. This concludes only if all
-	 * submitted runnable conclude.
-	 * 
+	 * Waits until all runnables submitted to the pool have finished. The pool's
+	 * threads are kept alive to run runnables submitted afterwards.
+	 *
+	 * @throws RuntimeException The first exception thrown by any of the runnables
+	 *                          that finished.
 	 * @see #submit(Runnable)
 	 */
-	public void waitForConclusion() {
-		executor.shutdown();
+	public synchronized void waitForConclusion() {
 		try {
-			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MINUTES);
+			while (pendingTasks != 0)
+				wait();
 		} catch (InterruptedException e) {
 			e.printStackTrace();
-		} finally {
-			executor = null;
 		}
+		RuntimeException failure = this.failure;
+		this.failure = null;
+		if (failure != null)
+			throw failure;
 	}
 }
@@ -66,6 +66,13 @@ public class AccessCol extends Tensor {
 		return new Range(0, size());
 	}
 
+	@Override
+	public void forEachNonZero(ElementConsumer consumer) {
+		long size = size();
+		for (long pos = 0; pos < size; pos++)
+			consumer.accept(pos, matrix.get(pos, col));
+	}
+
 	@Override
 	public void release() {
 	}
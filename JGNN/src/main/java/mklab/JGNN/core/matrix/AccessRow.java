@@ -66,6 +66,13 @@ public class AccessRow extends Tensor {
 		return new Range(0, size());
 	}
 
+	@Override
+	public void forEachNonZero(ElementConsumer consumer) {
+		long size = size();
+		for (long pos = 0; pos < size; pos++)
+			consumer.accept(pos, matrix.get(row, pos));
+	}
+
 	@Override
 	public void release() {
 	}
@@ -135,6 +135,24 @@ public class ColumnRepetition extends Matrix {
 		return new Repeat2DIterator();
 	}
 
+	@Override
+	public void forEachNonZero(ElementConsumer consumer) {
+		long rows = getRows();
+		for (long row = 0; row < rows; row++) {
+			long current = row;
+			column.forEachNonZero((col, value) -> consumer.accept(current + col * rows, value));
+		}
+	}
+
+	@Override
+	public void forEachNonZero(EntryConsumer consumer) {
+		long rows = getRows();
+		for (long row = 0; row < rows; row++) {
+			long current = row;
+			column.forEachNonZero((col, value) -> consumer.accept(current, col, value));
+		}
+	}
+
 	@Override
 	public void release() {
 	}
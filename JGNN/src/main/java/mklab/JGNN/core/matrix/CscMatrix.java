@@ -0,0 +1,395 @@
+package mklab.JGNN.core.matrix;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Map.Entry;
+
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.util.FastEntry;
+
+/**
+ * A sparse {@link Matrix} stored in compressed sparse column (CSC) format. This
+ * is the column-oriented counterpart of {@link CsrMatrix}: <code>colPtr</code>
+ * holds where each column starts, and <code>rowIdx</code> and
+ * <code>values</code> hold the row and value of each element, with rows sorted
+ * within each column. The sparsity pattern is immutable. Prefer creating
+ * instances with {@link Matrix#toCsc()}.
+ *
+ * @author Emmanouil Krasanakis
+ * @see CsrMatrix
+ */
+public class CscMatrix extends Matrix {
+	private int[] colPtr;
+	private int[] rowIdx;
+	private double[] values;
+	private volatile int[][] transposedIndex;
+
+	/**
+	 * Generates a CSC matrix that holds the non-zero elements of a given matrix.
+	 *
+	 * @param matrix The matrix whose elements to compress.
+	 * @see Matrix#toCsc()
+	 */
+	public CscMatrix(Matrix matrix) {
+		super(matrix.getRows(), matrix.getCols());
+		CsrMatrix.assertIntDimensions(matrix);
+		int nnz = 0;
+		for (Entry<Long, Long> element : matrix.getNonZeroEntries())
+			if (matrix.get(element.getKey(), element.getValue()) != 0)
+				nnz++;
+		int[] rows = new int[nnz];
+		int[] cols = new int[nnz];
+		double[] vals = new double[nnz];
+		int pos = 0;
+		for (Entry<Long, Long> element : matrix.getNonZeroEntries()) {
+			long row = element.getKey();
+			long col = element.getValue();
+			double value = matrix.get(row, col);
+			if (value != 0) {
+				rows[pos] = (int) row;
+				cols[pos] = (int) col;
+				vals[pos] = value;
+				pos++;
+			}
+		}
+		colPtr = new int[(int) getCols() + 1];
+		rowIdx = new int[nnz];
+		values = new double[nnz];
+		CsrMatrix.compress((int) getCols(), (int) getRows(), cols, rows, vals, colPtr, rowIdx, values);
+		setDimensionName(matrix);
+	}
+
+	/**
+	 * Generates a CSC matrix directly from its compressed arrays. The arrays are
+	 * not copied, and row indexes should be sorted within each column.
+	 *
+	 * @param rows   The number of rows.
+	 * @param cols   The number of columns.
+	 * @param colPtr An array of <code>cols+1</code> elements, where
+	 *               <code>colPtr[col]</code> is the position of the column's first
+	 *               element in the other two arrays.
+	 * @param rowIdx The row of each element.
+	 * @param values The value of each element.
+	 */
+	public CscMatrix(long rows, long cols, int[] colPtr, int[] rowIdx, double[] values) {
+		super(rows, cols);
+		CsrMatrix.assertIntDimensions(this);
+		if (colPtr.length != cols + 1 || rowIdx.length != values.length || colPtr[(int) cols] != values.length)
+			throw new IllegalArgumentException("Inconsistent compressed arrays for a " + rows + "x" + cols + " matrix");
+		this.colPtr = colPtr;
+		this.rowIdx = rowIdx;
+		this.values = values;
+	}
+
+	/**
+	 * Retrieves the column pointer array. This is shared with the matrix and
+	 * should not be edited.
+	 *
+	 * @return An array of <code>getCols()+1</code> elements.
+	 */
+	public int[] getColPtr() {
+		return colPtr;
+	}
+
+	/**
+	 * Retrieves the row index of each non-zero element. This is shared with the
+	 * matrix and should not be edited.
+	 *
+	 * @return An array of row indexes.
+	 */
+	public int[] getRowIdx() {
+		return rowIdx;
+	}
+
+	/**
+	 * Retrieves the value of each non-zero element. This is shared with the
+	 * matrix, so editing it edits matrix elements.
+	 *
+	 * @return An array of element values.
+	 */
+	public double[] getValues() {
+		return values;
+	}
+
+	/**
+	 * Retrieves a row-wise index of the (immutable) sparsity pattern, which is
+	 * created on first access. Values of the row-wise element at position
+	 * <code>i</code> lie at <code>getValues()[origin[i]]</code>.
+	 *
+	 * @return An array <code>{rowPtr, colIdx, origin}</code>.
+	 */
+	int[][] getTransposedIndex() {
+		if (transposedIndex == null)
+			transposedIndex = CsrMatrix.transposeIndex((int) getCols(), (int) getRows(), colPtr, rowIdx);
+		return transposedIndex;
+	}
+
+	private int find(int row, int col) {
+		int pos = Arrays.binarySearch(rowIdx, colPtr[col], colPtr[col + 1], row);
+		return pos < 0 ? -1 : pos;
+	}
+
+	@Override
+	public Matrix zeroCopy(long rows, long cols) {
+		return new SparseMatrix(rows, cols);
+	}
+
+	@Override
+	protected void allocate(long size) {
+	}
+
+	@Override
+	public Tensor put(long pos, double value) {
+		put(pos % getRows(), pos / getRows(), value);
+		return this;
+	}
+
+	@Override
+	public Matrix put(long row, long col, double value) {
+		if (row < 0 || col < 0 || row >= getRows() || col >= getCols())
+			throw new IllegalArgumentException("Element (" + row + "," + col + ") out of range for " + describe());
+		int pos = find((int) row, (int) col);
+		if (pos != -1)
+			values[pos] = value;
+		else if (value != 0)
+			throw new UnsupportedOperationException(
+					"Cannot add element (" + row + "," + col + ") to the fixed sparsity pattern of " + describe());
+		return this;
+	}
+
+	@Override
+	public double get(long pos) {
+		return get(pos % getRows(), pos / getRows());
+	}
+
+	@Override
+	public double get(long row, long col) {
+		if (row < 0 || col < 0 || row >= getRows() || col >= getCols())
+			throw new IllegalArgumentException("Element (" + row + "," + col + ") out of range for " + describe());
+		int pos = find((int) row, (int) col);
+		return pos == -1 ? 0 : values[pos];
+	}
+
+	@Override
+	public Iterator<Long> traverseNonZeroElements() {
+		long rows = getRows();
+		return new Iterator<Long>() {
+			private final CscIterator entries = new CscIterator();
+
+			@Override
+			public boolean hasNext() {
+				return entries.hasNext();
+			}
+
+			@Override
+			public Long next() {
+				Entry<Long, Long> entry = entries.next();
+				return entry.getKey() + entry.getValue() * rows;
+			}
+		};
+	}
+
+	@Override
+	public Iterable<Entry<Long, Long>> getNonZeroEntries() {
+		return new CscIterator();
+	}
+
+	@Override
+	public void forEachNonZero(ElementConsumer consumer) {
+		long rows = getRows();
+		for (int col = 0; col < colPtr.length - 1; col++)
+			for (int pos = colPtr[col]; pos < colPtr[col + 1]; pos++)
+				consumer.accept(rowIdx[pos] + col * rows, values[pos]);
+	}
+
+	@Override
+	public void forEachNonZero(EntryConsumer consumer) {
+		for (int col = 0; col < colPtr.length - 1; col++)
+			for (int pos = colPtr[col]; pos < colPtr[col + 1]; pos++)
+				consumer.accept(rowIdx[pos], col, values[pos]);
+	}
+
+	@Override
+	public long estimateNumNonZeroElements() {
+		return values.length;
+	}
+
+	@Override
+	public String describe() {
+		return super.describe() + " " + estimateNumNonZeroElements() + "/" + (getRows() * getCols()) + " entries";
+	}
+
+	@Override
+	public void release() {
+	}
+
+	@Override
+	public void persist() {
+	}
+
+	@Override
+	public Tensor accessCol(long col) {
+		return new CscCol(col);
+	}
+
+	@Override
+	public Matrix transposed() {
+		return new CsrMatrix(getCols(), getRows(), colPtr.clone(), rowIdx.clone(), values.clone())
+				.setDimensionName(getColName(), getRowName());
+	}
+
+	@Override
+	public Matrix matmul(Matrix with) {
+		if (getCols() != with.getRows())
+			throw new IllegalArgumentException(
+					"Mismatched matrix sizes between " + describe() + " and " + with.describe());
+		if (getColName() != null && with.getRowName() != null && !getColName().equals(with.getRowName()))
+			throw new IllegalArgumentException(
+					"Mismatched matrix dimension names between " + describe() + " and " + with.describe());
+		return matmul(with, false, false);
+	}
+
+	@Override
+	public Matrix matmul(Matrix with, boolean transposeSelf, boolean transposeWith) {
+		if ((transposeSelf ? getRows() : getCols()) != (transposeWith ? with.getCols() : with.getRows()))
+			throw new IllegalArgumentException("Mismatched matrix sizes");
+		String selfName = transposeSelf ? getRowName() : getColName();
+		String withName = transposeWith ? with.getColName() : with.getRowName();
+		if (selfName != null && withName != null && !selfName.equals(withName))
+			throw new IllegalArgumentException("Mismatched matrix dimension names");
+		if (SparseDenseMultiplication.isApplicable(this, with))
+			return SparseDenseMultiplication.multiply(this, with, transposeSelf, transposeWith)
+					.setRowName(transposeSelf ? getColName() : getRowName())
+					.setColName(transposeWith ? with.getRowName() : with.getColName());
+		long withCols = transposeWith ? with.getRows() : with.getCols();
+		Matrix ret = determineZeroCopy(with, transposeSelf ? getCols() : getRows(), withCols,
+				transposeSelf ? getRows() : getCols());
+		int cols = (int) getCols();
+		for (int col = 0; col < cols; col++)
+			for (int pos = colPtr[col]; pos < colPtr[col + 1]; pos++) {
+				long retRow = transposeSelf ? col : rowIdx[pos];
+				long between = transposeSelf ? rowIdx[pos] : col;
+				double value = values[pos];
+				for (long col2 = 0; col2 < withCols; col2++) {
+					double product = value * (transposeWith ? with.get(col2, between) : with.get(between, col2));
+					if (product != 0)
+						ret.put(retRow, col2, ret.get(retRow, col2) + product);
+				}
+			}
+		return ret.setRowName(transposeSelf ? getColName() : getRowName())
+				.setColName(transposeWith ? with.getRowName() : with.getColName());
+	}
+
+	@Override
+	public Matrix setToSymmetricNormalization() {
+		double[] outDegrees = new double[(int) getRows()];
+		double[] inDegrees = new double[(int) getCols()];
+		for (int col = 0; col < inDegrees.length; col++)
+			for (int pos = colPtr[col]; pos < colPtr[col + 1]; pos++) {
+				outDegrees[rowIdx[pos]] += values[pos];
+				inDegrees[col] += values[pos];
+			}
+		for (int col = 0; col < inDegrees.length; col++)
+			for (int pos = colPtr[col]; pos < colPtr[col + 1]; pos++) {
+				double div = Math.sqrt(outDegrees[rowIdx[pos]] * inDegrees[col]);
+				if (div != 0)
+					values[pos] /= div;
+			}
+		return this;
+	}
+
+	@Override
+	public Matrix setToASymmetricNormalization() {
+		int cols = (int) getCols();
+		for (int col = 0; col < cols; col++) {
+			double div = 0;
+			for (int pos = colPtr[col]; pos < colPtr[col + 1]; pos++)
+				div += values[pos];
+			if (div != 0)
+				for (int pos = colPtr[col]; pos < colPtr[col + 1]; pos++)
+					values[pos] /= div;
+		}
+		return this;
+	}
+
+	protected class CscIterator implements Iterator<Entry<Long, Long>>, Iterable<Entry<Long, Long>> {
+		private final FastEntry<Long, Long> ret = new FastEntry<Long, Long>();
+		private int col = 0;
+		private int pos = 0;
+
+		@Override
+		public boolean hasNext() {
+			return pos < values.length;
+		}
+
+		@Override
+		public Entry<Long, Long> next() {
+			if (pos >= values.length)
+				throw new NoSuchElementException();
+			while (colPtr[col + 1] <= pos)
+				col++;
+			ret.setKey((long) rowIdx[pos]);
+			ret.setValue((long) col);
+			pos++;
+			return ret;
+		}
+
+		@Override
+		public Iterator<Entry<Long, Long>> iterator() {
+			return this;
+		}
+	}
+
+	/**
+	 * Accesses a column of a {@link CscMatrix} by only traversing its stored
+	 * elements.
+	 */
+	protected class CscCol extends AccessCol {
+		private final int start;
+		private final int end;
+
+		public CscCol(long col) {
+			super(CscMatrix.this, col);
+			start = colPtr[(int) col];
+			end = colPtr[(int) col + 1];
+		}
+
+		@Override
+		public long estimateNumNonZeroElements() {
+			return end - start;
+		}
+
+		@Override
+		public double get(long pos) {
+			int found = Arrays.binarySearch(rowIdx, start, end, (int) pos);
+			return found < 0 ? 0 : values[found];
+		}
+
+		@Override
+		public void forEachNonZero(ElementConsumer consumer) {
+			for (int pos = start; pos < end; pos++)
+				consumer.accept(rowIdx[pos], values[pos]);
+		}
+
+		@Override
+		public Iterator<Long> traverseNonZeroElements() {
+			return new Iterator<Long>() {
+				private int pos = start;
+
+				@Override
+				public boolean hasNext() {
+					return pos < end;
+				}
+
+				@Override
+				public Long next() {
+					if (pos >= end)
+						throw new NoSuchElementException();
+					return (long) rowIdx[pos++];
+				}
+			};
+		}
+	}
+}
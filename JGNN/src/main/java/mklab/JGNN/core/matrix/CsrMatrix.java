@@ -0,0 +1,453 @@
+package mklab.JGNN.core.matrix;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Map.Entry;
+
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.util.FastEntry;
+
+/**
+ * A sparse {@link Matrix} stored in compressed sparse row (CSR) format. Non-zero
+ * elements are kept row-by-row in three primitive arrays: <code>rowPtr</code>
+ * holds where each row starts, and <code>colIdx</code> and <code>values</code>
+ * hold the column and value of each element, with columns sorted within each
+ * row. Compared to a {@link SparseMatrix}, this avoids hashing and boxing when
+ * traversing rows, at the cost of an immutable sparsity pattern: existing
+ * elements can be edited, but new non-zero elements cannot be added. Prefer
+ * creating instances with {@link Matrix#toCsr()}.
+ *
+ * @author Emmanouil Krasanakis
+ * @see CscMatrix
+ */
+public class CsrMatrix extends Matrix {
+	private int[] rowPtr;
+	private int[] colIdx;
+	private double[] values;
+	private volatile int[][] transposedIndex;
+
+	/**
+	 * Generates a CSR matrix that holds the non-zero elements of a given matrix.
+	 *
+	 * @param matrix The matrix whose elements to compress.
+	 * @see Matrix#toCsr()
+	 */
+	public CsrMatrix(Matrix matrix) {
+		super(matrix.getRows(), matrix.getCols());
+		assertIntDimensions(matrix);
+		int nnz = 0;
+		for (Entry<Long, Long> element : matrix.getNonZeroEntries())
+			if (matrix.get(element.getKey(), element.getValue()) != 0)
+				nnz++;
+		int[] rows = new int[nnz];
+		int[] cols = new int[nnz];
+		double[] vals = new double[nnz];
+		int pos = 0;
+		for (Entry<Long, Long> element : matrix.getNonZeroEntries()) {
+			long row = element.getKey();
+			long col = element.getValue();
+			double value = matrix.get(row, col);
+			if (value != 0) {
+				rows[pos] = (int) row;
+				cols[pos] = (int) col;
+				vals[pos] = value;
+				pos++;
+			}
+		}
+		rowPtr = new int[(int) getRows() + 1];
+		colIdx = new int[nnz];
+		values = new double[nnz];
+		compress((int) getRows(), (int) getCols(), rows, cols, vals, rowPtr, colIdx, values);
+		setDimensionName(matrix);
+	}
+
+	/**
+	 * Generates a CSR matrix directly from its compressed arrays. The arrays are
+	 * not copied, and column indexes should be sorted within each row.
+	 *
+	 * @param rows   The number of rows.
+	 * @param cols   The number of columns.
+	 * @param rowPtr An array of <code>rows+1</code> elements, where
+	 *               <code>rowPtr[row]</code> is the position of the row's first
+	 *               element in the other two arrays.
+	 * @param colIdx The column of each element.
+	 * @param values The value of each element.
+	 */
+	public CsrMatrix(long rows, long cols, int[] rowPtr, int[] colIdx, double[] values) {
+		super(rows, cols);
+		assertIntDimensions(this);
+		if (rowPtr.length != rows + 1 || colIdx.length != values.length || rowPtr[(int) rows] != values.length)
+			throw new IllegalArgumentException("Inconsistent compressed arrays for a " + rows + "x" + cols + " matrix");
+		this.rowPtr = rowPtr;
+		this.colIdx = colIdx;
+		this.values = values;
+	}
+
+	static void assertIntDimensions(Matrix matrix) {
+		if (matrix.getRows() >= Integer.MAX_VALUE || matrix.getCols() >= Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Compressed sparse matrices need less than MAXINT rows and columns but "
+					+ matrix.describe() + " was provided");
+	}
+
+	/**
+	 * Sorts (major, minor, value) element triplets into compressed arrays with two
+	 * stable counting sort passes, the first on minor and the second on major
+	 * indexes. This leaves minor indexes sorted within each major index.
+	 */
+	static void compress(int numMajor, int numMinor, int[] major, int[] minor, double[] vals, int[] ptr, int[] idx,
+			double[] sorted) {
+		int nnz = vals.length;
+		int[] minorPtr = new int[numMinor + 1];
+		for (int i = 0; i < nnz; i++)
+			minorPtr[minor[i] + 1]++;
+		for (int i = 0; i < numMinor; i++)
+			minorPtr[i + 1] += minorPtr[i];
+		int[] order = new int[nnz];
+		for (int i = 0; i < nnz; i++)
+			order[minorPtr[minor[i]]++] = i;
+		for (int i = 0; i < nnz; i++)
+			ptr[major[i] + 1]++;
+		for (int i = 0; i < numMajor; i++)
+			ptr[i + 1] += ptr[i];
+		int[] next = Arrays.copyOf(ptr, numMajor);
+		for (int i : order) {
+			int pos = next[major[i]]++;
+			idx[pos] = minor[i];
+			sorted[pos] = vals[i];
+		}
+	}
+
+	/**
+	 * Creates the index of the transposed sparsity pattern with a counting sort,
+	 * in the form <code>{ptr, idx, origin}</code>, where <code>origin</code> holds
+	 * the position of each transposed element in the original arrays. Since the
+	 * traversal follows the original major index order, transposed minor indexes
+	 * are sorted.
+	 */
+	static int[][] transposeIndex(int numMajor, int numMinor, int[] ptr, int[] idx) {
+		int[] transposedPtr = new int[numMinor + 1];
+		for (int i : idx)
+			transposedPtr[i + 1]++;
+		for (int i = 0; i < numMinor; i++)
+			transposedPtr[i + 1] += transposedPtr[i];
+		int[] next = Arrays.copyOf(transposedPtr, numMinor);
+		int[] transposedIdx = new int[idx.length];
+		int[] origin = new int[idx.length];
+		for (int major = 0; major < numMajor; major++)
+			for (int pos = ptr[major]; pos < ptr[major + 1]; pos++) {
+				int transposedPos = next[idx[pos]]++;
+				transposedIdx[transposedPos] = major;
+				origin[transposedPos] = pos;
+			}
+		return new int[][] { transposedPtr, transposedIdx, origin };
+	}
+
+	/**
+	 * Retrieves a column-wise index of the (immutable) sparsity pattern, which is
+	 * created on first access. Values of the column-wise element at position
+	 * <code>i</code> lie at <code>getValues()[origin[i]]</code>.
+	 *
+	 * @return An array <code>{colPtr, rowIdx, origin}</code>.
+	 */
+	int[][] getTransposedIndex() {
+		if (transposedIndex == null)
+			transposedIndex = transposeIndex((int) getRows(), (int) getCols(), rowPtr, colIdx);
+		return transposedIndex;
+	}
+
+	/**
+	 * Retrieves the row pointer array. This is shared with the matrix and should
+	 * not be edited.
+	 *
+	 * @return An array of <code>getRows()+1</code> elements.
+	 */
+	public int[] getRowPtr() {
+		return rowPtr;
+	}
+
+	/**
+	 * Retrieves the column index of each non-zero element. This is shared with
+	 * the matrix and should not be edited.
+	 *
+	 * @return An array of column indexes.
+	 */
+	public int[] getColIdx() {
+		return colIdx;
+	}
+
+	/**
+	 * Retrieves the value of each non-zero element. This is shared with the
+	 * matrix, so editing it edits matrix elements.
+	 *
+	 * @return An array of element values.
+	 */
+	public double[] getValues() {
+		return values;
+	}
+
+	private int find(int row, int col) {
+		int pos = Arrays.binarySearch(colIdx, rowPtr[row], rowPtr[row + 1], col);
+		return pos < 0 ? -1 : pos;
+	}
+
+	@Override
+	public Matrix zeroCopy(long rows, long cols) {
+		return new SparseMatrix(rows, cols);
+	}
+
+	@Override
+	protected void allocate(long size) {
+	}
+
+	@Override
+	public Tensor put(long pos, double value) {
+		put(pos % getRows(), pos / getRows(), value);
+		return this;
+	}
+
+	@Override
+	public Matrix put(long row, long col, double value) {
+		if (row < 0 || col < 0 || row >= getRows() || col >= getCols())
+			throw new IllegalArgumentException("Element (" + row + "," + col + ") out of range for " + describe());
+		int pos = find((int) row, (int) col);
+		if (pos != -1)
+			values[pos] = value;
+		else if (value != 0)
+			throw new UnsupportedOperationException(
+					"Cannot add element (" + row + "," + col + ") to the fixed sparsity pattern of " + describe());
+		return this;
+	}
+
+	@Override
+	public double get(long pos) {
+		return get(pos % getRows(), pos / getRows());
+	}
+
+	@Override
+	public double get(long row, long col) {
+		if (row < 0 || col < 0 || row >= getRows() || col >= getCols())
+			throw new IllegalArgumentException("Element (" + row + "," + col + ") out of range for " + describe());
+		int pos = find((int) row, (int) col);
+		return pos == -1 ? 0 : values[pos];
+	}
+
+	@Override
+	public Iterator<Long> traverseNonZeroElements() {
+		long rows = getRows();
+		return new Iterator<Long>() {
+			private final CsrIterator entries = new CsrIterator();
+
+			@Override
+			public boolean hasNext() {
+				return entries.hasNext();
+			}
+
+			@Override
+			public Long next() {
+				Entry<Long, Long> entry = entries.next();
+				return entry.getKey() + entry.getValue() * rows;
+			}
+		};
+	}
+
+	@Override
+	public Iterable<Entry<Long, Long>> getNonZeroEntries() {
+		return new CsrIterator();
+	}
+
+	@Override
+	public void forEachNonZero(ElementConsumer consumer) {
+		long rows = getRows();
+		for (int row = 0; row < rowPtr.length - 1; row++)
+			for (int pos = rowPtr[row]; pos < rowPtr[row + 1]; pos++)
+				consumer.accept(row + colIdx[pos] * rows, values[pos]);
+	}
+
+	@Override
+	public void forEachNonZero(EntryConsumer consumer) {
+		for (int row = 0; row < rowPtr.length - 1; row++)
+			for (int pos = rowPtr[row]; pos < rowPtr[row + 1]; pos++)
+				consumer.accept(row, colIdx[pos], values[pos]);
+	}
+
+	@Override
+	public long estimateNumNonZeroElements() {
+		return values.length;
+	}
+
+	@Override
+	public String describe() {
+		return super.describe() + " " + estimateNumNonZeroElements() + "/" + (getRows() * getCols()) + " entries";
+	}
+
+	@Override
+	public void release() {
+	}
+
+	@Override
+	public void persist() {
+	}
+
+	@Override
+	public Tensor accessRow(long row) {
+		return new CsrRow(row);
+	}
+
+	@Override
+	public Matrix transposed() {
+		return new CscMatrix(getCols(), getRows(), rowPtr.clone(), colIdx.clone(), values.clone())
+				.setDimensionName(getColName(), getRowName());
+	}
+
+	@Override
+	public Matrix matmul(Matrix with) {
+		if (getCols() != with.getRows())
+			throw new IllegalArgumentException(
+					"Mismatched matrix sizes between " + describe() + " and " + with.describe());
+		if (getColName() != null && with.getRowName() != null && !getColName().equals(with.getRowName()))
+			throw new IllegalArgumentException(
+					"Mismatched matrix dimension names between " + describe() + " and " + with.describe());
+		return matmul(with, false, false);
+	}
+
+	@Override
+	public Matrix matmul(Matrix with, boolean transposeSelf, boolean transposeWith) {
+		if ((transposeSelf ? getRows() : getCols()) != (transposeWith ? with.getCols() : with.getRows()))
+			throw new IllegalArgumentException("Mismatched matrix sizes");
+		String selfName = transposeSelf ? getRowName() : getColName();
+		String withName = transposeWith ? with.getColName() : with.getRowName();
+		if (selfName != null && withName != null && !selfName.equals(withName))
+			throw new IllegalArgumentException("Mismatched matrix dimension names");
+		if (SparseDenseMultiplication.isApplicable(this, with))
+			return SparseDenseMultiplication.multiply(this, with, transposeSelf, transposeWith)
+					.setRowName(transposeSelf ? getColName() : getRowName())
+					.setColName(transposeWith ? with.getRowName() : with.getColName());
+		long withCols = transposeWith ? with.getRows() : with.getCols();
+		Matrix ret = determineZeroCopy(with, transposeSelf ? getCols() : getRows(), withCols,
+				transposeSelf ? getRows() : getCols());
+		int rows = (int) getRows();
+		for (int row = 0; row < rows; row++)
+			for (int pos = rowPtr[row]; pos < rowPtr[row + 1]; pos++) {
+				long retRow = transposeSelf ? colIdx[pos] : row;
+				long between = transposeSelf ? row : colIdx[pos];
+				double value = values[pos];
+				for (long col2 = 0; col2 < withCols; col2++) {
+					double product = value * (transposeWith ? with.get(col2, between) : with.get(between, col2));
+					if (product != 0)
+						ret.put(retRow, col2, ret.get(retRow, col2) + product);
+				}
+			}
+		return ret.setRowName(transposeSelf ? getColName() : getRowName())
+				.setColName(transposeWith ? with.getRowName() : with.getColName());
+	}
+
+	@Override
+	public Matrix setToSymmetricNormalization() {
+		double[] outDegrees = new double[(int) getRows()];
+		double[] inDegrees = new double[(int) getCols()];
+		for (int row = 0; row < outDegrees.length; row++)
+			for (int pos = rowPtr[row]; pos < rowPtr[row + 1]; pos++) {
+				outDegrees[row] += values[pos];
+				inDegrees[colIdx[pos]] += values[pos];
+			}
+		for (int row = 0; row < outDegrees.length; row++)
+			for (int pos = rowPtr[row]; pos < rowPtr[row + 1]; pos++) {
+				double div = Math.sqrt(outDegrees[row] * inDegrees[colIdx[pos]]);
+				if (div != 0)
+					values[pos] /= div;
+			}
+		return this;
+	}
+
+	@Override
+	public Matrix setToASymmetricNormalization() {
+		double[] inDegrees = new double[(int) getCols()];
+		for (int pos = 0; pos < values.length; pos++)
+			inDegrees[colIdx[pos]] += values[pos];
+		for (int pos = 0; pos < values.length; pos++)
+			if (inDegrees[colIdx[pos]] != 0)
+				values[pos] /= inDegrees[colIdx[pos]];
+		return this;
+	}
+
+	protected class CsrIterator implements Iterator<Entry<Long, Long>>, Iterable<Entry<Long, Long>> {
+		private final FastEntry<Long, Long> ret = new FastEntry<Long, Long>();
+		private int row = 0;
+		private int pos = 0;
+
+		@Override
+		public boolean hasNext() {
+			return pos < values.length;
+		}
+
+		@Override
+		public Entry<Long, Long> next() {
+			if (pos >= values.length)
+				throw new NoSuchElementException();
+			while (rowPtr[row + 1] <= pos)
+				row++;
+			ret.setKey((long) row);
+			ret.setValue((long) colIdx[pos]);
+			pos++;
+			return ret;
+		}
+
+		@Override
+		public Iterator<Entry<Long, Long>> iterator() {
+			return this;
+		}
+	}
+
+	/**
+	 * Accesses a row of a {@link CsrMatrix} by only traversing its stored
+	 * elements.
+	 */
+	protected class CsrRow extends AccessRow {
+		private final int start;
+		private final int end;
+
+		public CsrRow(long row) {
+			super(CsrMatrix.this, row);
+			start = rowPtr[(int) row];
+			end = rowPtr[(int) row + 1];
+		}
+
+		@Override
+		public long estimateNumNonZeroElements() {
+			return end - start;
+		}
+
+		@Override
+		public double get(long pos) {
+			int found = Arrays.binarySearch(colIdx, start, end, (int) pos);
+			return found < 0 ? 0 : values[found];
+		}
+
+		@Override
+		public void forEachNonZero(ElementConsumer consumer) {
+			for (int pos = start; pos < end; pos++)
+				consumer.accept(colIdx[pos], values[pos]);
+		}
+
+		@Override
+		public Iterator<Long> traverseNonZeroElements() {
+			return new Iterator<Long>() {
+				private int pos = start;
+
+				@Override
+				public boolean hasNext() {
+					return pos < end;
+				}
+
+				@Override
+				public Long next() {
+					if (pos >= end)
+						throw new NoSuchElementException();
+					return (long) colIdx[pos++];
+				}
+			};
+		}
+	}
+}
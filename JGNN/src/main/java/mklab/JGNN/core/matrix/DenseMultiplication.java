@@ -0,0 +1,186 @@
+package mklab.JGNN.core.matrix;
+
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Parallelism;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.tensor.VectorizedTensor;
+
+/**
+ * Implements a cache-blocked multiplication between two dense matrices
+ * ({@link DenseMatrix} or {@link VectorizedMatrix}), where either can be
+ * transposed. The left operand is split into blocks of {@value #MC} rows and
+ * {@value #KC} inner elements, and the right operand into blocks of
+ * {@value #KC} inner elements and {@value #NC} columns. Blocks are packed into
+ * contiguous panels so that the innermost kernel, which computes a small tile
+ * of the result in registers, only performs sequential reads. The kernel uses
+ * the vector API when {@link Tensor#vectorization} is enabled. Blocks of rows
+ * run in parallel when {@link Parallelism} is enabled.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class DenseMultiplication {
+	/** The number of result columns computed by each kernel call. */
+	public static final int NR = 4;
+	/** The number of rows of left operand blocks. */
+	public static final int MC = 128;
+	/** The number of inner elements of each block. */
+	public static final int KC = 256;
+	/** The number of columns of right operand blocks. */
+	public static final int NC = 1024;
+
+	private DenseMultiplication() {
+	}
+
+	static double[] values(Matrix matrix) {
+		return matrix instanceof VectorizedMatrix ? ((VectorizedMatrix) matrix).tensor.values
+				: ((DenseMatrix) matrix).tensor.values;
+	}
+
+	/**
+	 * Adds the product of two dense matrices to a dense result. Dimension checks
+	 * are left to the caller.
+	 *
+	 * @param left           The left operand.
+	 * @param right          The right operand.
+	 * @param transposeLeft  Whether the left operand should be transposed.
+	 * @param transposeRight Whether the right operand should be transposed.
+	 * @param ret            The matrix in which to accumulate the product.
+	 * @return The result matrix.
+	 */
+	public static Matrix multiply(Matrix left, Matrix right, boolean transposeLeft, boolean transposeRight,
+			Matrix ret) {
+		int rows = (int) ret.getRows();
+		int cols = (int) ret.getCols();
+		int between = (int) (transposeLeft ? left.getRows() : left.getCols());
+		// element (i,k) of the (transposed) left operand lies at i*leftRowStride+k*leftInnerStride
+		int leftRowStride = transposeLeft ? between : 1;
+		int leftInnerStride = transposeLeft ? 1 : rows;
+		// element (k,j) of the (transposed) right operand lies at k*rightInnerStride+j*rightColStride
+		int rightInnerStride = transposeRight ? cols : 1;
+		int rightColStride = transposeRight ? 1 : between;
+		multiply(values(left), leftRowStride, leftInnerStride, values(right), rightInnerStride, rightColStride,
+				values(ret), rows, cols, between);
+		return ret;
+	}
+
+	private static void multiply(double[] left, int leftRowStride, int leftInnerStride, double[] right,
+			int rightInnerStride, int rightColStride, double[] ret, int rows, int cols, int between) {
+		boolean vectorized = Tensor.vectorization;
+		int mr = vectorized ? 2 * VectorizedTensor.SPECIES.length() : 4;
+		int blocks = (rows + MC - 1) / MC;
+		double[] packedRight = new double[Math.min(NC, (cols + NR - 1) / NR * NR) * KC];
+		for (int jc = 0; jc < cols; jc += NC) {
+			int nc = Math.min(NC, cols - jc);
+			for (int pc = 0; pc < between; pc += KC) {
+				int kc = Math.min(KC, between - pc);
+				packRight(right, rightInnerStride, rightColStride, pc, kc, jc, nc, packedRight);
+				int j0 = jc;
+				int p0 = pc;
+				// row blocks write to disjoint parts of the result and share the packed right block
+				Parallelism.forRange(0, blocks, 1, (from, to) -> {
+					double[] packedLeft = new double[MC * KC];
+					double[] tile = new double[mr * NR];
+					for (int block = from; block < to; block++) {
+						int ic = block * MC;
+						int mc = Math.min(MC, rows - ic);
+						packLeft(left, leftRowStride, leftInnerStride, ic, mc, p0, kc, mr, packedLeft);
+						multiplyBlock(vectorized, mr, kc, mc, nc, packedLeft, packedRight, tile, ret,
+								ic + j0 * rows, rows);
+					}
+				});
+			}
+		}
+	}
+
+	private static void multiplyBlock(boolean vectorized, int mr, int kc, int mc, int nc, double[] packedLeft,
+			double[] packedRight, double[] tile, double[] ret, int blockOffset, int rows) {
+		for (int jr = 0; jr < nc; jr += NR) {
+			int validCols = Math.min(NR, nc - jr);
+			for (int ir = 0; ir < mc; ir += mr) {
+				int validRows = Math.min(mr, mc - ir);
+				int retOffset = blockOffset + ir + jr * rows;
+				if (validRows == mr && validCols == NR)
+					kernel(vectorized, mr, kc, packedLeft, ir * kc, packedRight, jr * kc, ret, retOffset, rows);
+				else {
+					for (int i = 0; i < tile.length; i++)
+						tile[i] = 0;
+					kernel(vectorized, mr, kc, packedLeft, ir * kc, packedRight, jr * kc, tile, 0, mr);
+					for (int j = 0; j < validCols; j++)
+						for (int i = 0; i < validRows; i++)
+							ret[retOffset + i + j * rows] += tile[i + j * mr];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Packs a block of the left operand into slivers of <code>mr</code> rows, each
+	 * holding <code>mr</code> consecutive values per inner element. Rows beyond
+	 * the block are padded with zeros.
+	 */
+	private static void packLeft(double[] left, int rowStride, int innerStride, int i0, int mc, int p0, int kc,
+			int mr, double[] packed) {
+		int pos = 0;
+		for (int ir = 0; ir < mc; ir += mr) {
+			int validRows = Math.min(mr, mc - ir);
+			for (int k = 0; k < kc; k++) {
+				int offset = (i0 + ir) * rowStride + (p0 + k) * innerStride;
+				int i = 0;
+				for (; i < validRows; i++)
+					packed[pos++] = left[offset + i * rowStride];
+				for (; i < mr; i++)
+					packed[pos++] = 0;
+			}
+		}
+	}
+
+	/**
+	 * Packs a block of the right operand into slivers of {@link #NR} columns, each
+	 * holding {@link #NR} consecutive values per inner element. Columns beyond the
+	 * block are padded with zeros.
+	 */
+	private static void packRight(double[] right, int innerStride, int colStride, int p0, int kc, int j0, int nc,
+			double[] packed) {
+		int pos = 0;
+		for (int jr = 0; jr < nc; jr += NR) {
+			int validCols = Math.min(NR, nc - jr);
+			for (int k = 0; k < kc; k++) {
+				int offset = (p0 + k) * innerStride + (j0 + jr) * colStride;
+				int j = 0;
+				for (; j < validCols; j++)
+					packed[pos++] = right[offset + j * colStride];
+				for (; j < NR; j++)
+					packed[pos++] = 0;
+			}
+		}
+	}
+
+	private static void kernel(boolean vectorized, int mr, int kc, double[] left, int leftOffset, double[] right,
+			int rightOffset, double[] ret, int retOffset, int retRows) {
+		if (vectorized) {
+			VectorizedTensor.multiplyPanels(kc, left, leftOffset, right, rightOffset, ret, retOffset, retRows);
+			return;
+		}
+		double c00 = 0, c01 = 0, c02 = 0, c03 = 0;
+		double c10 = 0, c11 = 0, c12 = 0, c13 = 0;
+		double c20 = 0, c21 = 0, c22 = 0, c23 = 0;
+		double c30 = 0, c31 = 0, c32 = 0, c33 = 0;
+		for (int k = 0; k < kc; k++) {
+			int a = leftOffset + k * 4;
+			int b = rightOffset + k * NR;
+			double a0 = left[a], a1 = left[a + 1], a2 = left[a + 2], a3 = left[a + 3];
+			double b0 = right[b], b1 = right[b + 1], b2 = right[b + 2], b3 = right[b + 3];
+			c00 += a0 * b0; c01 += a0 * b1; c02 += a0 * b2; c03 += a0 * b3;
+			c10 += a1 * b0; c11 += a1 * b1; c12 += a1 * b2; c13 += a1 * b3;
+			c20 += a2 * b0; c21 += a2 * b1; c22 += a2 * b2; c23 += a2 * b3;
+			c30 += a3 * b0; c31 += a3 * b1; c32 += a3 * b2; c33 += a3 * b3;
+		}
+		ret[retOffset] += c00; ret[retOffset + 1] += c10; ret[retOffset + 2] += c20; ret[retOffset + 3] += c30;
+		retOffset += retRows;
+		ret[retOffset] += c01; ret[retOffset + 1] += c11; ret[retOffset + 2] += c21; ret[retOffset + 3] += c31;
+		retOffset += retRows;
+		ret[retOffset] += c02; ret[retOffset + 1] += c12; ret[retOffset + 2] += c22; ret[retOffset + 3] += c32;
+		retOffset += retRows;
+		ret[retOffset] += c03; ret[retOffset + 1] += c13; ret[retOffset + 2] += c23; ret[retOffset + 3] += c33;
+	}
+}
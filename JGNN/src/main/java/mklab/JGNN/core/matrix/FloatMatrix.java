@@ -0,0 +1,262 @@
+package mklab.JGNN.core.matrix;
+
+import java.util.Iterator;
+import java.util.Map.Entry;
+
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Parallelism;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.tensor.FloatTensor;
+import mklab.JGNN.core.tensor.VectorizedFloatTensor;
+import mklab.JGNN.core.util.Range2D;
+
+/**
+ * Implements a dense {@link Matrix} whose elements are stored in memory with
+ * single precision. This halves the memory of {@link DenseMatrix} and lets
+ * vectorized operations process twice as many elements per instruction. Large
+ * matrices are backed by a {@link VectorizedFloatTensor} when
+ * {@link Tensor#vectorization} is enabled.
+ *
+ * @author Emmanouil Krasanakis
+ * @see SparseFloatMatrix
+ */
+public class FloatMatrix extends Matrix {
+	FloatTensor tensor;
+
+	/**
+	 * Generates a dense single-precision matrix with the designated number of rows
+	 * and columns.
+	 *
+	 * @param rows The number of rows.
+	 * @param cols The number of columns.
+	 */
+	public FloatMatrix(long rows, long cols) {
+		super(rows, cols);
+	}
+
+	@Override
+	public Matrix zeroCopy(long rows, long cols) {
+		return new FloatMatrix(rows, cols).setDimensionName(getRowName(), getColName());
+	}
+
+	@Override
+	protected void allocate(long size) {
+		tensor = size >= 100000 && vectorization ? new VectorizedFloatTensor(size) : new FloatTensor(size);
+	}
+
+	@Override
+	public Tensor put(long pos, double value) {
+		tensor.put(pos, value);
+		return this;
+	}
+
+	@Override
+	public double get(long pos) {
+		return tensor.get(pos);
+	}
+
+	@Override
+	public Iterator<Long> traverseNonZeroElements() {
+		return tensor.traverseNonZeroElements();
+	}
+
+	@Override
+	public Iterable<Entry<Long, Long>> getNonZeroEntries() {
+		return new Range2D(0, getRows(), 0, getCols());
+	}
+
+	@Override
+	public void forEachNonZero(ElementConsumer consumer) {
+		tensor.forEachNonZero(consumer);
+	}
+
+	@Override
+	public void forEachNonZero(EntryConsumer consumer) {
+		float[] values = tensor.values;
+		int rows = (int) getRows();
+		int cols = (int) getCols();
+		for (int col = 0; col < cols; col++) {
+			int offset = col * rows;
+			for (int row = 0; row < rows; row++)
+				consumer.accept(row, col, values[offset + row]);
+		}
+	}
+
+	@Override
+	public void release() {
+		tensor.release();
+	}
+
+	@Override
+	public void persist() {
+		tensor.persist();
+	}
+
+	@Override
+	public Tensor copy() {
+		FloatMatrix ret = new FloatMatrix(getRows(), getCols());
+		System.arraycopy(tensor.values, 0, ret.tensor.values, 0, tensor.values.length);
+		return ret.setDimensionName(this);
+	}
+
+	@Override
+	public Tensor add(Tensor other) {
+		if (other instanceof FloatMatrix)
+			return copy().selfAdd(other);
+		return super.add(other);
+	}
+
+	@Override
+	public Tensor selfAdd(Tensor other) {
+		if (other instanceof FloatMatrix) {
+			assertMatching(other);
+			tensor.selfAdd(((FloatMatrix) other).tensor);
+			return this;
+		}
+		return super.selfAdd(other);
+	}
+
+	@Override
+	public Tensor subtract(Tensor other) {
+		if (other instanceof FloatMatrix)
+			return copy().selfSubtract(other);
+		return super.subtract(other);
+	}
+
+	@Override
+	public Tensor selfSubtract(Tensor other) {
+		if (other instanceof FloatMatrix) {
+			assertMatching(other);
+			tensor.selfSubtract(((FloatMatrix) other).tensor);
+			return this;
+		}
+		return super.selfSubtract(other);
+	}
+
+	@Override
+	public Tensor multiply(Tensor other) {
+		if (other instanceof FloatMatrix)
+			return copy().selfMultiply(other);
+		return super.multiply(other);
+	}
+
+	@Override
+	public Tensor selfMultiply(Tensor other) {
+		if (other instanceof FloatMatrix) {
+			assertMatching(other);
+			tensor.selfMultiply(((FloatMatrix) other).tensor);
+			return this;
+		}
+		return super.selfMultiply(other);
+	}
+
+	@Override
+	public Tensor multiply(double value) {
+		return copy().selfMultiply(value);
+	}
+
+	@Override
+	public Tensor selfMultiply(double value) {
+		tensor.selfMultiply(value);
+		return this;
+	}
+
+	@Override
+	public Matrix matmul(Matrix with) {
+		if (!(with instanceof FloatMatrix))
+			return super.matmul(with);
+		if (getCols() != with.getRows())
+			throw new IllegalArgumentException(
+					"Mismatched matrix sizes between " + describe() + " and " + with.describe());
+		if (getColName() != null && with.getRowName() != null && !getColName().equals(with.getRowName()))
+			throw new IllegalArgumentException(
+					"Mismatched matrix dimension names between " + describe() + " and " + with.describe());
+		FloatMatrix ret = new FloatMatrix(getRows(), with.getCols());
+		multiply(this, (FloatMatrix) with, false, false, ret);
+		return ret.setRowName(getRowName()).setColName(with.getColName());
+	}
+
+	@Override
+	public Matrix matmul(Matrix with, boolean transposeThis, boolean transposeWith) {
+		if (!(with instanceof FloatMatrix))
+			return super.matmul(with, transposeThis, transposeWith);
+		long colsThis = transposeThis ? getRows() : getCols();
+		long rowsWith = transposeWith ? with.getCols() : with.getRows();
+		if (colsThis != rowsWith)
+			throw new IllegalArgumentException("Mismatched matrix sizes");
+		if ((transposeThis ? getRowName() : getColName()) != null
+				&& (transposeWith ? with.getColName() : with.getRowName()) != null
+				&& !(transposeThis ? getRowName() : getColName())
+						.equals(transposeWith ? with.getColName() : with.getRowName()))
+			throw new IllegalArgumentException("Mismatched matrix dimension names");
+		FloatMatrix ret = new FloatMatrix(transposeThis ? getCols() : getRows(),
+				transposeWith ? with.getRows() : with.getCols());
+		multiply(this, (FloatMatrix) with, transposeThis, transposeWith, ret);
+		return ret.setRowName(transposeThis ? getColName() : getRowName())
+				.setColName(transposeWith ? with.getRowName() : with.getColName());
+	}
+
+	/**
+	 * Accumulates the product of two single-precision matrices column by column.
+	 * When the left operand is not transposed, each result column adds scaled
+	 * columns of the left operand, which are contiguous in memory. Otherwise,
+	 * result elements are dot products between the (contiguous) columns of the
+	 * stored operands. Result columns are split into parallel ranges when
+	 * {@link Parallelism} is enabled.
+	 */
+	private static void multiply(FloatMatrix left, FloatMatrix right, boolean transposeLeft, boolean transposeRight,
+			FloatMatrix ret) {
+		int rows = (int) ret.getRows();
+		int cols = (int) ret.getCols();
+		int between = (int) (transposeLeft ? left.getRows() : left.getCols());
+		// element (i,k) of the (transposed) left operand lies at i*leftRowStride+k*leftInnerStride
+		int leftRowStride = transposeLeft ? between : 1;
+		int leftInnerStride = transposeLeft ? 1 : rows;
+		// element (k,j) of the (transposed) right operand lies at k*rightInnerStride+j*rightColStride
+		int rightInnerStride = transposeRight ? cols : 1;
+		int rightColStride = transposeRight ? 1 : between;
+		float[] leftValues = left.tensor.values;
+		float[] rightValues = right.tensor.values;
+		float[] retValues = ret.tensor.values;
+		boolean vectorized = vectorization;
+		Parallelism.forRange(0, cols, Math.max(1, Parallelism.GRAIN / Math.max(rows, 1)), (from, to) -> {
+			for (int col = from; col < to; col++) {
+				int retOffset = col * rows;
+				if (!transposeLeft) {
+					for (int k = 0; k < between; k++) {
+						float scale = rightValues[k * rightInnerStride + col * rightColStride];
+						if (scale == 0)
+							continue;
+						int leftOffset = k * leftInnerStride;
+						if (vectorized)
+							VectorizedFloatTensor.axpy(scale, leftValues, leftOffset, retValues, retOffset, rows);
+						else
+							for (int row = 0; row < rows; row++)
+								retValues[retOffset + row] += scale * leftValues[leftOffset + row];
+					}
+				} else if (!transposeRight) {
+					int rightOffset = col * rightColStride;
+					for (int row = 0; row < rows; row++) {
+						int leftOffset = row * leftRowStride;
+						if (vectorized)
+							retValues[retOffset + row] += VectorizedFloatTensor.dot(leftValues, leftOffset, rightValues,
+									rightOffset, between);
+						else {
+							float sum = 0;
+							for (int k = 0; k < between; k++)
+								sum += leftValues[leftOffset + k] * rightValues[rightOffset + k];
+							retValues[retOffset + row] += sum;
+						}
+					}
+				} else
+					for (int row = 0; row < rows; row++) {
+						float sum = 0;
+						for (int k = 0; k < between; k++)
+							sum += leftValues[row * leftRowStride + k * leftInnerStride]
+									* rightValues[k * rightInnerStride + col * rightColStride];
+						retValues[retOffset + row] += sum;
+					}
+			}
+		});
+	}
+}
@@ -0,0 +1,215 @@
+package mklab.JGNN.core.matrix;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Map.Entry;
+
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Parallelism;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.tensor.VectorizedTensor;
+import mklab.JGNN.core.util.Range;
+import mklab.JGNN.core.util.Range2D;
+
+/**
+ * Implements a dense {@link Matrix} whose elements are stored in a
+ * memory-mapped file instead of the Java heap, in the same column-major order
+ * as {@link DenseMatrix}. The operating system pages elements in and out of
+ * memory as they are accessed, which lets large dense matrices that are
+ * written once and read often, such as precomputed node representations,
+ * exceed the available heap. The file is split into mappings of at most
+ * 2<sup>27</sup> elements each, and matrices can occupy different regions of
+ * the same file. Operations that create new matrices return in-memory
+ * {@link DenseMatrix} instances. Multiplications with dense matrices read
+ * contiguous column segments in bulk and split rows into ranges that run in
+ * parallel when {@link Parallelism} is enabled, so that mapped node
+ * representations can be directly multiplied with model parameters.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class MappedMatrix extends Matrix {
+	private static final int CHUNK = 1 << 27;
+	private DoubleBuffer[] chunks;
+
+	/**
+	 * Generates a dense matrix that stores its elements in a region of a file. The
+	 * file is created if it does not exist and is extended as needed. Existing
+	 * contents of the region become the initial matrix elements.
+	 *
+	 * @param rows   The number of rows.
+	 * @param cols   The number of columns.
+	 * @param file   The file in which to store elements.
+	 * @param offset The position of the first element within the file, in bytes.
+	 */
+	public MappedMatrix(long rows, long cols, Path file, long offset) {
+		super(rows, cols);
+		long size = rows * cols;
+		chunks = new DoubleBuffer[(int) ((size + CHUNK - 1) / CHUNK)];
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			for (int chunk = 0; chunk < chunks.length; chunk++) {
+				long length = Math.min(CHUNK, size - (long) chunk * CHUNK);
+				chunks[chunk] = channel
+						.map(FileChannel.MapMode.READ_WRITE, offset + (long) chunk * CHUNK * Double.BYTES,
+								length * Double.BYTES)
+						.order(ByteOrder.nativeOrder()).asDoubleBuffer();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Could not map " + describe() + " to file " + file, e);
+		}
+	}
+
+	@Override
+	public Matrix zeroCopy(long rows, long cols) {
+		return new DenseMatrix(rows, cols).setDimensionName(getRowName(), getColName());
+	}
+
+	@Override
+	protected void allocate(long size) {
+		// elements are mapped by the constructor
+	}
+
+	@Override
+	public Tensor put(long pos, double value) {
+		chunks[(int) (pos / CHUNK)].put((int) (pos % CHUNK), value);
+		return this;
+	}
+
+	@Override
+	public double get(long pos) {
+		return chunks[(int) (pos / CHUNK)].get((int) (pos % CHUNK));
+	}
+
+	/**
+	 * Copies a range of consecutive elements (in column-major order) into an array
+	 * with bulk reads.
+	 *
+	 * @param pos    The position of the first element to read.
+	 * @param target The array to copy elements into.
+	 * @param offset The position of the first copied element within the array.
+	 * @param length The number of elements to copy.
+	 */
+	public void get(long pos, double[] target, int offset, int length) {
+		while (length > 0) {
+			int chunkPos = (int) (pos % CHUNK);
+			int count = Math.min(length, CHUNK - chunkPos);
+			chunks[(int) (pos / CHUNK)].get(chunkPos, target, offset, count);
+			pos += count;
+			offset += count;
+			length -= count;
+		}
+	}
+
+	/**
+	 * Copies an array into a range of consecutive elements (in column-major order)
+	 * with bulk writes.
+	 *
+	 * @param pos    The position of the first element to write.
+	 * @param source The array to copy elements from.
+	 * @param offset The position of the first copied element within the array.
+	 * @param length The number of elements to copy.
+	 * @return <code>this</code> MappedMatrix instance.
+	 */
+	public MappedMatrix put(long pos, double[] source, int offset, int length) {
+		while (length > 0) {
+			int chunkPos = (int) (pos % CHUNK);
+			int count = Math.min(length, CHUNK - chunkPos);
+			chunks[(int) (pos / CHUNK)].put(chunkPos, source, offset, count);
+			pos += count;
+			offset += count;
+			length -= count;
+		}
+		return this;
+	}
+
+	@Override
+	public Matrix matmul(Matrix with) {
+		if (getCols() != with.getRows())
+			throw new IllegalArgumentException(
+					"Mismatched matrix sizes between " + describe() + " and " + with.describe());
+		if (getColName() != null && with.getRowName() != null && !getColName().equals(with.getRowName()))
+			throw new IllegalArgumentException(
+					"Mismatched matrix dimension names between " + describe() + " and " + with.describe());
+		return matmul(with, false, false);
+	}
+
+	@Override
+	public Matrix matmul(Matrix with, boolean transposeSelf, boolean transposeWith) {
+		if (transposeWith || !(with instanceof DenseMatrix || with instanceof VectorizedMatrix)
+				|| getRows() >= Integer.MAX_VALUE || getCols() >= Integer.MAX_VALUE)
+			return super.matmul(with, transposeSelf, transposeWith);
+		if ((transposeSelf ? getRows() : getCols()) != with.getRows())
+			throw new IllegalArgumentException("Mismatched matrix sizes");
+		String selfName = transposeSelf ? getRowName() : getColName();
+		if (selfName != null && with.getRowName() != null && !selfName.equals(with.getRowName()))
+			throw new IllegalArgumentException("Mismatched matrix dimension names");
+		int rows = (int) getRows();
+		int cols = (int) getCols();
+		int withCols = (int) with.getCols();
+		double[] withValues = with instanceof DenseMatrix ? ((DenseMatrix) with).getValues()
+				: ((VectorizedMatrix) with).getValues();
+		DenseMatrix ret = new DenseMatrix(transposeSelf ? cols : rows, withCols);
+		double[] retValues = ret.getValues();
+		if (transposeSelf)
+			// each column of this matrix is multiplied with each column of the other
+			Parallelism.forRange(0, cols, Math.max(1, Parallelism.GRAIN / Math.max(1, rows)), (from, to) -> {
+				double[] column = new double[rows];
+				for (int col = from; col < to; col++) {
+					get((long) col * rows, column, 0, rows);
+					for (int withCol = 0; withCol < withCols; withCol++)
+						retValues[col + withCol * cols] = vectorization
+								? VectorizedTensor.dot(column, 0, withValues, withCol * rows, rows)
+								: dot(column, withValues, withCol * rows, rows);
+				}
+			});
+		else
+			// each row range accumulates scaled column segments of this matrix
+			Parallelism.forRange(0, rows, Math.max(1, Parallelism.GRAIN / Math.max(1, cols)), (from, to) -> {
+				double[] segment = new double[to - from];
+				for (int col = 0; col < cols; col++) {
+					get((long) col * rows + from, segment, 0, to - from);
+					for (int withCol = 0; withCol < withCols; withCol++) {
+						double value = withValues[col + withCol * cols];
+						if (value == 0)
+							continue;
+						if (vectorization)
+							VectorizedTensor.axpy(value, segment, 0, retValues, withCol * rows + from, to - from);
+						else
+							for (int i = 0; i < to - from; i++)
+								retValues[withCol * rows + from + i] += value * segment[i];
+					}
+				}
+			});
+		return ret.setRowName(transposeSelf ? getColName() : getRowName()).setColName(with.getColName());
+	}
+
+	private static double dot(double[] column, double[] values, int offset, int length) {
+		double ret = 0;
+		for (int i = 0; i < length; i++)
+			ret += column[i] * values[offset + i];
+		return ret;
+	}
+
+	@Override
+	public Iterator<Long> traverseNonZeroElements() {
+		return new Range(0, size());
+	}
+
+	@Override
+	public Iterable<Entry<Long, Long>> getNonZeroEntries() {
+		return new Range2D(0, getRows(), 0, getCols());
+	}
+
+	@Override
+	public void release() {
+	}
+
+	@Override
+	public void persist() {
+	}
+}
@@ -56,6 +56,17 @@ public class RepeatMatrix extends Matrix {
 		return new Range2D(0, getRows(), 0, getCols());
 	}
 
+	@Override
+	public void forEachNonZero(ElementConsumer consumer) {
+		tensor.forEachNonZero(consumer);
+	}
+
+	@Override
+	public void forEachNonZero(EntryConsumer consumer) {
+		long rows = getRows();
+		tensor.forEachNonZero((pos, value) -> consumer.accept(pos % rows, pos / rows, value));
+	}
+
 	@Override
 	public void release() {
 		tensor.release();
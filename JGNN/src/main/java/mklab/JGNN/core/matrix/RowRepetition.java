@@ -124,6 +124,25 @@ public class RowRepetition extends Matrix {
 		return new Repeat2DIterator();
 	}
 
+	@Override
+	public void forEachNonZero(ElementConsumer consumer) {
+		long rows = getRows();
+		long cols = getCols();
+		for (long col = 0; col < cols; col++) {
+			long offset = col * rows;
+			row.forEachNonZero((pos, value) -> consumer.accept(pos + offset, value));
+		}
+	}
+
+	@Override
+	public void forEachNonZero(EntryConsumer consumer) {
+		long cols = getCols();
+		for (long col = 0; col < cols; col++) {
+			long current = col;
+			row.forEachNonZero((pos, value) -> consumer.accept(pos, current, value));
+		}
+	}
+
 	@Override
 	public void release() {
 	}
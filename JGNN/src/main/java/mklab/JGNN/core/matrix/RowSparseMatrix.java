@@ -0,0 +1,249 @@
+package mklab.JGNN.core.matrix;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Map.Entry;
+
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.util.FastEntry;
+
+/**
+ * A sparse {@link Matrix} that allocates memory only for rows holding non-zero
+ * elements, where each stored row is kept densely. This is the format of
+ * gradients that affect a few rows of large parameters, such as those of
+ * embedding lookups through {@link mklab.JGNN.nn.operations.Gather}. Traversing
+ * non-zero elements visits only stored rows, so that optimizers adjusting
+ * parameters by such gradients work in time proportional to the number of
+ * affected rows. Putting a non-zero value in a row that is not stored adds the
+ * row.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class RowSparseMatrix extends Matrix {
+	private Long2IntOpenHashMap slots;
+	private long[] storedRows;
+	private double[] values;
+	private int numStoredRows;
+	private int cols;
+
+	/**
+	 * Generates a row-sparse matrix with the designated number of rows and
+	 * columns and no stored rows.
+	 *
+	 * @param rows The number of rows.
+	 * @param cols The number of columns.
+	 */
+	public RowSparseMatrix(long rows, long cols) {
+		super(rows, cols);
+		if (cols >= Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Row-sparse matrices need less than MAXINT columns");
+		this.cols = (int) cols;
+		slots = new Long2IntOpenHashMap();
+		slots.defaultReturnValue(-1);
+		storedRows = new long[4];
+		values = new double[4 * this.cols];
+	}
+
+	@Override
+	public Matrix zeroCopy(long rows, long cols) {
+		return new RowSparseMatrix(rows, cols);
+	}
+
+	@Override
+	protected void allocate(long size) {
+	}
+
+	/**
+	 * Retrieves the number of rows that may hold non-zero elements.
+	 *
+	 * @return The number of stored rows.
+	 * @see #getStoredRow(int)
+	 */
+	public int getNumStoredRows() {
+		return numStoredRows;
+	}
+
+	/**
+	 * Retrieves the index of a stored row.
+	 *
+	 * @param slot A number in the range <code>[0, getNumStoredRows())</code>.
+	 * @return The row's index in the matrix.
+	 */
+	public long getStoredRow(int slot) {
+		return storedRows[slot];
+	}
+
+	private int slot(long row, boolean create) {
+		int slot = slots.get(row);
+		if (slot != -1 || !create)
+			return slot;
+		if (row < 0 || row >= getRows())
+			throw new IllegalArgumentException("Row " + row + " out of range for " + describe());
+		if (numStoredRows == storedRows.length) {
+			storedRows = Arrays.copyOf(storedRows, storedRows.length * 2);
+			values = Arrays.copyOf(values, storedRows.length * cols);
+		}
+		slot = numStoredRows++;
+		storedRows[slot] = row;
+		slots.put(row, slot);
+		return slot;
+	}
+
+	/**
+	 * Adds a weighted row of another matrix to one of this matrix's rows.
+	 *
+	 * @param row       The row to add to.
+	 * @param source    The matrix whose row to add.
+	 * @param sourceRow The row of the source matrix.
+	 * @param weight    The weight to multiply added elements with.
+	 * @return <code>this</code> RowSparseMatrix instance.
+	 */
+	public RowSparseMatrix addToRow(long row, Matrix source, long sourceRow, double weight) {
+		if (source.getCols() != cols)
+			throw new IllegalArgumentException("Mismatched columns between " + describe() + " and " + source.describe());
+		int offset = slot(row, true) * cols;
+		for (int col = 0; col < cols; col++)
+			values[offset + col] += weight * source.get(sourceRow, col);
+		return this;
+	}
+
+	/**
+	 * Adds a weighted tensor of the same size to this matrix, but only on the
+	 * elements of stored rows. Other elements of the tensor are ignored.
+	 *
+	 * @param tensor The tensor to add.
+	 * @param weight The weight to multiply added elements with.
+	 * @return <code>this</code> RowSparseMatrix instance.
+	 */
+	public RowSparseMatrix selfAddOnStoredRows(Tensor tensor, double weight) {
+		assertMatching(tensor);
+		long rows = getRows();
+		for (int slot = 0; slot < numStoredRows; slot++) {
+			long row = storedRows[slot];
+			int offset = slot * cols;
+			for (int col = 0; col < cols; col++)
+				values[offset + col] += weight * tensor.get(row + col * rows);
+		}
+		return this;
+	}
+
+	@Override
+	public Tensor put(long pos, double value) {
+		put(pos % getRows(), pos / getRows(), value);
+		return this;
+	}
+
+	@Override
+	public Matrix put(long row, long col, double value) {
+		if (col < 0 || col >= cols)
+			throw new IllegalArgumentException("Element (" + row + "," + col + ") out of range for " + describe());
+		int slot = slot(row, value != 0);
+		if (slot != -1)
+			values[slot * cols + (int) col] = value;
+		return this;
+	}
+
+	@Override
+	public double get(long pos) {
+		return get(pos % getRows(), pos / getRows());
+	}
+
+	@Override
+	public double get(long row, long col) {
+		if (col < 0 || col >= cols)
+			throw new IllegalArgumentException("Element (" + row + "," + col + ") out of range for " + describe());
+		int slot = slots.get(row);
+		return slot == -1 ? 0 : values[slot * cols + (int) col];
+	}
+
+	@Override
+	public Iterator<Long> traverseNonZeroElements() {
+		long rows = getRows();
+		return new Iterator<Long>() {
+			private final RowSparseIterator entries = new RowSparseIterator();
+
+			@Override
+			public boolean hasNext() {
+				return entries.hasNext();
+			}
+
+			@Override
+			public Long next() {
+				Entry<Long, Long> entry = entries.next();
+				return entry.getKey() + entry.getValue() * rows;
+			}
+		};
+	}
+
+	@Override
+	public Iterable<Entry<Long, Long>> getNonZeroEntries() {
+		return new RowSparseIterator();
+	}
+
+	@Override
+	public void forEachNonZero(ElementConsumer consumer) {
+		long rows = getRows();
+		for (int slot = 0; slot < numStoredRows; slot++) {
+			long row = storedRows[slot];
+			int offset = slot * cols;
+			for (int col = 0; col < cols; col++)
+				consumer.accept(row + col * rows, values[offset + col]);
+		}
+	}
+
+	@Override
+	public void forEachNonZero(EntryConsumer consumer) {
+		for (int slot = 0; slot < numStoredRows; slot++) {
+			long row = storedRows[slot];
+			int offset = slot * cols;
+			for (int col = 0; col < cols; col++)
+				consumer.accept(row, col, values[offset + col]);
+		}
+	}
+
+	@Override
+	public long estimateNumNonZeroElements() {
+		return (long) numStoredRows * cols;
+	}
+
+	@Override
+	public String describe() {
+		return super.describe() + " " + numStoredRows + "/" + getRows() + " rows";
+	}
+
+	@Override
+	public void release() {
+	}
+
+	@Override
+	public void persist() {
+	}
+
+	protected class RowSparseIterator implements Iterator<Entry<Long, Long>>, Iterable<Entry<Long, Long>> {
+		private final FastEntry<Long, Long> ret = new FastEntry<Long, Long>();
+		private long pos = 0;
+
+		@Override
+		public boolean hasNext() {
+			return pos < (long) numStoredRows * cols;
+		}
+
+		@Override
+		public Entry<Long, Long> next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			ret.setKey(storedRows[(int) (pos / cols)]);
+			ret.setValue(pos % cols);
+			pos++;
+			return ret;
+		}
+
+		@Override
+		public Iterator<Entry<Long, Long>> iterator() {
+			return this;
+		}
+	}
+}
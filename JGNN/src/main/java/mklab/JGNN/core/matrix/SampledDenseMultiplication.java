@@ -0,0 +1,124 @@
+package mklab.JGNN.core.matrix;
+
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Parallelism;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.tensor.VectorizedTensor;
+
+/**
+ * Implements sampled dense-dense matrix multiplication (SDDMM), which computes
+ * the product of a dense matrix with the transpose of another only at the
+ * non-zero elements of a sparse matrix, and multiplies it with the latter's
+ * values. For an adjacency matrix <code>A</code> and node representations
+ * <code>h</code>, this computes the dot product of the representations of the
+ * two nodes of each edge, such as the edge scores of attention mechanisms or
+ * the derivatives of edge weights during backpropagation, in time proportional
+ * to the number of edges times the number of representation columns. Dense
+ * operands are traversed as row-major arrays, so that each dot product
+ * involves contiguous memory (and uses the vector API when
+ * {@link Tensor#vectorization} is enabled), and rows of the sparse operand are
+ * split into ranges that run in parallel when {@link Parallelism} is enabled.
+ *
+ * @author Emmanouil Krasanakis
+ * @see SparseDenseMultiplication
+ */
+public class SampledDenseMultiplication {
+	private SampledDenseMultiplication() {
+	}
+
+	/**
+	 * Computes <code>sparse * (left @ right<sup>T</sup>)</code> only at the
+	 * non-zero elements of the sparse matrix.
+	 *
+	 * @param sparse The matrix whose non-zero elements to sample. It is converted
+	 *               to a {@link CsrMatrix} if it is not already one.
+	 * @param left   A dense matrix with as many rows as the sparse one.
+	 * @param right  A dense matrix with as many rows as the columns of the sparse
+	 *               one and as many columns as the left matrix.
+	 * @return A {@link CsrMatrix} that shares its sparsity pattern with the
+	 *         (converted) sparse matrix.
+	 */
+	public static CsrMatrix multiply(Matrix sparse, Matrix left, Matrix right) {
+		return multiply(sparse, left, right, true);
+	}
+
+	/**
+	 * Computes <code>left @ right<sup>T</sup></code> only at the positions of
+	 * elements stored by a sparse matrix, regardless of their values. For example,
+	 * this is the derivative of a loss over the elements of <code>sparse</code> in
+	 * <code>sparse @ right</code> given the derivative <code>left</code> over the
+	 * latter product.
+	 *
+	 * @param sparse The matrix whose sparsity pattern to sample. It is converted
+	 *               to a {@link CsrMatrix} if it is not already one.
+	 * @param left   A dense matrix with as many rows as the sparse one.
+	 * @param right  A dense matrix with as many rows as the columns of the sparse
+	 *               one and as many columns as the left matrix.
+	 * @return A {@link CsrMatrix} that shares its sparsity pattern with the
+	 *         (converted) sparse matrix.
+	 * @see #multiply(Matrix, Matrix, Matrix)
+	 */
+	public static CsrMatrix sample(Matrix sparse, Matrix left, Matrix right) {
+		return multiply(sparse, left, right, false);
+	}
+
+	private static CsrMatrix multiply(Matrix sparse, Matrix left, Matrix right, boolean scaled) {
+		if (left.getCols() != right.getCols() || sparse.getRows() != left.getRows()
+				|| sparse.getCols() != right.getRows())
+			throw new IllegalArgumentException("Mismatched matrix sizes between " + sparse.describe() + ", "
+					+ left.describe() + " and the transpose of " + right.describe());
+		CsrMatrix csr = sparse instanceof CsrMatrix ? (CsrMatrix) sparse : new CsrMatrix(sparse);
+		int[] rowPtr = csr.getRowPtr();
+		int[] colIdx = csr.getColIdx();
+		double[] values = csr.getValues();
+		int rows = rowPtr.length - 1;
+		int dims = (int) left.getCols();
+		double[] leftValues = rowMajor(left);
+		double[] rightValues = rowMajor(right);
+		double[] ret = new double[values.length];
+		boolean vectorized = Tensor.vectorization && dims >= VectorizedTensor.SPECIES.length();
+		int rowCost = (values.length / Math.max(rows, 1) + 1) * Math.max(dims, 1);
+		Parallelism.forRange(0, rows, Math.max(1, Parallelism.GRAIN / rowCost), (from, to) -> {
+			for (int row = from; row < to; row++) {
+				int leftOffset = row * dims;
+				for (int pos = rowPtr[row]; pos < rowPtr[row + 1]; pos++) {
+					if (scaled && values[pos] == 0)
+						continue;
+					int rightOffset = colIdx[pos] * dims;
+					double dot = 0;
+					if (vectorized)
+						dot = VectorizedTensor.dot(leftValues, leftOffset, rightValues, rightOffset, dims);
+					else
+						for (int i = 0; i < dims; i++)
+							dot += leftValues[leftOffset + i] * rightValues[rightOffset + i];
+					ret[pos] = scaled ? values[pos] * dot : dot;
+				}
+			}
+		});
+		CsrMatrix result = new CsrMatrix(csr.getRows(), csr.getCols(), rowPtr, colIdx, ret);
+		result.setDimensionName(csr.getRowName(), csr.getColName());
+		return result;
+	}
+
+	private static double[] rowMajor(Matrix dense) {
+		int rows = (int) dense.getRows();
+		int cols = (int) dense.getCols();
+		if (dense instanceof FloatMatrix) {
+			float[] values = ((FloatMatrix) dense).tensor.values;
+			double[] ret = new double[values.length];
+			for (int col = 0; col < cols; col++)
+				for (int row = 0; row < rows; row++)
+					ret[row * cols + col] = values[col * rows + row];
+			return ret;
+		}
+		if (dense instanceof DenseMatrix || dense instanceof VectorizedMatrix)
+			return cols == 1 ? SparseDenseMultiplication.values(dense)
+					: SparseDenseMultiplication.toRowMajor(SparseDenseMultiplication.values(dense), rows, cols);
+		if ((long) rows * cols >= Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Sampled dense multiplication needs less than MAXINT dense elements but "
+					+ dense.describe() + " was provided");
+		double[] ret = new double[rows * cols];
+		dense.forEachNonZero((row, col, value) -> ret[(int) (row * cols + col)] = value);
+		return ret;
+	}
+}
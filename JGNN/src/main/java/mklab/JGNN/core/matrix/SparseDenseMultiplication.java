@@ -0,0 +1,333 @@
+package mklab.JGNN.core.matrix;
+
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Parallelism;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.tensor.VectorizedFloatTensor;
+import mklab.JGNN.core.tensor.VectorizedTensor;
+
+/**
+ * Implements the multiplication of a sparse matrix ({@link SparseMatrix},
+ * {@link CsrMatrix} or {@link CscMatrix}) with a dense one ({@link DenseMatrix},
+ * {@link VectorizedMatrix} or {@link FloatMatrix}), such as the <code>A@h</code>
+ * graph propagation of graph neural networks. Without
+ * {@link Tensor#vectorization}, the product is computed one column of the
+ * dense operand at a time, directly in the column-major layout of dense
+ * matrices, so that neither operand nor the result is copied. Otherwise, and
+ * for transposed dense operands whose column-major elements are already laid
+ * out row by row, products are instead computed by adding scaled rows of the
+ * dense operand to a row-major scratch array with the vector API, which is
+ * written back to the result at the end. To do so, non-transposed dense
+ * operands with enough columns to fill a vector are copied once to row-major
+ * order, as gathering their column-major elements for each stored element
+ * could not be vectorized. {@link FloatMatrix} operands are read and accumulated in
+ * their own single-precision arrays. Compressed operands are read through their
+ * row-wise (or cached transposed) index, and when {@link Parallelism} is
+ * enabled the result is gathered over disjoint row ranges that run in
+ * parallel.
+ * {@link SparseMatrix} operands are always multiplied serially, as they have
+ * no such index; convert them once with {@link Matrix#toCsr()} to multiply them
+ * in parallel. {@link Matrix#matmul(Matrix)} and
+ * {@link Matrix#matmul(Matrix, boolean, boolean)} use this automatically.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class SparseDenseMultiplication {
+	private SparseDenseMultiplication() {
+	}
+
+	/**
+	 * Checks whether {@link #multiply(Matrix, Matrix, boolean, boolean)} can be
+	 * applied on two matrices.
+	 *
+	 * @param sparse The left operand.
+	 * @param dense  The right operand.
+	 * @return Whether the left operand is sparse and the right one dense.
+	 */
+	public static boolean isApplicable(Matrix sparse, Matrix dense) {
+		if (!(sparse instanceof SparseMatrix) && !(sparse instanceof CsrMatrix) && !(sparse instanceof CscMatrix))
+			return false;
+		if (!(dense instanceof DenseMatrix) && !(dense instanceof VectorizedMatrix) && !(dense instanceof FloatMatrix))
+			return false;
+		return sparse.getRows() < Integer.MAX_VALUE && sparse.getCols() < Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Computes the product of a sparse and a dense matrix, where either can be
+	 * transposed. Dimension checks are left to the caller.
+	 *
+	 * @param sparse          The left operand.
+	 * @param dense           The right operand.
+	 * @param transposeSparse Whether the left operand should be transposed.
+	 * @param transposeDense  Whether the right operand should be transposed.
+	 * @return A dense matrix holding the product.
+	 * @see #isApplicable(Matrix, Matrix)
+	 */
+	public static Matrix multiply(Matrix sparse, Matrix dense, boolean transposeSparse, boolean transposeDense) {
+		int rows = (int) (transposeSparse ? sparse.getCols() : sparse.getRows());
+		int between = (int) (transposeSparse ? sparse.getRows() : sparse.getCols());
+		int cols = (int) (transposeDense ? dense.getRows() : dense.getCols());
+		Matrix ret;
+		if (dense instanceof FloatMatrix)
+			ret = new FloatMatrix(rows, cols);
+		else if (rows > 100000 / Math.max(cols, 1) && Tensor.vectorization)
+			ret = new VectorizedMatrix(rows, cols);
+		else
+			ret = new DenseMatrix(rows, cols);
+		if (ret instanceof FloatMatrix) {
+			float[] denseValues = ((FloatMatrix) dense).tensor.values;
+			float[] retValues = ((FloatMatrix) ret).tensor.values;
+			if (transposeDense && cols > 1)
+				multiplyRows(sparse, transposeSparse, denseValues, retValues, rows, cols);
+			else if (Tensor.vectorization && cols > 1 && cols >= VectorizedFloatTensor.SPECIES.length())
+				multiplyRows(sparse, transposeSparse, toRowMajor(denseValues, between, cols), retValues, rows, cols);
+			else
+				multiplyColumns(sparse, transposeSparse, denseValues, retValues, rows, between, cols);
+			return ret;
+		}
+		double[] denseValues = values(dense);
+		double[] retValues = values(ret);
+		// the column-major values of the transposed dense matrix are already row-major
+		if (transposeDense && cols > 1)
+			multiplyRows(sparse, transposeSparse, denseValues, retValues, rows, cols);
+		else if (Tensor.vectorization && cols > 1 && cols >= VectorizedTensor.SPECIES.length())
+			multiplyRows(sparse, transposeSparse, toRowMajor(denseValues, between, cols), retValues, rows, cols);
+		else
+			multiplyColumns(sparse, transposeSparse, denseValues, retValues, rows, between, cols);
+		return ret;
+	}
+
+	/**
+	 * Retrieves the pointers and indexes through which the rows of a compressed
+	 * matrix (or of its transpose) are traversed, followed by the positions of
+	 * the traversed elements in the matrix's values array, or <code>null</code>
+	 * if they are traversed in order.
+	 */
+	private static int[][] rowIndex(Matrix sparse, boolean transposeSparse) {
+		if (sparse instanceof CsrMatrix) {
+			CsrMatrix csr = (CsrMatrix) sparse;
+			return transposeSparse ? csr.getTransposedIndex()
+					: new int[][] { csr.getRowPtr(), csr.getColIdx(), null };
+		}
+		CscMatrix csc = (CscMatrix) sparse;
+		return transposeSparse ? new int[][] { csc.getColPtr(), csc.getRowIdx(), null } : csc.getTransposedIndex();
+	}
+
+	private static double[] compressedValues(Matrix sparse) {
+		return sparse instanceof CsrMatrix ? ((CsrMatrix) sparse).getValues() : ((CscMatrix) sparse).getValues();
+	}
+
+	/**
+	 * Accumulates the product into column-major result values, one column of the
+	 * column-major dense operand at a time.
+	 */
+	private static void multiplyColumns(Matrix sparse, boolean transposeSparse, double[] source, double[] retValues,
+			int rows, int between, int cols) {
+		if (sparse instanceof SparseMatrix) {
+			long sparseRows = sparse.getRows();
+			sparse.forEachNonZero((pos, value) -> {
+				if (value == 0)
+					return;
+				int row = (int) (pos % sparseRows);
+				int col = (int) (pos / sparseRows);
+				int sourceRow = transposeSparse ? row : col;
+				int targetRow = transposeSparse ? col : row;
+				for (int col2 = 0; col2 < cols; col2++)
+					retValues[targetRow + col2 * rows] += value * source[sourceRow + col2 * between];
+			});
+			return;
+		}
+		int[][] index = rowIndex(sparse, transposeSparse);
+		int[] ptr = index[0];
+		int[] idx = index[1];
+		int[] positions = index[2];
+		double[] values = compressedValues(sparse);
+		Parallelism.forRange(0, rows, Math.max(1, Parallelism.GRAIN / Math.max(cols, 1)), (from, to) -> {
+			for (int col = 0; col < cols; col++) {
+				int sourceOffset = col * between;
+				int targetOffset = col * rows;
+				for (int row = from; row < to; row++) {
+					double sum = 0;
+					for (int pos = ptr[row]; pos < ptr[row + 1]; pos++)
+						sum += values[positions == null ? pos : positions[pos]] * source[sourceOffset + idx[pos]];
+					retValues[targetOffset + row] = sum;
+				}
+			}
+		});
+	}
+
+	/**
+	 * Accumulates the product into a row-major scratch array by adding scaled
+	 * rows of the row-major dense operand, and writes it to the column-major
+	 * result values.
+	 */
+	private static void multiplyRows(Matrix sparse, boolean transposeSparse, double[] source, double[] retValues,
+			int rows, int cols) {
+		double[] target = new double[retValues.length];
+		boolean vectorized = Tensor.vectorization && cols >= VectorizedTensor.SPECIES.length();
+		if (sparse instanceof SparseMatrix) {
+			long sparseRows = sparse.getRows();
+			sparse.forEachNonZero((pos, value) -> {
+				if (value == 0)
+					return;
+				int row = (int) (pos % sparseRows);
+				int col = (int) (pos / sparseRows);
+				accumulate(value, source, transposeSparse ? row : col, target, transposeSparse ? col : row, cols,
+						vectorized);
+			});
+			toColumnMajor(target, retValues, 0, rows, rows, cols);
+			return;
+		}
+		int[][] index = rowIndex(sparse, transposeSparse);
+		int[] ptr = index[0];
+		int[] idx = index[1];
+		int[] positions = index[2];
+		double[] values = compressedValues(sparse);
+		Parallelism.forRange(0, rows, Math.max(1, Parallelism.GRAIN / Math.max(cols, 1)), (from, to) -> {
+			for (int row = from; row < to; row++)
+				for (int pos = ptr[row]; pos < ptr[row + 1]; pos++)
+					accumulate(values[positions == null ? pos : positions[pos]], source, idx[pos], target, row, cols,
+							vectorized);
+			toColumnMajor(target, retValues, from, to, rows, cols);
+		});
+	}
+
+	/**
+	 * Single-precision version of
+	 * {@link #multiplyColumns(Matrix, boolean, double[], double[], int, int, int)}.
+	 * Each result element is summed with double precision before being stored.
+	 */
+	private static void multiplyColumns(Matrix sparse, boolean transposeSparse, float[] source, float[] retValues,
+			int rows, int between, int cols) {
+		if (sparse instanceof SparseMatrix) {
+			long sparseRows = sparse.getRows();
+			sparse.forEachNonZero((pos, value) -> {
+				if (value == 0)
+					return;
+				int row = (int) (pos % sparseRows);
+				int col = (int) (pos / sparseRows);
+				int sourceRow = transposeSparse ? row : col;
+				int targetRow = transposeSparse ? col : row;
+				for (int col2 = 0; col2 < cols; col2++)
+					retValues[targetRow + col2 * rows] += (float) value * source[sourceRow + col2 * between];
+			});
+			return;
+		}
+		int[][] index = rowIndex(sparse, transposeSparse);
+		int[] ptr = index[0];
+		int[] idx = index[1];
+		int[] positions = index[2];
+		double[] values = compressedValues(sparse);
+		Parallelism.forRange(0, rows, Math.max(1, Parallelism.GRAIN / Math.max(cols, 1)), (from, to) -> {
+			for (int col = 0; col < cols; col++) {
+				int sourceOffset = col * between;
+				int targetOffset = col * rows;
+				for (int row = from; row < to; row++) {
+					double sum = 0;
+					for (int pos = ptr[row]; pos < ptr[row + 1]; pos++)
+						sum += values[positions == null ? pos : positions[pos]] * source[sourceOffset + idx[pos]];
+					retValues[targetOffset + row] = (float) sum;
+				}
+			}
+		});
+	}
+
+	/**
+	 * Single-precision version of
+	 * {@link #multiplyRows(Matrix, boolean, double[], double[], int, int)}, whose
+	 * scratch array holds single-precision values.
+	 */
+	private static void multiplyRows(Matrix sparse, boolean transposeSparse, float[] source, float[] retValues,
+			int rows, int cols) {
+		float[] target = new float[retValues.length];
+		boolean vectorized = Tensor.vectorization && cols >= VectorizedFloatTensor.SPECIES.length();
+		if (sparse instanceof SparseMatrix) {
+			long sparseRows = sparse.getRows();
+			sparse.forEachNonZero((pos, value) -> {
+				if (value == 0)
+					return;
+				int row = (int) (pos % sparseRows);
+				int col = (int) (pos / sparseRows);
+				accumulate((float) value, source, transposeSparse ? row : col, target, transposeSparse ? col : row,
+						cols, vectorized);
+			});
+			toColumnMajor(target, retValues, 0, rows, rows, cols);
+			return;
+		}
+		int[][] index = rowIndex(sparse, transposeSparse);
+		int[] ptr = index[0];
+		int[] idx = index[1];
+		int[] positions = index[2];
+		double[] values = compressedValues(sparse);
+		Parallelism.forRange(0, rows, Math.max(1, Parallelism.GRAIN / Math.max(cols, 1)), (from, to) -> {
+			for (int row = from; row < to; row++)
+				for (int pos = ptr[row]; pos < ptr[row + 1]; pos++)
+					accumulate((float) values[positions == null ? pos : positions[pos]], source, idx[pos], target, row,
+							cols, vectorized);
+			toColumnMajor(target, retValues, from, to, rows, cols);
+		});
+	}
+
+	static double[] values(Matrix dense) {
+		return dense instanceof VectorizedMatrix ? ((VectorizedMatrix) dense).tensor.values
+				: ((DenseMatrix) dense).tensor.values;
+	}
+
+	private static void toColumnMajor(double[] target, double[] retValues, int from, int to, int rows, int cols) {
+		for (int row = from; row < to; row++) {
+			int offset = row * cols;
+			for (int col = 0; col < cols; col++)
+				retValues[row + col * rows] = target[offset + col];
+		}
+	}
+
+	private static void toColumnMajor(float[] target, float[] retValues, int from, int to, int rows, int cols) {
+		for (int row = from; row < to; row++) {
+			int offset = row * cols;
+			for (int col = 0; col < cols; col++)
+				retValues[row + col * rows] = target[offset + col];
+		}
+	}
+
+	static double[] toRowMajor(double[] values, int rows, int cols) {
+		double[] ret = new double[values.length];
+		for (int col = 0; col < cols; col++) {
+			int offset = col * rows;
+			for (int row = 0; row < rows; row++)
+				ret[row * cols + col] = values[offset + row];
+		}
+		return ret;
+	}
+
+	private static float[] toRowMajor(float[] values, int rows, int cols) {
+		float[] ret = new float[values.length];
+		for (int col = 0; col < cols; col++) {
+			int offset = col * rows;
+			for (int row = 0; row < rows; row++)
+				ret[row * cols + col] = values[offset + row];
+		}
+		return ret;
+	}
+
+	private static void accumulate(double value, double[] source, int sourceRow, double[] target, int targetRow,
+			int cols, boolean vectorized) {
+		int sourceOffset = sourceRow * cols;
+		int targetOffset = targetRow * cols;
+		if (vectorized)
+			VectorizedTensor.axpy(value, source, sourceOffset, target, targetOffset, cols);
+		else
+			for (int col = 0; col < cols; col++)
+				target[targetOffset + col] += value * source[sourceOffset + col];
+	}
+
+	private static void accumulate(float value, float[] source, int sourceRow, float[] target, int targetRow,
+			int cols, boolean vectorized) {
+		int sourceOffset = sourceRow * cols;
+		int targetOffset = targetRow * cols;
+		if (vectorized)
+			VectorizedFloatTensor.axpy(value, source, sourceOffset, target, targetOffset, cols);
+		else
+			for (int col = 0; col < cols; col++)
+				target[targetOffset + col] += value * source[sourceOffset + col];
+	}
+}
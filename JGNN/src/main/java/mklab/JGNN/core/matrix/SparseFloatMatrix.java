@@ -0,0 +1,34 @@
+package mklab.JGNN.core.matrix;
+
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.tensor.SparseFloatTensor;
+
+/**
+ * A {@link SparseMatrix} that stores its non-zero elements with single
+ * precision.
+ * 
+ * @author Emmanouil Krasanakis
+ * @see FloatMatrix
+ */
+public class SparseFloatMatrix extends SparseMatrix {
+	/**
+	 * Generates a sparse single-precision matrix with the designated number of
+	 * rows and columns.
+	 * 
+	 * @param rows The number of rows.
+	 * @param cols The number of columns.
+	 */
+	public SparseFloatMatrix(long rows, long cols) {
+		super(rows, cols);
+	}
+
+	@Override
+	public Matrix zeroCopy(long rows, long cols) {
+		return new SparseFloatMatrix(rows, cols);
+	}
+
+	@Override
+	protected void allocate(long size) {
+		tensor = new SparseFloatTensor(size);
+	}
+}
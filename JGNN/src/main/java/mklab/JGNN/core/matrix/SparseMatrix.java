@@ -16,7 +16,7 @@ import mklab.JGNN.core.util.FastEntry;
  * @author Emmanouil Krasanakis
  */
 public class SparseMatrix extends Matrix {
-	private SparseTensor tensor;
+	Tensor tensor;
 
 	/**
 	 * Generates a sparse matrix with the designated number of rows and columns.
@@ -74,6 +74,17 @@ public class SparseMatrix extends Matrix {
 		return new Sparse2DIterator(traverseNonZeroElements());
 	}
 
+	@Override
+	public void forEachNonZero(ElementConsumer consumer) {
+		tensor.forEachNonZero(consumer);
+	}
+
+	@Override
+	public void forEachNonZero(EntryConsumer consumer) {
+		long rows = getRows();
+		tensor.forEachNonZero((pos, value) -> consumer.accept(pos % rows, pos / rows, value));
+	}
+
 	@Override
 	public void release() {
 		tensor.release();
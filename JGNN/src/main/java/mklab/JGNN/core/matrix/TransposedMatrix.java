@@ -117,6 +117,17 @@ public class TransposedMatrix extends Matrix {
 		return new Transposed1DIterator(matrix.traverseNonZeroElements());
 	}
 
+	@Override
+	public void forEachNonZero(ElementConsumer consumer) {
+		long rows = getRows();
+		matrix.forEachNonZero((row, col, value) -> consumer.accept(col + row * rows, value));
+	}
+
+	@Override
+	public void forEachNonZero(EntryConsumer consumer) {
+		matrix.forEachNonZero((row, col, value) -> consumer.accept(col, row, value));
+	}
+
 	@Override
 	public Matrix asTransposed() {
 		return matrix;
@@ -61,6 +61,34 @@ public class VectorizedMatrix extends Matrix {
 		return new Range2D(0, getRows(), 0, getCols());
 	}
 
+	@Override
+	public void forEachNonZero(ElementConsumer consumer) {
+		tensor.forEachNonZero(consumer);
+	}
+
+	@Override
+	public void forEachNonZero(EntryConsumer consumer) {
+		double[] values = tensor.values;
+		int rows = (int) getRows();
+		int cols = (int) getCols();
+		for (int col = 0; col < cols; col++) {
+			int offset = col * rows;
+			for (int row = 0; row < rows; row++)
+				consumer.accept(row, col, values[offset + row]);
+		}
+	}
+
+	/**
+	 * Retrieves the array that stores matrix elements in column-major order,
+	 * that is, element (row, col) lies at position row+col*getRows(). This is
+	 * shared with the matrix, so editing it edits matrix elements.
+	 *
+	 * @return An array of element values.
+	 */
+	public double[] getValues() {
+		return tensor.values;
+	}
+
 	@Override
 	public void release() {
 		tensor.release();
@@ -71,9 +99,88 @@ public class VectorizedMatrix extends Matrix {
 		tensor.persist();
 	}
 
+	@Override
+	public Tensor copy() {
+		VectorizedMatrix ret = new VectorizedMatrix(getRows(), getCols());
+		System.arraycopy(tensor.values, 0, ret.tensor.values, 0, tensor.values.length);
+		return ret.setDimensionName(this);
+	}
+
+	@Override
+	public Tensor add(Tensor other) {
+		if (other instanceof VectorizedMatrix)
+			return copy().selfAdd(other);
+		return super.add(other);
+	}
+
+	@Override
+	public Tensor selfAdd(Tensor other) {
+		if (other instanceof VectorizedMatrix) {
+			assertMatching(other);
+			tensor.selfAdd(((VectorizedMatrix) other).tensor);
+			return this;
+		}
+		return super.selfAdd(other);
+	}
+
+	@Override
+	public Tensor selfAdd(Tensor other, double weight) {
+		if (other instanceof VectorizedMatrix) {
+			assertMatching(other);
+			tensor.selfAdd(((VectorizedMatrix) other).tensor, weight);
+			return this;
+		}
+		return super.selfAdd(other, weight);
+	}
+
+	@Override
+	public Tensor subtract(Tensor other) {
+		if (other instanceof VectorizedMatrix)
+			return copy().selfSubtract(other);
+		return super.subtract(other);
+	}
+
+	@Override
+	public Tensor selfSubtract(Tensor other) {
+		if (other instanceof VectorizedMatrix) {
+			assertMatching(other);
+			tensor.selfSubtract(((VectorizedMatrix) other).tensor);
+			return this;
+		}
+		return super.selfSubtract(other);
+	}
+
+	@Override
+	public Tensor multiply(Tensor other) {
+		if (other instanceof VectorizedMatrix)
+			return copy().selfMultiply(other);
+		return super.multiply(other);
+	}
+
+	@Override
+	public Tensor selfMultiply(Tensor other) {
+		if (other instanceof VectorizedMatrix) {
+			assertMatching(other);
+			tensor.selfMultiply(((VectorizedMatrix) other).tensor);
+			return this;
+		}
+		return super.selfMultiply(other);
+	}
+
+	@Override
+	public Tensor multiply(double value) {
+		return copy().selfMultiply(value);
+	}
+
+	@Override
+	public Tensor selfMultiply(double value) {
+		tensor.selfMultiply(value);
+		return this;
+	}
+
 	@Override
 	public Matrix matmul(Matrix with) {
-		if (with instanceof SparseMatrix)
+		if (!(with instanceof DenseMatrix) && !(with instanceof VectorizedMatrix))
 			return super.matmul(with);
 		if (getCols() != with.getRows())
 			throw new IllegalArgumentException(
@@ -82,24 +189,7 @@ public class VectorizedMatrix extends Matrix {
 			throw new IllegalArgumentException(
 					"Mismatched matrix dimension names between " + describe() + " and " + with.describe());
 		VectorizedMatrix ret = new VectorizedMatrix(getRows(), with.getCols());
-		double[] with_tensor_values = (with instanceof VectorizedMatrix) ? ((VectorizedMatrix) with).tensor.values
-				: ((DenseMatrix) with).tensor.values;
-
-		int rows = (int) getRows();
-		int cols = (int) getCols();
-		int withRows = (int) with.getRows();
-		int withCols = (int) with.getCols();
-		for (int col2 = 0; col2 < withCols; ++col2)
-			for (int row = 0; row < rows; ++row) {
-				int resultIndex = row + col2 * rows;
-				double summand = 0;
-				for (int col = 0; col < cols; ++col) {
-					int thisIndex = row + col * rows;
-					int withIndex = col + col2 * withRows;
-					summand += tensor.values[thisIndex] * with_tensor_values[withIndex];
-				}
-				ret.tensor.values[resultIndex] = summand;
-			}
+		DenseMultiplication.multiply(this, with, false, false, ret);
 		return ret.setRowName(getRowName()).setColName(with.getColName());
 	}
 
@@ -124,21 +214,7 @@ public class VectorizedMatrix extends Matrix {
 
 		// Create the resulting matrix
 		VectorizedMatrix ret = new VectorizedMatrix(rowsThis, colsWith);
-		double[] with_tensor_values = (with instanceof VectorizedMatrix) ? ((VectorizedMatrix) with).tensor.values
-				: ((DenseMatrix) with).tensor.values;
-
-		for (int col2 = 0; col2 < colsWith; ++col2) {
-			for (int row = 0; row < rowsThis; ++row) {
-				int resultIndex = row + col2 * rowsThis;
-				double summand = 0;
-				for (int col = 0; col < colsThis; ++col) {
-					int thisIndex = transposeThis ? col + row * colsThis : row + col * rowsThis;
-					int withIndex = transposeWith ? col2 + col * colsWith : col + col2 * rowsWith;
-					summand += tensor.values[thisIndex] * with_tensor_values[withIndex];
-				}
-				ret.tensor.values[resultIndex] = summand;
-			}
-		}
+		DenseMultiplication.multiply(this, with, transposeThis, transposeWith, ret);
 
 		return ret.setRowName(transposeThis ? getColName() : getRowName())
 				.setColName(transposeWith ? with.getRowName() : with.getColName());
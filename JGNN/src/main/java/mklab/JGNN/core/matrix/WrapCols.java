@@ -181,6 +181,23 @@ public class WrapCols extends Matrix {
 		return new Wrap2DIterator();
 	}
 
+	@Override
+	public void forEachNonZero(ElementConsumer consumer) {
+		long rows = getRows();
+		for (int i = 0; i < cols.size(); i++) {
+			long offset = i * rows;
+			cols.get(i).forEachNonZero((row, value) -> consumer.accept(row + offset, value));
+		}
+	}
+
+	@Override
+	public void forEachNonZero(EntryConsumer consumer) {
+		for (int i = 0; i < cols.size(); i++) {
+			long col = i;
+			cols.get(i).forEachNonZero((row, value) -> consumer.accept(row, col, value));
+		}
+	}
+
 	@Override
 	public Tensor accessCol(long col) {
 		return cols.get((int) col);
@@ -165,6 +165,23 @@ public class WrapRows extends Matrix {
 		return new Wrap2DIterator();
 	}
 
+	@Override
+	public void forEachNonZero(ElementConsumer consumer) {
+		long numRows = getRows();
+		for (int i = 0; i < rows.size(); i++) {
+			long row = i;
+			rows.get(i).forEachNonZero((col, value) -> consumer.accept(row + col * numRows, value));
+		}
+	}
+
+	@Override
+	public void forEachNonZero(EntryConsumer consumer) {
+		for (int i = 0; i < rows.size(); i++) {
+			long row = i;
+			rows.get(i).forEachNonZero((col, value) -> consumer.accept(row, col, value));
+		}
+	}
+
 	@Override
 	public Tensor accessRow(long row) {
 		return rows.get((int) row);
@@ -3,6 +3,8 @@ package mklab.JGNN.core.tensor;
 import java.util.ArrayList;
 import java.util.Iterator;
 
+import mklab.JGNN.core.Memory;
+import mklab.JGNN.core.Parallelism;
 import mklab.JGNN.core.Tensor;
 import mklab.JGNN.core.util.Range;
 
@@ -108,7 +110,7 @@ public class DenseTensor extends Tensor {
 
 	@Override
 	protected void allocate(long size) {
-		values = new double[(int) size];
+		values = Memory.allocate((int) size, this);
 	}
 
 	@Override
@@ -123,13 +125,21 @@ public class DenseTensor extends Tensor {
 		return new Range(0, size());
 	}
 
+	@Override
+	public void forEachNonZero(ElementConsumer consumer) {
+		for (int i = 0; i < values.length; i++)
+			consumer.accept(i, values[i]);
+	}
+
 	@Override
 	public void release() {
+		Memory.release(values);
 		values = null;
 	}
 
 	@Override
 	public void persist() {
+		Memory.scope().unregister(values);
 	}
 
 	@Override
@@ -138,8 +148,10 @@ public class DenseTensor extends Tensor {
 		if (tensor instanceof DenseTensor) {
 			DenseTensor other = (DenseTensor) tensor;
 			DenseTensor res = new DenseTensor(size());
-			for (int i = 0; i < values.length; ++i)
-				res.values[i] = values[i] + other.values[i];
+			Parallelism.forRange(0, values.length, (from, to) -> {
+				for (int i = from; i < to; ++i)
+					res.values[i] = values[i] + other.values[i];
+			});
 			return res;
 		}
 		return super.add(tensor);
@@ -158,13 +170,32 @@ public class DenseTensor extends Tensor {
 		assertMatching(tensor);
 		if (tensor instanceof DenseTensor) {
 			DenseTensor other = (DenseTensor) tensor;
-			for (int i = 0; i < values.length; ++i)
-				values[i] += other.values[i];
+			Parallelism.forRange(0, values.length, (from, to) -> {
+				for (int i = from; i < to; ++i)
+					values[i] += other.values[i];
+			});
 			return this;
 		}
 		return super.selfAdd(tensor);
 	}
 
+	@Override
+	public Tensor selfAdd(Tensor tensor, double weight) {
+		assertMatching(tensor);
+		if (tensor instanceof DenseTensor) {
+			DenseTensor other = (DenseTensor) tensor;
+			Parallelism.forRange(0, values.length, (from, to) -> {
+				if (vectorization)
+					VectorizedTensor.axpy(weight, other.values, from, values, from, to - from);
+				else
+					for (int i = from; i < to; ++i)
+						values[i] += weight * other.values[i];
+			});
+			return this;
+		}
+		return super.selfAdd(tensor, weight);
+	}
+
 	@Override
 	public Tensor selfAdd(double value) {
 		for (int i = 0; i < values.length; ++i)
@@ -178,8 +209,10 @@ public class DenseTensor extends Tensor {
 		if (tensor instanceof DenseTensor) {
 			DenseTensor other = (DenseTensor) tensor;
 			DenseTensor res = new DenseTensor(size());
-			for (int i = 0; i < values.length; ++i)
-				res.values[i] = values[i] - other.values[i];
+			Parallelism.forRange(0, values.length, (from, to) -> {
+				for (int i = from; i < to; ++i)
+					res.values[i] = values[i] - other.values[i];
+			});
 			return res;
 		}
 		return super.subtract(tensor);
@@ -190,8 +223,10 @@ public class DenseTensor extends Tensor {
 		assertMatching(tensor);
 		if (tensor instanceof DenseTensor) {
 			DenseTensor other = (DenseTensor) tensor;
-			for (int i = 0; i < values.length; ++i)
-				values[i] -= other.values[i];
+			Parallelism.forRange(0, values.length, (from, to) -> {
+				for (int i = from; i < to; ++i)
+					values[i] -= other.values[i];
+			});
 			return this;
 		}
 		return super.selfSubtract(tensor);
@@ -203,8 +238,10 @@ public class DenseTensor extends Tensor {
 		if (tensor instanceof DenseTensor) {
 			DenseTensor other = (DenseTensor) tensor;
 			DenseTensor res = new DenseTensor(size());
-			for (int i = 0; i < values.length; ++i)
-				res.values[i] = values[i] * other.values[i];
+			Parallelism.forRange(0, values.length, (from, to) -> {
+				for (int i = from; i < to; ++i)
+					res.values[i] = values[i] * other.values[i];
+			});
 			return res;
 		}
 		return super.multiply(tensor);
@@ -213,8 +250,10 @@ public class DenseTensor extends Tensor {
 	@Override
 	public Tensor multiply(double value) {
 		DenseTensor res = new DenseTensor(size());
-		for (int i = 0; i < values.length; ++i)
-			res.values[i] = values[i] * value;
+		Parallelism.forRange(0, values.length, (from, to) -> {
+			for (int i = from; i < to; ++i)
+				res.values[i] = values[i] * value;
+		});
 		return res;
 	}
 
@@ -223,8 +262,10 @@ public class DenseTensor extends Tensor {
 		assertMatching(tensor);
 		if (tensor instanceof DenseTensor) {
 			DenseTensor other = (DenseTensor) tensor;
-			for (int i = 0; i < values.length; ++i)
-				values[i] *= other.values[i];
+			Parallelism.forRange(0, values.length, (from, to) -> {
+				for (int i = from; i < to; ++i)
+					values[i] *= other.values[i];
+			});
 			return this;
 		}
 		return super.selfMultiply(tensor);
@@ -232,8 +273,10 @@ public class DenseTensor extends Tensor {
 
 	@Override
 	public Tensor selfMultiply(double value) {
-		for (int i = 0; i < values.length; ++i)
-			values[i] *= value;
+		Parallelism.forRange(0, values.length, (from, to) -> {
+			for (int i = from; i < to; ++i)
+				values[i] *= value;
+		});
 		return this;
 	}
 
@@ -0,0 +1,183 @@
+package mklab.JGNN.core.tensor;
+
+import java.util.Iterator;
+
+import mklab.JGNN.core.Parallelism;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.util.Range;
+
+/**
+ * This class provides a dense {@link Tensor} that wraps an array of floats.
+ * Compared to {@link DenseTensor}, it halves memory usage and bandwidth at the
+ * cost of single-precision values. Element getters and setters still work
+ * with doubles, so that aggregations (e.g. {@link #sum()} or losses) accumulate
+ * with double precision.
+ *
+ * @author Emmanouil Krasanakis
+ * @see mklab.JGNN.core.matrix.FloatMatrix
+ */
+public class FloatTensor extends Tensor {
+	public float[] values;
+
+	public FloatTensor(float... values) {
+		this(values.length);
+		System.arraycopy(values, 0, this.values, 0, values.length);
+	}
+
+	/**
+	 * Constructs a single-precision tensor holding zero values.
+	 *
+	 * @param size The size of the tensor.
+	 */
+	public FloatTensor(long size) {
+		super(size);
+	}
+
+	public FloatTensor() {
+		this(0);
+	}
+
+	public final Tensor put(long pos, double value) {
+		values[(int) pos] = (float) value;
+		return this;
+	}
+
+	/**
+	 * Overloads {@link #put(long, double)} to accept integer positions. Using this
+	 * method lets JVM speed up some code.
+	 *
+	 * @param pos   The position of the tensor element.
+	 * @param value The value to assign.
+	 * @return <code>this</code> Tensor instance.
+	 * @see #put(long, double)
+	 */
+	public final Tensor put(int pos, double value) {
+		values[pos] = (float) value;
+		return this;
+	}
+
+	public final double get(long pos) {
+		return values[(int) pos];
+	}
+
+	public final double get(int pos) {
+		return values[pos];
+	}
+
+	@Override
+	protected void allocate(long size) {
+		values = new float[(int) size];
+	}
+
+	@Override
+	public Tensor zeroCopy(long size) {
+		if (size >= 100000 && vectorization)
+			return new VectorizedFloatTensor(size);
+		return new FloatTensor(size);
+	}
+
+	@Override
+	public Iterator<Long> traverseNonZeroElements() {
+		return new Range(0, size());
+	}
+
+	@Override
+	public void forEachNonZero(ElementConsumer consumer) {
+		for (int i = 0; i < values.length; i++)
+			consumer.accept(i, values[i]);
+	}
+
+	@Override
+	public void release() {
+		values = null;
+	}
+
+	@Override
+	public void persist() {
+	}
+
+	@Override
+	public Tensor copy() {
+		FloatTensor res = (FloatTensor) zeroCopy();
+		System.arraycopy(values, 0, res.values, 0, values.length);
+		return res;
+	}
+
+	@Override
+	public Tensor add(Tensor tensor) {
+		if (tensor instanceof FloatTensor)
+			return copy().selfAdd(tensor);
+		return super.add(tensor);
+	}
+
+	@Override
+	public Tensor selfAdd(Tensor tensor) {
+		assertMatching(tensor);
+		if (tensor instanceof FloatTensor) {
+			float[] other = ((FloatTensor) tensor).values;
+			Parallelism.forRange(0, values.length, (from, to) -> {
+				for (int i = from; i < to; ++i)
+					values[i] += other[i];
+			});
+			return this;
+		}
+		return super.selfAdd(tensor);
+	}
+
+	@Override
+	public Tensor subtract(Tensor tensor) {
+		if (tensor instanceof FloatTensor)
+			return copy().selfSubtract(tensor);
+		return super.subtract(tensor);
+	}
+
+	@Override
+	public Tensor selfSubtract(Tensor tensor) {
+		assertMatching(tensor);
+		if (tensor instanceof FloatTensor) {
+			float[] other = ((FloatTensor) tensor).values;
+			Parallelism.forRange(0, values.length, (from, to) -> {
+				for (int i = from; i < to; ++i)
+					values[i] -= other[i];
+			});
+			return this;
+		}
+		return super.selfSubtract(tensor);
+	}
+
+	@Override
+	public Tensor multiply(Tensor tensor) {
+		if (tensor instanceof FloatTensor)
+			return copy().selfMultiply(tensor);
+		return super.multiply(tensor);
+	}
+
+	@Override
+	public Tensor selfMultiply(Tensor tensor) {
+		assertMatching(tensor);
+		if (tensor instanceof FloatTensor) {
+			float[] other = ((FloatTensor) tensor).values;
+			Parallelism.forRange(0, values.length, (from, to) -> {
+				for (int i = from; i < to; ++i)
+					values[i] *= other[i];
+			});
+			return this;
+		}
+		return super.selfMultiply(tensor);
+	}
+
+	@Override
+	public Tensor multiply(double value) {
+		return copy().selfMultiply(value);
+	}
+
+	@Override
+	public Tensor selfMultiply(double value) {
+		float scale = (float) value;
+		Parallelism.forRange(0, values.length, (from, to) -> {
+			for (int i = from; i < to; ++i)
+				values[i] *= scale;
+		});
+		return this;
+	}
+}
@@ -47,6 +47,13 @@ public class RepeatTensor extends Tensor {
 		return new Range(0, size());
 	}
 
+	@Override
+	public void forEachNonZero(ElementConsumer consumer) {
+		long size = size();
+		for (long pos = 0; pos < size; pos++)
+			consumer.accept(pos, value);
+	}
+
 	@Override
 	public void release() {
 	}
@@ -0,0 +1,81 @@
+package mklab.JGNN.core.tensor;
+
+import java.util.Iterator;
+
+import mklab.JGNN.core.Tensor;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntMaps;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+
+/**
+ * This class provides a {@link SparseTensor} counterpart that stores non-zero
+ * elements with single precision. Since fastutil's core distribution does not
+ * include float-valued maps, the bits of each float are stored as an integer.
+ *
+ * @author Emmanouil Krasanakis
+ * @see FloatTensor
+ */
+public class SparseFloatTensor extends Tensor {
+	private Long2IntOpenHashMap values;
+
+	public SparseFloatTensor(long length) {
+		super(length);
+	}
+
+	public SparseFloatTensor() {
+		this(0);
+	}
+
+	@Override
+	public final Tensor put(long pos, double value) {
+		if (value == 0)
+			values.remove(pos);
+		else
+			values.put(pos, Float.floatToRawIntBits((float) value));
+		return this;
+	}
+
+	@Override
+	public final double get(long pos) {
+		return Float.intBitsToFloat(values.get(pos));
+	}
+
+	@Override
+	protected void allocate(long size) {
+		values = new Long2IntOpenHashMap((int) Math.min(Math.sqrt(size), Integer.MAX_VALUE), 0.75f);
+	}
+
+	@Override
+	public Tensor zeroCopy(long size) {
+		return new SparseFloatTensor(size);
+	}
+
+	@Override
+	public synchronized Iterator<Long> traverseNonZeroElements() {
+		return values.keySet().iterator();
+	}
+
+	@Override
+	public void forEachNonZero(ElementConsumer consumer) {
+		ObjectIterator<Long2IntMap.Entry> iterator = Long2IntMaps.fastIterator(values);
+		while (iterator.hasNext()) {
+			Long2IntMap.Entry entry = iterator.next();
+			consumer.accept(entry.getLongKey(), Float.intBitsToFloat(entry.getIntValue()));
+		}
+	}
+
+	@Override
+	public long estimateNumNonZeroElements() {
+		return values.size();
+	}
+
+	@Override
+	public void release() {
+		values = null;
+	}
+
+	@Override
+	public void persist() {
+	}
+}
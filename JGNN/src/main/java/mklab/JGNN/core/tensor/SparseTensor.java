@@ -3,7 +3,10 @@ package mklab.JGNN.core.tensor;
 import java.util.Iterator;
 
 import mklab.JGNN.core.Tensor;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMaps;
 import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
 
 /**
  * This class provides a sparse {@link Tensor} with many zero elements.
@@ -58,6 +61,14 @@ public class SparseTensor extends Tensor {
 		return values.keySet().iterator();
 	}
 	@Override
+	public void forEachNonZero(ElementConsumer consumer) {
+		ObjectIterator<Long2DoubleMap.Entry> iterator = Long2DoubleMaps.fastIterator(values);
+		while(iterator.hasNext()) {
+			Long2DoubleMap.Entry entry = iterator.next();
+			consumer.accept(entry.getLongKey(), entry.getDoubleValue());
+		}
+	}
+	@Override
 	public long estimateNumNonZeroElements() {
 		return values.size();
 	}
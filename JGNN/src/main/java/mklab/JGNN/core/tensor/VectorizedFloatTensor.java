@@ -0,0 +1,182 @@
+package mklab.JGNN.core.tensor;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import mklab.JGNN.core.Parallelism;
+import mklab.JGNN.core.Tensor;
+
+/**
+ * This class provides a {@link FloatTensor} whose element-by-element operations
+ * use the vector API. Since floats are half the size of doubles, each vector
+ * instruction processes twice as many elements as in {@link VectorizedTensor}.
+ * Instances should only be created when {@link Tensor#vectorization} is
+ * enabled.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class VectorizedFloatTensor extends FloatTensor {
+    public static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    public VectorizedFloatTensor(float... values) {
+        super(values);
+    }
+
+    /**
+     * Constructs a single-precision tensor holding zero values.
+     *
+     * @param size The size of the tensor.
+     */
+    public VectorizedFloatTensor(long size) {
+        super(size);
+    }
+
+    public VectorizedFloatTensor() {
+        this(0);
+    }
+
+    /**
+     * Adds a scaled segment of one array to a segment of another, that is
+     * <code>y[yOffset+i] += a*x[xOffset+i]</code> for <code>i</code> in
+     * <code>[0, length)</code>.
+     *
+     * @param a       The scale.
+     * @param x       The array whose values are scaled.
+     * @param xOffset The starting position within <code>x</code>.
+     * @param y       The array to accumulate into.
+     * @param yOffset The starting position within <code>y</code>.
+     * @param length  The number of elements to accumulate.
+     */
+    public static void axpy(float a, float[] x, int xOffset, float[] y, int yOffset, int length) {
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        FloatVector scale = FloatVector.broadcast(SPECIES, a);
+        for (; i < bound; i += SPECIES.length()) {
+            FloatVector vx = FloatVector.fromArray(SPECIES, x, xOffset + i);
+            FloatVector vy = FloatVector.fromArray(SPECIES, y, yOffset + i);
+            vx.fma(scale, vy).intoArray(y, yOffset + i);
+        }
+        for (; i < length; ++i)
+            y[yOffset + i] += a * x[xOffset + i];
+    }
+
+    /**
+     * Computes the dot product between segments of two arrays.
+     *
+     * @param x       The first array.
+     * @param xOffset The starting position within <code>x</code>.
+     * @param y       The second array.
+     * @param yOffset The starting position within <code>y</code>.
+     * @param length  The number of elements to multiply.
+     * @return The sum of element-by-element products.
+     */
+    public static float dot(float[] x, int xOffset, float[] y, int yOffset, int length) {
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        FloatVector sum = FloatVector.zero(SPECIES);
+        for (; i < bound; i += SPECIES.length()) {
+            FloatVector vx = FloatVector.fromArray(SPECIES, x, xOffset + i);
+            FloatVector vy = FloatVector.fromArray(SPECIES, y, yOffset + i);
+            sum = vx.fma(vy, sum);
+        }
+        float ret = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; ++i)
+            ret += x[xOffset + i] * y[yOffset + i];
+        return ret;
+    }
+
+    @Override
+    public Tensor zeroCopy(long size) {
+        if (size < 100000)
+            return new FloatTensor(size);
+        return new VectorizedFloatTensor(size);
+    }
+
+    @Override
+    public Tensor selfAdd(Tensor tensor) {
+        if (tensor instanceof FloatTensor) {
+            assertMatching(tensor);
+            float[] other = ((FloatTensor) tensor).values;
+            Parallelism.forRange(0, values.length, (from, to) -> add(values, other, values, from, to));
+            return this;
+        }
+        return super.selfAdd(tensor);
+    }
+
+    @Override
+    public Tensor selfSubtract(Tensor tensor) {
+        if (tensor instanceof FloatTensor) {
+            assertMatching(tensor);
+            float[] other = ((FloatTensor) tensor).values;
+            Parallelism.forRange(0, values.length, (from, to) -> subtract(values, other, values, from, to));
+            return this;
+        }
+        return super.selfSubtract(tensor);
+    }
+
+    @Override
+    public Tensor selfMultiply(Tensor tensor) {
+        if (tensor instanceof FloatTensor) {
+            assertMatching(tensor);
+            float[] other = ((FloatTensor) tensor).values;
+            Parallelism.forRange(0, values.length, (from, to) -> multiply(values, other, values, from, to));
+            return this;
+        }
+        return super.selfMultiply(tensor);
+    }
+
+    @Override
+    public Tensor selfMultiply(double value) {
+        float scale = (float) value;
+        Parallelism.forRange(0, values.length, (from, to) -> multiply(values, scale, values, from, to));
+        return this;
+    }
+
+    private static void add(float[] values, float[] other, float[] ret, int from, int to) {
+        int i = from;
+        int bound = from + SPECIES.loopBound(to - from);
+        for (; i < bound; i += SPECIES.length()) {
+            FloatVector vec1 = FloatVector.fromArray(SPECIES, values, i);
+            FloatVector vec2 = FloatVector.fromArray(SPECIES, other, i);
+            vec1.add(vec2).intoArray(ret, i);
+        }
+        for (; i < to; ++i)
+            ret[i] = values[i] + other[i];
+    }
+
+    private static void subtract(float[] values, float[] other, float[] ret, int from, int to) {
+        int i = from;
+        int bound = from + SPECIES.loopBound(to - from);
+        for (; i < bound; i += SPECIES.length()) {
+            FloatVector vec1 = FloatVector.fromArray(SPECIES, values, i);
+            FloatVector vec2 = FloatVector.fromArray(SPECIES, other, i);
+            vec1.sub(vec2).intoArray(ret, i);
+        }
+        for (; i < to; ++i)
+            ret[i] = values[i] - other[i];
+    }
+
+    private static void multiply(float[] values, float[] other, float[] ret, int from, int to) {
+        int i = from;
+        int bound = from + SPECIES.loopBound(to - from);
+        for (; i < bound; i += SPECIES.length()) {
+            FloatVector vec1 = FloatVector.fromArray(SPECIES, values, i);
+            FloatVector vec2 = FloatVector.fromArray(SPECIES, other, i);
+            vec1.mul(vec2).intoArray(ret, i);
+        }
+        for (; i < to; ++i)
+            ret[i] = values[i] * other[i];
+    }
+
+    private static void multiply(float[] values, float value, float[] ret, int from, int to) {
+        int i = from;
+        int bound = from + SPECIES.loopBound(to - from);
+        FloatVector valueVector = FloatVector.broadcast(SPECIES, value);
+        for (; i < bound; i += SPECIES.length()) {
+            FloatVector vec = FloatVector.fromArray(SPECIES, values, i);
+            vec.mul(valueVector).intoArray(ret, i);
+        }
+        for (; i < to; ++i)
+            ret[i] = values[i] * value;
+    }
+}
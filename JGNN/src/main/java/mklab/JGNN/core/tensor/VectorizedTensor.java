@@ -4,7 +4,10 @@ import java.util.ArrayList;
 import java.util.Iterator;
 
 import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
 import jdk.incubator.vector.VectorSpecies;
+import mklab.JGNN.core.Memory;
+import mklab.JGNN.core.Parallelism;
 import mklab.JGNN.core.Tensor;
 import mklab.JGNN.core.util.Range;
 
@@ -76,6 +79,168 @@ public class VectorizedTensor extends Tensor {
         this(0);
     }
 
+    /**
+     * Adds a scaled segment of one array to a segment of another, that is
+     * <code>y[yOffset+i] += a*x[xOffset+i]</code> for <code>i</code> in
+     * <code>[0, length)</code>. This is the inner loop of sparse-dense matrix
+     * multiplication.
+     * 
+     * @param a       The scale.
+     * @param x       The array whose values are scaled.
+     * @param xOffset The starting position within <code>x</code>.
+     * @param y       The array to accumulate into.
+     * @param yOffset The starting position within <code>y</code>.
+     * @param length  The number of elements to accumulate.
+     */
+    public static void axpy(double a, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        DoubleVector scale = DoubleVector.broadcast(SPECIES, a);
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector vx = DoubleVector.fromArray(SPECIES, x, xOffset + i);
+            DoubleVector vy = DoubleVector.fromArray(SPECIES, y, yOffset + i);
+            vx.fma(scale, vy).intoArray(y, yOffset + i);
+        }
+        for (; i < length; ++i)
+            y[yOffset + i] += a * x[xOffset + i];
+    }
+
+    /**
+     * Computes the dot product of a segment of one array with a segment of
+     * another, that is the sum of <code>x[xOffset+i]*y[yOffset+i]</code> for
+     * <code>i</code> in <code>[0, length)</code>. This is the inner loop of
+     * sampled dense-dense matrix multiplication.
+     * 
+     * @param x       The first array.
+     * @param xOffset The starting position within <code>x</code>.
+     * @param y       The second array.
+     * @param yOffset The starting position within <code>y</code>.
+     * @param length  The number of elements to multiply.
+     * @return The dot product.
+     */
+    public static double dot(double[] x, int xOffset, double[] y, int yOffset, int length) {
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        DoubleVector sum = DoubleVector.zero(SPECIES);
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector vx = DoubleVector.fromArray(SPECIES, x, xOffset + i);
+            DoubleVector vy = DoubleVector.fromArray(SPECIES, y, yOffset + i);
+            sum = vx.fma(vy, sum);
+        }
+        double ret = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; ++i)
+            ret += x[xOffset + i] * y[yOffset + i];
+        return ret;
+    }
+
+    /**
+     * Applies an Adam update with L2 weight decay in place to the elements of
+     * <code>[from, to)</code> of a parameter array, given the corresponding
+     * gradient elements. First and second moment estimates of element
+     * <code>i</code> lie at position <code>stateOffset+i</code> of the moment
+     * arrays and are updated too. This is the kernel of
+     * {@link mklab.JGNN.nn.optimizers.FusedAdam}.
+     * 
+     * @param values       The parameter array.
+     * @param gradients    The gradient array.
+     * @param m            The first moment estimates.
+     * @param v            The second moment estimates.
+     * @param stateOffset  The position of the parameter's first moment estimate.
+     * @param from         The first element to update.
+     * @param to           The end of updated elements (non-inclusive).
+     * @param b1           Adam's b1 parameter.
+     * @param b2           Adam's b2 parameter.
+     * @param mCorrection  The bias correction of first moments.
+     * @param vCorrection  The bias correction of second moments.
+     * @param learningRate The learning rate.
+     * @param epsilon      Adam's numerical tolerance.
+     * @param weightDecay  The weight decay factor.
+     */
+    public static void adam(double[] values, double[] gradients, double[] m, double[] v, int stateOffset, int from,
+            int to, double b1, double b2, double mCorrection, double vCorrection, double learningRate,
+            double epsilon, double weightDecay) {
+        int i = from;
+        int bound = from + SPECIES.loopBound(to - from);
+        DoubleVector one = DoubleVector.broadcast(SPECIES, 1);
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector value = DoubleVector.fromArray(SPECIES, values, i);
+            DoubleVector gradient = DoubleVector.fromArray(SPECIES, gradients, i);
+            if (weightDecay != 0)
+                gradient = gradient.add(value.mul(weightDecay));
+            DoubleVector mValue = DoubleVector.fromArray(SPECIES, m, stateOffset + i).mul(b1)
+                    .add(gradient.mul(1 - b1));
+            DoubleVector vValue = DoubleVector.fromArray(SPECIES, v, stateOffset + i).mul(b2)
+                    .add(gradient.mul(gradient).mul(1 - b2));
+            mValue.intoArray(m, stateOffset + i);
+            vValue.intoArray(v, stateOffset + i);
+            DoubleVector inverse = one.div(vValue.mul(vCorrection).add(epsilon).sqrt());
+            value.add(mValue.mul(mCorrection).mul(-learningRate).mul(inverse)).intoArray(values, i);
+        }
+        for (; i < to; ++i) {
+            double gradient = gradients[i];
+            if (weightDecay != 0)
+                gradient += values[i] * weightDecay;
+            int pos = stateOffset + i;
+            double mValue = m[pos] = m[pos] * b1 + gradient * (1 - b1);
+            double vValue = v[pos] = v[pos] * b2 + gradient * gradient * (1 - b2);
+            values[i] += mValue * mCorrection * -learningRate * (1 / Math.sqrt(vValue * vCorrection + epsilon));
+        }
+    }
+
+    /**
+     * Accumulates the product of two packed panels into a column-major tile of
+     * <code>2*SPECIES.length()</code> rows and four columns. The left panel holds
+     * <code>2*SPECIES.length()</code> consecutive row values for each inner
+     * element and the right panel four consecutive column values. This is the
+     * register-blocked kernel of
+     * {@link mklab.JGNN.core.matrix.DenseMultiplication}.
+     * 
+     * @param kc          The number of inner elements.
+     * @param left        The packed left panel.
+     * @param leftOffset  The starting position within the left panel.
+     * @param right       The packed right panel.
+     * @param rightOffset The starting position within the right panel.
+     * @param ret         The column-major array to accumulate into.
+     * @param retOffset   The position of the tile's first element in
+     *                    <code>ret</code>.
+     * @param retRows     The distance between tile columns in <code>ret</code>.
+     */
+    public static void multiplyPanels(int kc, double[] left, int leftOffset, double[] right, int rightOffset,
+            double[] ret, int retOffset, int retRows) {
+        int length = SPECIES.length();
+        DoubleVector c00 = DoubleVector.zero(SPECIES), c10 = DoubleVector.zero(SPECIES);
+        DoubleVector c01 = DoubleVector.zero(SPECIES), c11 = DoubleVector.zero(SPECIES);
+        DoubleVector c02 = DoubleVector.zero(SPECIES), c12 = DoubleVector.zero(SPECIES);
+        DoubleVector c03 = DoubleVector.zero(SPECIES), c13 = DoubleVector.zero(SPECIES);
+        for (int k = 0; k < kc; k++) {
+            int a = leftOffset + 2 * k * length;
+            int b = rightOffset + 4 * k;
+            DoubleVector a0 = DoubleVector.fromArray(SPECIES, left, a);
+            DoubleVector a1 = DoubleVector.fromArray(SPECIES, left, a + length);
+            DoubleVector b0 = DoubleVector.broadcast(SPECIES, right[b]);
+            c00 = a0.fma(b0, c00);
+            c10 = a1.fma(b0, c10);
+            DoubleVector b1 = DoubleVector.broadcast(SPECIES, right[b + 1]);
+            c01 = a0.fma(b1, c01);
+            c11 = a1.fma(b1, c11);
+            DoubleVector b2 = DoubleVector.broadcast(SPECIES, right[b + 2]);
+            c02 = a0.fma(b2, c02);
+            c12 = a1.fma(b2, c12);
+            DoubleVector b3 = DoubleVector.broadcast(SPECIES, right[b + 3]);
+            c03 = a0.fma(b3, c03);
+            c13 = a1.fma(b3, c13);
+        }
+        addIntoArray(c00, c10, ret, retOffset, length);
+        addIntoArray(c01, c11, ret, retOffset + retRows, length);
+        addIntoArray(c02, c12, ret, retOffset + 2 * retRows, length);
+        addIntoArray(c03, c13, ret, retOffset + 3 * retRows, length);
+    }
+
+    private static void addIntoArray(DoubleVector upper, DoubleVector lower, double[] ret, int offset, int length) {
+        upper.add(DoubleVector.fromArray(SPECIES, ret, offset)).intoArray(ret, offset);
+        lower.add(DoubleVector.fromArray(SPECIES, ret, offset + length)).intoArray(ret, offset + length);
+    }
+
     public final Tensor put(long pos, double value) {
         values[(int) pos] = value;
         return this;
@@ -100,7 +265,7 @@ public class VectorizedTensor extends Tensor {
 
     @Override
     protected void allocate(long size) {
-        values = new double[(int) size];
+        values = Memory.allocate((int) size, this);
     }
 
     @Override
@@ -115,13 +280,21 @@ public class VectorizedTensor extends Tensor {
         return new Range(0, size());
     }
 
+    @Override
+    public void forEachNonZero(ElementConsumer consumer) {
+        for (int i = 0; i < values.length; i++)
+            consumer.accept(i, values[i]);
+    }
+
     @Override
     public void release() {
+        Memory.release(values);
         values = null;
     }
 
     @Override
     public void persist() {
+        Memory.scope().unregister(values);
     }
 
     @Override
@@ -129,16 +302,7 @@ public class VectorizedTensor extends Tensor {
         if (tensor instanceof VectorizedTensor) {
             VectorizedTensor other = (VectorizedTensor) tensor;
             VectorizedTensor res = (VectorizedTensor) zeroCopy();
-
-            int i = 0;
-            int bound = SPECIES.loopBound((int) size());
-            for (; i < bound; i += SPECIES.length()) {
-                DoubleVector vec1 = DoubleVector.fromArray(SPECIES, values, i);
-                DoubleVector vec2 = DoubleVector.fromArray(SPECIES, other.values, i);
-                vec1.add(vec2).intoArray(res.values, i);
-            }
-            for (; i < size(); ++i) 
-                res.values[i] = values[i] + other.values[i];
+            Parallelism.forRange(0, (int) size(), (from, to) -> add(values, other.values, res.values, from, to));
             return res;
         }
         return super.add(tensor);
@@ -148,37 +312,29 @@ public class VectorizedTensor extends Tensor {
     public Tensor selfAdd(Tensor tensor) {
         if (tensor instanceof VectorizedTensor) {
             VectorizedTensor other = (VectorizedTensor) tensor;
-
-            int i = 0;
-            int bound = SPECIES.loopBound((int) size());
-            for (; i < bound; i += SPECIES.length()) {
-                DoubleVector vec1 = DoubleVector.fromArray(SPECIES, values, i);
-                DoubleVector vec2 = DoubleVector.fromArray(SPECIES, other.values, i);
-                vec1.add(vec2).intoArray(values, i);
-            }
-            for (; i < size(); ++i) 
-                values[i] += other.values[i];
-
+            Parallelism.forRange(0, (int) size(), (from, to) -> add(values, other.values, values, from, to));
             return this;
-        } 
+        }
         return super.selfAdd(tensor);
     }
 
+    @Override
+    public Tensor selfAdd(Tensor tensor, double weight) {
+        if (tensor instanceof VectorizedTensor) {
+            assertMatching(tensor);
+            VectorizedTensor other = (VectorizedTensor) tensor;
+            Parallelism.forRange(0, (int) size(), (from, to) -> axpy(weight, other.values, from, values, from, to - from));
+            return this;
+        }
+        return super.selfAdd(tensor, weight);
+    }
+
     @Override
     public Tensor subtract(Tensor tensor) {
         if (tensor instanceof VectorizedTensor) {
             VectorizedTensor other = (VectorizedTensor) tensor;
             VectorizedTensor res = (VectorizedTensor) zeroCopy();
-
-            int i = 0;
-            int bound = SPECIES.loopBound((int) size());
-            for (; i < bound; i += SPECIES.length()) {
-                DoubleVector vec1 = DoubleVector.fromArray(SPECIES, values, i);
-                DoubleVector vec2 = DoubleVector.fromArray(SPECIES, other.values, i);
-                vec1.sub(vec2).intoArray(res.values, i);
-            }
-            for (; i < size(); ++i) 
-                res.values[i] = values[i] - other.values[i];
+            Parallelism.forRange(0, (int) size(), (from, to) -> subtract(values, other.values, res.values, from, to));
             return res;
         }
         return super.subtract(tensor);
@@ -188,16 +344,7 @@ public class VectorizedTensor extends Tensor {
     public Tensor selfSubtract(Tensor tensor) {
         if (tensor instanceof VectorizedTensor) {
             VectorizedTensor other = (VectorizedTensor) tensor;
-
-            int i = 0;
-            int bound = SPECIES.loopBound((int) size());
-            for (; i < bound; i += SPECIES.length()) {
-                DoubleVector vec1 = DoubleVector.fromArray(SPECIES, values, i);
-                DoubleVector vec2 = DoubleVector.fromArray(SPECIES, other.values, i);
-                vec1.sub(vec2).intoArray(values, i);
-            }
-            for (; i < size(); ++i) 
-                values[i] -= other.values[i];
+            Parallelism.forRange(0, (int) size(), (from, to) -> subtract(values, other.values, values, from, to));
             return this;
         }
         return super.selfSubtract(tensor);
@@ -208,18 +355,9 @@ public class VectorizedTensor extends Tensor {
         if (tensor instanceof VectorizedTensor) {
             VectorizedTensor other = (VectorizedTensor) tensor;
             VectorizedTensor res = (VectorizedTensor) zeroCopy();
-
-            int i = 0;
-            int bound = SPECIES.loopBound((int) size());
-            for (; i < bound; i += SPECIES.length()) {
-                DoubleVector vec1 = DoubleVector.fromArray(SPECIES, values, i);
-                DoubleVector vec2 = DoubleVector.fromArray(SPECIES, other.values, i);
-                vec1.mul(vec2).intoArray(res.values, i);
-            }
-            for (; i < size(); ++i) 
-                res.values[i] = values[i] * other.values[i];
+            Parallelism.forRange(0, (int) size(), (from, to) -> multiply(values, other.values, res.values, from, to));
             return res;
-        } 
+        }
         return super.multiply(tensor);
     }
 
@@ -227,16 +365,7 @@ public class VectorizedTensor extends Tensor {
     public Tensor selfMultiply(Tensor tensor) {
         if (tensor instanceof VectorizedTensor) {
             VectorizedTensor other = (VectorizedTensor) tensor;
-
-            int i = 0;
-            int bound = SPECIES.loopBound((int) size());
-            for (; i < bound; i += SPECIES.length()) {
-                DoubleVector vec1 = DoubleVector.fromArray(SPECIES, values, i);
-                DoubleVector vec2 = DoubleVector.fromArray(SPECIES, other.values, i);
-                vec1.mul(vec2).intoArray(values, i);
-            }
-            for (; i < size(); ++i) 
-                values[i] *= other.values[i];
+            Parallelism.forRange(0, (int) size(), (from, to) -> multiply(values, other.values, values, from, to));
             return this;
         }
         return super.selfMultiply(tensor);
@@ -245,30 +374,61 @@ public class VectorizedTensor extends Tensor {
     @Override
     public Tensor multiply(double value) {
         VectorizedTensor res = (VectorizedTensor) zeroCopy();
-
-        int i = 0;
-        int bound = SPECIES.loopBound((int) size());
-        DoubleVector valueVector = DoubleVector.broadcast(SPECIES, value);
-        for (; i < bound; i += SPECIES.length()) {
-            DoubleVector vec = DoubleVector.fromArray(SPECIES, values, i);
-            vec.mul(valueVector).intoArray(res.values, i);
-        }
-        for (; i < size(); ++i) 
-            res.values[i] = values[i] * value;
+        Parallelism.forRange(0, (int) size(), (from, to) -> multiply(values, value, res.values, from, to));
         return res;
     }
 
     @Override
     public Tensor selfMultiply(double value) {
-        int i = 0;
-        int bound = SPECIES.loopBound((int) size());
+        Parallelism.forRange(0, (int) size(), (from, to) -> multiply(values, value, values, from, to));
+        return this;
+    }
+
+    private static void add(double[] values, double[] other, double[] ret, int from, int to) {
+        int i = from;
+        int bound = from + SPECIES.loopBound(to - from);
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector vec1 = DoubleVector.fromArray(SPECIES, values, i);
+            DoubleVector vec2 = DoubleVector.fromArray(SPECIES, other, i);
+            vec1.add(vec2).intoArray(ret, i);
+        }
+        for (; i < to; ++i)
+            ret[i] = values[i] + other[i];
+    }
+
+    private static void subtract(double[] values, double[] other, double[] ret, int from, int to) {
+        int i = from;
+        int bound = from + SPECIES.loopBound(to - from);
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector vec1 = DoubleVector.fromArray(SPECIES, values, i);
+            DoubleVector vec2 = DoubleVector.fromArray(SPECIES, other, i);
+            vec1.sub(vec2).intoArray(ret, i);
+        }
+        for (; i < to; ++i)
+            ret[i] = values[i] - other[i];
+    }
+
+    private static void multiply(double[] values, double[] other, double[] ret, int from, int to) {
+        int i = from;
+        int bound = from + SPECIES.loopBound(to - from);
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector vec1 = DoubleVector.fromArray(SPECIES, values, i);
+            DoubleVector vec2 = DoubleVector.fromArray(SPECIES, other, i);
+            vec1.mul(vec2).intoArray(ret, i);
+        }
+        for (; i < to; ++i)
+            ret[i] = values[i] * other[i];
+    }
+
+    private static void multiply(double[] values, double value, double[] ret, int from, int to) {
+        int i = from;
+        int bound = from + SPECIES.loopBound(to - from);
         DoubleVector valueVector = DoubleVector.broadcast(SPECIES, value);
         for (; i < bound; i += SPECIES.length()) {
             DoubleVector vec = DoubleVector.fromArray(SPECIES, values, i);
-            vec.mul(valueVector).intoArray(values, i);
+            vec.mul(valueVector).intoArray(ret, i);
         }
-        for (; i < size(); ++i) 
-            values[i] *= value;
-        return this;
+        for (; i < to; ++i)
+            ret[i] = values[i] * value;
     }
 }
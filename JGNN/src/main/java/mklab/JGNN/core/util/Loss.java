@@ -1,5 +1,6 @@
 package mklab.JGNN.core.util;
 
+import mklab.JGNN.core.Parallelism;
 import mklab.JGNN.core.Tensor;
 
 /**
@@ -159,8 +160,7 @@ public interface Loss {
 	 */
 	public static Tensor sigmoid(Tensor x) {
 		Tensor ret = x.zeroCopy();
-		for(long i : x.getNonZeroElements())
-			ret.put(i, sigmoid(x.get(i)));
+		Parallelism.forEachNonZero(x, ret, (i, value) -> ret.put(i, sigmoid(value)));
 		return ret;
 	}
 
@@ -171,8 +171,7 @@ public interface Loss {
 	 */
 	public static Tensor tanh(Tensor x) {
 		Tensor ret = x.zeroCopy();
-		for(long i : x.getNonZeroElements())
-			ret.put(i, tanh(x.get(i)));
+		Parallelism.forEachNonZero(x, ret, (i, value) -> ret.put(i, tanh(value)));
 		return ret;
 	}
 
@@ -183,8 +182,7 @@ public interface Loss {
 	 */
 	public static Tensor relu(Tensor x) {
 		Tensor ret = x.zeroCopy();
-		for(long i : x.getNonZeroElements())
-			ret.put(i, relu(x.get(i)));
+		Parallelism.forEachNonZero(x, ret, (i, value) -> ret.put(i, relu(value)));
 		return ret;
 	}
 	
@@ -195,8 +193,7 @@ public interface Loss {
 	 */
 	public static Tensor sigmoidDerivative(Tensor x) {
 		Tensor ret = x.zeroCopy();
-		for(long i : x.getNonZeroElements())
-			ret.put(i, sigmoidDerivative(x.get(i)));
+		Parallelism.forEachNonZero(x, ret, (i, value) -> ret.put(i, sigmoidDerivative(value)));
 		return ret;
 	}
 
@@ -207,8 +204,7 @@ public interface Loss {
 	 */
 	public static Tensor tanhDerivative(Tensor x) {
 		Tensor ret = x.zeroCopy();
-		for(long i : x.getNonZeroElements())
-			ret.put(i, tanhDerivative(x.get(i)));
+		Parallelism.forEachNonZero(x, ret, (i, value) -> ret.put(i, tanhDerivative(value)));
 		return ret;
 	}
 
@@ -219,8 +215,7 @@ public interface Loss {
 	 */
 	public static Tensor reluDerivative(Tensor x) {
 		Tensor ret = x.zeroCopy();
-		for(long i : x.getNonZeroElements())
-			ret.put(i, reluDerivative(x.get(i)));
+		Parallelism.forEachNonZero(x, ret, (i, value) -> ret.put(i, reluDerivative(value)));
 		return ret;
 	}
 }
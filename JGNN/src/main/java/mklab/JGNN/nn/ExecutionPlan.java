@@ -0,0 +1,504 @@
+package mklab.JGNN.nn;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Parallelism;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.ThreadPool;
+import mklab.JGNN.core.matrix.FloatMatrix;
+import mklab.JGNN.core.tensor.FloatTensor;
+import mklab.JGNN.nn.inputs.Parameter;
+import mklab.JGNN.nn.inputs.Variable;
+import mklab.JGNN.nn.operations.Add;
+import mklab.JGNN.nn.operations.Dropout;
+import mklab.JGNN.nn.operations.LinearActivation;
+import mklab.JGNN.nn.operations.MatMul;
+
+/**
+ * A flat execution plan of a {@link Model}'s operations that is created by
+ * {@link Model#compile()}. Operations are sorted topologically once, so that
+ * forward passes run them in order and backward passes run them in reverse
+ * order without any recursion. Input positions, fan-outs and whether each
+ * input needs a gradient are precomputed. Optionally, chains of operations are
+ * replaced with fused ones that run faster and store fewer intermediate
+ * tensors. Each thread of the {@link ThreadPool}
+ * reuses its own buffers of operation inputs, outputs and gradients between
+ * passes.<br>
+ * If checkpoints are given, training keeps only their outputs and those of
+ * operations that cannot be recomputed. Other outputs are dropped during the
+ * forward pass and the backward pass recomputes them from the nearest
+ * checkpoints, one segment between checkpoints at a time.
+ *
+ * @author Emmanouil Krasanakis
+ */
+class ExecutionPlan {
+	private static class Frame {
+		private final Tensor[] outputs;
+		private final Tensor[] errors;
+		private final Tensor[][] inputSlots;
+		private final ArrayList<List<Tensor>> inputLists;
+		private final int[] pendingUses;
+		private final boolean[] ownedOutputs;
+		private final boolean[] sharedOutputs;
+		private final boolean[] ownedErrors;
+
+		public Frame(int[][] inputIds) {
+			outputs = new Tensor[inputIds.length];
+			errors = new Tensor[inputIds.length];
+			pendingUses = new int[inputIds.length];
+			ownedOutputs = new boolean[inputIds.length];
+			sharedOutputs = new boolean[inputIds.length];
+			ownedErrors = new boolean[inputIds.length];
+			inputSlots = new Tensor[inputIds.length][];
+			inputLists = new ArrayList<List<Tensor>>(inputIds.length);
+			for (int i = 0; i < inputIds.length; i++) {
+				inputSlots[i] = new Tensor[inputIds[i].length];
+				inputLists.add(Arrays.asList(inputSlots[i]));
+			}
+		}
+	}
+
+	private final NNOperation[] graph;
+	private final NNOperation[] operations;
+	private final int[][] inputIds;
+	private final boolean[][] inputNeedsGradient;
+	private final boolean[] trainable;
+	private final int[] fanOut;
+	private final boolean[] retained;
+	private final boolean[] recomputable;
+	private final boolean[] isOutput;
+	private final int[] outputIds;
+	private final AtomicReferenceArray<Frame> frames;
+
+	/**
+	 * Creates the execution plan of all operations leading to the given outputs
+	 * without any checkpoints.
+	 *
+	 * @param outputs The model's outputs.
+	 * @param fuse    Whether to replace chains of matrix multiplication, bias
+	 *                addition and activation with {@link LinearActivation}
+	 *                operations.
+	 * @see #ExecutionPlan(List, boolean, Collection)
+	 */
+	public ExecutionPlan(List<NNOperation> outputs, boolean fuse) {
+		this(outputs, fuse, Collections.emptyList());
+	}
+
+	/**
+	 * Creates the execution plan of all operations leading to the given outputs.
+	 *
+	 * @param outputs     The model's outputs.
+	 * @param fuse        Whether to replace chains of matrix multiplication, bias
+	 *                    addition and activation with {@link LinearActivation}
+	 *                    operations.
+	 * @param checkpoints The operations whose outputs are kept for the backward
+	 *                    pass when training. If not empty, the outputs of other
+	 *                    trainable operations are recomputed when needed.
+	 */
+	public ExecutionPlan(List<NNOperation> outputs, boolean fuse, Collection<NNOperation> checkpoints) {
+		LinkedHashMap<NNOperation, Integer> remainingInputs = new LinkedHashMap<NNOperation, Integer>();
+		ArrayList<NNOperation> pending = new ArrayList<NNOperation>(outputs);
+		while (!pending.isEmpty()) {
+			NNOperation operation = pending.remove(pending.size() - 1);
+			if (remainingInputs.containsKey(operation))
+				continue;
+			remainingInputs.put(operation, operation.getInputs().size());
+			pending.addAll(operation.getInputs());
+		}
+		ArrayList<NNOperation> order = new ArrayList<NNOperation>(remainingInputs.size());
+		for (NNOperation operation : remainingInputs.keySet())
+			if (operation.getInputs().isEmpty())
+				order.add(operation);
+		for (int i = 0; i < order.size(); i++)
+			for (NNOperation next : order.get(i).getOutputs()) {
+				Integer remaining = remainingInputs.get(next);
+				if (remaining == null)
+					continue;
+				remainingInputs.put(next, --remaining);
+				if (remaining == 0)
+					order.add(next);
+			}
+		if (order.size() != remainingInputs.size())
+			throw new RuntimeException("Cannot compile models whose operations form cycles");
+
+		graph = order.toArray(new NNOperation[order.size()]);
+
+		HashMap<NNOperation, Integer> uses = new HashMap<NNOperation, Integer>();
+		for (NNOperation operation : order)
+			for (NNOperation input : operation.getInputs())
+				uses.put(input, uses.getOrDefault(input, 0) + 1);
+		for (NNOperation output : outputs)
+			uses.put(output, uses.getOrDefault(output, 0) + 1);
+		HashMap<NNOperation, List<NNOperation>> fusedInputs = new HashMap<NNOperation, List<NNOperation>>();
+		HashMap<NNOperation, MatMul> fusedProducts = new HashMap<NNOperation, MatMul>();
+		HashSet<NNOperation> fusedIntermediates = new HashSet<NNOperation>();
+		if (fuse)
+			for (NNOperation activation : order) {
+				List<NNOperation> inputs = findFusableInputs(activation, uses);
+				NNOperation add = inputs == null ? null : activation.getInputs().get(0);
+				if (inputs == null || checkpoints.contains(add) || !Collections.disjoint(checkpoints, add.getInputs()))
+					continue;
+				fusedInputs.put(activation, inputs);
+				fusedIntermediates.add(add);
+				for (NNOperation input : add.getInputs())
+					if (input instanceof MatMul) {
+						fusedProducts.put(activation, (MatMul) input);
+						fusedIntermediates.add(input);
+					}
+			}
+
+		ArrayList<NNOperation> steps = new ArrayList<NNOperation>(order.size());
+		ArrayList<NNOperation> originals = new ArrayList<NNOperation>(order.size());
+		ArrayList<List<NNOperation>> stepInputs = new ArrayList<List<NNOperation>>(order.size());
+		HashMap<NNOperation, Integer> ids = new HashMap<NNOperation, Integer>();
+		for (NNOperation operation : order) {
+			if (fusedIntermediates.contains(operation))
+				continue;
+			ids.put(operation, steps.size());
+			originals.add(operation);
+			List<NNOperation> inputs = fusedInputs.get(operation);
+			if (inputs == null) {
+				steps.add(operation);
+				stepInputs.add(operation.getInputs());
+			} else {
+				steps.add(new LinearActivation(operation, fusedProducts.get(operation)));
+				stepInputs.add(inputs);
+			}
+		}
+		operations = steps.toArray(new NNOperation[steps.size()]);
+		inputIds = new int[operations.length][];
+		inputNeedsGradient = new boolean[operations.length][];
+		trainable = new boolean[operations.length];
+		fanOut = new int[operations.length];
+		for (int i = 0; i < operations.length; i++) {
+			List<NNOperation> inputs = stepInputs.get(i);
+			inputIds[i] = new int[inputs.size()];
+			inputNeedsGradient[i] = new boolean[inputs.size()];
+			trainable[i] = !operations[i].isConstant();
+			for (int j = 0; j < inputs.size(); j++) {
+				inputIds[i][j] = ids.get(inputs.get(j));
+				inputNeedsGradient[i][j] = !inputs.get(j).isConstant();
+				fanOut[inputIds[i][j]]++;
+			}
+		}
+		outputIds = new int[outputs.size()];
+		isOutput = new boolean[operations.length];
+		for (int i = 0; i < outputIds.length; i++) {
+			outputIds[i] = ids.get(outputs.get(i));
+			fanOut[outputIds[i]]++;
+			isOutput[outputIds[i]] = true;
+		}
+		recomputable = new boolean[operations.length];
+		if (!checkpoints.isEmpty())
+			for (int i = 0; i < operations.length; i++) {
+				NNOperation operation = originals.get(i);
+				recomputable[i] = trainable[i] && !isOutput[i] && !checkpoints.contains(operation)
+						&& !(operation instanceof Parameter) && !(operation instanceof Variable)
+						&& !(operation instanceof Dropout);
+			}
+		retained = new boolean[operations.length];
+		for (int i = 0; i < operations.length; i++) {
+			if (!trainable[i])
+				continue;
+			if (operations[i].isOutputNeededForDerivative())
+				retained[i] = true;
+			for (int j = 0; j < inputIds[i].length; j++)
+				if (operations[i].isInputNeededForDerivative(j) || recomputable[i])
+					retained[inputIds[i][j]] = true;
+		}
+		frames = new AtomicReferenceArray<Frame>(ThreadPool.getInstance().getMaxThreads() + 1);
+	}
+
+	/**
+	 * Matches an activation applied on the sum of a matrix multiplication and a
+	 * bias vector parameter, where neither the multiplication nor the sum are used
+	 * elsewhere.
+	 *
+	 * @return The inputs of a {@link LinearActivation} that can replace the
+	 *         matched operations, or <code>null</code> if there is no match.
+	 */
+	private static List<NNOperation> findFusableInputs(NNOperation activation, HashMap<NNOperation, Integer> uses) {
+		if (!LinearActivation.isFusable(activation) || activation.getInputs().size() != 1 || activation.isConstant())
+			return null;
+		NNOperation add = activation.getInputs().get(0);
+		if (!(add instanceof Add) || uses.get(add) != 1 || add.getInputs().size() != 2)
+			return null;
+		for (int side = 0; side < 2; side++) {
+			NNOperation product = add.getInputs().get(side);
+			NNOperation bias = add.getInputs().get(1 - side);
+			if (product instanceof MatMul && uses.get(product) == 1 && bias instanceof Parameter
+					&& ((Parameter) bias).get() != null && !(((Parameter) bias).get() instanceof Matrix))
+				return Arrays.asList(product.getInputs().get(0), product.getInputs().get(1), bias);
+		}
+		return null;
+	}
+
+	private Frame frame() {
+		int position = ThreadPool.getCurrentThreadId() + 1;
+		Frame ret = frames.get(position);
+		if (ret == null && !frames.compareAndSet(position, null, ret = new Frame(inputIds)))
+			ret = frames.get(position);
+		return ret;
+	}
+
+	/**
+	 * Retrieves the operations of the execution graph in the order in which they
+	 * would run if no operations were fused.
+	 *
+	 * @return An array of {@link NNOperation}s.
+	 */
+	public NNOperation[] getOperations() {
+		return graph;
+	}
+
+	/**
+	 * Runs all operations in topological order. Model inputs should have already
+	 * been set. When training, outputs are analysed for liveness: those that
+	 * {@link #backpropagate(Optimizer, List)} does not need are released as soon
+	 * as their consumers have run, and the rest are released by the latter.
+	 *
+	 * @param training Whether this is the forward pass of a training step, in
+	 *                 which case intermediate operation predictions are not kept.
+	 * @return The outputs of the model.
+	 */
+	public ArrayList<Tensor> predict(boolean training) {
+		Frame frame = frame();
+		Tensor[] outputs = frame.outputs;
+		if (training) {
+			System.arraycopy(fanOut, 0, frame.pendingUses, 0, fanOut.length);
+			Arrays.fill(frame.sharedOutputs, false);
+		}
+		for (int i = 0; i < operations.length; i++) {
+			if (!training) {
+				runStep(frame, i, false);
+				continue;
+			}
+			runStep(frame, i, true);
+			for (int id : inputIds[i])
+				if (--frame.pendingUses[id] == 0 && (!retained[id] || recomputable[id]))
+					releaseOutput(frame, id);
+		}
+		ArrayList<Tensor> ret = new ArrayList<Tensor>(outputIds.length);
+		for (int outputId : outputIds)
+			ret.add(outputs[outputId]);
+		return ret;
+	}
+
+	private void runStep(Frame frame, int i, boolean training) {
+		Tensor[] outputs = frame.outputs;
+		Tensor[] inputSlots = frame.inputSlots[i];
+		int[] ids = inputIds[i];
+		for (int j = 0; j < ids.length; j++)
+			inputSlots[j] = outputs[ids[j]];
+		NNOperation operation = operations[i];
+		Tensor output = operation.runForward(frame.inputLists.get(i));
+		outputs[i] = output;
+		if (!training)
+			return;
+		boolean dense = Parallelism.isDense(output);
+		frame.ownedOutputs[i] = dense && !(operation instanceof Parameter) && !(operation instanceof Variable)
+				&& !operation.isCached();
+		for (int j = 0; j < ids.length; j++)
+			if (inputSlots[j] == output || !dense) {
+				frame.ownedOutputs[i] = false;
+				frame.sharedOutputs[ids[j]] = true;
+			}
+	}
+
+	/**
+	 * Recomputes the dropped outputs that the backward pass of a step needs,
+	 * together with any dropped outputs these depend on. The latter are released
+	 * once the recomputation concludes.
+	 */
+	private void recompute(Frame frame, int step) {
+		Tensor[] outputs = frame.outputs;
+		NNOperation operation = operations[step];
+		ArrayList<Integer> pending = new ArrayList<Integer>();
+		if (operation.isOutputNeededForDerivative() && outputs[step] == null)
+			pending.add(step);
+		for (int j = 0; j < inputIds[step].length; j++)
+			if (operation.isInputNeededForDerivative(j) && outputs[inputIds[step][j]] == null)
+				pending.add(inputIds[step][j]);
+		if (pending.isEmpty())
+			return;
+		HashSet<Integer> needed = new HashSet<Integer>(pending);
+		HashSet<Integer> missing = new HashSet<Integer>();
+		while (!pending.isEmpty()) {
+			int id = pending.remove(pending.size() - 1);
+			if (!missing.add(id))
+				continue;
+			if (!recomputable[id])
+				throw new RuntimeException("Cannot recompute the output of " + operations[id].describe());
+			for (int input : inputIds[id])
+				if (outputs[input] == null)
+					pending.add(input);
+		}
+		Integer[] order = missing.toArray(new Integer[missing.size()]);
+		Arrays.sort(order);
+		for (int id : order)
+			runStep(frame, id, true);
+		for (int id : order)
+			if (!needed.contains(id) && !retained[id])
+				releaseOutput(frame, id);
+		int[] ids = inputIds[step];
+		for (int j = 0; j < ids.length; j++)
+			frame.inputSlots[step][j] = outputs[ids[j]];
+	}
+
+	/**
+	 * Runs all operations in topological order for inference. Outputs are not
+	 * stored as operation predictions and intermediate tensors are dropped as
+	 * soon as their last consumer has run. Dense intermediates are also released
+	 * to {@link mklab.JGNN.core.Memory} for reuse, unless the operation that
+	 * created them or one of their consumers may have returned a tensor sharing
+	 * their elements, such as an input itself or a view. Model inputs should have
+	 * already been set.
+	 *
+	 * @param ret A list in which to add the outputs of the model.
+	 * @return An estimate of the peak number of bytes held by intermediate dense
+	 *         tensors.
+	 */
+	public long infer(List<Tensor> ret) {
+		Tensor[] outputs = new Tensor[operations.length];
+		boolean[] owned = new boolean[operations.length];
+		boolean[] shared = new boolean[operations.length];
+		int[] pendingUses = fanOut.clone();
+		long memory = 0;
+		long peakMemory = 0;
+		for (int i = 0; i < operations.length; i++) {
+			int[] ids = inputIds[i];
+			Tensor[] inputs = new Tensor[ids.length];
+			for (int j = 0; j < ids.length; j++)
+				inputs[j] = outputs[ids[j]];
+			NNOperation operation = operations[i];
+			Tensor output = operation.runInference(Arrays.asList(inputs));
+			if (operation instanceof LinearActivation)
+				((LinearActivation) operation).clearBackwardState();
+			outputs[i] = output;
+			boolean dense = Parallelism.isDense(output);
+			owned[i] = dense && !(operation instanceof Parameter) && !(operation instanceof Variable)
+					&& !operation.isCached();
+			for (int j = 0; j < ids.length; j++)
+				if (inputs[j] == output || !dense) {
+					owned[i] = false;
+					shared[ids[j]] = true;
+				}
+			if (owned[i]) {
+				memory += estimateBytes(output);
+				peakMemory = Math.max(peakMemory, memory);
+			}
+			for (int j = 0; j < ids.length; j++) {
+				int id = ids[j];
+				if (--pendingUses[id] != 0)
+					continue;
+				if (owned[id] && !shared[id]) {
+					memory -= estimateBytes(outputs[id]);
+					outputs[id].release();
+				}
+				outputs[id] = null;
+			}
+		}
+		for (int outputId : outputIds)
+			ret.add(outputs[outputId]);
+		return peakMemory;
+	}
+
+	private static long estimateBytes(Tensor tensor) {
+		boolean singlePrecision = tensor instanceof FloatTensor || tensor instanceof FloatMatrix;
+		return tensor.size() * (singlePrecision ? Float.BYTES : Double.BYTES);
+	}
+
+	/**
+	 * Backpropagates the derivatives of model outputs obtained by the last
+	 * training {@link #predict(boolean)} call of the same thread and lets the
+	 * optimizer adjust parameters. Operations run in reverse topological order, so
+	 * that all gradients have been accumulated before parameters are trained.
+	 * Gradients of operations with multiple outputs are accumulated in place
+	 * where possible. Gradients, and the outputs of operations whose
+	 * backpropagation has concluded, are released as soon as they are no longer
+	 * needed, so that tensors allocated next can reuse their memory.
+	 *
+	 * @param optimizer The optimizer with which to adjust parameters.
+	 * @param errors    The derivatives of the loss with respect to each output.
+	 */
+	public void backpropagate(Optimizer optimizer, List<Tensor> errors) {
+		Frame frame = frame();
+		for (int i = 0; i < outputIds.length; i++)
+			accumulate(frame, outputIds[i], errors.get(i), false);
+		for (int i = operations.length - 1; i >= 0; i--) {
+			Tensor error = frame.errors[i];
+			boolean ownedError = frame.ownedErrors[i];
+			frame.errors[i] = null;
+			frame.ownedErrors[i] = false;
+			if (error != null && trainable[i] && !operations[i].isCached()) {
+				NNOperation operation = operations[i];
+				int[] ids = inputIds[i];
+				Tensor[] partials = new Tensor[ids.length];
+				try {
+					recompute(frame, i);
+					List<Tensor> inputs = frame.inputLists.get(i);
+					for (int j = 0; j < ids.length; j++)
+						if (inputNeedsGradient[i][j])
+							partials[j] = operation.partial(j, inputs, frame.outputs[i], error);
+					for (int j = 0; j < ids.length; j++) {
+						Tensor partial = partials[j];
+						if (partial == null)
+							continue;
+						boolean owned = partial != error && Parallelism.isDense(partial);
+						if (partial == error || !Parallelism.isDense(partial))
+							ownedError = false;
+						for (int k = 0; k < ids.length; k++)
+							if (k != j && partials[k] == partial)
+								owned = false;
+						accumulate(frame, ids[j], partial, owned);
+					}
+					operation.trainParameters(optimizer, error);
+				} catch (RuntimeException e) {
+					throw new RuntimeException("During the backward pass of " + operation.describe(), e);
+				}
+			}
+			if (error != null && ownedError)
+				error.release();
+			if (retained[i] && !isOutput[i])
+				releaseOutput(frame, i);
+		}
+	}
+
+	private void accumulate(Frame frame, int id, Tensor error, boolean owned) {
+		if (error == null)
+			return;
+		Tensor accumulated = frame.errors[id];
+		if (accumulated == null) {
+			if (fanOut[id] == 1 || owned) {
+				frame.errors[id] = error;
+				frame.ownedErrors[id] = owned;
+			} else {
+				Tensor output = frame.outputs[id];
+				frame.errors[id] = (output == null ? error : output).zeroCopy().selfAdd(error);
+				frame.ownedErrors[id] = true;
+			}
+		} else {
+			accumulated.selfAdd(error);
+			if (owned)
+				error.release();
+		}
+	}
+
+	private void releaseOutput(Frame frame, int id) {
+		if (frame.ownedOutputs[id] && !frame.sharedOutputs[id]) {
+			frame.outputs[id].release();
+			operations[id].forgetPrediction();
+			frame.ownedOutputs[id] = false;
+		}
+		frame.outputs[id] = null;
+	}
+}
@@ -9,8 +9,12 @@ import java.util.List;
 import mklab.JGNN.adhoc.ModelTraining;
 import mklab.JGNN.core.Matrix;
 import mklab.JGNN.core.Memory;
+import mklab.JGNN.core.Parallelism;
 import mklab.JGNN.core.Slice;
 import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.matrix.FloatMatrix;
+import mklab.JGNN.core.tensor.DenseTensor;
+import mklab.JGNN.core.tensor.FloatTensor;
 import mklab.JGNN.core.tensor.RepeatTensor;
 import mklab.JGNN.nn.inputs.Parameter;
 import mklab.JGNN.nn.inputs.Variable;
@@ -27,6 +31,12 @@ import mklab.JGNN.nn.operations.Dropout;
 public class Model {
 	private ArrayList<Variable> inputs = new ArrayList<Variable>();
 	private ArrayList<NNOperation> outputs = new ArrayList<NNOperation>();
+	private ArrayList<NNOperation> checkpoints = new ArrayList<NNOperation>();
+	private int parallelism = 0;
+	private int precision = 64;
+	private ExecutionPlan plan = null;
+	private ExecutionPlan inferencePlan = null;
+	private long peakInferenceMemory = 0;
 
 	/**
 	 * Instantiates an empty model.
@@ -48,6 +58,88 @@ public class Model {
 		return this;
 	}
 
+	/**
+	 * Sets the number of disjoint ranges in which the work of individual
+	 * operations (matrix multiplications, element-by-element operations,
+	 * activations and pooling) is split while this model runs predictions or
+	 * training steps. This overrides the global setting of {@link Parallelism}.
+	 * 
+	 * @param parallelism The number of ranges, or zero to use the global setting
+	 *                    (default).
+	 * @return The model's instance.
+	 * @see #getParallelism()
+	 */
+	public Model setParallelism(int parallelism) {
+		if (parallelism < 0)
+			throw new IllegalArgumentException("Parallelism should be non-negative");
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	/**
+	 * Retrieves the intra-operation parallelism set with
+	 * {@link #setParallelism(int)}.
+	 * 
+	 * @return The number of ranges, or zero if the global setting is used.
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Sets the floating point precision of the model's dense parameters. Since
+	 * operations create their outputs with the same type as their inputs, this
+	 * also determines the precision of activations and gradients. Dense inputs
+	 * are converted to the same precision when the model runs. Losses and other
+	 * aggregations are still accumulated with double precision.
+	 * 
+	 * @param precision Either 32 for single precision (floats) or 64 for double
+	 *                  precision (default).
+	 * @return The model's instance.
+	 * @see #getPrecision()
+	 * @see #toPrecision(Tensor)
+	 */
+	public Model setPrecision(int precision) {
+		if (precision != 32 && precision != 64)
+			throw new IllegalArgumentException("Precision should be either 32 or 64 bits");
+		this.precision = precision;
+		for (Parameter parameter : getParameters())
+			parameter.set(toPrecision(parameter.get()));
+		return this;
+	}
+
+	/**
+	 * Retrieves the floating point precision set with {@link #setPrecision(int)}.
+	 * 
+	 * @return Either 32 or 64.
+	 */
+	public int getPrecision() {
+		return precision;
+	}
+
+	/**
+	 * Converts a dense tensor or matrix to the model's precision. Sparse and other
+	 * tensors, as well as tensors that already have the desired precision, are
+	 * returned as-is.
+	 * 
+	 * @param tensor The tensor to convert.
+	 * @return A {@link FloatTensor} or {@link FloatMatrix} for 32-bit precision,
+	 *         a double-precision dense tensor or matrix for 64-bit precision, or
+	 *         the given tensor.
+	 * @see #setPrecision(int)
+	 */
+	public Tensor toPrecision(Tensor tensor) {
+		if (tensor == null || !Parallelism.isDense(tensor))
+			return tensor;
+		boolean singlePrecision = tensor instanceof FloatTensor || tensor instanceof FloatMatrix;
+		if (precision == 32 && !singlePrecision)
+			return tensor.toFloat();
+		if (precision == 64 && singlePrecision)
+			return tensor instanceof Matrix ? ((Matrix) tensor).toDense()
+					: new DenseTensor(tensor.size()).selfAdd(tensor).setDimensionName(tensor);
+		return tensor;
+	}
+
 	/**
 	 * Trains the model by appropriately calling
 	 * {@link ModelTraining#train(Model, Matrix, Matrix, Slice, Slice)} with the
@@ -94,6 +186,12 @@ public class Model {
 	 */
 	public ArrayList<NNOperation> getDepthLastOperations() {
 		ArrayList<NNOperation> operations = new ArrayList<NNOperation>();
+		if (plan != null) {
+			NNOperation[] planned = plan.getOperations();
+			for (int i = planned.length - 1; i >= 0; i--)
+				operations.add(planned[i]);
+			return operations;
+		}
 		ArrayList<NNOperation> pending = new ArrayList<NNOperation>();
 		HashMap<NNOperation, Integer> visits = new HashMap<NNOperation, Integer>();
 		for (NNOperation output : outputs)
@@ -175,6 +273,8 @@ public class Model {
 	 */
 	public Model addInput(Variable input) {
 		inputs.add(input);
+		plan = null;
+		inferencePlan = null;
 		return this;
 	}
 
@@ -190,6 +290,8 @@ public class Model {
 	 */
 	public Model addOutput(NNOperation output) {
 		outputs.add(output);
+		plan = null;
+		inferencePlan = null;
 		return this;
 	}
 
@@ -218,6 +320,83 @@ public class Model {
 		return outputs;
 	}
 
+	/**
+	 * Marks an operation as a gradient checkpoint. If a model has checkpoints,
+	 * training keeps only their outputs (and those of inputs, parameters and
+	 * dropout operations) after the forward pass. Other activations are
+	 * recomputed segment by segment from the nearest checkpoints during the
+	 * backward pass. This trades additional computations for memory that does
+	 * not grow with the depth of architectures, for instance when one in every
+	 * few layers is marked. Checkpoints require a compiled model and training
+	 * compiles the model if needed. Adding checkpoints discards previous
+	 * compilations.
+	 *
+	 * @param checkpoint The operation whose output should be kept.
+	 * @return <code>this</code> Model instance.
+	 * @see #getCheckpoints()
+	 * @see #compile()
+	 */
+	public Model addCheckpoint(NNOperation checkpoint) {
+		if (!checkpoints.contains(checkpoint))
+			checkpoints.add(checkpoint);
+		plan = null;
+		inferencePlan = null;
+		return this;
+	}
+
+	/**
+	 * Retrieves the operations marked with {@link #addCheckpoint(NNOperation)}.
+	 * Editing this list affects the model and is not recommended.
+	 *
+	 * @return A list of {@link NNOperation} instances.
+	 */
+	public ArrayList<NNOperation> getCheckpoints() {
+		return checkpoints;
+	}
+
+	/**
+	 * Compiles the model's execution graph into a flat plan of operations sorted
+	 * in topological order. Afterwards, forward and backward passes run
+	 * operations in sequence instead of recursively traversing the graph, which
+	 * reduces per-step overhead and avoids deep recursion in models with many
+	 * layers. Adding inputs or outputs to the model discards the plan, but other
+	 * changes of the execution graph (e.g. adding inputs to operations) require
+	 * calling this method again.
+	 *
+	 * @return The model's instance.
+	 * @see #isCompiled()
+	 * @see #compile(boolean)
+	 */
+	public Model compile() {
+		return compile(true);
+	}
+
+	/**
+	 * Compiles the model like {@link #compile()} while determining whether
+	 * matrix multiplications that are followed by the addition of a bias vector
+	 * and a relu, sigmoid or tanh activation should be fused into single
+	 * {@link mklab.JGNN.nn.operations.LinearActivation} operations. Fusion skips
+	 * intermediate tensors, but the fused operations' predictions cannot be
+	 * retrieved with {@link NNOperation#getPrediction()}.
+	 *
+	 * @param fuse Whether to fuse operations. Default is <code>true</code>.
+	 * @return The model's instance.
+	 */
+	public Model compile(boolean fuse) {
+		plan = new ExecutionPlan(outputs, fuse, checkpoints);
+		inferencePlan = null;
+		return this;
+	}
+
+	/**
+	 * Checks whether the model runs with a plan created by {@link #compile()}.
+	 *
+	 * @return A <code>boolean</code> value.
+	 */
+	public boolean isCompiled() {
+		return plan != null;
+	}
+
 	/**
 	 * Forward run of the model given an array of input tensors. Wraps
 	 * {@link #predict(List)}.
@@ -242,17 +421,94 @@ public class Model {
 	 *                                  match the number of input variables.
 	 */
 	public ArrayList<Tensor> predict(List<Tensor> inputs) {
+		return predict(inputs, false);
+	}
+
+	private ArrayList<Tensor> predict(List<Tensor> inputs, boolean training) {
 		if (inputs.size() != this.inputs.size())
 			throw new IllegalArgumentException(
 					"Incompatible input size: expected" + this.inputs.size() + " inputs instead of " + inputs.size());
-		for (NNOperation output : this.outputs)
-			output.clearPrediction();
-		for (int i = 0; i < inputs.size(); i++)
-			this.inputs.get(i).setTo(inputs.get(i));
-		ArrayList<Tensor> outputs = new ArrayList<Tensor>();
-		for (int i = 0; i < this.outputs.size(); i++)
-			outputs.add(this.outputs.get(i).runPrediction());
-		return outputs;
+		int previousParallelism = parallelism == 0 ? 0 : Parallelism.setLocalParallelism(parallelism);
+		try {
+			ExecutionPlan plan = this.plan;
+			if (plan == null)
+				for (NNOperation output : this.outputs)
+					output.clearPrediction();
+			for (int i = 0; i < inputs.size(); i++)
+				this.inputs.get(i).setTo(toPrecision(inputs.get(i)));
+			if (plan != null)
+				return plan.predict(training);
+			ArrayList<Tensor> outputs = new ArrayList<Tensor>();
+			for (int i = 0; i < this.outputs.size(); i++)
+				outputs.add(this.outputs.get(i).runPrediction());
+			return outputs;
+		} finally {
+			if (parallelism != 0)
+				Parallelism.setLocalParallelism(previousParallelism);
+		}
+	}
+
+	/**
+	 * Forward run of the model for inference given an array of input tensors.
+	 * Wraps {@link #infer(List)}.
+	 *
+	 * @param inputs Input tensors to be assigned to input variables.
+	 * @return A list of tensors output by the model.
+	 * @see #infer(List)
+	 */
+	public ArrayList<Tensor> infer(Tensor... inputs) {
+		return infer(Arrays.asList(inputs));
+	}
+
+	/**
+	 * Forward run of the model that only computes its outputs, for example to
+	 * serve predictions after training. Contrary to {@link #predict(List)},
+	 * operations do not keep their outputs for backpropagation. Instead,
+	 * intermediate tensors are dropped, and dense ones are released to
+	 * {@link Memory} for reuse, as soon as all operations that use them have
+	 * run. Thus, inference on large graphs requires only a fraction of the memory
+	 * of predictions. Operations run with the plan created by {@link #compile()}.
+	 * If the model is not compiled, a fused plan is created on first call and
+	 * reused until inputs, outputs or checkpoints are added to the model.
+	 *
+	 * @param inputs A list of tensors to be assigned to input variables.
+	 * @return A list of tensors output by the model.
+	 * @throws IllegalArgumentException if the number of input tensors does not
+	 *                                  match the number of input variables.
+	 * @see #getPeakInferenceMemory()
+	 */
+	public ArrayList<Tensor> infer(List<Tensor> inputs) {
+		if (inputs.size() != this.inputs.size())
+			throw new IllegalArgumentException(
+					"Incompatible input size: expected" + this.inputs.size() + " inputs instead of " + inputs.size());
+		int previousParallelism = parallelism == 0 ? 0 : Parallelism.setLocalParallelism(parallelism);
+		try {
+			ExecutionPlan plan = this.plan;
+			if (plan == null) {
+				if (inferencePlan == null)
+					inferencePlan = new ExecutionPlan(outputs, true);
+				plan = inferencePlan;
+			}
+			for (int i = 0; i < inputs.size(); i++)
+				this.inputs.get(i).setTo(toPrecision(inputs.get(i)));
+			ArrayList<Tensor> outputs = new ArrayList<Tensor>(this.outputs.size());
+			peakInferenceMemory = plan.infer(outputs);
+			return outputs;
+		} finally {
+			if (parallelism != 0)
+				Parallelism.setLocalParallelism(previousParallelism);
+		}
+	}
+
+	/**
+	 * Retrieves the peak memory that intermediate dense tensors occupied during
+	 * the last {@link #infer(List)} call. Tensors that operations may share with
+	 * others are counted until inference concludes, so this is an upper bound.
+	 *
+	 * @return An estimate of the number of bytes.
+	 */
+	public long getPeakInferenceMemory() {
+		return peakInferenceMemory;
 	}
 
 	/**
@@ -318,19 +574,28 @@ public class Model {
 		if (desiredOutputs.size() != this.outputs.size())
 			throw new IllegalArgumentException("Incompatible number of outputs: " + desiredOutputs.size()
 					+ " given but " + this.outputs.size() + " expected");
-		setTraining(true);
-		Memory.scope().enter();
-		ArrayList<Tensor> outputs = predict(inputs);
-		for (int i = 0; i < outputs.size(); i++)
-			outputs.get(i).persist();
-		Memory.scope().exit();
-		Memory.scope().enter();
-		for (int i = 0; i < outputs.size(); i++) {
-			this.outputs.get(i).forceBackpropagate(optimizer, loss.derivative(outputs.get(i), desiredOutputs.get(i)));
+		int previousParallelism = parallelism == 0 ? 0 : Parallelism.setLocalParallelism(parallelism);
+		try {
+			if (plan == null && !checkpoints.isEmpty())
+				compile();
+			setTraining(true);
+			Memory.scope().enter();
+			ArrayList<Tensor> outputs = predict(inputs, true);
+			for (int i = 0; i < outputs.size(); i++)
+				outputs.get(i).persist();
+			Memory.scope().exit();
+			Memory.scope().enter();
+			ArrayList<Tensor> errors = new ArrayList<Tensor>(outputs.size());
+			for (int i = 0; i < outputs.size(); i++)
+				errors.add(loss.derivative(outputs.get(i), desiredOutputs.get(i)));
+			backpropagate(optimizer, errors);
+			setTraining(false);
+			Memory.scope().exit();
+			return outputs;
+		} finally {
+			if (parallelism != 0)
+				Parallelism.setLocalParallelism(previousParallelism);
 		}
-		setTraining(false);
-		Memory.scope().exit();
-		return outputs;
 	}
 
 	/**
@@ -351,14 +616,31 @@ public class Model {
 		if (inputs.size() != this.inputs.size())
 			throw new IllegalArgumentException(
 					"Incompatible number of inputs: " + inputs.size() + " but " + this.inputs.size() + " expected");
-		setTraining(true);
-		ArrayList<Tensor> outputs = predict(inputs);
-		double loss = 0;
-		for (int i = 0; i < outputs.size(); i++) {
-			Tensor diff = outputs.get(i).abs();
-			this.outputs.get(i).forceBackpropagate(optimizer, diff);
+		int previousParallelism = parallelism == 0 ? 0 : Parallelism.setLocalParallelism(parallelism);
+		try {
+			if (plan == null && !checkpoints.isEmpty())
+				compile();
+			setTraining(true);
+			ArrayList<Tensor> outputs = predict(inputs, true);
+			double loss = 0;
+			ArrayList<Tensor> errors = new ArrayList<Tensor>(outputs.size());
+			for (int i = 0; i < outputs.size(); i++)
+				errors.add(outputs.get(i).abs());
+			backpropagate(optimizer, errors);
+			setTraining(false);
+			return loss;
+		} finally {
+			if (parallelism != 0)
+				Parallelism.setLocalParallelism(previousParallelism);
 		}
-		setTraining(false);
-		return loss;
+	}
+
+	private void backpropagate(Optimizer optimizer, List<Tensor> errors) {
+		ExecutionPlan plan = this.plan;
+		if (plan != null)
+			plan.backpropagate(optimizer, errors);
+		else
+			for (int i = 0; i < errors.size(); i++)
+				outputs.get(i).forceBackpropagate(optimizer, errors.get(i));
 	}
 }
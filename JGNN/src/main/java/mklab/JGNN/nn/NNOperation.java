@@ -2,8 +2,9 @@ package mklab.JGNN.nn;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import mklab.JGNN.core.Tensor;
 import mklab.JGNN.core.ThreadPool;
@@ -62,16 +63,18 @@ public abstract class NNOperation {
 		}
 	}
 
-	private HashMap<Integer, ThreadData> data = new HashMap<Integer, ThreadData>();
+	/**
+	 * Thread data are stored at position <code>threadId+1</code>, where threads
+	 * outside the {@link ThreadPool} share the first position.
+	 */
+	private final AtomicReferenceArray<ThreadData> data = new AtomicReferenceArray<ThreadData>(
+			ThreadPool.getInstance().getMaxThreads() + 1);
 
 	protected ThreadData data() {
-		int threadId = ThreadPool.getCurrentThreadId();
-		ThreadData ret;
-		synchronized (data) {
-			ret = data.get(threadId);
-			if (ret == null) 
-				data.put(threadId, ret = new ThreadData());
-		}
+		int position = ThreadPool.getCurrentThreadId() + 1;
+		ThreadData ret = data.get(position);
+		if (ret == null && !data.compareAndSet(position, null, ret = new ThreadData()))
+			ret = data.get(position);
 		return ret;
 	}
 
@@ -197,6 +200,24 @@ public abstract class NNOperation {
 		return outputNonLinearity;
 	}
 
+	/**
+	 * Forgets the cached output of this operation and of all operations computed
+	 * from it, so that future predictions reflect new values of constants. All
+	 * downstream operations are visited, since one without a cached output may
+	 * still lead to others that have one.
+	 */
+	protected final void clearConstantCache() {
+		clearConstantCache(new HashSet<NNOperation>());
+	}
+
+	private void clearConstantCache(HashSet<NNOperation> visited) {
+		if (!visited.add(this))
+			return;
+		constantCache = null;
+		for (NNOperation output : outputs)
+			output.clearConstantCache(visited);
+	}
+
 	public final void clearPrediction() {
 		ThreadData data = data();
 		synchronized(data) {
@@ -208,6 +229,17 @@ public abstract class NNOperation {
 			input.clearPrediction();
 	}
 
+	/**
+	 * Forgets the last prediction of the current thread without affecting inputs.
+	 * Used by {@link ExecutionPlan} once the prediction has been released.
+	 */
+	final void forgetPrediction() {
+		ThreadData data = data();
+		synchronized (data) {
+			data.lastOutput = null;
+		}
+	}
+
 	public NNOperation addInput(NNOperation inputComponent) {
 		inputs.add(inputComponent);
 		inputComponent.outputs.add(this);
@@ -288,6 +320,65 @@ public abstract class NNOperation {
 		}
 	}
 
+	/**
+	 * Computes the operation's output given the outputs of its inputs, without
+	 * recursively running the latter. This is used by compiled models, whose
+	 * execution plans run operations in topological order.
+	 *
+	 * @param lastInputs The outputs of input operations.
+	 * @return The operation's output, which is also set as the current thread's
+	 *         prediction.
+	 * @see Model#compile()
+	 */
+	final Tensor runForward(List<Tensor> lastInputs) {
+		ThreadData data = data();
+		try {
+			if (constantCache != null)
+				data.lastOutput = constantCache;
+			else
+				data.lastOutput = forward(lastInputs);
+			data.tapeError = null;
+			data.countTapeSources = 0;
+			if (isConstant() && isCachable())
+				constantCache = data.lastOutput;
+			return data.lastOutput;
+		} catch (RuntimeException e) {
+			throw new RuntimeException("During the forward pass of " + describe(), e);
+		}
+	}
+
+	/**
+	 * Computes the operation's output given the outputs of its inputs without
+	 * storing it as the current thread's prediction, as needed by inference that
+	 * does not backpropagate.
+	 *
+	 * @param lastInputs The outputs of input operations.
+	 * @return The operation's output.
+	 * @see Model#infer(List)
+	 */
+	final Tensor runInference(List<Tensor> lastInputs) {
+		try {
+			if (constantCache != null)
+				return constantCache;
+			Tensor ret = forward(lastInputs);
+			if (isConstant() && isCachable())
+				constantCache = ret;
+			return ret;
+		} catch (RuntimeException e) {
+			throw new RuntimeException("During the forward pass of " + describe(), e);
+		}
+	}
+
+	/**
+	 * Checks whether the operation's output has been cached, in which case it is
+	 * not backpropagated.
+	 *
+	 * @return A <code>boolean</code> value.
+	 */
+	final boolean isCached() {
+		return constantCache != null;
+	}
+
 	final void backpropagate(Optimizer optimizer, Tensor error) {
 		if (constantCache != null)
 			return;
@@ -310,8 +401,13 @@ public abstract class NNOperation {
 				throw new RuntimeException("Redundant backpropagations were erroneously called");
 			if (data.countTapeSources < outputs.size())
 				return;
-			if (error == null)
+			if (data.tapeError == null) {
+				// no derivative to propagate, but inputs still wait for this tape source
+				for (NNOperation input : inputs)
+					if (!input.isConstant())
+						input.backpropagate(optimizer, null);
 				return;
+			}
 			// if(debugging)
 			// System.out.println("Packpropagating... "+describe()+" Derivative
 			// "+data.tapeError+" prev out "+data.lastOutput);
@@ -15,7 +15,8 @@ public abstract interface Optimizer {
 	 * In-place updates the value of a tensor given its gradient. Some optimizers
 	 * (e.g. Adama) require the exact same tensor instance to be provided so as to
 	 * keep track of its optimization progress. The library makes sure to keep this
-	 * constraint.
+	 * constraint. Gradients may be released for reuse by compiled models once
+	 * this method returns, so implementations should copy them if needed later.
 	 * 
 	 * @param value    The tensor to update.
 	 * @param gradient The tensor's gradient.
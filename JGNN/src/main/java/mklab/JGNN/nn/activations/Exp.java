@@ -17,6 +17,11 @@ public class Exp extends NNOperation {
 		return inputs.get(0).expMinusOne().selfAdd(1.);
 	}
 
+	@Override
+	protected boolean isOutputNeededForDerivative() {
+		return true;
+	}
+
 	@Override
 	protected Tensor partial(int inputId, List<Tensor> inputs, Tensor output, Tensor error) {
 		return output.multiply(error);
@@ -1,7 +1,6 @@
 package mklab.JGNN.nn.activations;
 
 import java.util.List;
-import java.util.Map.Entry;
 
 import mklab.JGNN.core.Matrix;
 import mklab.JGNN.nn.NNOperation;
@@ -48,50 +47,43 @@ public class L1 extends NNOperation {
 			if (colMode) {
 				Matrix matrix = ret.cast(Matrix.class);
 				Tensor sums = new DenseTensor(matrix.getRows());
-				for (Entry<Long, Long> pos : matrix.getNonZeroEntries()) {
-					long row = pos.getKey();
-					long col = pos.getValue();
-					sums.putAdd(row, matrix.get(row, col));
-				}
-				for (Entry<Long, Long> pos : matrix.getNonZeroEntries()) {
-					long row = pos.getKey();
-					long col = pos.getValue();
+				matrix.forEachNonZero((row, col, value) -> sums.putAdd(row, value));
+				matrix.forEachNonZero((row, col, value) -> {
 					double div = sums.get(row);
-					matrix.put(row, col, Math.abs(matrix.get(row, col)) / div);
-				}
+					matrix.put(row, col, Math.abs(value) / div);
+				});
 			} else {
 				Matrix matrix = ret.cast(Matrix.class);
 				Tensor sums = new DenseTensor(matrix.getCols());
-				for (Entry<Long, Long> pos : matrix.getNonZeroEntries()) {
-					long row = pos.getKey();
-					long col = pos.getValue();
-					sums.putAdd(col, matrix.get(row, col));
-				}
-				for (Entry<Long, Long> pos : matrix.getNonZeroEntries()) {
-					long row = pos.getKey();
-					long col = pos.getValue();
+				matrix.forEachNonZero((row, col, value) -> sums.putAdd(col, value));
+				matrix.forEachNonZero((row, col, value) -> {
 					double div = sums.get(col);
 					if (div != 0)
-						matrix.put(row, col, Math.abs(matrix.get(row, col)) / div);
-				}
+						matrix.put(row, col, Math.abs(value) / div);
+				});
 			}
 		} else
 			return ret.setToProbability();
 		return ret;
 	}
 
+	@Override
+	protected boolean isOutputNeededForDerivative() {
+		return true;
+	}
+
 	@Override
 	protected Tensor partial(int inputId, List<Tensor> inputs, Tensor output, Tensor error) {
 		Tensor ret = error.zeroCopy();
 		Tensor input = inputs.get(0);
-		for (long pos : error.getNonZeroElements()) {
+		error.forEachNonZero((pos, value) -> {
 			double nom = input.get(pos);
 			if (nom == 0)
-				continue;
+				return;
 			double denom = nom / output.get(pos);
 			double sgn = nom > 0 ? 1 : -1;
 			ret.put(pos, sgn * (1. - nom / denom) / denom);
-		}
+		});
 		return ret;
 	}
 }
\ No newline at end of file
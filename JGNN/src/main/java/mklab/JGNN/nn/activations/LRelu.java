@@ -2,6 +2,7 @@ package mklab.JGNN.nn.activations;
 
 import java.util.List;
 
+import mklab.JGNN.core.Parallelism;
 import mklab.JGNN.core.Tensor;
 import mklab.JGNN.nn.NNOperation;
 import mklab.JGNN.nn.inputs.Constant;
@@ -25,10 +26,9 @@ public class LRelu extends NNOperation {
 		Tensor x = inputs.get(0);
 		Tensor ret = x.zeroCopy();
 		double mult = inputs.get(1).toDouble();
-		for (long i : x.getNonZeroElements()) {
-			double val = x.get(i);
+		Parallelism.forEachNonZero(x, ret, (i, val) -> {
 			ret.put(i, val > 0 ? val : (val * mult));
-		}
+		});
 		return ret;
 	}
 
@@ -37,13 +37,12 @@ public class LRelu extends NNOperation {
 		Tensor x = inputs.get(0);
 		Tensor ret = x.zeroCopy();
 		double mult = inputs.get(1).toDouble();
-		for (long i : x.getNonZeroElements()) {
-			double val = x.get(i);
+		Parallelism.forEachNonZero(x, ret, (i, val) -> {
 			if (val >= 0)
 				ret.put(i, error.get(i));
 			else
 				ret.put(i, mult * error.get(i));
-		}
+		});
 		return ret;
 	}
 
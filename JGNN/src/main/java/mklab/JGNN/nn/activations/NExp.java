@@ -22,6 +22,11 @@ public class NExp extends NNOperation {
 		return ret;
 	}
 
+	@Override
+	protected boolean isOutputNeededForDerivative() {
+		return true;
+	}
+
 	@Override
 	protected Tensor partial(int inputId, List<Tensor> inputs, Tensor output, Tensor error) {
 		Tensor ret = output.copy();
@@ -1,10 +1,10 @@
 package mklab.JGNN.nn.activations;
 
 import java.util.List;
-import java.util.Map.Entry;
 
 import mklab.JGNN.core.Matrix;
 import mklab.JGNN.nn.NNOperation;
+import mklab.JGNN.core.Parallelism;
 import mklab.JGNN.core.Tensor;
 import mklab.JGNN.core.matrix.ColumnRepetition;
 
@@ -18,10 +18,10 @@ public class PRelu extends NNOperation {
 		if (x instanceof Matrix && !(param instanceof Matrix))
 			param = new ColumnRepetition(((Matrix) x).getRows(), param);
 		Tensor ret = x.zeroCopy();
-		for (long i : x.getNonZeroElements()) {
-			double val = x.get(i);
-			ret.put(i, val > 0 ? val : (val * param.get(i)));
-		}
+		Tensor slopes = param;
+		Parallelism.forEachNonZero(x, ret, (i, val) -> {
+			ret.put(i, val > 0 ? val : (val * slopes.get(i)));
+		});
 		return ret;
 	}
 
@@ -35,26 +35,22 @@ public class PRelu extends NNOperation {
 				param = new ColumnRepetition(x.size(), param);
 			if (x instanceof Matrix && !(param instanceof Matrix))
 				param = new ColumnRepetition(((Matrix) x).getRows(), param);
-			for (long i : error.getNonZeroElements()) {
-				double val = x.get(i);
-				ret.put(i, val >= 0 ? error.get(i) : (error.get(i) * param.get(i)));
-			}
+			Tensor slopes = param;
+			Parallelism.forEachNonZero(error, ret, (i, err) -> {
+				ret.put(i, x.get(i) >= 0 ? err : (err * slopes.get(i)));
+			});
 		} else if (inputId == 1) {
 			if (x instanceof Matrix && !(param instanceof Matrix)) {
 				Matrix matrix = (Matrix) x;
-				for (Entry<Long, Long> entry : matrix.getNonZeroEntries()) {
-					long row = entry.getKey();
-					long col = entry.getValue();
-					double val = matrix.get(row, col);
+				matrix.forEachNonZero((row, col, val) -> {
 					if (val < 0)
 						ret.put(col, ret.get(col) * ((Matrix) error).get(row, col));
-				}
+				});
 			} else {
-				for (long i : x.getNonZeroElements()) {
-					double val = x.get(i);
+				x.forEachNonZero((i, val) -> {
 					if (val < 0)
 						ret.put(i, error.get(i) * val);
-				}
+				});
 			}
 		} else
 			throw new RuntimeException("prelu takes exactly 2 arguments");
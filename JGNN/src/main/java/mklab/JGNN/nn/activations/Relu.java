@@ -3,6 +3,7 @@ package mklab.JGNN.nn.activations;
 import java.util.List;
 
 import mklab.JGNN.nn.NNOperation;
+import mklab.JGNN.core.Parallelism;
 import mklab.JGNN.core.Tensor;
 
 /**
@@ -19,10 +20,9 @@ public class Relu extends NNOperation {
 	protected Tensor forward(List<Tensor> inputs) {
 		Tensor x = inputs.get(0);
 		Tensor ret = x.zeroCopy();
-		for (long i : x.getNonZeroElements()) {
-			double val = x.get(i);
+		Parallelism.forEachNonZero(x, ret, (i, val) -> {
 			ret.put(i, val > 0 ? val : 0);
-		}
+		});
 		return ret;
 	}
 
@@ -30,11 +30,10 @@ public class Relu extends NNOperation {
 	protected Tensor partial(int inputId, List<Tensor> inputs, Tensor output, Tensor error) {
 		Tensor x = inputs.get(0);
 		Tensor ret = x.zeroCopy();
-		for (long i : x.getNonZeroElements()) {
-			double val = x.get(i);
+		Parallelism.forEachNonZero(x, ret, (i, val) -> {
 			if (val >= 0)
 				ret.put(i, error.get(i));
-		}
+		});
 		return ret;
 	}
 
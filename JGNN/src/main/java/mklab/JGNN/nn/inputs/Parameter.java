@@ -4,6 +4,7 @@ import java.util.List;
 
 import mklab.JGNN.nn.NNOperation;
 import mklab.JGNN.nn.Optimizer;
+import mklab.JGNN.nn.optimizers.Regularization;
 import mklab.JGNN.core.Tensor;
 
 /**
@@ -31,6 +32,7 @@ public class Parameter extends NNOperation {
 	 */
 	public Parameter set(Tensor tensor) {
 		this.tensor = tensor;
+		this.clearConstantCache();
 		this.clearPrediction();
 		return this;
 	}
@@ -48,7 +50,7 @@ public class Parameter extends NNOperation {
 	@Override
 	protected void trainParameters(Optimizer optimizer, Tensor error) {
 		if(regularization!=0)
-			error = error.add(tensor.multiply(regularization));
+			error = Regularization.regularize(tensor, error, regularization);
 		optimizer.update(tensor, error);
 	}
 	@Override
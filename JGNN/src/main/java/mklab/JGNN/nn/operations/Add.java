@@ -39,10 +39,7 @@ public class Add extends NNOperation {
 		Tensor input0 = inputs.get(0);
 		Tensor input1 = inputs.get(1);
 		if ((input0.size() == 1 && inputId == 0) || (input1.size() == 1 && inputId == 1)) {
-			double val = 0;
-			for (long pos : error.getNonZeroElements())
-				val += error.get(pos);
-			return Tensor.fromDouble(val);
+			return Tensor.fromDouble(error.sum());
 		}
 		if (inputId == 1 && input0 instanceof Matrix && !(input1 instanceof Matrix))
 			return new Sum(((Matrix) input0).getCols() == input1.size()).run(error);
@@ -1,16 +1,24 @@
 package mklab.JGNN.nn.operations;
 
 import java.util.List;
-import java.util.Map.Entry;
 import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.matrix.CsrMatrix;
+import mklab.JGNN.core.matrix.SampledDenseMultiplication;
 import mklab.JGNN.nn.NNOperation;
 import mklab.JGNN.core.Tensor;
 
 /**
  * Implements a {@link NNOperation} that creates a version of adjacency matrices
- * with column-wise attention involving neighbor similarity.
- * 
+ * with column-wise attention involving neighbor similarity. Each non-diagonal
+ * non-zero element of the adjacency matrix is multiplied with the dot product
+ * of the feature rows of its two nodes, which is computed with
+ * {@link SampledDenseMultiplication}. The outcome is a
+ * {@link mklab.JGNN.core.matrix.CsrMatrix} with the sparsity pattern of the
+ * adjacency matrix without its main diagonal, whose rows can be normalized
+ * with {@link EdgeSoftMax}.
+ *
  * @author Emmanouil Krasanakis
+ * @see GraphAttention
  */
 public class Attention extends NNOperation {
 	public Attention() {
@@ -22,38 +30,57 @@ public class Attention extends NNOperation {
 			throw new IllegalArgumentException();
 		Matrix adjacency = inputs.get(0).cast(Matrix.class);
 		Matrix features = inputs.get(1).cast(Matrix.class);
-		Matrix ret = adjacency.zeroCopy();
-		for (Entry<Long, Long> pos : adjacency.getNonZeroEntries()) {
-			long row = pos.getKey();
-			long col = pos.getValue();
-			if (row != col)
-				ret.put(row, col, adjacency.get(row, col) * features.accessRow(row).dot(features.accessRow(col)));
+		CsrMatrix products = SampledDenseMultiplication.multiply(adjacency, features, features);
+		int[] rowPtr = products.getRowPtr();
+		int[] colIdx = products.getColIdx();
+		double[] values = products.getValues();
+		// remove the main diagonal from the sparsity pattern
+		int rows = rowPtr.length - 1;
+		int nnz = 0;
+		for (int row = 0; row < rows; row++)
+			for (int pos = rowPtr[row]; pos < rowPtr[row + 1]; pos++)
+				if (colIdx[pos] != row)
+					nnz++;
+		int[] retPtr = new int[rows + 1];
+		int[] retIdx = new int[nnz];
+		double[] retValues = new double[nnz];
+		nnz = 0;
+		for (int row = 0; row < rows; row++) {
+			for (int pos = rowPtr[row]; pos < rowPtr[row + 1]; pos++)
+				if (colIdx[pos] != row) {
+					retIdx[nnz] = colIdx[pos];
+					retValues[nnz] = values[pos];
+					nnz++;
+				}
+			retPtr[row + 1] = nnz;
 		}
+		CsrMatrix ret = new CsrMatrix(products.getRows(), products.getCols(), retPtr, retIdx, retValues);
+		ret.setDimensionName(products.getRowName(), products.getColName());
 		return ret;
 	}
 
 	@Override
 	protected Tensor partial(int inputId, List<Tensor> inputs, Tensor output, Tensor error) {
+		if (inputId == 0)
+			throw new RuntimeException("Should not create non-constant adjacency matrices");
 		Matrix features = inputs.get(1).cast(Matrix.class);
 		Matrix errorMatrix = error.cast(Matrix.class);
-		if (inputId == 0) {
-			Tensor ret = inputs.get(0).zeroCopy();
-			Matrix adjacency = inputs.get(0).cast(Matrix.class);
-			for (long pos : output.getNonZeroElements())
-				if (adjacency.get(pos) != 0)
-					ret.put(pos, error.get(pos) * output.get(pos) / adjacency.get(pos));
-			throw new RuntimeException("Should not create non-constant adjacency matrices");
-		}
-		Matrix ret = features.zeroCopy().cast(Matrix.class);
-		for (Entry<Long, Long> pos : errorMatrix.getNonZeroEntries()) {
-			long row = pos.getKey();
-			long col = pos.getValue();
-			if (row == col)
-				continue;
-			double err = errorMatrix.get(row, col);
-			for (long i = 0; i < features.getCols(); i++)
-				ret.accessRow(row).putAdd(i, features.get(col, i) * err);
-		}
+		Matrix adjacency = inputs.get(0).cast(Matrix.class);
+		CsrMatrix pattern = adjacency instanceof CsrMatrix ? (CsrMatrix) adjacency : new CsrMatrix(adjacency);
+		int[] rowPtr = pattern.getRowPtr();
+		int[] colIdx = pattern.getColIdx();
+		double[] values = pattern.getValues();
+		// each element's error scaled by the adjacency is the derivative of the dot
+		// product of the two feature rows
+		double[] scaled = new double[values.length];
+		for (int row = 0; row < rowPtr.length - 1; row++)
+			for (int pos = rowPtr[row]; pos < rowPtr[row + 1]; pos++)
+				if (colIdx[pos] != row)
+					scaled[pos] = values[pos] * errorMatrix.get(row, colIdx[pos]);
+		CsrMatrix weights = new CsrMatrix(pattern.getRows(), pattern.getCols(), rowPtr, colIdx, scaled);
+		weights.setDimensionName(pattern.getRowName(), pattern.getColName());
+		Matrix ret = weights.matmul(features);
+		ret.selfAdd(weights.matmul(features, true, false));
 		return ret;
 	}
-}
\ No newline at end of file
+}
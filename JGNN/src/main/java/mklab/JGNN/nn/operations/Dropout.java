@@ -35,12 +35,18 @@ public class Dropout extends NNOperation {
 			return inputs.get(0);
 		Tensor input = inputs.get(0);
 		Tensor ret = inputs.get(0).zeroCopy();
-		for (long pos : input.getNonZeroElements())
+		input.forEachNonZero((pos, element) -> {
 			if (Math.random() < value)
-				ret.put(pos, input.get(pos) / value);
+				ret.put(pos, element / value);
+		});
 		return ret;
 	}
 
+	@Override
+	protected boolean isOutputNeededForDerivative() {
+		return true;
+	}
+
 	@Override
 	protected Tensor partial(int inputId, List<Tensor> inputs, Tensor output, Tensor error) {
 		if (inputId == 1)
@@ -49,9 +55,10 @@ public class Dropout extends NNOperation {
 			return error;
 		double value = inputs.get(1).toDouble();
 		Tensor ret = output.zeroCopy();
-		for (long pos : output.getNonZeroElements())
-			if (output.get(pos) != 0)
+		output.forEachNonZero((pos, element) -> {
+			if (element != 0)
 				ret.put(pos, error.get(pos) * value);
+		});
 		return ret;
 	}
 
@@ -0,0 +1,107 @@
+package mklab.JGNN.nn.operations;
+
+import java.util.List;
+
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Parallelism;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.matrix.CsrMatrix;
+import mklab.JGNN.nn.NNOperation;
+
+/**
+ * Implements a {@link NNOperation} that applies softmax to the stored
+ * elements of each row of a sparse matrix, such as edge scores computed by
+ * {@link Attention}, so that multiplying the outcome with node representations
+ * computes a weighted average of each node's neighbors. Unstored elements are
+ * treated as missing edges and remain zero. Elements that a
+ * {@link CsrMatrix} stores with a zero value are edges whose score is zero, so
+ * they receive softmax weights too. Inputs of other types are first converted
+ * to a {@link CsrMatrix} that stores only their non-zero elements. Rows are
+ * split into ranges that run in parallel when {@link Parallelism} is enabled.
+ *
+ * @author Emmanouil Krasanakis
+ * @see GraphAttention
+ */
+public class EdgeSoftMax extends NNOperation {
+	private static CsrMatrix compressed(Tensor tensor) {
+		Matrix matrix = tensor.cast(Matrix.class);
+		return matrix instanceof CsrMatrix ? (CsrMatrix) matrix : new CsrMatrix(matrix);
+	}
+
+	/**
+	 * Applies softmax in place to each row of an array of edge scores stored in
+	 * compressed sparse row order, separately for each head. The score of head
+	 * <code>head</code> for the element at position <code>pos</code> of a row lies
+	 * at <code>scores[pos * heads + head]</code>.
+	 *
+	 * @param rowPtr The row pointer array of the sparse matrix.
+	 * @param scores The scores to normalize.
+	 * @param heads  The number of heads.
+	 */
+	static void normalize(int[] rowPtr, double[] scores, int heads) {
+		int rows = rowPtr.length - 1;
+		int grain = Math.max(1, Parallelism.GRAIN / ((scores.length / Math.max(rows, 1) + 1) * 3));
+		Parallelism.forRange(0, rows, grain, (from, to) -> {
+			for (int row = from; row < to; row++)
+				for (int head = 0; head < heads; head++) {
+					int start = rowPtr[row] * heads + head;
+					int end = rowPtr[row + 1] * heads;
+					double max = Double.NEGATIVE_INFINITY;
+					for (int pos = start; pos < end; pos += heads)
+						max = Math.max(max, scores[pos]);
+					double sum = 0;
+					for (int pos = start; pos < end; pos += heads)
+						sum += scores[pos] = Math.exp(scores[pos] - max);
+					for (int pos = start; pos < end; pos += heads)
+						scores[pos] /= sum;
+				}
+		});
+	}
+
+	@Override
+	protected Tensor forward(List<Tensor> inputs) {
+		if (inputs.size() != 1)
+			throw new IllegalArgumentException();
+		CsrMatrix input = compressed(inputs.get(0));
+		double[] values = input.getValues().clone();
+		normalize(input.getRowPtr(), values, 1);
+		CsrMatrix ret = new CsrMatrix(input.getRows(), input.getCols(), input.getRowPtr(), input.getColIdx(), values);
+		ret.setDimensionName(input.getRowName(), input.getColName());
+		return ret;
+	}
+
+	@Override
+	protected boolean isOutputNeededForDerivative() {
+		return true;
+	}
+
+	@Override
+	protected Tensor partial(int inputId, List<Tensor> inputs, Tensor output, Tensor error) {
+		CsrMatrix weights = compressed(output);
+		int[] rowPtr = weights.getRowPtr();
+		int[] colIdx = weights.getColIdx();
+		double[] values = weights.getValues();
+		Matrix errorMatrix = error.cast(Matrix.class);
+		// errors that share the output's sparsity pattern are read directly
+		double[] errors = errorMatrix instanceof CsrMatrix && ((CsrMatrix) errorMatrix).getRowPtr() == rowPtr
+				? ((CsrMatrix) errorMatrix).getValues()
+				: null;
+		double[] derivative = new double[values.length];
+		int rows = rowPtr.length - 1;
+		int grain = Math.max(1, Parallelism.GRAIN / ((values.length / Math.max(rows, 1) + 1) * 2));
+		Parallelism.forRange(0, rows, grain, (from, to) -> {
+			for (int row = from; row < to; row++) {
+				double dot = 0;
+				for (int pos = rowPtr[row]; pos < rowPtr[row + 1]; pos++) {
+					derivative[pos] = errors == null ? errorMatrix.get(row, colIdx[pos]) : errors[pos];
+					dot += derivative[pos] * values[pos];
+				}
+				for (int pos = rowPtr[row]; pos < rowPtr[row + 1]; pos++)
+					derivative[pos] = values[pos] * (derivative[pos] - dot);
+			}
+		});
+		CsrMatrix ret = new CsrMatrix(weights.getRows(), weights.getCols(), rowPtr, colIdx, derivative);
+		ret.setDimensionName(weights.getRowName(), weights.getColName());
+		return ret;
+	}
+}
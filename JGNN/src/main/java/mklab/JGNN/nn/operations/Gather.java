@@ -3,12 +3,16 @@ package mklab.JGNN.nn.operations;
 import java.util.List;
 
 import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.matrix.RowSparseMatrix;
 import mklab.JGNN.nn.NNOperation;
+import mklab.JGNN.nn.inputs.Parameter;
 import mklab.JGNN.core.Tensor;
 
 /**
  * Implements a {@link NNOperation} that performs the equivalent of TensorFlow's
- * gather operation.
+ * gather operation. When gathering rows of a {@link Parameter}, such as an
+ * embedding table, the parameter's gradient is a {@link RowSparseMatrix} that
+ * holds only the gathered rows.
  * 
  * @author Emmanouil Krasanakis
  */
@@ -34,6 +38,13 @@ public class Gather extends NNOperation {
 		Tensor index = inputs.get(0);
 		Matrix H = inputs.get(1).cast(Matrix.class);
 		Matrix errorMatrix = error.cast(Matrix.class);
+		if (getInputs().get(1) instanceof Parameter) {
+			RowSparseMatrix derivative = new RowSparseMatrix(H.getRows(), H.getCols());
+			derivative.setDimensionName(H);
+			for (int i = 0; i < index.size(); i++)
+				derivative.addToRow((long) index.get(i), errorMatrix, i, 1);
+			return derivative;
+		}
 		Matrix derivative = H.zeroCopy().cast(Matrix.class);
 		for (int i = 0; i < index.size(); i++) {
 			int pos = (int) index.get(i);
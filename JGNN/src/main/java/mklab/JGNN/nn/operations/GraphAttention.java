@@ -0,0 +1,249 @@
+package mklab.JGNN.nn.operations;
+
+import java.util.Arrays;
+import java.util.List;
+
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Parallelism;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.matrix.CsrMatrix;
+import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.core.matrix.SampledDenseMultiplication;
+import mklab.JGNN.core.matrix.SparseDenseMultiplication;
+import mklab.JGNN.core.matrix.VectorizedMatrix;
+import mklab.JGNN.nn.NNOperation;
+
+/**
+ * Implements a {@link NNOperation} for the multi-head attention of graph
+ * attention networks (GAT). Its inputs are an adjacency matrix, node
+ * representations whose columns are split into equally sized blocks, one for
+ * each attention head, and a matrix with two rows that holds the source and
+ * destination attention weights of each representation column. For each head,
+ * the edge from node <code>i</code> to node <code>j</code> is scored by applying
+ * a leaky relu on the sum of the source weights' dot product with the head's
+ * representation block of <code>i</code> and the destination weights' dot
+ * product with that of <code>j</code>. Scores are normalized with softmax over
+ * the edges of each row, as in {@link EdgeSoftMax}, and each row of the output
+ * block of the head is the weighted sum of its neighbors' representation
+ * blocks. Outputs of all heads are concatenated. <br>
+ * Only the sparsity pattern of the adjacency matrix is used, so self-loops
+ * should be added to it for nodes to attend to themselves. The adjacency matrix
+ * may also have fewer rows than columns, in which case its rows are the first
+ * representation rows. Aggregation uses {@link SparseDenseMultiplication} and
+ * derivatives of attention weights use {@link SampledDenseMultiplication}, so
+ * that the operation runs in time proportional to the number of edges times
+ * the number of representation columns. Attention weights are recomputed during
+ * backpropagation instead of being stored.
+ *
+ * @author Emmanouil Krasanakis
+ * @see Attention
+ */
+public class GraphAttention extends NNOperation {
+	private final int heads;
+	private double negativeSlope = 0.2;
+
+	/**
+	 * Instantiates a single-head graph attention operation.
+	 *
+	 * @see #GraphAttention(int)
+	 */
+	public GraphAttention() {
+		this(1);
+	}
+
+	/**
+	 * Instantiates a graph attention operation with the given number of heads.
+	 *
+	 * @param heads The number of attention heads. The number of representation
+	 *              columns should be a multiple of this.
+	 */
+	public GraphAttention(int heads) {
+		if (heads <= 0)
+			throw new IllegalArgumentException("Graph attention needs a positive number of heads but given " + heads);
+		this.heads = heads;
+	}
+
+	/**
+	 * Sets the slope of the leaky relu applied on negative edge scores.
+	 *
+	 * @param negativeSlope The slope. Default is 0.2.
+	 * @return <code>this</code> GraphAttention instance.
+	 */
+	public GraphAttention setNegativeSlope(double negativeSlope) {
+		this.negativeSlope = negativeSlope;
+		return this;
+	}
+
+	private static CsrMatrix compressed(Tensor tensor) {
+		Matrix matrix = tensor.cast(Matrix.class);
+		return matrix instanceof CsrMatrix ? (CsrMatrix) matrix : new CsrMatrix(matrix);
+	}
+
+	private static double[] values(Matrix matrix) {
+		if (matrix instanceof DenseMatrix)
+			return ((DenseMatrix) matrix).getValues();
+		if (matrix instanceof VectorizedMatrix)
+			return ((VectorizedMatrix) matrix).getValues();
+		long rows = matrix.getRows();
+		double[] ret = new double[(int) matrix.size()];
+		matrix.forEachNonZero((row, col, value) -> ret[(int) (row + col * rows)] = value);
+		return ret;
+	}
+
+	/**
+	 * Copies a block of consecutive columns of a column-major array into a dense
+	 * matrix.
+	 */
+	private static DenseMatrix block(double[] values, int rows, int head, int dims) {
+		DenseMatrix ret = new DenseMatrix(rows, dims);
+		System.arraycopy(values, head * dims * rows, ret.getValues(), 0, rows * dims);
+		return ret;
+	}
+
+	private void assertDimensions(CsrMatrix adjacency, Matrix features, Matrix attention) {
+		if (features.getCols() % heads != 0)
+			throw new IllegalArgumentException(
+					"Graph attention with " + heads + " heads cannot split the columns of " + features.describe());
+		if (adjacency.getCols() != features.getRows() || adjacency.getRows() > features.getRows())
+			throw new IllegalArgumentException(
+					"Mismatched matrix sizes between " + adjacency.describe() + " and " + features.describe());
+		if (attention.getRows() != 2 || attention.getCols() != features.getCols())
+			throw new IllegalArgumentException("Graph attention weights should be a 2x" + features.getCols()
+					+ " matrix but " + attention.describe() + " was provided");
+	}
+
+	/**
+	 * Computes the pre-activation score of each edge and head, which is stored at
+	 * position <code>pos * heads + head</code> for the edge at position
+	 * <code>pos</code> of the adjacency's compressed arrays.
+	 */
+	private double[] scores(CsrMatrix adjacency, double[] features, double[] attention, int rows) {
+		int[] rowPtr = adjacency.getRowPtr();
+		int[] colIdx = adjacency.getColIdx();
+		int dims = attention.length / 2 / heads;
+		double[] source = new double[rows * heads];
+		double[] destination = new double[rows * heads];
+		for (int head = 0; head < heads; head++)
+			for (int col = head * dims; col < (head + 1) * dims; col++) {
+				double sourceWeight = attention[2 * col];
+				double destinationWeight = attention[2 * col + 1];
+				int offset = col * rows;
+				for (int row = 0; row < rows; row++) {
+					source[row * heads + head] += features[offset + row] * sourceWeight;
+					destination[row * heads + head] += features[offset + row] * destinationWeight;
+				}
+			}
+		double[] ret = new double[rowPtr[rowPtr.length - 1] * heads];
+		Parallelism.forRange(0, rowPtr.length - 1, (from, to) -> {
+			for (int row = from; row < to; row++)
+				for (int pos = rowPtr[row]; pos < rowPtr[row + 1]; pos++)
+					for (int head = 0; head < heads; head++)
+						ret[pos * heads + head] = source[row * heads + head] + destination[colIdx[pos] * heads + head];
+		});
+		return ret;
+	}
+
+	private double[] weights(double[] scores, int[] rowPtr) {
+		double[] ret = new double[scores.length];
+		for (int pos = 0; pos < scores.length; pos++)
+			ret[pos] = scores[pos] > 0 ? scores[pos] : scores[pos] * negativeSlope;
+		EdgeSoftMax.normalize(rowPtr, ret, heads);
+		return ret;
+	}
+
+	private CsrMatrix head(CsrMatrix adjacency, double[] weights, int head) {
+		double[] values = new double[weights.length / heads];
+		for (int pos = 0; pos < values.length; pos++)
+			values[pos] = weights[pos * heads + head];
+		return new CsrMatrix(adjacency.getRows(), adjacency.getCols(), adjacency.getRowPtr(), adjacency.getColIdx(),
+				values);
+	}
+
+	@Override
+	protected Tensor forward(List<Tensor> inputs) {
+		if (inputs.size() != 3)
+			throw new IllegalArgumentException();
+		CsrMatrix adjacency = compressed(inputs.get(0));
+		Matrix features = inputs.get(1).cast(Matrix.class);
+		Matrix attention = inputs.get(2).cast(Matrix.class);
+		assertDimensions(adjacency, features, attention);
+		int rows = (int) features.getRows();
+		int dims = (int) features.getCols() / heads;
+		double[] featureValues = values(features);
+		double[] weights = weights(scores(adjacency, featureValues, values(attention), rows), adjacency.getRowPtr());
+		int outputRows = (int) adjacency.getRows();
+		DenseMatrix ret = new DenseMatrix(outputRows, features.getCols());
+		ret.setDimensionName(adjacency.getRowName(), features.getColName());
+		for (int head = 0; head < heads; head++) {
+			Matrix aggregated = head(adjacency, weights, head).matmul(block(featureValues, rows, head, dims));
+			System.arraycopy(values(aggregated), 0, ret.getValues(), head * dims * outputRows, outputRows * dims);
+		}
+		return ret;
+	}
+
+	@Override
+	protected Tensor partial(int inputId, List<Tensor> inputs, Tensor output, Tensor error) {
+		if (inputId == 0)
+			throw new RuntimeException("Should not create non-constant adjacency matrices");
+		CsrMatrix adjacency = compressed(inputs.get(0));
+		Matrix features = inputs.get(1).cast(Matrix.class);
+		Matrix attention = inputs.get(2).cast(Matrix.class);
+		int[] rowPtr = adjacency.getRowPtr();
+		int[] colIdx = adjacency.getColIdx();
+		int rows = (int) features.getRows();
+		int outputRows = (int) adjacency.getRows();
+		int dims = (int) features.getCols() / heads;
+		double[] featureValues = values(features);
+		double[] attentionValues = values(attention);
+		double[] errorValues = values(error.cast(Matrix.class));
+		double[] scores = scores(adjacency, featureValues, attentionValues, rows);
+		double[] weights = weights(scores, rowPtr);
+		DenseMatrix ret = new DenseMatrix(inputId == 1 ? rows : 2, features.getCols());
+		ret.setDimensionName(inputId == 1 ? features : attention);
+		double[] derivative = ret.getValues();
+		double[] sourceDerivative = new double[rows];
+		double[] destinationDerivative = new double[rows];
+		for (int head = 0; head < heads; head++) {
+			CsrMatrix headWeights = head(adjacency, weights, head);
+			DenseMatrix headErrors = block(errorValues, outputRows, head, dims);
+			DenseMatrix headFeatures = block(featureValues, rows, head, dims);
+			// each weight times the derivative of the loss over it
+			double[] products = SampledDenseMultiplication.multiply(headWeights, headErrors, headFeatures).getValues();
+			double[] headValues = headWeights.getValues();
+			Arrays.fill(sourceDerivative, 0);
+			Arrays.fill(destinationDerivative, 0);
+			for (int row = 0; row < outputRows; row++) {
+				double dot = 0;
+				for (int pos = rowPtr[row]; pos < rowPtr[row + 1]; pos++)
+					dot += products[pos];
+				for (int pos = rowPtr[row]; pos < rowPtr[row + 1]; pos++) {
+					double scoreDerivative = products[pos] - headValues[pos] * dot;
+					if (scores[pos * heads + head] <= 0)
+						scoreDerivative *= negativeSlope;
+					sourceDerivative[row] += scoreDerivative;
+					destinationDerivative[colIdx[pos]] += scoreDerivative;
+				}
+			}
+			if (inputId == 1) {
+				Matrix aggregated = headWeights.matmul(headErrors, true, false);
+				System.arraycopy(values(aggregated), 0, derivative, head * dims * rows, rows * dims);
+				for (int col = head * dims; col < (head + 1) * dims; col++) {
+					double sourceWeight = attentionValues[2 * col];
+					double destinationWeight = attentionValues[2 * col + 1];
+					int offset = col * rows;
+					for (int row = 0; row < rows; row++)
+						derivative[offset + row] += sourceDerivative[row] * sourceWeight
+								+ destinationDerivative[row] * destinationWeight;
+				}
+			} else
+				for (int col = head * dims; col < (head + 1) * dims; col++) {
+					int offset = col * rows;
+					for (int row = 0; row < rows; row++) {
+						derivative[2 * col] += sourceDerivative[row] * featureValues[offset + row];
+						derivative[2 * col + 1] += destinationDerivative[row] * featureValues[offset + row];
+					}
+				}
+		}
+		return ret;
+	}
+}
@@ -0,0 +1,188 @@
+package mklab.JGNN.nn.operations;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Parallelism;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.ThreadPool;
+import mklab.JGNN.core.util.Loss;
+import mklab.JGNN.nn.NNOperation;
+import mklab.JGNN.nn.Optimizer;
+import mklab.JGNN.nn.activations.Relu;
+import mklab.JGNN.nn.activations.Sigmoid;
+import mklab.JGNN.nn.activations.Tanh;
+import mklab.JGNN.nn.pooling.Sum;
+
+/**
+ * Implements a {@link NNOperation} that fuses a {@link MatMul}, the addition of
+ * a bias vector, and an element-by-element activation into one operation. Its
+ * three inputs are the left and right matrix multiplication operands and the
+ * bias. The forward pass adds the bias to the product and activates it in
+ * place, and the backward pass obtains the activation's derivative from the
+ * output. Thus, neither the product nor the pre-activation matrix need to be
+ * kept. For relu activations, whose zero outputs could come from either
+ * negative or zero pre-activations, the forward pass also keeps one bit per
+ * element that marks non-negative pre-activations, which have a derivative of
+ * one as in {@link Relu}. Derivatives with respect to the multiplication
+ * operands are delegated to the fused {@link MatMul}, so that sparse operands
+ * and the parameters they multiply receive the same sparse derivatives as
+ * without fusion. Fused operations are created by
+ * {@link mklab.JGNN.nn.Model#compile()} and are not part of execution graphs.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class LinearActivation extends NNOperation {
+	private static final int RELU = 0;
+	private static final int SIGMOID = 1;
+	private static final int TANH = 2;
+	private final int activation;
+	private final MatMul product;
+	private final AtomicReferenceArray<Tensor[]> lastDerivatives = new AtomicReferenceArray<Tensor[]>(
+			ThreadPool.getInstance().getMaxThreads() + 1);
+	private final AtomicReferenceArray<long[]> activeMasks = new AtomicReferenceArray<long[]>(
+			ThreadPool.getInstance().getMaxThreads() + 1);
+
+	/**
+	 * Instantiates a fused operation that uses the same activation as the given
+	 * operation.
+	 *
+	 * @param activation A {@link Relu}, {@link Sigmoid} or {@link Tanh}
+	 *                   operation.
+	 * @param product    The fused matrix multiplication, whose inputs are the
+	 *                   first two inputs of this operation.
+	 * @throws IllegalArgumentException If the activation is not supported.
+	 * @see #isFusable(NNOperation)
+	 */
+	public LinearActivation(NNOperation activation, MatMul product) {
+		this.product = product;
+		if (activation instanceof Relu)
+			this.activation = RELU;
+		else if (activation instanceof Sigmoid)
+			this.activation = SIGMOID;
+		else if (activation instanceof Tanh)
+			this.activation = TANH;
+		else
+			throw new IllegalArgumentException("Cannot fuse activation " + activation.describe());
+		setDescription(activation.getDescription());
+	}
+
+	/**
+	 * Checks whether an operation is an activation supported by fusion.
+	 *
+	 * @param activation The operation to check.
+	 * @return A <code>boolean</code> value.
+	 */
+	public static boolean isFusable(NNOperation activation) {
+		return activation instanceof Relu || activation instanceof Sigmoid || activation instanceof Tanh;
+	}
+
+	@Override
+	public boolean isConstant() {
+		return false;
+	}
+
+	@Override
+	public boolean isCachable() {
+		return false;
+	}
+
+	@Override
+	protected Tensor forward(List<Tensor> inputs) {
+		if (inputs.size() != 3)
+			throw new IllegalArgumentException();
+		Matrix product = inputs.get(0).cast(Matrix.class).matmul(inputs.get(1).cast(Matrix.class));
+		Matrix ret = Parallelism.isDense(product) ? product : product.toDense();
+		Tensor bias = inputs.get(2);
+		long rows = ret.getRows();
+		boolean colBias = ret.getCols() == bias.size();
+		if (!colBias && ret.getRows() != bias.size())
+			throw new IllegalArgumentException("Mismatched bias " + bias.describe() + " for " + ret.describe());
+		int activation = this.activation;
+		// each column's bits start at a new word, so that column ranges write to disjoint words
+		int words = (int) ((rows + 63) / 64);
+		long[] active = activation == RELU ? new long[words * (int) ret.getCols()] : null;
+		Parallelism.forRange(0, (int) ret.getCols(), (int) Math.max(1, Parallelism.GRAIN / Math.max(rows, 1)),
+				(from, to) -> {
+					for (long col = from; col < to; col++)
+						for (long row = 0; row < rows; row++) {
+							long pos = row + col * rows;
+							double value = ret.get(pos) + bias.get(colBias ? col : row);
+							if (activation == RELU) {
+								if (value >= 0)
+									active[(int) (col * words + row / 64)] |= 1L << row;
+								value = Loss.relu(value);
+							} else if (activation == SIGMOID)
+								value = Loss.sigmoid(value);
+							else
+								value = Loss.tanh(value);
+							ret.put(pos, value);
+						}
+				});
+		activeMasks.set(ThreadPool.getCurrentThreadId() + 1, active);
+		return ret;
+	}
+
+	/**
+	 * Computes the derivative with respect to the activation's input, reusing
+	 * the one computed for the same error by the current thread.
+	 */
+	private Tensor derivative(Tensor output, Tensor error) {
+		int position = ThreadPool.getCurrentThreadId() + 1;
+		Tensor[] last = lastDerivatives.get(position);
+		if (last != null && last[0] == error)
+			return last[1];
+		Tensor ret = output.zeroCopy();
+		int activation = this.activation;
+		long[] active = activeMasks.get(position);
+		long rows = ((Matrix) output).getRows();
+		long words = (rows + 63) / 64;
+		Parallelism.forRange(0, (int) output.size(), (from, to) -> {
+			for (long i = from; i < to; i++) {
+				double value = output.get(i);
+				if (activation == RELU) {
+					long row = i % rows;
+					if ((active[(int) (i / rows * words + row / 64)] & (1L << row)) != 0)
+						ret.put(i, error.get(i));
+				} else if (activation == SIGMOID)
+					ret.put(i, value * (1 - value) * error.get(i));
+				else
+					ret.put(i, (1 - value * value) * error.get(i));
+			}
+		});
+		lastDerivatives.set(position, new Tensor[] { error, ret });
+		return ret;
+	}
+
+	@Override
+	protected boolean isOutputNeededForDerivative() {
+		return true;
+	}
+
+	@Override
+	protected Tensor partial(int inputId, List<Tensor> inputs, Tensor output, Tensor error) {
+		Matrix derivative = (Matrix) derivative(output, error);
+		if (inputId < 2)
+			return product.partial(inputId, inputs, null, derivative);
+		return new Sum(derivative.getCols() == inputs.get(2).size()).run(derivative);
+	}
+
+	@Override
+	protected void trainParameters(Optimizer optimizer, Tensor error) {
+		clearBackwardState();
+	}
+
+	/**
+	 * Forgets the relu mask and the derivative that the current thread keeps for
+	 * backpropagation. This is called once backpropagation concludes, and by
+	 * inference that runs forward passes without backpropagating.
+	 */
+	public void clearBackwardState() {
+		int position = ThreadPool.getCurrentThreadId() + 1;
+		Tensor[] last = lastDerivatives.getAndSet(position, null);
+		if (last != null)
+			last[1].release();
+		activeMasks.set(position, null);
+	}
+}
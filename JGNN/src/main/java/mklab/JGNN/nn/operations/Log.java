@@ -17,8 +17,7 @@ public class Log extends NNOperation {
 		if (inputs.size() != 1)
 			throw new IllegalArgumentException();
 		Tensor ret = inputs.get(0).zeroCopy();
-		for (long i : inputs.get(0).getNonZeroElements())
-			ret.put(i, Math.log(inputs.get(0).get(i) + 1.E-12));
+		inputs.get(0).forEachNonZero((i, value) -> ret.put(i, Math.log(value + 1.E-12)));
 		return ret;
 	}
 
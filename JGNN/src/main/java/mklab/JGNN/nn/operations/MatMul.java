@@ -4,12 +4,25 @@ import java.util.ArrayList;
 import java.util.List;
 
 import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Parallelism;
+import mklab.JGNN.core.matrix.RowSparseMatrix;
+import mklab.JGNN.core.matrix.SampledDenseMultiplication;
 import mklab.JGNN.nn.NNOperation;
 import mklab.JGNN.nn.inputs.Parameter;
 import mklab.JGNN.core.Tensor;
 
 /**
- * Implements a {@link NNOperation} that multiplies its two matrix inputs.
+ * Implements a {@link NNOperation} that multiplies its two matrix inputs. When
+ * the left input is a sparse matrix with fewer non-zero elements than columns,
+ * such as one-hot features of a batch of nodes, and the right input is a
+ * {@link Parameter}, the latter's gradient is a {@link RowSparseMatrix} that
+ * holds only the rows corresponding to non-zero columns. When the left input
+ * is a sparse matrix that is not a {@link Parameter}, such as a graph adjacency
+ * provided as a model input, its gradient is computed only for stored elements
+ * with {@link SampledDenseMultiplication}, so that backpropagation takes time
+ * proportional to the number of edges. That gradient is a
+ * {@link mklab.JGNN.core.matrix.CsrMatrix} that shares the sparsity pattern of
+ * compressed row inputs.
  * 
  * @author Emmanouil Krasanakis
  */
@@ -32,9 +45,23 @@ public class MatMul extends NNOperation {
 		Matrix errorMatrix = (Matrix) error;
 		if (inputId == 0) {
 			Matrix H = inputs.get(1).cast(Matrix.class);
+			Matrix W = inputs.get(0).cast(Matrix.class);
+			if (!(getInputs().get(0) instanceof Parameter) && W.estimateNumNonZeroElements() < W.size())
+				return SampledDenseMultiplication.sample(W, errorMatrix, H).setDimensionName(W);
 			errorMatrix = errorMatrix.matmul(H, false, true);
 		} else if (inputId == 1) {
 			Matrix W = inputs.get(0).cast(Matrix.class);
+			if (getInputs().get(1) instanceof Parameter && !Parallelism.isDense(W)
+					&& W.estimateNumNonZeroElements() < W.getCols()) {
+				RowSparseMatrix derivative = new RowSparseMatrix(W.getCols(), errorMatrix.getCols());
+				derivative.setDimensionName(W.getColName(), errorMatrix.getColName());
+				Matrix outputError = errorMatrix;
+				W.forEachNonZero((row, col, value) -> {
+					if (value != 0)
+						derivative.addToRow(col, outputError, row, value);
+				});
+				return derivative;
+			}
 			errorMatrix = W.matmul(errorMatrix, true, false);
 		}
 		return errorMatrix;
@@ -1,7 +1,6 @@
 package mklab.JGNN.nn.operations;
 
 import java.util.List;
-import java.util.Map.Entry;
 
 import mklab.JGNN.core.Matrix;
 import mklab.JGNN.core.Tensor;
@@ -15,11 +14,8 @@ public class Reduce extends NNOperation {
 		Matrix edgeFeats = inputs.get(0).cast(Matrix.class);
 		Matrix adj = inputs.get(1).cast(Matrix.class);
 		Matrix ret = edgeFeats.zeroCopy(adj.getRows(), edgeFeats.getCols());
-		long id = 0;
-		for (Entry<Long, Long> entry : adj.getNonZeroEntries()) {
-			ret.accessRow(entry.getKey()).selfAdd(edgeFeats.accessRow(id), adj.get(entry.getKey(), entry.getValue()));
-			id += 1;
-		}
+		long[] id = new long[1];
+		adj.forEachNonZero((row, col, value) -> ret.accessRow(row).selfAdd(edgeFeats.accessRow(id[0]++), value));
 		return ret;
 	}
 
@@ -31,11 +27,8 @@ public class Reduce extends NNOperation {
 		Matrix adj = inputs.get(1).cast(Matrix.class);
 		Matrix err = error.cast(Matrix.class);
 		Matrix ret = edgeFeats.zeroCopy();
-		long id = 0;
-		for (Entry<Long, Long> entry : adj.getNonZeroEntries()) {
-			ret.accessRow(id).selfAdd(err.accessRow(entry.getKey()), adj.get(entry.getKey(), entry.getValue()));
-			id += 1;
-		}
+		long[] id = new long[1];
+		adj.forEachNonZero((row, col, value) -> ret.accessRow(id[0]++).selfAdd(err.accessRow(row), value));
 		return ret;
 	}
 
@@ -1,7 +1,6 @@
 package mklab.JGNN.nn.operations;
 
 import java.util.List;
-import java.util.Map.Entry;
 
 import mklab.JGNN.core.Matrix;
 import mklab.JGNN.nn.NNOperation;
@@ -30,11 +29,7 @@ public class Repeat extends NNOperation {
 			return null;
 		Tensor ret = inputs.get(0).zeroCopy();
 		Matrix errorMatrix = (Matrix) error;
-		for (Entry<Long, Long> element : errorMatrix.getNonZeroEntries()) {
-			long row = element.getKey();
-			long col = element.getValue();
-			ret.put(col, ret.get(col) + errorMatrix.get(row, col));
-		}
+		errorMatrix.forEachNonZero((row, col, value) -> ret.put(col, ret.get(col) + value));
 		return ret;
 	}
 
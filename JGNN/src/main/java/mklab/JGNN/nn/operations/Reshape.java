@@ -41,12 +41,16 @@ public class Reshape extends NNOperation {
 				+ (colName == null ? "" : (" " + colName + " ")) + cols + ")";
 	}
 
+	@Override
+	protected boolean isOutputNeededForDerivative() {
+		return true;
+	}
+
 	@Override
 	protected Tensor partial(int inputId, List<Tensor> inputs, Tensor output, Tensor error) {
 		Tensor ret = inputs.get(0).zeroCopy(); // ensures typecast back to the correct matrix dims
 		error.assertMatching(output);
-		for (long i : error.getNonZeroElements()) // manual implementation of self-add to ignore all checks
-			ret.put(i, error.get(i));
+		error.forEachNonZero((i, value) -> ret.put(i, value)); // manual implementation of self-add to ignore all checks
 		return ret;
 	}
 
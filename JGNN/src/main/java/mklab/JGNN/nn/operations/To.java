@@ -1,8 +1,8 @@
 package mklab.JGNN.nn.operations;
 
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Map.Entry;
+
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
 
 import mklab.JGNN.core.Matrix;
 import mklab.JGNN.nn.NNOperation;
@@ -21,10 +21,9 @@ public class To extends NNOperation {
 	protected Tensor forward(List<Tensor> inputs) {
 		if (inputs.size() != 1)
 			throw new IllegalArgumentException();
-		ArrayList<Long> ret = new ArrayList<Long>((int) inputs.get(0).estimateNumNonZeroElements());
-		for (Entry<Long, Long> entry : inputs.get(0).cast(Matrix.class).getNonZeroEntries())
-			ret.add(entry.getKey());
-		return new DenseTensor(ret.iterator());
+		DoubleArrayList ret = new DoubleArrayList((int) inputs.get(0).estimateNumNonZeroElements());
+		inputs.get(0).cast(Matrix.class).forEachNonZero((row, col, value) -> ret.add(row));
+		return new DenseTensor(ret.toDoubleArray());
 	}
 
 	@Override
@@ -1,6 +1,6 @@
 package mklab.JGNN.nn.optimizers;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import mklab.JGNN.nn.Optimizer;
 import mklab.JGNN.core.Tensor;
@@ -23,10 +23,10 @@ public class Adam implements Optimizer {
 	private double espilon;
 	private boolean NDmode;
 
-	private HashMap<Tensor, Tensor> m = new HashMap<Tensor, Tensor>();
-	private HashMap<Tensor, Tensor> v = new HashMap<Tensor, Tensor>();
-	private HashMap<Tensor, Double> b1t = new HashMap<Tensor, Double>();
-	private HashMap<Tensor, Double> b2t = new HashMap<Tensor, Double>();
+	private ConcurrentHashMap<Tensor, Tensor> m = new ConcurrentHashMap<Tensor, Tensor>();
+	private ConcurrentHashMap<Tensor, Tensor> v = new ConcurrentHashMap<Tensor, Tensor>();
+	private ConcurrentHashMap<Tensor, Double> b1t = new ConcurrentHashMap<Tensor, Double>();
+	private ConcurrentHashMap<Tensor, Double> b2t = new ConcurrentHashMap<Tensor, Double>();
 
 	/**
 	 * Initializes an NDAdam instance of an {@link Adam} optimizer with the default
@@ -128,9 +128,9 @@ public class Adam implements Optimizer {
 
 	@Override
 	public void reset() {
-		m = new HashMap<Tensor, Tensor>();
-		v = new HashMap<Tensor, Tensor>();
-		b1t = new HashMap<Tensor, Double>();
-		b2t = new HashMap<Tensor, Double>();
+		m = new ConcurrentHashMap<Tensor, Tensor>();
+		v = new ConcurrentHashMap<Tensor, Tensor>();
+		b1t = new ConcurrentHashMap<Tensor, Double>();
+		b2t = new ConcurrentHashMap<Tensor, Double>();
 	}
 }
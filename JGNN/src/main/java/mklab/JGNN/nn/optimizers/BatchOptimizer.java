@@ -2,9 +2,13 @@ package mklab.JGNN.nn.optimizers;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import mklab.JGNN.nn.Optimizer;
+import mklab.JGNN.core.Parallelism;
 import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.ThreadPool;
+import mklab.JGNN.core.matrix.RowSparseMatrix;
 
 /**
  * Wraps an {@link Optimizer} by accumulating derivatives and calling
@@ -13,14 +17,32 @@ import mklab.JGNN.core.Tensor;
  * update. Provides a method {@link #updateAll()} to update all accumulated 
  * derivatives, for example in case the constructor {@link #BatchOptimizer(Optimizer)}
  * is used without inputting a fixed number of derivative updates.
+ * Derivatives that are {@link RowSparseMatrix} instances are accumulated in
+ * a row-sparse matrix too, so that batches affecting a few rows of large
+ * parameters pass on row-sparse derivatives.<br>
+ * Each thread of the {@link ThreadPool} accumulates derivatives separately and
+ * without locking, so that batches running in parallel do not wait for each
+ * other. Calling {@link #updateAll()} from a thread of the pool applies only
+ * the accumulation of that thread, whereas calling it from other threads merges
+ * the accumulations of all threads with a tree reduction before updating
+ * parameters. Since threads count their own updates, a fixed batch size of
+ * {@link #BatchOptimizer(Optimizer, long)} applies to each thread, so that
+ * <i>T</i> threads may accumulate up to <i>T</i> times as many derivatives
+ * before parameters are updated. A Hogwild mode, enabled with
+ * {@link #setHogwild(boolean)}, skips accumulation altogether.
  * 
  * @author Emmanouil Krasanakis
  */
 public class BatchOptimizer implements Optimizer {
+	private static class Accumulation {
+		private final HashMap<Tensor, Tensor> derivatives = new HashMap<Tensor, Tensor>();
+		private final HashMap<Tensor, Integer> progress = new HashMap<Tensor, Integer>();
+	}
 	private Optimizer baseOptimizer;
 	private long batchSize;
-	private HashMap<Tensor, Tensor> derivativeAccumulation = new HashMap<Tensor, Tensor>();
-	private HashMap<Tensor, Integer> batchProgress = new HashMap<Tensor, Integer>();
+	private boolean hogwild = false;
+	private final AtomicReferenceArray<Accumulation> accumulations = new AtomicReferenceArray<Accumulation>(
+			ThreadPool.getInstance().getMaxThreads() + 1);
 	
 	/**
 	 * Initializes a {@link BatchOptimizer} that accumulates derivatives and updates them
@@ -36,43 +58,114 @@ public class BatchOptimizer implements Optimizer {
 	 * with {@link #updateAll()} after every fixed number of updates.
 	 * @param baseOptimizer The base optimizer with which to perform the derivative updates.
 	 * @param batchSize The number of updates at which to pass the average accumulation to the base optimizer.
+	 * Updates are counted separately for each thread.
 	 */
 	public BatchOptimizer(Optimizer baseOptimizer, long batchSize) {
 		this.baseOptimizer = baseOptimizer;
 		this.batchSize = batchSize;
 	}
+	/**
+	 * Sets whether derivatives should be passed to the base optimizer as soon as they
+	 * are computed, without accumulating them, in the manner of Hogwild training. In
+	 * this mode, threads update shared parameters without any locks besides those
+	 * of the base optimizer, and {@link #updateAll()} has nothing to update. The
+	 * base optimizer should thus support concurrent updates, which holds for the
+	 * optimizers of this package: they keep per-parameter state in concurrent
+	 * maps and lock each parameter while updating it.
+	 * @param hogwild Whether Hogwild updates are enabled. Default is <code>false</code>.
+	 * @return <code>this</code> BatchOptimizer instance.
+	 */
+	public BatchOptimizer setHogwild(boolean hogwild) {
+		this.hogwild = hogwild;
+		return this;
+	}
+	private Accumulation accumulation(int position) {
+		Accumulation accumulation = accumulations.get(position);
+		if(accumulation==null) {
+			accumulation = new Accumulation();
+			accumulations.set(position, accumulation);
+		}
+		return accumulation;
+	}
 	/**
 	 * Updates all tracked variables with pending batch calculations using the
 	 * wrapped optimizer. This overrides any potential waiting over pre-specified batch sizes.
+	 * If called from a thread of the {@link ThreadPool}, only derivatives accumulated by
+	 * the same thread are used. Otherwise, the derivatives of all threads are summed
+	 * pairwise in a tree reduction and their average is used; this should happen
+	 * only when no thread is still accumulating derivatives, for example after
+	 * {@link ThreadPool#waitForConclusion()}.
 	 */
 	public void updateAll() {
-		for(Tensor value : new ArrayList<Tensor>(derivativeAccumulation.keySet())) 
-			synchronized(value) {
-				if(batchProgress.get(value)!=0) {
-					baseOptimizer.update(value, derivativeAccumulation.get(value).selfMultiply(1./batchProgress.get(value)));
-					derivativeAccumulation.remove(value);
-					batchProgress.remove(value);
+		int threadId = ThreadPool.getCurrentThreadId();
+		if(threadId!=-1) {
+			Accumulation accumulation = accumulations.get(threadId+1);
+			if(accumulation!=null)
+				for(Tensor value : new ArrayList<Tensor>(accumulation.derivatives.keySet()))
+					apply(accumulation, value);
+			return;
+		}
+		synchronized(this) {
+			HashMap<Tensor, ArrayList<Tensor>> derivatives = new HashMap<Tensor, ArrayList<Tensor>>();
+			HashMap<Tensor, Integer> progress = new HashMap<Tensor, Integer>();
+			for(int position=0;position<accumulations.length();position++) {
+				Accumulation accumulation = accumulations.get(position);
+				if(accumulation==null)
+					continue;
+				for(Tensor value : accumulation.derivatives.keySet()) {
+					derivatives.computeIfAbsent(value, key -> new ArrayList<Tensor>()).add(accumulation.derivatives.get(value));
+					progress.put(value, progress.getOrDefault(value, 0)+accumulation.progress.get(value));
 				}
+				accumulations.set(position, null);
 			}
+			for(Tensor value : derivatives.keySet()) 
+				baseOptimizer.update(value, reduce(derivatives.get(value)).selfMultiply(1./progress.get(value)));
+		}
+	}
+	/**
+	 * Sums derivatives pairwise in a tree whose levels run in parallel. The sum
+	 * is accumulated in the first derivative, and the order of additions depends
+	 * only on the order of the list.
+	 */
+	static Tensor reduce(ArrayList<Tensor> derivatives) {
+		for(int step=1;step<derivatives.size();step*=2) {
+			int stride = step;
+			int pairs = (derivatives.size()+2*stride-1)/(2*stride);
+			Parallelism.forRange(0, pairs, 1, (from, to) -> {
+				for(int pair=from;pair<to;pair++) {
+					int position = 2*stride*pair;
+					if(position+stride<derivatives.size())
+						derivatives.get(position).selfAdd(derivatives.get(position+stride));
+				}
+			});
+		}
+		return derivatives.get(0);
+	}
+	private void apply(Accumulation accumulation, Tensor value) {
+		Tensor derivative = accumulation.derivatives.remove(value);
+		int progress = accumulation.progress.remove(value);
+		baseOptimizer.update(value, derivative.selfMultiply(1./progress));
 	}
 	@Override
 	public void update(Tensor value, Tensor gradient) {
-		synchronized(value) {
-			if(!derivativeAccumulation.containsKey(value))
-				derivativeAccumulation.put(value, value.zeroCopy());
-			derivativeAccumulation.get(value).selfAdd(gradient);
-			batchProgress.put(value, batchProgress.getOrDefault(value, 0)+1);
-			if(batchProgress.get(value)>=batchSize) {
-				baseOptimizer.update(value, derivativeAccumulation.get(value).selfMultiply(1./batchProgress.get(value)));
-				derivativeAccumulation.remove(value);
-				batchProgress.remove(value);
-			}
+		if(hogwild) {
+			baseOptimizer.update(value, gradient);
+			return;
 		}
+		Accumulation accumulation = accumulation(ThreadPool.getCurrentThreadId()+1);
+		Tensor derivative = accumulation.derivatives.get(value);
+		if(derivative==null) 
+			accumulation.derivatives.put(value, derivative = gradient instanceof RowSparseMatrix ? gradient.zeroCopy() : value.zeroCopy());
+		derivative.selfAdd(gradient);
+		int progress = accumulation.progress.getOrDefault(value, 0)+1;
+		accumulation.progress.put(value, progress);
+		if(progress>=batchSize) 
+			apply(accumulation, value);
 	}
 	@Override
 	public void reset() {
-		derivativeAccumulation = new HashMap<Tensor, Tensor>();
-		batchProgress = new HashMap<Tensor, Integer>();
+		for(int position=0;position<accumulations.length();position++)
+			accumulations.set(position, null);
 		baseOptimizer.reset();
 	}
 }
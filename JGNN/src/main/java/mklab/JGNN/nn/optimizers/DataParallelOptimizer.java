@@ -0,0 +1,114 @@
+package mklab.JGNN.nn.optimizers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.matrix.RowSparseMatrix;
+import mklab.JGNN.nn.Optimizer;
+
+/**
+ * Coordinates synchronous data-parallel training, where each shard of a global
+ * batch computes derivatives independently and parameters are adjusted only
+ * once all shards conclude. Each shard trains with its own {@link Optimizer}
+ * obtained through {@link #getShard(int)}, which only accumulates derivatives
+ * and is meant to be used by one thread at a time, so that no locks are
+ * needed. Afterwards, {@link #allReduce()} sums the accumulations of all shards
+ * with a tree reduction and passes their average to the base optimizer with
+ * one update per parameter. Since the order of additions depends only on shard
+ * indexes, results do not depend on which threads run which shards.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class DataParallelOptimizer {
+	private static class Shard implements Optimizer {
+		private final LinkedHashMap<Tensor, Tensor> derivatives = new LinkedHashMap<Tensor, Tensor>();
+		private final HashMap<Tensor, Integer> progress = new HashMap<Tensor, Integer>();
+
+		@Override
+		public void update(Tensor value, Tensor gradient) {
+			Tensor derivative = derivatives.get(value);
+			if (derivative == null)
+				derivatives.put(value, derivative = gradient instanceof RowSparseMatrix ? gradient.zeroCopy()
+						: value.zeroCopy());
+			derivative.selfAdd(gradient);
+			progress.put(value, progress.getOrDefault(value, 0) + 1);
+		}
+
+		@Override
+		public void reset() {
+			derivatives.clear();
+			progress.clear();
+		}
+	}
+
+	private final Optimizer baseOptimizer;
+	private final Shard[] shards;
+
+	/**
+	 * Instantiates a data-parallel optimizer.
+	 *
+	 * @param baseOptimizer The optimizer that adjusts parameters given the
+	 *                      average derivatives of all shards.
+	 * @param numShards     The number of shards of each global batch.
+	 */
+	public DataParallelOptimizer(Optimizer baseOptimizer, int numShards) {
+		if (numShards <= 0)
+			throw new IllegalArgumentException("At least one shard is needed but " + numShards + " were given");
+		this.baseOptimizer = baseOptimizer;
+		shards = new Shard[numShards];
+		for (int shard = 0; shard < numShards; shard++)
+			shards[shard] = new Shard();
+	}
+
+	/**
+	 * Retrieves the number of shards.
+	 *
+	 * @return The number of shards.
+	 */
+	public int getNumShards() {
+		return shards.length;
+	}
+
+	/**
+	 * Retrieves the optimizer with which a shard should train. This accumulates
+	 * derivatives without adjusting parameters.
+	 *
+	 * @param shard The shard's index in the range <code>[0, getNumShards())</code>.
+	 * @return An {@link Optimizer} instance.
+	 */
+	public Optimizer getShard(int shard) {
+		return shards[shard];
+	}
+
+	/**
+	 * Sums the derivatives accumulated by all shards and updates each parameter
+	 * with the base optimizer given the average derivative across all
+	 * accumulated ones. Accumulations restart afterwards. This should be called
+	 * only when no shard is still training.
+	 */
+	public void allReduce() {
+		LinkedHashMap<Tensor, ArrayList<Tensor>> derivatives = new LinkedHashMap<Tensor, ArrayList<Tensor>>();
+		HashMap<Tensor, Integer> progress = new HashMap<Tensor, Integer>();
+		for (Shard shard : shards) {
+			for (Tensor value : shard.derivatives.keySet()) {
+				derivatives.computeIfAbsent(value, key -> new ArrayList<Tensor>()).add(shard.derivatives.get(value));
+				progress.put(value, progress.getOrDefault(value, 0) + shard.progress.get(value));
+			}
+			shard.reset();
+		}
+		for (Tensor value : derivatives.keySet())
+			baseOptimizer.update(value,
+					BatchOptimizer.reduce(derivatives.get(value)).selfMultiply(1. / progress.get(value)));
+	}
+
+	/**
+	 * Discards the accumulations of all shards and resets the base optimizer.
+	 */
+	public void reset() {
+		for (Shard shard : shards)
+			shard.reset();
+		baseOptimizer.reset();
+	}
+}
@@ -0,0 +1,241 @@
+package mklab.JGNN.nn.optimizers;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+import mklab.JGNN.core.Parallelism;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.core.matrix.VectorizedMatrix;
+import mklab.JGNN.core.tensor.DenseTensor;
+import mklab.JGNN.core.tensor.VectorizedTensor;
+import mklab.JGNN.nn.Model;
+import mklab.JGNN.nn.Optimizer;
+import mklab.JGNN.nn.inputs.Parameter;
+
+/**
+ * Implements the same update rule as the {@link Adam} optimizer, optionally
+ * combined with the L2 weight decay of {@link Regularization}, in one pass over
+ * parameter elements. Moment estimates of all parameters are packed into two
+ * contiguous arrays, and updates modify parameter values in place without
+ * creating any tensors. Parameters and gradients that store their elements in
+ * plain arrays, such as {@link DenseTensor} and {@link DenseMatrix} instances,
+ * are traversed directly with the vector API when {@link Tensor#vectorization}
+ * is enabled, and elements are split into ranges that run in parallel when
+ * {@link Parallelism} is enabled. Other tensors are updated element by element.
+ * <br>
+ * Optimizer state is allocated the first time each parameter is updated. Call
+ * {@link #register(Model)} before training to reserve it for all parameters of
+ * a model at once.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class FusedAdam implements Optimizer {
+	private double b1;
+	private double b2;
+	private double learningRate;
+	private double espilon;
+	private double weightDecay = 0;
+	private IdentityHashMap<Tensor, Integer> slots = new IdentityHashMap<Tensor, Integer>();
+	private int[] offsets = new int[0];
+	private double[] b1t = new double[0];
+	private double[] b2t = new double[0];
+	private double[] m = new double[0];
+	private double[] v = new double[0];
+	private int numSlots = 0;
+	private int length = 0;
+
+	// the update currently in progress, read by the range task
+	private Tensor value;
+	private Tensor gradient;
+	private double[] values;
+	private double[] gradients;
+	private int offset;
+	private double mCorrection;
+	private double vCorrection;
+	private final Parallelism.RangeTask task = this::updateRange;
+
+	/**
+	 * Initializes a {@link FusedAdam} optimizer with the default parameters
+	 * recommended by the literature but allows for the specification of the
+	 * learning rate.
+	 *
+	 * @param learningRate The learning rate.
+	 */
+	public FusedAdam(double learningRate) {
+		this(learningRate, 0.9, 0.999);
+	}
+
+	/**
+	 * Initializes a {@link FusedAdam} optimizer while customizing the variation
+	 * and learning rate.
+	 *
+	 * @param learningRate The learning rate.
+	 * @param b1           Adam's b1 parameter.
+	 * @param b2           Adam's b2 parameter.
+	 */
+	public FusedAdam(double learningRate, double b1, double b2) {
+		this(learningRate, b1, b2, 1.E-8);
+	}
+
+	/**
+	 * Initializes a {@link FusedAdam} optimizer by customizing all arguments.
+	 *
+	 * @param learningRate The learning rate.
+	 * @param b1           Adam's b1 parameter.
+	 * @param b2           Adam's b2 parameter.
+	 * @param epsilon      Adam's numerical tolerance.
+	 */
+	public FusedAdam(double learningRate, double b1, double b2, double epsilon) {
+		if (b1 < 0 || b1 >= 1)
+			throw new IllegalArgumentException("b1 values for Adam should be in the range [0,1) but given " + b1);
+		if (b2 < 0 || b2 >= 1)
+			throw new IllegalArgumentException("b2 values for Adam should be in the range [0,1) but given " + b2);
+		if (epsilon <= 0 || epsilon >= 1)
+			throw new IllegalArgumentException(
+					"epsilon values for Adam should be in the range (0,1) but given " + epsilon);
+		this.learningRate = learningRate;
+		this.b1 = b1;
+		this.b2 = b2;
+		this.espilon = epsilon;
+	}
+
+	/**
+	 * Sets an L2 weight decay that adds parameter values multiplied by the given
+	 * factor to gradients before updating moments. This is equivalent to wrapping
+	 * the optimizer with {@link Regularization}.
+	 *
+	 * @param weightDecay The weight decay factor. Zero (default) disables decay.
+	 * @return <code>this</code> FusedAdam instance.
+	 */
+	public FusedAdam setWeightDecay(double weightDecay) {
+		if (weightDecay < 0)
+			throw new IllegalArgumentException("Weight decay should be non-negative but given " + weightDecay);
+		this.weightDecay = weightDecay;
+		return this;
+	}
+
+	/**
+	 * Reserves contiguous optimizer state for all parameters of a model with one
+	 * allocation. Parameters that already have state are skipped.
+	 *
+	 * @param model The model whose parameters to register.
+	 * @return <code>this</code> FusedAdam instance.
+	 */
+	public synchronized FusedAdam register(Model model) {
+		long required = length;
+		int count = numSlots;
+		for (Parameter parameter : model.getParameters())
+			if (!slots.containsKey(parameter.get())) {
+				required += parameter.get().size();
+				count++;
+			}
+		reserve(count, required);
+		for (Parameter parameter : model.getParameters())
+			slot(parameter.get());
+		return this;
+	}
+
+	private void reserve(int count, long required) {
+		if (required >= Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Fused Adam needs less than MAXINT parameter elements in total but "
+					+ required + " were required");
+		if (count > offsets.length) {
+			offsets = Arrays.copyOf(offsets, count);
+			b1t = Arrays.copyOf(b1t, count);
+			b2t = Arrays.copyOf(b2t, count);
+		}
+		if (required > m.length) {
+			m = Arrays.copyOf(m, (int) required);
+			v = Arrays.copyOf(v, (int) required);
+		}
+	}
+
+	private int slot(Tensor value) {
+		Integer slot = slots.get(value);
+		if (slot != null)
+			return slot;
+		long size = value.size();
+		if (length + size > m.length)
+			reserve(numSlots + 1, Math.max(length + size, Math.min(Integer.MAX_VALUE - 1, 2L * m.length)));
+		else
+			reserve(numSlots + 1, length);
+		slot = numSlots++;
+		offsets[slot] = length;
+		b1t[slot] = 1;
+		b2t[slot] = 1;
+		length += size;
+		slots.put(value, slot);
+		return slot;
+	}
+
+	private static double[] values(Tensor tensor) {
+		if (tensor instanceof DenseTensor)
+			return ((DenseTensor) tensor).values;
+		if (tensor instanceof VectorizedTensor)
+			return ((VectorizedTensor) tensor).values;
+		if (tensor instanceof DenseMatrix)
+			return ((DenseMatrix) tensor).getValues();
+		if (tensor instanceof VectorizedMatrix)
+			return ((VectorizedMatrix) tensor).getValues();
+		return null;
+	}
+
+	@Override
+	public synchronized void update(Tensor value, Tensor gradient) {
+		value.assertMatching(gradient);
+		int slot = slot(value);
+		b1t[slot] *= b1;
+		b2t[slot] *= b2;
+		this.value = value;
+		this.gradient = gradient;
+		values = values(value);
+		gradients = values(gradient);
+		offset = offsets[slot];
+		mCorrection = 1. / (1 - b1t[slot]);
+		vCorrection = 1. / (1 - b2t[slot]);
+		try {
+			Parallelism.forRange(0, (int) value.size(), task);
+		} finally {
+			this.value = null;
+			this.gradient = null;
+			values = null;
+			gradients = null;
+		}
+	}
+
+	private void updateRange(int from, int to) {
+		if (values != null && gradients != null && Tensor.vectorization)
+			VectorizedTensor.adam(values, gradients, m, v, offset, from, to, b1, b2, mCorrection, vCorrection,
+					learningRate, espilon, weightDecay);
+		else if (values != null && gradients != null)
+			for (int i = from; i < to; i++)
+				values[i] += step(i, gradients[i], values[i]);
+		else
+			for (int i = from; i < to; i++) {
+				double current = value.get(i);
+				value.put(i, current + step(i, gradient.get(i), current));
+			}
+	}
+
+	private double step(int i, double grad, double current) {
+		if (weightDecay != 0)
+			grad += current * weightDecay;
+		int pos = offset + i;
+		double mValue = m[pos] = m[pos] * b1 + grad * (1 - b1);
+		double vValue = v[pos] = v[pos] * b2 + grad * grad * (1 - b2);
+		return mValue * mCorrection * -learningRate * (1 / Math.sqrt(vValue * vCorrection + espilon));
+	}
+
+	@Override
+	public synchronized void reset() {
+		slots = new IdentityHashMap<Tensor, Integer>();
+		offsets = new int[0];
+		b1t = new double[0];
+		b2t = new double[0];
+		m = new double[0];
+		v = new double[0];
+		numSlots = 0;
+		length = 0;
+	}
+}
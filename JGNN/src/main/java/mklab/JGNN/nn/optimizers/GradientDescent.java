@@ -1,19 +1,22 @@
 package mklab.JGNN.nn.optimizers;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import mklab.JGNN.nn.Optimizer;
 import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.matrix.RowSparseMatrix;
 
 /**
  * Implements a gradient descent {@link Optimizer}. It supports degrading learning rates.
+ * Updates are applied in place without creating intermediate tensors, and
+ * updates by {@link RowSparseMatrix} gradients adjust only the affected rows.
  * 
  * @author Emmanouil Krasanakis
  */
 public class GradientDescent implements Optimizer {
 	protected double learningRate;
 	private double degradation;
-	private HashMap<Tensor, Double> individualLearningRates = new HashMap<Tensor, Double>();
+	private ConcurrentHashMap<Tensor, Double> individualLearningRates = new ConcurrentHashMap<Tensor, Double>();
 	
 	/**
 	 * Initializes a {@link GradientDescent} optimizer with fixed learning rate.
@@ -38,11 +41,12 @@ public class GradientDescent implements Optimizer {
 		synchronized(value) {
 			if(degradation!=1)
 				individualLearningRates.put(value, individualLearningRates.getOrDefault(value, learningRate)*degradation);
-			value.selfAdd(gradient.multiply(-individualLearningRates.getOrDefault(value, learningRate)));
+			double rate = individualLearningRates.getOrDefault(value, learningRate);
+			value.selfAdd(gradient, -rate);
 		}
 	}
 	@Override
 	public void reset() {
-		individualLearningRates = new HashMap<Tensor, Double>();
+		individualLearningRates = new ConcurrentHashMap<Tensor, Double>();
 	}
 }
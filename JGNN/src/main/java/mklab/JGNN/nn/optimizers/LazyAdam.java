@@ -0,0 +1,142 @@
+package mklab.JGNN.nn.optimizers;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.matrix.RowSparseMatrix;
+import mklab.JGNN.nn.Optimizer;
+
+/**
+ * Implements a lazy variation of the {@link Adam} optimizer for parameters
+ * whose gradients affect few rows at a time, such as node embeddings trained
+ * in batches. Moment estimates, bias corrections and parameter values are
+ * updated only for matrix rows (or tensor elements) with non-zero gradients,
+ * and each row keeps its own bias correction terms that advance only when the
+ * row is updated. Thus, training time is proportional to the number of
+ * affected rows when gradients are {@link RowSparseMatrix} instances. Updates
+ * work element-by-element without creating temporary tensors. Rows that are
+ * updated at every step follow the same rule as simple {@link Adam}
+ * optimization.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class LazyAdam implements Optimizer {
+	private static class State {
+		private final Tensor m;
+		private final Tensor v;
+		private final double[] b1t;
+		private final double[] b2t;
+
+		public State(Tensor value, int units) {
+			m = value.zeroCopy();
+			v = value.zeroCopy();
+			b1t = new double[units];
+			b2t = new double[units];
+			for (int i = 0; i < units; i++) {
+				b1t[i] = 1;
+				b2t[i] = 1;
+			}
+		}
+	}
+
+	private double b1;
+	private double b2;
+	private double learningRate;
+	private double espilon;
+	private ConcurrentHashMap<Tensor, State> states = new ConcurrentHashMap<Tensor, State>();
+
+	/**
+	 * Initializes a {@link LazyAdam} optimizer with the default parameters
+	 * recommended by the literature but allows for the specification of the
+	 * learning rate.
+	 *
+	 * @param learningRate The learning rate.
+	 */
+	public LazyAdam(double learningRate) {
+		this(learningRate, 0.9, 0.999);
+	}
+
+	/**
+	 * Initializes a {@link LazyAdam} optimizer while customizing the variation
+	 * and learning rate.
+	 *
+	 * @param learningRate The learning rate.
+	 * @param b1           Adam's b1 parameter.
+	 * @param b2           Adam's b2 parameter.
+	 */
+	public LazyAdam(double learningRate, double b1, double b2) {
+		this(learningRate, b1, b2, 1.E-8);
+	}
+
+	/**
+	 * Initializes a {@link LazyAdam} optimizer by customizing all arguments.
+	 *
+	 * @param learningRate The learning rate.
+	 * @param b1           Adam's b1 parameter.
+	 * @param b2           Adam's b2 parameter.
+	 * @param epsilon      Adam's numerical tolerance.
+	 */
+	public LazyAdam(double learningRate, double b1, double b2, double epsilon) {
+		if (b1 < 0 || b1 >= 1)
+			throw new IllegalArgumentException("b1 values for Adam should be in the range [0,1) but given " + b1);
+		if (b2 < 0 || b2 >= 1)
+			throw new IllegalArgumentException("b2 values for Adam should be in the range [0,1) but given " + b2);
+		if (epsilon <= 0 || epsilon >= 1)
+			throw new IllegalArgumentException(
+					"epsilon values for Adam should be in the range (0,1) but given " + epsilon);
+		this.learningRate = learningRate;
+		this.b1 = b1;
+		this.b2 = b2;
+		this.espilon = epsilon;
+	}
+
+	@Override
+	public void update(Tensor value, Tensor gradient) {
+		value.assertMatching(gradient);
+		synchronized (value) {
+			boolean isMatrix = value instanceof Matrix;
+			long rows = isMatrix ? ((Matrix) value).getRows() : value.size();
+			long cols = isMatrix ? ((Matrix) value).getCols() : 1;
+			if (rows >= Integer.MAX_VALUE)
+				throw new IllegalArgumentException("Lazy Adam needs less than MAXINT rows but " + value.describe()
+						+ " was provided");
+			State state = states.get(value);
+			if (state == null)
+				states.put(value, state = new State(value, (int) rows));
+			if (gradient instanceof RowSparseMatrix) {
+				RowSparseMatrix sparse = (RowSparseMatrix) gradient;
+				for (int slot = 0; slot < sparse.getNumStoredRows(); slot++)
+					updateRow(state, value, sparse, sparse.getStoredRow(slot), rows, cols);
+			} else
+				for (long row = 0; row < rows; row++)
+					for (long col = 0; col < cols; col++)
+						if (gradient.get(row + col * rows) != 0) {
+							updateRow(state, value, gradient, row, rows, cols);
+							break;
+						}
+		}
+	}
+
+	private void updateRow(State state, Tensor value, Tensor gradient, long row, long rows, long cols) {
+		double b1t = state.b1t[(int) row] *= b1;
+		double b2t = state.b2t[(int) row] *= b2;
+		double mCorrection = 1. / (1 - b1t);
+		double vCorrection = 1. / (1 - b2t);
+		for (long col = 0; col < cols; col++) {
+			long pos = row + col * rows;
+			double grad = gradient.get(pos);
+			double m = state.m.get(pos) * b1 + grad * (1 - b1);
+			double v = state.v.get(pos) * b2 + grad * grad * (1 - b2);
+			state.m.put(pos, m);
+			state.v.put(pos, v);
+			double step = m * mCorrection * -learningRate * (1 / Math.sqrt(Math.abs(v * vCorrection + espilon)));
+			value.put(pos, value.get(pos) + step);
+		}
+	}
+
+	@Override
+	public void reset() {
+		states = new ConcurrentHashMap<Tensor, State>();
+	}
+}
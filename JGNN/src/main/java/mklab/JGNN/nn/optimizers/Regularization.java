@@ -2,10 +2,14 @@ package mklab.JGNN.nn.optimizers;
 
 import mklab.JGNN.nn.Optimizer;
 import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.matrix.RowSparseMatrix;
 
 /**
  * Wraps an {@link Optimizer} by applying the derivative of L2 loss on every
- * tensor during {@link Optimizer#update(Tensor, Tensor)}.
+ * tensor during {@link Optimizer#update(Tensor, Tensor)}. For
+ * {@link RowSparseMatrix} gradients, the derivative is applied only on the
+ * rows that the gradients hold, so that the cost of updates does not depend
+ * on the number of parameter rows.
  * 
  * @author Emmanouil Krasanakis
  */
@@ -32,7 +36,23 @@ public class Regularization implements Optimizer {
 		if (regularization == 0)
 			baseOptimizer.update(value, gradient);
 		else
-			baseOptimizer.update(value, gradient.add(value.multiply(regularization)));
+			baseOptimizer.update(value, regularize(value, gradient, regularization));
+	}
+
+	/**
+	 * Adds the derivative of L2 regularization to a gradient without affecting
+	 * the latter.
+	 * 
+	 * @param value          The regularized tensor.
+	 * @param gradient       The tensor's gradient.
+	 * @param regularization The weight of the regularization.
+	 * @return A new gradient tensor. This is a {@link RowSparseMatrix} that holds
+	 *         the same rows as the gradient, if the latter is one.
+	 */
+	public static Tensor regularize(Tensor value, Tensor gradient, double regularization) {
+		if (gradient instanceof RowSparseMatrix)
+			return ((RowSparseMatrix) gradient.copy()).selfAddOnStoredRows(value, regularization);
+		return gradient.add(value.multiply(regularization));
 	}
 
 	@Override
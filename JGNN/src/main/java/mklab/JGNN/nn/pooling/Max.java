@@ -1,10 +1,10 @@
 package mklab.JGNN.nn.pooling;
 
 import java.util.List;
-import java.util.Map.Entry;
 
 import mklab.JGNN.core.Matrix;
 import mklab.JGNN.nn.NNOperation;
+import mklab.JGNN.core.Parallelism;
 import mklab.JGNN.core.Tensor;
 import mklab.JGNN.core.matrix.DenseMatrix;
 import mklab.JGNN.core.tensor.DenseTensor;
@@ -33,52 +33,68 @@ public class Max extends NNOperation {
 		if(colMode && inputs.get(0) instanceof Matrix) {
 			Matrix matrix = (Matrix) inputs.get(0);
 			Tensor ret = new DenseMatrix(1, matrix.getCols());
-			for(Entry<Long, Long> entry : matrix.getNonZeroEntries()) {
-				long row = entry.getKey();
-				long col = entry.getValue();
-				ret.put(col, Math.max(ret.get(col), matrix.get(row, col)));
+			if(Parallelism.isDense(matrix)) {
+				long rows = matrix.getRows();
+				Parallelism.forRange(0, (int)matrix.getCols(), (int)Math.max(1, Parallelism.GRAIN/rows), (from, to) -> {
+					for(long col=from;col<to;col++) {
+						double max = 0;
+						for(long row=0;row<rows;row++)
+							max = Math.max(max, matrix.get(row, col));
+						ret.put(col, max);
+					}
+				});
+				return ret;
 			}
+			matrix.forEachNonZero((row, col, value) -> ret.put(col, Math.max(ret.get(col), value)));
 			return ret;
 		}
 		else if(!colMode && inputs.get(0) instanceof Matrix) {
 			Matrix matrix = (Matrix) inputs.get(0);
 			Tensor ret = new DenseMatrix(matrix.getRows(), 1);
-			for(Entry<Long, Long> entry : matrix.getNonZeroEntries()) {
-				long row = entry.getKey();
-				long col = entry.getValue();
-				ret.put(row, Math.max(ret.get(row), matrix.get(row, col)));
+			if(Parallelism.isDense(matrix)) {
+				long cols = matrix.getCols();
+				Parallelism.forRange(0, (int)matrix.getRows(), (int)Math.max(1, Parallelism.GRAIN/cols), (from, to) -> {
+					for(long row=from;row<to;row++) {
+						double max = 0;
+						for(long col=0;col<cols;col++)
+							max = Math.max(max, matrix.get(row, col));
+						ret.put(row, max);
+					}
+				});
+				return ret;
 			}
+			matrix.forEachNonZero((row, col, value) -> ret.put(row, Math.max(ret.get(row), value)));
 			return ret;
 		}
 		else {
-			double maxValue = 0;
-			for(long i : inputs.get(0).getNonZeroElements())
-				maxValue = Math.max(maxValue, inputs.get(0).get(i));
-			return Tensor.fromDouble(maxValue);
+			double[] maxValue = new double[1];
+			inputs.get(0).forEachNonZero((i, value) -> maxValue[0] = Math.max(maxValue[0], value));
+			return Tensor.fromDouble(maxValue[0]);
 		}
 	}
+	@Override
+	protected boolean isOutputNeededForDerivative() {
+		return true;
+	}
+
 	@Override
 	protected Tensor partial(int inputId, List<Tensor> inputs, Tensor output, Tensor error) {
 		if(colMode && inputs.get(0) instanceof Matrix) {
 			Matrix matrix = (Matrix) inputs.get(0);
 			Matrix ret = (Matrix) matrix.zeroCopy();
-			for(Entry<Long, Long> entry : matrix.getNonZeroEntries()) {
-				long row = entry.getKey();
-				long col = entry.getValue();
-				if(matrix.get(row, col) == output.get(col))
+			matrix.forEachNonZero((row, col, value) -> {
+				if(value == output.get(col))
 					ret.put(col, col, ret.get(row, col)+error.get(col));
-			}
+			});
 			return ret;
 		}
 		else if(!colMode && inputs.get(0) instanceof Matrix) {
 			Matrix matrix = (Matrix) inputs.get(0);
 			Matrix ret = (Matrix) matrix.zeroCopy();
-			for(Entry<Long, Long> entry : matrix.getNonZeroEntries()) {
-				long row = entry.getKey();
-				long col = entry.getValue();
-				if(matrix.get(row, col) == output.get(row))
+			matrix.forEachNonZero((row, col, value) -> {
+				if(value == output.get(row))
 					ret.put(row, col, ret.get(row, col)+error.get(row));
-			}
+			});
 			return ret;
 		}
 		else {
@@ -2,10 +2,10 @@ package mklab.JGNN.nn.pooling;
 
 import java.util.List;
 
-import java.util.Map.Entry;
 
 import mklab.JGNN.core.Matrix;
 import mklab.JGNN.nn.NNOperation;
+import mklab.JGNN.core.Parallelism;
 import mklab.JGNN.core.Tensor;
 import mklab.JGNN.core.tensor.DenseTensor;
 
@@ -32,28 +32,41 @@ public class Mean extends NNOperation {
 		if(colMode && inputs.get(0) instanceof Matrix) {
 			Matrix matrix = (Matrix) inputs.get(0);
 			Tensor ret = new DenseTensor(matrix.getCols());
-			for(Entry<Long, Long> entry : matrix.getNonZeroEntries()) {
-				long row = entry.getKey();
-				long col = entry.getValue();
-				ret.put(col, ret.get(col) + matrix.get(row, col)/matrix.getRows());
+			if(Parallelism.isDense(matrix)) {
+				long rows = matrix.getRows();
+				Parallelism.forRange(0, (int)matrix.getCols(), (int)Math.max(1, Parallelism.GRAIN/rows), (from, to) -> {
+					for(long col=from;col<to;col++) {
+						double sum = 0;
+						for(long row=0;row<rows;row++)
+							sum += matrix.get(row, col)/matrix.getRows();
+						ret.put(col, sum);
+					}
+				});
+				return ret;
 			}
+			matrix.forEachNonZero((row, col, value) -> ret.put(col, ret.get(col) + value/matrix.getRows()));
 			return ret;
 		}
 		else if(!colMode && inputs.get(0) instanceof Matrix) {
 			Matrix matrix = (Matrix) inputs.get(0);
 			Tensor ret = new DenseTensor(matrix.getRows());
-			for(Entry<Long, Long> entry : matrix.getNonZeroEntries()) {
-				long row = entry.getKey();
-				long col = entry.getValue();
-				ret.put(row, ret.get(row) + matrix.get(row, col)/matrix.getCols());
+			if(Parallelism.isDense(matrix)) {
+				long cols = matrix.getCols();
+				Parallelism.forRange(0, (int)matrix.getRows(), (int)Math.max(1, Parallelism.GRAIN/cols), (from, to) -> {
+					for(long row=from;row<to;row++) {
+						double sum = 0;
+						for(long col=0;col<cols;col++)
+							sum += matrix.get(row, col)/matrix.getCols();
+						ret.put(row, sum);
+					}
+				});
+				return ret;
 			}
+			matrix.forEachNonZero((row, col, value) -> ret.put(row, ret.get(row) + value/matrix.getCols()));
 			return ret;
 		}
 		else {
-			double sum = 0;
-			for(long i : inputs.get(0).getNonZeroElements())
-				sum += inputs.get(0).get(i);
-			return Tensor.fromDouble(sum/inputs.get(0).size());
+			return Tensor.fromDouble(inputs.get(0).sum()/inputs.get(0).size());
 		}
 	}
 	@Override
@@ -61,21 +74,13 @@ public class Mean extends NNOperation {
 		if(colMode && inputs.get(0) instanceof Matrix) {
 			Matrix matrix = (Matrix) inputs.get(0);
 			Matrix ret = (Matrix) matrix.zeroCopy();
-			for(Entry<Long, Long> entry : matrix.getNonZeroEntries()) {
-				long row = entry.getKey();
-				long col = entry.getValue();
-				ret.put(col, col, ret.get(row, col)+error.get(col)/matrix.getRows());
-			}
+			matrix.forEachNonZero((row, col, value) -> ret.put(col, col, ret.get(row, col)+error.get(col)/matrix.getRows()));
 			return ret;
 		}
 		else if(!colMode && inputs.get(0) instanceof Matrix) {
 			Matrix matrix = (Matrix) inputs.get(0);
 			Matrix ret = (Matrix) matrix.zeroCopy();
-			for(Entry<Long, Long> entry : matrix.getNonZeroEntries()) {
-				long row = entry.getKey();
-				long col = entry.getValue();
-				ret.put(row, col, ret.get(row, col)+error.get(row)/matrix.getCols());
-			}
+			matrix.forEachNonZero((row, col, value) -> ret.put(row, col, ret.get(row, col)+error.get(row)/matrix.getCols()));
 			return ret;
 		}
 		else {
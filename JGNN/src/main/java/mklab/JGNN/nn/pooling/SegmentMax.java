@@ -0,0 +1,78 @@
+package mklab.JGNN.nn.pooling;
+
+import java.util.Arrays;
+import java.util.List;
+
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.nn.NNOperation;
+
+/**
+ * Implements a {@link NNOperation} that computes the element-wise maximum of
+ * the rows of a matrix per segment. Inputs are the same as for
+ * {@link SegmentSum}. Gradients flow only to the first row that attains each
+ * maximum.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class SegmentMax extends NNOperation {
+	/**
+	 * Finds the row attaining the maximum of each segment and column.
+	 *
+	 * @return An array whose element at <code>segment + col * count</code> is the
+	 *         row of the maximum, or -1 for empty segments.
+	 */
+	private static int[] argmax(double[] input, int[] segments, int count, long cols) {
+		int rows = segments.length;
+		int[] ret = new int[(int) (count * cols)];
+		Arrays.fill(ret, -1);
+		Segments.forColumns(rows, cols, (from, to) -> {
+			for (int col = from; col < to; col++)
+				for (int row = 0; row < rows; row++) {
+					int pos = segments[row] + col * count;
+					if (ret[pos] == -1 || input[row + col * rows] > input[ret[pos] + col * rows])
+						ret[pos] = row;
+				}
+		});
+		return ret;
+	}
+
+	@Override
+	protected Tensor forward(List<Tensor> inputs) {
+		if (inputs.size() != 2)
+			throw new IllegalArgumentException();
+		Matrix values = inputs.get(0).cast(Matrix.class);
+		int[] segments = Segments.of(inputs.get(1), values.getRows());
+		int count = Segments.count(segments);
+		int rows = segments.length;
+		double[] input = Segments.values(values);
+		int[] argmax = argmax(input, segments, count, values.getCols());
+		DenseMatrix ret = new DenseMatrix(count, values.getCols());
+		ret.setColName(values.getColName());
+		double[] output = ret.getValues();
+		for (int pos = 0; pos < argmax.length; pos++)
+			if (argmax[pos] != -1)
+				output[pos] = input[argmax[pos] + pos / count * rows];
+		return ret;
+	}
+
+	@Override
+	protected Tensor partial(int inputId, List<Tensor> inputs, Tensor output, Tensor error) {
+		if (inputId == 1)
+			return null;
+		Matrix values = inputs.get(0).cast(Matrix.class);
+		int[] segments = Segments.of(inputs.get(1), values.getRows());
+		int count = (int) ((Matrix) error).getRows();
+		int rows = segments.length;
+		int[] argmax = argmax(Segments.values(values), segments, count, values.getCols());
+		double[] errors = Segments.values(error.cast(Matrix.class));
+		DenseMatrix ret = new DenseMatrix(rows, values.getCols());
+		ret.setDimensionName(values);
+		double[] derivative = ret.getValues();
+		for (int pos = 0; pos < argmax.length; pos++)
+			if (argmax[pos] != -1)
+				derivative[argmax[pos] + pos / count * rows] = errors[pos];
+		return ret;
+	}
+}
@@ -0,0 +1,69 @@
+package mklab.JGNN.nn.pooling;
+
+import java.util.List;
+
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.nn.NNOperation;
+
+/**
+ * Implements a {@link NNOperation} that averages the rows of a matrix per
+ * segment. Inputs are the same as for {@link SegmentSum}.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class SegmentMean extends NNOperation {
+	private static double[] sizes(int[] segments, int count) {
+		double[] sizes = new double[count];
+		for (int segment : segments)
+			sizes[segment]++;
+		return sizes;
+	}
+
+	@Override
+	protected Tensor forward(List<Tensor> inputs) {
+		if (inputs.size() != 2)
+			throw new IllegalArgumentException();
+		Matrix values = inputs.get(0).cast(Matrix.class);
+		int[] segments = Segments.of(inputs.get(1), values.getRows());
+		int count = Segments.count(segments);
+		int rows = segments.length;
+		double[] sizes = sizes(segments, count);
+		double[] input = Segments.values(values);
+		DenseMatrix ret = new DenseMatrix(count, values.getCols());
+		ret.setColName(values.getColName());
+		double[] output = ret.getValues();
+		Segments.forColumns(rows, values.getCols(), (from, to) -> {
+			for (int col = from; col < to; col++) {
+				for (int row = 0; row < rows; row++)
+					output[segments[row] + col * count] += input[row + col * rows];
+				for (int segment = 0; segment < count; segment++)
+					if (sizes[segment] != 0)
+						output[segment + col * count] /= sizes[segment];
+			}
+		});
+		return ret;
+	}
+
+	@Override
+	protected Tensor partial(int inputId, List<Tensor> inputs, Tensor output, Tensor error) {
+		if (inputId == 1)
+			return null;
+		Matrix values = inputs.get(0).cast(Matrix.class);
+		int[] segments = Segments.of(inputs.get(1), values.getRows());
+		int count = (int) ((Matrix) error).getRows();
+		int rows = segments.length;
+		double[] sizes = sizes(segments, count);
+		double[] errors = Segments.values(error.cast(Matrix.class));
+		DenseMatrix ret = new DenseMatrix(rows, values.getCols());
+		ret.setDimensionName(values);
+		double[] derivative = ret.getValues();
+		Segments.forColumns(rows, values.getCols(), (from, to) -> {
+			for (int col = from; col < to; col++)
+				for (int row = 0; row < rows; row++)
+					derivative[row + col * rows] = errors[segments[row] + col * count] / sizes[segments[row]];
+		});
+		return ret;
+	}
+}
@@ -0,0 +1,88 @@
+package mklab.JGNN.nn.pooling;
+
+import java.util.List;
+
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.nn.NNOperation;
+
+/**
+ * Implements a {@link NNOperation} that applies softmax to each column of a
+ * matrix separately within each segment of rows. Inputs are the same as for
+ * {@link SegmentSum}, and the output has the same shape as the matrix. For
+ * example, if rows hold attention scores of graph edges and segments are the
+ * edges' destination nodes, this normalizes the scores of each node's incoming
+ * edges to sum to one.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class SegmentSoftMax extends NNOperation {
+	@Override
+	protected Tensor forward(List<Tensor> inputs) {
+		if (inputs.size() != 2)
+			throw new IllegalArgumentException();
+		Matrix values = inputs.get(0).cast(Matrix.class);
+		int[] segments = Segments.of(inputs.get(1), values.getRows());
+		int count = Segments.count(segments);
+		int rows = segments.length;
+		double[] input = Segments.values(values);
+		DenseMatrix ret = new DenseMatrix(rows, values.getCols());
+		ret.setDimensionName(values);
+		double[] output = ret.getValues();
+		Segments.forColumns(rows, values.getCols(), (from, to) -> {
+			double[] max = new double[count];
+			double[] sum = new double[count];
+			for (int col = from; col < to; col++) {
+				int offset = col * rows;
+				for (int segment = 0; segment < count; segment++) {
+					max[segment] = Double.NEGATIVE_INFINITY;
+					sum[segment] = 0;
+				}
+				for (int row = 0; row < rows; row++)
+					max[segments[row]] = Math.max(max[segments[row]], input[row + offset]);
+				for (int row = 0; row < rows; row++) {
+					double element = Math.exp(input[row + offset] - max[segments[row]]);
+					output[row + offset] = element;
+					sum[segments[row]] += element;
+				}
+				for (int row = 0; row < rows; row++)
+					output[row + offset] /= sum[segments[row]];
+			}
+		});
+		return ret;
+	}
+
+	@Override
+	protected boolean isOutputNeededForDerivative() {
+		return true;
+	}
+
+	@Override
+	protected Tensor partial(int inputId, List<Tensor> inputs, Tensor output, Tensor error) {
+		if (inputId == 1)
+			return null;
+		Matrix values = inputs.get(0).cast(Matrix.class);
+		int[] segments = Segments.of(inputs.get(1), values.getRows());
+		int count = Segments.count(segments);
+		int rows = segments.length;
+		double[] outputs = Segments.values(output.cast(Matrix.class));
+		double[] errors = Segments.values(error.cast(Matrix.class));
+		DenseMatrix ret = new DenseMatrix(rows, values.getCols());
+		ret.setDimensionName(values);
+		double[] derivative = ret.getValues();
+		Segments.forColumns(rows, values.getCols(), (from, to) -> {
+			double[] dot = new double[count];
+			for (int col = from; col < to; col++) {
+				int offset = col * rows;
+				for (int segment = 0; segment < count; segment++)
+					dot[segment] = 0;
+				for (int row = 0; row < rows; row++)
+					dot[segments[row]] += errors[row + offset] * outputs[row + offset];
+				for (int row = 0; row < rows; row++)
+					derivative[row + offset] = outputs[row + offset] * (errors[row + offset] - dot[segments[row]]);
+			}
+		});
+		return ret;
+	}
+}
@@ -0,0 +1,71 @@
+package mklab.JGNN.nn.pooling;
+
+import java.util.List;
+
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.tensor.DenseTensor;
+import mklab.JGNN.nn.NNOperation;
+
+/**
+ * Implements a {@link NNOperation} that performs the selection of {@link Sort}
+ * within each segment of matrix rows. Inputs are the same as for
+ * {@link SegmentSum}. The output holds the indexes of up to <code>k</code>
+ * rows of each segment with the largest values in the last column (ties are
+ * resolved by previous columns), ordered by segment. Like sorting, this should
+ * only be used in gather [...] statements, and gathering the segment index
+ * with the output yields the segment of each gathered row.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class SegmentSort extends NNOperation {
+	private final int k;
+
+	public SegmentSort(int k) {
+		super();
+		if (k <= 0)
+			throw new IllegalArgumentException("Segment sorting should keep a positive number of rows");
+		this.k = k;
+	}
+
+	@Override
+	protected Tensor forward(List<Tensor> inputs) {
+		if (inputs.size() != 2)
+			throw new IllegalArgumentException();
+		Matrix values = inputs.get(0).cast(Matrix.class);
+		int[] segments = Segments.of(inputs.get(1), values.getRows());
+		int count = Segments.count(segments);
+		int[] starts = new int[count + 1];
+		for (int segment : segments)
+			starts[segment + 1]++;
+		for (int segment = 0; segment < count; segment++)
+			starts[segment + 1] += starts[segment];
+		int[] rows = new int[segments.length];
+		int[] next = starts.clone();
+		for (int row = 0; row < segments.length; row++)
+			rows[next[segments[row]]++] = row;
+		long lastCol = values.getCols() - 1;
+		int total = 0;
+		for (int segment = 0; segment < count; segment++) {
+			IntArrays.mergeSort(rows, starts[segment], starts[segment + 1], (row1, row2) -> {
+				long col = lastCol;
+				while (col > 0 && values.get(row1, col) == values.get(row2, col))
+					col -= 1;
+				return Double.compare(values.get(row2, col), values.get(row1, col));
+			});
+			total += Math.min(k, starts[segment + 1] - starts[segment]);
+		}
+		Tensor ret = new DenseTensor(total);
+		int pos = 0;
+		for (int segment = 0; segment < count; segment++)
+			for (int i = starts[segment]; i < Math.min(starts[segment + 1], starts[segment] + k); i++)
+				ret.put(pos++, rows[i]);
+		return ret;
+	}
+
+	@Override
+	protected Tensor partial(int inputId, List<Tensor> inputs, Tensor output, Tensor error) {
+		throw new RuntimeException("Sorting produces indices and should only be used in gather [...] statements");
+	}
+}
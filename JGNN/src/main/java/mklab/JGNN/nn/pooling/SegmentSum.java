@@ -0,0 +1,62 @@
+package mklab.JGNN.nn.pooling;
+
+import java.util.List;
+
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.nn.NNOperation;
+
+/**
+ * Implements a {@link NNOperation} that sums the rows of a matrix per segment.
+ * Its first input is the matrix and its second a tensor holding the segment of
+ * each row, for example the graph each node belongs to when several graphs are
+ * batched together. Segment identifiers do not need to be sorted. The output
+ * has one row for each segment up to the largest identifier.
+ *
+ * @author Emmanouil Krasanakis
+ * @see SegmentMean
+ * @see SegmentMax
+ * @see SegmentSoftMax
+ */
+public class SegmentSum extends NNOperation {
+	@Override
+	protected Tensor forward(List<Tensor> inputs) {
+		if (inputs.size() != 2)
+			throw new IllegalArgumentException();
+		Matrix values = inputs.get(0).cast(Matrix.class);
+		int[] segments = Segments.of(inputs.get(1), values.getRows());
+		int count = Segments.count(segments);
+		int rows = segments.length;
+		double[] input = Segments.values(values);
+		DenseMatrix ret = new DenseMatrix(count, values.getCols());
+		ret.setColName(values.getColName());
+		double[] output = ret.getValues();
+		Segments.forColumns(rows, values.getCols(), (from, to) -> {
+			for (int col = from; col < to; col++)
+				for (int row = 0; row < rows; row++)
+					output[segments[row] + col * count] += input[row + col * rows];
+		});
+		return ret;
+	}
+
+	@Override
+	protected Tensor partial(int inputId, List<Tensor> inputs, Tensor output, Tensor error) {
+		if (inputId == 1)
+			return null;
+		Matrix values = inputs.get(0).cast(Matrix.class);
+		int[] segments = Segments.of(inputs.get(1), values.getRows());
+		int count = (int) ((Matrix) error).getRows();
+		int rows = segments.length;
+		double[] errors = Segments.values(error.cast(Matrix.class));
+		DenseMatrix ret = new DenseMatrix(rows, values.getCols());
+		ret.setDimensionName(values);
+		double[] derivative = ret.getValues();
+		Segments.forColumns(rows, values.getCols(), (from, to) -> {
+			for (int col = from; col < to; col++)
+				for (int row = 0; row < rows; row++)
+					derivative[row + col * rows] = errors[segments[row] + col * count];
+		});
+		return ret;
+	}
+}
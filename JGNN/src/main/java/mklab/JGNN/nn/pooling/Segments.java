@@ -0,0 +1,91 @@
+package mklab.JGNN.nn.pooling;
+
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Parallelism;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.core.matrix.VectorizedMatrix;
+
+/**
+ * Helper methods shared by segment pooling operations, which reduce matrix rows
+ * that share the same segment identifier, such as the nodes of the same graph
+ * in a batch of graphs. Segment operations traverse the column-major element
+ * arrays of dense matrices directly, and split columns into ranges that run in
+ * parallel, so that each element is visited a constant number of times.
+ *
+ * @author Emmanouil Krasanakis
+ * @see SegmentSum
+ */
+final class Segments {
+	private Segments() {
+	}
+
+	/**
+	 * Reads segment identifiers into an array.
+	 *
+	 * @param index A tensor holding the non-negative integer segment of each row.
+	 * @param rows  The number of reduced rows.
+	 * @return An array of segment identifiers.
+	 */
+	static int[] of(Tensor index, long rows) {
+		if (index.size() != rows)
+			throw new IllegalArgumentException(
+					"Segment index " + index.describe() + " should have one element for each of the " + rows + " rows");
+		int[] segments = new int[(int) rows];
+		for (int i = 0; i < segments.length; i++) {
+			double segment = index.get(i);
+			if (segment < 0 || segment != (int) segment)
+				throw new IllegalArgumentException("Segment identifiers should be non-negative integers but found "
+						+ segment + " in " + index.describe());
+			segments[i] = (int) segment;
+		}
+		return segments;
+	}
+
+	/**
+	 * Computes the number of segments as one plus the largest identifier.
+	 *
+	 * @param segments An array of segment identifiers.
+	 * @return The number of segments.
+	 */
+	static int count(int[] segments) {
+		int count = 0;
+		for (int segment : segments)
+			count = Math.max(count, segment + 1);
+		return count;
+	}
+
+	/**
+	 * Retrieves the column-major elements of a matrix. These are shared with
+	 * {@link DenseMatrix} and {@link VectorizedMatrix} instances, and copied from
+	 * other matrices.
+	 *
+	 * @param matrix The matrix whose elements to retrieve.
+	 * @return An array holding the element at (row, col) in position
+	 *         <code>row + col * rows</code>.
+	 */
+	static double[] values(Matrix matrix) {
+		if (matrix instanceof DenseMatrix)
+			return ((DenseMatrix) matrix).getValues();
+		if (matrix instanceof VectorizedMatrix)
+			return ((VectorizedMatrix) matrix).getValues();
+		long rows = matrix.getRows();
+		if (matrix.size() >= Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Segment operations need less than MAXINT elements but "
+					+ matrix.describe() + " was provided");
+		double[] ret = new double[(int) matrix.size()];
+		matrix.forEachNonZero((row, col, value) -> ret[(int) (row + col * rows)] = value);
+		return ret;
+	}
+
+	/**
+	 * Runs a task over column ranges in parallel.
+	 *
+	 * @param rows The number of rows traversed for each column.
+	 * @param cols The number of columns.
+	 * @param task The task to run.
+	 */
+	static void forColumns(long rows, long cols, Parallelism.RangeTask task) {
+		Parallelism.forRange(0, (int) cols, (int) Math.max(1, Parallelism.GRAIN / Math.max(1, rows)), task);
+	}
+}
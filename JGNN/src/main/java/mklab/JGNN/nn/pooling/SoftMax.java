@@ -4,6 +4,7 @@ import java.util.List;
 
 import mklab.JGNN.core.Matrix;
 import mklab.JGNN.nn.NNOperation;
+import mklab.JGNN.core.Parallelism;
 import mklab.JGNN.core.Tensor;
 
 /**
@@ -28,39 +29,51 @@ public class SoftMax extends NNOperation {
 		if(colMode && inputs.get(0) instanceof Matrix) {
 			Matrix matrix = inputs.get(0).cast(Matrix.class);
 			Matrix ret = matrix.zeroCopy().cast(Matrix.class);
-			for(long row=0;row<ret.getRows();row++) {
-				double max = Double.NEGATIVE_INFINITY;
-				for(long col=0;col<matrix.getCols();col++) 
-					max = Math.max(max, matrix.get(row, col));
-				double sum = 0;
-				for(long col=0;col<matrix.getCols();col++) {
-					double element = Math.exp(matrix.get(row, col)-max);
-					ret.put(row, col, element);
-					sum += element;
+			Parallelism.RangeTask task = (from, to) -> {
+				for(long row=from;row<to;row++) {
+					double max = Double.NEGATIVE_INFINITY;
+					for(long col=0;col<matrix.getCols();col++) 
+						max = Math.max(max, matrix.get(row, col));
+					double sum = 0;
+					for(long col=0;col<matrix.getCols();col++) {
+						double element = Math.exp(matrix.get(row, col)-max);
+						ret.put(row, col, element);
+						sum += element;
+					}
+					if(sum!=0)
+						for(long col=0;col<ret.getCols();col++)
+							ret.put(row, col, ret.get(row, col)/sum);
 				}
-				if(sum!=0)
-					for(long col=0;col<ret.getCols();col++)
-						ret.put(row, col, ret.get(row, col)/sum);
-			}
+			};
+			if(Parallelism.isDense(ret))
+				Parallelism.forRange(0, (int)ret.getRows(), (int)Math.max(1, Parallelism.GRAIN/ret.getCols()), task);
+			else
+				task.run(0, (int)ret.getRows());
 			return ret;
 		}
 		else if(!colMode && inputs.get(0) instanceof Matrix) {
 			Matrix matrix = inputs.get(0).cast(Matrix.class);
 			Matrix ret = (Matrix)inputs.get(0).zeroCopy();
-			for(long col=0;col<ret.getCols();col++) {
-				double max = Double.NEGATIVE_INFINITY;
-				for(long row=0;row<ret.getRows();row++)
-					max = Math.max(max, matrix.get(row, col));
-				double sum = 0;
-				for(long row=0;row<ret.getRows();row++) {
-					double element = Math.exp(matrix.get(row, col)-max);
-					ret.put(row, col, element);
-					sum += element;
-				}
-				if(sum!=0)
+			Parallelism.RangeTask task = (from, to) -> {
+				for(long col=from;col<to;col++) {
+					double max = Double.NEGATIVE_INFINITY;
 					for(long row=0;row<ret.getRows();row++)
-						ret.put(row, col, ret.get(row, col)/sum);
-			}
+						max = Math.max(max, matrix.get(row, col));
+					double sum = 0;
+					for(long row=0;row<ret.getRows();row++) {
+						double element = Math.exp(matrix.get(row, col)-max);
+						ret.put(row, col, element);
+						sum += element;
+					}
+					if(sum!=0)
+						for(long row=0;row<ret.getRows();row++)
+							ret.put(row, col, ret.get(row, col)/sum);
+				}
+			};
+			if(Parallelism.isDense(ret))
+				Parallelism.forRange(0, (int)ret.getCols(), (int)Math.max(1, Parallelism.GRAIN/ret.getRows()), task);
+			else
+				task.run(0, (int)ret.getCols());
 			return ret;
 		}
 		else {
@@ -116,36 +129,53 @@ public class SoftMax extends NNOperation {
 			return ret.selfMultiply(1./sum);
 		}*/
 	}
+	@Override
+	protected boolean isOutputNeededForDerivative() {
+		return true;
+	}
+
 	@Override
 	protected Tensor partial(int inputId, List<Tensor> inputs, Tensor output, Tensor error) {
 		if(colMode && inputs.get(0) instanceof Matrix) {
 			Matrix matrix = (Matrix) output;
 			Matrix errorMatrix = (Matrix) error;
 			Matrix ret = (Matrix) matrix.zeroCopy();
-			for(long row=0;row<ret.getRows();row++) {
-				double rowSum = 0;
-				for(long col=0;col<ret.getCols();col++) 
-					rowSum += matrix.get(row, col)*errorMatrix.get(row, col);
-				for(long col=0;col<ret.getCols();col++) {
-					double val = matrix.get(row, col);
-					ret.put(row, col, (val*(1-val)*errorMatrix.get(row, col)-(rowSum-val*errorMatrix.get(row, col))*val));
+			Parallelism.RangeTask task = (from, to) -> {
+				for(long row=from;row<to;row++) {
+					double rowSum = 0;
+					for(long col=0;col<ret.getCols();col++) 
+						rowSum += matrix.get(row, col)*errorMatrix.get(row, col);
+					for(long col=0;col<ret.getCols();col++) {
+						double val = matrix.get(row, col);
+						ret.put(row, col, (val*(1-val)*errorMatrix.get(row, col)-(rowSum-val*errorMatrix.get(row, col))*val));
+					}
 				}
-			}
+			};
+			if(Parallelism.isDense(ret))
+				Parallelism.forRange(0, (int)ret.getRows(), (int)Math.max(1, Parallelism.GRAIN/ret.getCols()), task);
+			else
+				task.run(0, (int)ret.getRows());
 			return ret;
 		}
 		else if(!colMode && inputs.get(0) instanceof Matrix) {
 			Matrix matrix = (Matrix) output;
 			Matrix errorMatrix = (Matrix) error;
 			Matrix ret = (Matrix) matrix.zeroCopy();
-			for(long col=0;col<ret.getCols();col++) {
-				double colSum = 0;
-				for(long row=0;row<ret.getRows();row++)
-					colSum += matrix.get(row, col)*errorMatrix.get(row, col);
-				for(long row=0;row<ret.getRows();row++) {
-					double val = matrix.get(row, col);
-					ret.put(row, col, (val*(1-val)*errorMatrix.get(row, col)-(colSum-val*errorMatrix.get(row, col))*val));
+			Parallelism.RangeTask task = (from, to) -> {
+				for(long col=from;col<to;col++) {
+					double colSum = 0;
+					for(long row=0;row<ret.getRows();row++)
+						colSum += matrix.get(row, col)*errorMatrix.get(row, col);
+					for(long row=0;row<ret.getRows();row++) {
+						double val = matrix.get(row, col);
+						ret.put(row, col, (val*(1-val)*errorMatrix.get(row, col)-(colSum-val*errorMatrix.get(row, col))*val));
+					}
 				}
-			}
+			};
+			if(Parallelism.isDense(ret))
+				Parallelism.forRange(0, (int)ret.getCols(), (int)Math.max(1, Parallelism.GRAIN/ret.getRows()), task);
+			else
+				task.run(0, (int)ret.getCols());
 			return ret;
 		}
 		else {
@@ -84,8 +84,49 @@ public class Benchmarks {
 		}
 	}
 
+	private static double[] naiveMultiplication(double[] a, double[] b, int rows, int between, int cols, 
+			boolean transposeA, boolean transposeB) {
+		double[] ret = new double[rows*cols];
+		for (int col2 = 0; col2 < cols; ++col2)
+			for (int row = 0; row < rows; ++row) {
+				double summand = 0;
+				for (int col = 0; col < between; ++col) {
+					int aIndex = transposeA ? col + row * between : row + col * rows;
+					int bIndex = transposeB ? col2 + col * cols : col + col2 * between;
+					summand += a[aIndex] * b[bIndex];
+				}
+				ret[row + col2 * rows] = summand;
+			}
+		return ret;
+	}
+
+	private static void compareDenseMultiplication() {
+		int m = 20000;
+		int n = 256;
+		System.out.println("## Multiplying dense "+m+"x"+n+" with "+n+"x"+n+" matrices");
+		Matrix a = new DenseMatrix(m, n).setToRandom().cast(Matrix.class);
+		Matrix b = new DenseMatrix(n, n).setToRandom().cast(Matrix.class);
+		for (int transposed = 0; transposed < 4; transposed++) {
+			boolean transposeA = transposed % 2 == 1;
+			boolean transposeB = transposed / 2 == 1;
+			Matrix left = transposeA ? a.transposed() : a;
+			double[] leftValues = left.toArray();
+			double[] rightValues = b.toArray();
+			long tic = System.currentTimeMillis();
+			naiveMultiplication(leftValues, rightValues, m, n, n, transposeA, transposeB);
+			long toc = System.currentTimeMillis();
+			System.out.print("transposeA="+transposeA+" transposeB="+transposeB+"\tNaive: "+(toc-tic)/1000.0+" sec");
+			tic = System.currentTimeMillis();
+			for(int i=0;i<5;++i)
+				left.matmul(b, transposeA, transposeB);
+			toc = System.currentTimeMillis();
+			System.out.println("\tBlocked: "+(toc-tic)/1000.0/5+" sec");
+		}
+	}
+
 	public static void main(String[] args) {
 		compareTensors();
+		compareDenseMultiplication();
 		//compareMatrices();
 	}
 
@@ -2,19 +2,28 @@ package mklab.JGNN.core;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
 
 import org.junit.Assert;
 import org.junit.Test;
 
+import mklab.JGNN.core.distribution.Normal;
+import mklab.JGNN.core.matrix.CscMatrix;
+import mklab.JGNN.core.matrix.CsrMatrix;
 import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.core.matrix.FloatMatrix;
+import mklab.JGNN.core.matrix.RowSparseMatrix;
+import mklab.JGNN.core.matrix.SampledDenseMultiplication;
+import mklab.JGNN.core.matrix.SparseFloatMatrix;
 import mklab.JGNN.core.matrix.SparseMatrix;
 import mklab.JGNN.core.matrix.SparseSymmetric;
 import mklab.JGNN.core.matrix.WrapCols;
 import mklab.JGNN.core.matrix.WrapRows;
 import mklab.JGNN.core.tensor.DenseTensor;
 import mklab.JGNN.core.tensor.SparseTensor;
+import mklab.JGNN.core.util.Loss;
 import mklab.JGNN.core.util.Range2D;
 
 public class MatrixTest {
@@ -97,6 +106,19 @@ public class MatrixTest {
 				}
 	}
 	@Test
+	public void testWeightedAddition() {
+		Matrix values = (Matrix)new DenseMatrix(50, 40).setToRandom(new Normal().setSeed(1));
+		Matrix other = (Matrix)new DenseMatrix(50, 40).setToRandom(new Normal().setSeed(2));
+		Tensor expected = values.add(other.multiply(-0.3));
+		Parallelism.setParallelism(4);
+		try {
+			Assert.assertEquals(0, values.selfAdd(other, -0.3).subtract(expected).abs().sum(), 1.E-12);
+		}
+		finally {
+			Parallelism.setParallelism(1);
+		}
+	}
+	@Test
 	public void testMultiplication() {
 		for(Matrix matrix1 : allMatrixTypes(6)) 
 			for(Matrix matrix2 : allMatrixTypes(6))
@@ -159,4 +181,245 @@ public class MatrixTest {
 		range.next();
 		range.next();
 	}
+	@Test
+	public void testCompressedSparseMatrices() {
+		Matrix matrix = new SparseMatrix(4, 3).put(0, 2, 1).put(0, 0, 2).put(3, 1, 3).put(2, 2, 4);
+		for(Matrix compressed : new Matrix[] {matrix.toCsr(), matrix.toCsc()}) {
+			Assert.assertEquals(4, compressed.estimateNumNonZeroElements());
+			for(long row=0;row<matrix.getRows();row++)
+				for(long col=0;col<matrix.getCols();col++)
+					Assert.assertEquals(matrix.get(row, col), compressed.get(row, col), 0);
+			Assert.assertEquals(matrix.transposed().get(2, 0), compressed.transposed().get(2, 0), 0);
+			Matrix dense = new DenseMatrix(3, 2).setToRandom().cast(Matrix.class);
+			Matrix expected = matrix.matmul(dense);
+			Matrix result = compressed.matmul(dense);
+			for(long row=0;row<expected.getRows();row++)
+				for(long col=0;col<expected.getCols();col++)
+					Assert.assertEquals(expected.get(row, col), result.get(row, col), 1.E-12);
+			Assert.assertEquals(matrix.matmul(dense.transposed(), false, true).get(0, 1), 
+					compressed.matmul(dense.transposed(), false, true).get(0, 1), 1.E-12);
+			Assert.assertEquals(matrix.transposed().matmul(new DenseMatrix(4, 2).setToOnes().cast(Matrix.class)).get(2, 0), 
+					compressed.matmul(new DenseMatrix(4, 2).setToOnes().cast(Matrix.class), true, false).get(2, 0), 1.E-12);
+		}
+		Assert.assertEquals(3, matrix.toCsr().accessRow(0).sum(), 0);
+		Assert.assertEquals(2, matrix.toCsr().accessRow(0).estimateNumNonZeroElements());
+		Assert.assertEquals(5, matrix.toCsc().accessCol(2).sum(), 0);
+	}
+	@Test
+	public void testCompressedSparseNormalization() {
+		Matrix matrix = new SparseMatrix(3, 3).put(0, 1, 1).put(1, 0, 1).put(1, 2, 1).put(2, 1, 1).setMainDiagonal(1);
+		Matrix expected = matrix.symmetricNormalization();
+		for(Matrix compressed : new Matrix[] {matrix.toCsr().setToSymmetricNormalization(), matrix.toCsc().setToSymmetricNormalization()})
+			for(Entry<Long, Long> entry : expected.getNonZeroEntries())
+				Assert.assertEquals(expected.get(entry.getKey(), entry.getValue()), compressed.get(entry.getKey(), entry.getValue()), 1.E-12);
+	}
+	@Test(expected = UnsupportedOperationException.class)
+	public void testCompressedSparsePatternIsFixed() {
+		CsrMatrix matrix = new SparseMatrix(3, 3).put(0, 1, 1).cast(Matrix.class).toCsr();
+		matrix.put(0, 1, 2);
+		Assert.assertEquals(2, matrix.get(0, 1), 0);
+		matrix.put(1, 1, 0);
+		new CscMatrix(matrix).put(2, 2, 1);
+	}
+	@Test
+	public void testSparseDenseMultiplication() {
+		Matrix sparse = new SparseMatrix(7, 5).put(0, 1, 1).put(3, 4, 2).put(6, 0, -1).put(3, 1, 0.5).cast(Matrix.class);
+		for(Matrix left : new Matrix[] {sparse, sparse.toCsr(), sparse.toCsc()})
+			for(long cols : new long[] {1, 3, 13}) 
+				for(int transposed=0;transposed<4;transposed++) {
+					boolean transposeSelf = transposed%2==1;
+					boolean transposeWith = transposed/2==1;
+					long between = transposeSelf?7:5;
+					Matrix right = (transposeWith?new DenseMatrix(cols, between):new DenseMatrix(between, cols)).setToRandom().cast(Matrix.class);
+					Matrix expected = sparse.toDense().matmul(right, transposeSelf, transposeWith);
+					Matrix result = left.matmul(right, transposeSelf, transposeWith);
+					Assert.assertEquals(expected.getRows(), result.getRows());
+					Assert.assertEquals(expected.getCols(), result.getCols());
+					for(long row=0;row<expected.getRows();row++)
+						for(long col=0;col<expected.getCols();col++)
+							Assert.assertEquals(expected.get(row, col), result.get(row, col), 1.E-12);
+				}
+	}
+	@Test
+	public void testSampledDenseMultiplication() {
+		Matrix sparse = new SparseMatrix(7, 5).put(0, 1, 1).put(3, 4, 2).put(6, 0, -1).put(3, 1, 0.5).cast(Matrix.class);
+		for(long cols : new long[] {1, 3, 13}) {
+			Matrix left = new DenseMatrix(7, cols).setToRandom().cast(Matrix.class);
+			Matrix right = new DenseMatrix(5, cols).setToRandom().cast(Matrix.class);
+			Matrix expected = sparse.toDense().multiply(left.matmul(right, false, true)).cast(Matrix.class);
+			for(Matrix pattern : new Matrix[] {sparse, sparse.toCsr(), sparse.toCsc()}) {
+				Matrix result = SampledDenseMultiplication.multiply(pattern, left, right);
+				Assert.assertEquals(4, result.estimateNumNonZeroElements());
+				for(long row=0;row<7;row++)
+					for(long col=0;col<5;col++)
+						Assert.assertEquals(expected.get(row, col), result.get(row, col), 1.E-12);
+			}
+		}
+	}
+	@Test
+	public void testBlockedDenseMultiplication() {
+		long rows = 131;
+		long between = 259;
+		long cols = 1030;
+		for(int transposed=0;transposed<4;transposed++) {
+			boolean transposeSelf = transposed%2==1;
+			boolean transposeWith = transposed/2==1;
+			Matrix left = (transposeSelf?new DenseMatrix(between, rows):new DenseMatrix(rows, between)).setToRandom().cast(Matrix.class);
+			Matrix right = (transposeWith?new DenseMatrix(cols, between):new DenseMatrix(between, cols)).setToRandom().cast(Matrix.class);
+			Matrix result = left.matmul(right, transposeSelf, transposeWith);
+			for(long row=0;row<rows;row+=13)
+				for(long col=0;col<cols;col+=7) {
+					double expected = 0;
+					for(long k=0;k<between;k++)
+						expected += (transposeSelf?left.get(k, row):left.get(row, k))*(transposeWith?right.get(col, k):right.get(k, col));
+					Assert.assertEquals(expected, result.get(row, col), 1.E-9);
+				}
+		}
+	}
+	@Test
+	public void testParallelOperations() {
+		Matrix sparse = new SparseMatrix(500, 300);
+		for(int i=0;i<3000;i++)
+			sparse.put((i*7919)%500, (i*104729)%300, i%11-5);
+		Matrix dense = new DenseMatrix(300, 64).setToRandom().cast(Matrix.class);
+		Matrix tall = new DenseMatrix(500, 64).setToRandom().cast(Matrix.class);
+		Matrix square = new DenseMatrix(300, 300).setToRandom().cast(Matrix.class);
+		List<Tensor> expected = new ArrayList<Tensor>();
+		List<Tensor> results = new ArrayList<Tensor>();
+		for(int parallelism : new int[] {1, 4}) {
+			Parallelism.setParallelism(parallelism);
+			try {
+				List<Tensor> outcomes = parallelism==1?expected:results;
+				outcomes.add(sparse.matmul(dense));
+				outcomes.add(sparse.toCsr().matmul(dense));
+				outcomes.add(sparse.toCsr().matmul(tall, true, false));
+				outcomes.add(sparse.toCsc().matmul(dense.transposed(), false, true));
+				outcomes.add(sparse.toCsc().matmul(tall, true, false));
+				outcomes.add(SampledDenseMultiplication.multiply(sparse, tall, dense));
+				outcomes.add(square.matmul(dense, true, false));
+				outcomes.add(square.matmul(square.asTransposed()));
+				outcomes.add(square.add(square).selfMultiply(square).multiply(0.5));
+				outcomes.add(Loss.sigmoid(square));
+			}
+			finally {
+				Parallelism.setParallelism(1);
+			}
+		}
+		for(int i=0;i<expected.size();i++) {
+			Assert.assertEquals(expected.get(i).size(), results.get(i).size());
+			for(long pos=0;pos<expected.get(i).size();pos++)
+				Assert.assertEquals(expected.get(i).get(pos), results.get(i).get(pos), 1.E-9);
+		}
+	}
+	@Test
+	public void testForEachNonZero() {
+		Matrix sparse = new SparseMatrix(7, 5);
+		for(int i=0;i<12;i++)
+			sparse.put((i*3)%7, (i*2)%5, i+1);
+		Matrix dense = new DenseMatrix(7, 5).setToRandom().cast(Matrix.class);
+		List<Matrix> matrices = new ArrayList<Matrix>();
+		matrices.add(sparse);
+		matrices.add(dense);
+		matrices.add(sparse.toCsr());
+		matrices.add(sparse.toCsc());
+		matrices.add(dense.asTransposed());
+		matrices.add(new WrapRows(dense.accessRows()));
+		matrices.add(new WrapCols(dense.accessColumns()));
+		for(Matrix matrix : matrices) {
+			List<Double> expected = new ArrayList<Double>();
+			for(Entry<Long, Long> entry : matrix.getNonZeroEntries()) {
+				expected.add((double)entry.getKey());
+				expected.add((double)entry.getValue());
+				expected.add(matrix.get(entry.getKey(), entry.getValue()));
+			}
+			List<Double> entries = new ArrayList<Double>();
+			matrix.forEachNonZero((row, col, value) -> {
+				entries.add((double)row);
+				entries.add((double)col);
+				entries.add(value);
+			});
+			Assert.assertEquals(expected, entries);
+			double[] sum = new double[1];
+			matrix.forEachNonZero((pos, value) -> {
+				Assert.assertEquals(matrix.get(pos), value, 0);
+				sum[0] += value;
+			});
+			Assert.assertEquals(matrix.sum(), sum[0], 1.E-9);
+		}
+	}
+	@Test
+	public void testFloatMatrices() {
+		Matrix sparse = new SparseMatrix(40, 30);
+		for(int i=0;i<100;i++)
+			sparse.put((i*7)%40, (i*11)%30, i%5-2);
+		Matrix left = new DenseMatrix(40, 30).setToRandom().cast(Matrix.class);
+		Matrix right = new DenseMatrix(30, 20).setToRandom().cast(Matrix.class);
+		Matrix square = new DenseMatrix(30, 30).setToRandom().cast(Matrix.class);
+		Matrix floatLeft = left.toFloat();
+		Matrix floatRight = right.toFloat();
+		Matrix floatSquare = square.toFloat();
+		Assert.assertTrue(floatLeft instanceof FloatMatrix);
+		List<Tensor> expected = new ArrayList<Tensor>();
+		List<Tensor> results = new ArrayList<Tensor>();
+		expected.add(left.matmul(right));
+		results.add(floatLeft.matmul(floatRight));
+		expected.add(square.matmul(right, true, false));
+		results.add(floatSquare.matmul(floatRight, true, false));
+		expected.add(left.matmul(square, false, true));
+		results.add(floatLeft.matmul(floatSquare, false, true));
+		expected.add(square.matmul(square, true, true));
+		results.add(floatSquare.matmul(floatSquare, true, true));
+		expected.add(sparse.matmul(square));
+		results.add(sparse.matmul(floatSquare));
+		expected.add(sparse.toCsr().matmul(left, true, false));
+		results.add(sparse.toCsr().matmul(floatLeft, true, false));
+		expected.add(sparse.toCsc().matmul(square, false, true));
+		results.add(sparse.toCsc().matmul(floatSquare, false, true));
+		expected.add(sparse.matmul(square, false, true));
+		results.add(sparse.matmul(floatSquare, false, true));
+		expected.add(left.add(left).selfMultiply(left).multiply(0.5));
+		results.add(floatLeft.add(floatLeft).selfMultiply(floatLeft).multiply(0.5));
+		expected.add(left.matmul(right));
+		results.add(left.matmul(floatRight));
+		for(int i=0;i<expected.size();i++) {
+			Assert.assertTrue(results.get(i) instanceof FloatMatrix);
+			Assert.assertEquals(expected.get(i).size(), results.get(i).size());
+			for(long pos=0;pos<expected.get(i).size();pos++)
+				Assert.assertEquals(expected.get(i).get(pos), results.get(i).get(pos), 1.E-4);
+		}
+		Matrix sparseFloat = new SparseFloatMatrix(5, 5).put(1, 2, 0.5).put(3, 3, -1).cast(Matrix.class);
+		Assert.assertEquals(2, sparseFloat.estimateNumNonZeroElements());
+		Assert.assertEquals(0.5, sparseFloat.get(1, 2), 0);
+		Assert.assertEquals(-0.5, sparseFloat.sum(), 0);
+		Assert.assertTrue(sparseFloat.zeroCopy() instanceof SparseFloatMatrix);
+	}
+	@Test
+	public void testRowSparseMatrices() {
+		Matrix dense = new DenseMatrix(6, 3).setToRandom().cast(Matrix.class);
+		RowSparseMatrix matrix = new RowSparseMatrix(100, 3);
+		matrix.addToRow(42, dense, 1, 2).addToRow(7, dense, 4, 1).addToRow(42, dense, 5, -1);
+		matrix.put(13, 2, 0);
+		Assert.assertEquals(2, matrix.getNumStoredRows());
+		Assert.assertEquals(6, matrix.estimateNumNonZeroElements());
+		for(long col=0;col<3;col++) {
+			Assert.assertEquals(2*dense.get(1, col)-dense.get(5, col), matrix.get(42, col), 1.E-12);
+			Assert.assertEquals(dense.get(4, col), matrix.get(7, col), 0);
+			Assert.assertEquals(0, matrix.get(13, col), 0);
+		}
+		Matrix accumulated = new DenseMatrix(100, 3);
+		accumulated.selfAdd(matrix);
+		Assert.assertEquals(matrix.sum(), accumulated.sum(), 1.E-12);
+		Assert.assertEquals(matrix.get(42, 2), accumulated.get(42, 2), 0);
+		Matrix values = new DenseMatrix(100, 3).setToOnes().cast(Matrix.class);
+		Tensor regularized = ((RowSparseMatrix) matrix.copy()).selfAddOnStoredRows(values, 0.5);
+		Assert.assertTrue(regularized instanceof RowSparseMatrix);
+		Assert.assertEquals(matrix.sum()+3, regularized.sum(), 1.E-12);
+		Assert.assertTrue(matrix.multiply(2) instanceof RowSparseMatrix);
+		int visited = 0;
+		for(Entry<Long, Long> entry : matrix.getNonZeroEntries()) {
+			Assert.assertTrue(entry.getKey()==42 || entry.getKey()==7);
+			visited++;
+		}
+		Assert.assertEquals(6, visited);
+	}
 }
@@ -0,0 +1,30 @@
+package mklab.JGNN.core;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ParallelismTest {
+	protected void assertVisitedOnce(int start, int end, int grain) {
+		int[] visits = new int[end];
+		Parallelism.forRange(start, end, grain, (from, to) -> {
+			for (int pos = from; pos < to; pos++)
+				visits[pos]++;
+		});
+		for (int pos = 0; pos < end; pos++)
+			Assert.assertEquals(pos < start ? 0 : 1, visits[pos]);
+	}
+
+	@Test
+	public void testRangesAreVisitedOnce() {
+		Parallelism.setParallelism(4);
+		try {
+			assertVisitedOnce(0, 30, 7);
+			assertVisitedOnce(0, 1000, 1);
+			assertVisitedOnce(5, 17, 3);
+			assertVisitedOnce(0, 9, 2);
+			assertVisitedOnce(0, 3, 4);
+		} finally {
+			Parallelism.setParallelism(1);
+		}
+	}
+}
@@ -472,4 +472,16 @@ public class TensorTest {
 	public void testImpossibleMultiplication() {
 		new RepeatTensor(1, 10).multiply(new RepeatTensor(2, 10));
 	}
+	@Test
+	public void testReleasedMemoryIsReused() {
+		DenseTensor tensor = new DenseTensor(4096);
+		tensor.setToOnes();
+		double[] values = tensor.values;
+		tensor.release();
+		DenseTensor reused = new DenseTensor(4096);
+		Assert.assertSame(values, reused.values);
+		Assert.assertEquals(0, reused.sum(), 0);
+		Assert.assertNotSame(values, new DenseTensor(4096).values);
+		Assert.assertNotSame(values, new DenseTensor(4095).values);
+	}
 }
@@ -0,0 +1,140 @@
+package mklab.JGNN.nn;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import mklab.JGNN.adhoc.ModelBuilder;
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Parallelism;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.distribution.Normal;
+import mklab.JGNN.core.matrix.CsrMatrix;
+import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.core.matrix.SampledDenseMultiplication;
+import mklab.JGNN.core.matrix.SparseMatrix;
+import mklab.JGNN.nn.operations.Attention;
+import mklab.JGNN.nn.operations.EdgeSoftMax;
+import mklab.JGNN.nn.operations.GraphAttention;
+
+public class AttentionTest {
+	private static Matrix adjacency() {
+		Matrix ret = new SparseMatrix(6, 6);
+		for (long node = 0; node < 6; node++) {
+			ret.put(node, node, 1);
+			ret.put(node, (node + 1) % 6, 1);
+			ret.put((node + 1) % 6, node, 0.5);
+		}
+		ret.put(0, 3, 2);
+		return ret;
+	}
+
+	private static Matrix random(long rows, long cols, long seed) {
+		return new DenseMatrix(rows, cols).setToRandom(new Normal().setSeed(seed)).cast(Matrix.class);
+	}
+
+	private static void assertGradient(NNOperation operation, List<Tensor> inputs, int inputId) {
+		Tensor output = operation.forward(inputs);
+		Tensor weights = random(((Matrix) output).getRows(), ((Matrix) output).getCols(), 3);
+		Tensor derivative = operation.partial(inputId, inputs, output, weights);
+		Tensor values = inputs.get(inputId);
+		double epsilon = 1.E-6;
+		for (long pos : values) {
+			double value = values.get(pos);
+			values.put(pos, value + epsilon);
+			double increased = operation.forward(inputs).multiply(weights).sum();
+			values.put(pos, value - epsilon);
+			double decreased = operation.forward(inputs).multiply(weights).sum();
+			values.put(pos, value);
+			Assert.assertEquals((increased - decreased) / 2 / epsilon, derivative.get(pos), 1.E-6);
+		}
+	}
+
+	@Test
+	public void testGraphAttentionMatchesPerEdgeComputation() {
+		Matrix adjacency = adjacency();
+		Matrix features = random(6, 4, 1);
+		Matrix attention = random(2, 4, 2);
+		NNOperation operation = new GraphAttention(2);
+		Matrix output = operation.forward(Arrays.asList(adjacency, features, attention)).cast(Matrix.class);
+		for (long head = 0; head < 2; head++)
+			for (long row = 0; row < 6; row++) {
+				double[] scores = new double[6];
+				double sum = 0;
+				for (long col = 0; col < 6; col++)
+					if (adjacency.get(row, col) != 0) {
+						double score = 0;
+						for (long dim = head * 2; dim < head * 2 + 2; dim++)
+							score += attention.get(0, dim) * features.get(row, dim)
+									+ attention.get(1, dim) * features.get(col, dim);
+						scores[(int) col] = Math.exp(score > 0 ? score : 0.2 * score);
+						sum += scores[(int) col];
+					}
+				for (long dim = head * 2; dim < head * 2 + 2; dim++) {
+					double expected = 0;
+					for (long col = 0; col < 6; col++)
+						expected += scores[(int) col] / sum * features.get(col, dim);
+					Assert.assertEquals(expected, output.get(row, dim), 1.E-12);
+				}
+			}
+	}
+
+	@Test
+	public void testAttentionGradients() {
+		List<Tensor> inputs = Arrays.asList(adjacency(), random(6, 4, 1), random(2, 4, 2));
+		assertGradient(new GraphAttention(2), inputs, 1);
+		assertGradient(new GraphAttention(2), inputs, 2);
+		assertGradient(new Attention(), Arrays.asList(adjacency(), random(6, 3, 1)), 1);
+		assertGradient(new EdgeSoftMax(),
+				Arrays.asList(SampledDenseMultiplication.multiply(adjacency(), random(6, 3, 4), random(6, 3, 5))), 0);
+	}
+
+	@Test
+	public void testEdgeSoftMaxNormalizesStoredZeros() {
+		CsrMatrix scores = new CsrMatrix(2, 3, new int[] { 0, 2, 3 }, new int[] { 0, 2, 1 }, new double[] { 0, 1, 0 });
+		NNOperation operation = new EdgeSoftMax();
+		Matrix output = operation.forward(Arrays.asList(scores)).cast(Matrix.class);
+		Assert.assertEquals(1 / (1 + Math.E), output.get(0, 0), 1.E-12);
+		Assert.assertEquals(Math.E / (1 + Math.E), output.get(0, 2), 1.E-12);
+		Assert.assertEquals(0, output.get(0, 1), 0);
+		Assert.assertEquals(1, output.get(1, 1), 1.E-12);
+	}
+
+	@Test
+	public void testParallelGraphAttention() {
+		Matrix adjacency = new SparseMatrix(300, 300);
+		for (int i = 0; i < 3000; i++)
+			adjacency.put((i * 7919) % 300, (i * 104729) % 300, 1);
+		List<Tensor> inputs = Arrays.asList(adjacency.toCsr(), random(300, 64, 1), random(2, 64, 2));
+		NNOperation operation = new GraphAttention(4);
+		Tensor error = random(300, 64, 3);
+		Tensor expected = operation.forward(inputs);
+		Tensor expectedDerivative = operation.partial(1, inputs, expected, error);
+		Parallelism.setParallelism(4);
+		try {
+			Assert.assertEquals(0, operation.forward(inputs).subtract(expected).abs().sum(), 1.E-9);
+			Assert.assertEquals(0, operation.partial(1, inputs, expected, error).subtract(expectedDerivative).abs().sum(),
+					1.E-9);
+		} finally {
+			Parallelism.setParallelism(1);
+		}
+	}
+
+	@Test
+	public void testGraphAttentionOperationSyntax() {
+		Matrix adjacency = adjacency();
+		Matrix features = random(6, 4, 1);
+		Matrix attention = random(2, 4, 2);
+		Model model = new ModelBuilder().constant("A", adjacency).var("h").param("a", attention)
+				.operation("y = gat(A, h, a, 2)").operation("z = edge_softmax(att(A, h))@h").out("y").out("z")
+				.getModel();
+		List<Tensor> outputs = model.predict(features);
+		NNOperation operation = new GraphAttention(2);
+		Assert.assertEquals(0, operation.forward(Arrays.asList(adjacency, features, attention))
+				.subtract(outputs.get(0)).abs().sum(), 1.E-12);
+		Assert.assertEquals(6, outputs.get(1).cast(Matrix.class).getRows());
+		Assert.assertEquals(4, outputs.get(1).cast(Matrix.class).getCols());
+	}
+}
@@ -0,0 +1,708 @@
+package mklab.JGNN.nn;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import mklab.JGNN.adhoc.BatchData;
+import mklab.JGNN.adhoc.ModelBuilder;
+import mklab.JGNN.adhoc.ModelTraining;
+import mklab.JGNN.adhoc.PropagationCache;
+import mklab.JGNN.adhoc.parsers.FastBuilder;
+import mklab.JGNN.adhoc.parsers.LayeredBuilder;
+import mklab.JGNN.adhoc.train.AGFTraining;
+import mklab.JGNN.adhoc.train.ClusterClassification;
+import mklab.JGNN.adhoc.train.NeighborSamplingClassification;
+import mklab.JGNN.adhoc.train.SampleClassification;
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Memory;
+import mklab.JGNN.core.Parallelism;
+import mklab.JGNN.core.Slice;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.distribution.Normal;
+import mklab.JGNN.core.matrix.CsrMatrix;
+import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.core.matrix.MappedMatrix;
+import mklab.JGNN.core.matrix.RowSparseMatrix;
+import mklab.JGNN.core.matrix.SparseMatrix;
+import mklab.JGNN.core.tensor.DenseTensor;
+import mklab.JGNN.nn.activations.Relu;
+import mklab.JGNN.nn.initializers.XavierNormal;
+import mklab.JGNN.nn.inputs.Constant;
+import mklab.JGNN.nn.inputs.Parameter;
+import mklab.JGNN.nn.loss.BinaryCrossEntropy;
+import mklab.JGNN.nn.loss.CategoricalCrossEntropy;
+import mklab.JGNN.nn.operations.LinearActivation;
+import mklab.JGNN.nn.operations.MatMul;
+import mklab.JGNN.nn.optimizers.Adam;
+import mklab.JGNN.nn.optimizers.GradientDescent;
+
+public class ModelTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	protected Model createModel() {
+		return new ModelBuilder()
+				.config("features", 5)
+				.config("classes", 3)
+				.var("x")
+				.operation("h = relu(x@matrix(features, 8)+vector(8))")
+				.operation("yhat = sigmoid(h@matrix(8, classes)+h@matrix(8, classes)+vector(classes))")
+				.out("yhat")
+				.getModel()
+				.init(new XavierNormal());
+	}
+
+	protected List<Tensor> trainStep(Model model, Matrix features, Matrix labels) {
+		ArrayList<Tensor> ret = new ArrayList<Tensor>();
+		model.train(new BinaryCrossEntropy(), new GradientDescent(0.1), Arrays.asList(features), Arrays.asList(labels));
+		for (Parameter parameter : model.getParameters())
+			ret.add(parameter.get().copy());
+		return ret;
+	}
+
+	protected static Matrix features() {
+		return (Matrix) new DenseMatrix(10, 5).setToRandom(new Normal().setSeed(1));
+	}
+
+	protected static Matrix labels() {
+		Matrix ret = new DenseMatrix(10, 3);
+		for (long row = 0; row < 10; row++)
+			ret.put(row, row % 3, 1);
+		return ret;
+	}
+
+	protected static void cloneParameters(Model from, Model to) {
+		for (int i = 0; i < from.getParameters().size(); i++)
+			to.getParameters().get(i).set(from.getParameters().get(i).get().copy());
+	}
+
+	protected void assertCompiledModelEquivalence(boolean fuse) {
+		Model model = createModel();
+		Matrix features = features();
+		Matrix labels = labels();
+		ArrayList<Tensor> initial = new ArrayList<Tensor>();
+		for (Parameter parameter : model.getParameters())
+			initial.add(parameter.get().copy());
+
+		Tensor prediction = model.predict(features).get(0);
+		List<Tensor> trained = trainStep(model, features, labels);
+		for (int i = 0; i < initial.size(); i++)
+			model.getParameters().get(i).set(initial.get(i).copy());
+
+		model.compile(fuse);
+		Assert.assertTrue(model.isCompiled());
+		Assert.assertEquals(0, model.predict(features).get(0).subtract(prediction).abs().sum(), 1.E-12);
+		List<Tensor> compiledTrained = trainStep(model, features, labels);
+		for (int i = 0; i < trained.size(); i++) {
+			Assert.assertNotEquals(0, trained.get(i).subtract(initial.get(i)).abs().sum(), 0);
+			Assert.assertEquals(0, compiledTrained.get(i).subtract(trained.get(i)).abs().sum(), 1.E-12);
+		}
+	}
+
+	@Test
+	public void testCompiledModelEquivalence() {
+		assertCompiledModelEquivalence(false);
+	}
+
+	@Test
+	public void testFusedModelEquivalence() {
+		assertCompiledModelEquivalence(true);
+	}
+
+	@Test
+	public void testFusedReluOnZeroPreactivations() {
+		Model model = createModel();
+		Model fused = createModel();
+		cloneParameters(model, fused);
+		fused.compile(true);
+		Matrix features = features();
+		for (long col = 0; col < 5; col++)
+			features.put(0, col, 0);
+		Matrix labels = labels();
+		List<Tensor> trained = trainStep(model, features, labels);
+		List<Tensor> fusedTrained = trainStep(fused, features, labels);
+		for (int i = 0; i < trained.size(); i++)
+			Assert.assertEquals(0, fusedTrained.get(i).subtract(trained.get(i)).abs().sum(), 1.E-12);
+	}
+
+	@Test
+	public void testFusedReluOutputsPositiveZeros() {
+		NNOperation operation = new LinearActivation(new Relu(), new MatMul());
+		Matrix features = features();
+		Matrix weights = (Matrix) new DenseMatrix(5, 8).setToRandom(new Normal().setSeed(2));
+		Tensor output = operation.forward(Arrays.asList(features, weights, new DenseTensor(8)));
+		Assert.assertTrue(output.min() == 0);
+		for (long pos = 0; pos < output.size(); pos++)
+			Assert.assertNotEquals(Double.doubleToRawLongBits(-0.), Double.doubleToRawLongBits(output.get(pos)));
+	}
+
+	@Test
+	public void testInference() {
+		Model model = createModel();
+		Matrix features = features();
+		Tensor prediction = model.predict(features).get(0);
+		Assert.assertEquals(0, model.infer(features).get(0).subtract(prediction).abs().sum(), 1.E-12);
+		Assert.assertTrue(model.getPeakInferenceMemory() > 0);
+		Assert.assertEquals(0, model.infer(features).get(0).subtract(prediction).abs().sum(), 1.E-12);
+		model.compile();
+		Assert.assertEquals(0, model.infer(features).get(0).subtract(prediction).abs().sum(), 1.E-12);
+		Assert.assertEquals(0, model.infer(features).get(0).subtract(prediction).abs().sum(), 1.E-12);
+	}
+
+	@Test
+	public void testTrainingWithReleasedIntermediates() {
+		Memory.setMinPooledLength(0);
+		try {
+			Model model = createModel();
+			Model compiled = createModel();
+			cloneParameters(model, compiled);
+			compiled.compile();
+			Matrix features = features();
+			Matrix labels = labels();
+			for (int epoch = 0; epoch < 5; epoch++) {
+				List<Tensor> trained = trainStep(model, features, labels);
+				List<Tensor> compiledTrained = trainStep(compiled, features, labels);
+				for (int i = 0; i < trained.size(); i++)
+					Assert.assertEquals(0, compiledTrained.get(i).subtract(trained.get(i)).abs().sum(), 1.E-12);
+			}
+			Assert.assertEquals(0, compiled.predict(features).get(0).subtract(model.predict(features).get(0)).abs().sum(),
+					1.E-12);
+		} finally {
+			Memory.setMinPooledLength(1024);
+			Memory.clear();
+		}
+	}
+
+	protected Model createDeepModel(boolean checkpoints) {
+		ModelBuilder builder = new ModelBuilder()
+				.config("features", 5)
+				.config("classes", 3)
+				.var("x")
+				.operation("h0 = relu(x@matrix(features, 8)+vector(8))");
+		for (int layer = 1; layer <= 6; layer++) {
+			builder.operation("h" + layer + " = relu(h" + (layer - 1) + "@matrix(8, 8)+vector(8))+h" + (layer - 1));
+			if (checkpoints && layer % 2 == 0)
+				builder.checkpoint("h" + layer);
+		}
+		return builder
+				.operation("yhat = sigmoid(h6@matrix(8, classes)+vector(classes))")
+				.out("yhat")
+				.getModel()
+				.init(new XavierNormal());
+	}
+
+	@Test
+	public void testCheckpointedTraining() {
+		Model model = createDeepModel(false);
+		Model checkpointed = createDeepModel(true);
+		Assert.assertEquals(3, checkpointed.getCheckpoints().size());
+		cloneParameters(model, checkpointed);
+		Matrix features = features();
+		Matrix labels = labels();
+		for (int epoch = 0; epoch < 3; epoch++) {
+			List<Tensor> trained = trainStep(model, features, labels);
+			List<Tensor> checkpointedTrained = trainStep(checkpointed, features, labels);
+			for (int i = 0; i < trained.size(); i++)
+				Assert.assertEquals(0, checkpointedTrained.get(i).subtract(trained.get(i)).abs().sum(), 1.E-12);
+		}
+		Assert.assertTrue(checkpointed.isCompiled());
+	}
+
+	@Test
+	public void testEmbeddingGradientsAreRowSparse() {
+		ModelBuilder builder = new ModelBuilder()
+				.config("classes", 3)
+				.var("x")
+				.param("E", new DenseMatrix(50, 4).setToRandom(new Normal().setSeed(1)))
+				.operation("yhat = sigmoid(E[x]@matrix(4, classes))")
+				.out("yhat");
+		Model model = builder.getModel().init(new XavierNormal());
+		Tensor embeddings = ((Parameter) builder.get("E")).get();
+		Tensor initial = embeddings.copy();
+		Tensor nodes = new DenseTensor(4);
+		for (long i = 0; i < 4; i++)
+			nodes.put(i, 10 * i);
+		Matrix labels = new DenseMatrix(4, 3);
+		for (long row = 0; row < 4; row++)
+			labels.put(row, row % 3, 1);
+		model.train(new BinaryCrossEntropy(), new GradientDescent(0.1), Arrays.asList(nodes), Arrays.asList(labels));
+		Matrix difference = embeddings.subtract(initial).cast(Matrix.class);
+		for (long row = 0; row < 50; row++)
+			if (row % 10 == 0 && row < 40)
+				Assert.assertNotEquals(0, difference.accessRow(row).norm(), 0);
+			else
+				Assert.assertEquals(0, difference.accessRow(row).norm(), 0);
+	}
+
+	protected List<Tensor> trainWithBatches(Model model, boolean dataParallelism) {
+		Matrix features = (Matrix) new DenseMatrix(30, 5).setToRandom(new Normal().setSeed(1));
+		Matrix labels = new DenseMatrix(30, 3);
+		for (long row = 0; row < 30; row++)
+			labels.put(row, row % 3, 1);
+		ArrayList<Long> training = new ArrayList<Long>();
+		ArrayList<Long> validation = new ArrayList<Long>();
+		for (long row = 0; row < 30; row++)
+			(row < 24 ? training : validation).add(row);
+		ModelTraining trainer = new SampleClassification()
+				.setFeatures(features)
+				.setOutputs(labels)
+				.setTrainingSamples(new Slice(training))
+				.setValidationSamples(new Slice(validation))
+				.setOptimizer(new Adam(0.01))
+				.setLoss(new BinaryCrossEntropy())
+				.setNumBatches(4)
+				.setDataParallelism(dataParallelism)
+				.setEpochs(3);
+		trainer.train(model);
+		ArrayList<Tensor> ret = new ArrayList<Tensor>();
+		for (Parameter parameter : model.getParameters())
+			ret.add(parameter.get().copy());
+		return ret;
+	}
+
+	@Test
+	public void testFusedOneHotGradientsAreRowSparse() {
+		Model model = new ModelBuilder()
+				.config("classes", 3)
+				.var("x")
+				.operation("yhat = sigmoid(x@matrix(50, classes)+vector(classes))")
+				.out("yhat")
+				.getModel()
+				.init(new XavierNormal());
+		model.compile(true);
+		Matrix nodes = new SparseMatrix(4, 50);
+		Matrix labels = new DenseMatrix(4, 3);
+		for (long row = 0; row < 4; row++) {
+			nodes.put(row, 10 * row, 1);
+			labels.put(row, row % 3, 1);
+		}
+		ArrayList<Tensor> gradients = new ArrayList<Tensor>();
+		model.train(new BinaryCrossEntropy(), (value, gradient) -> gradients.add(gradient), Arrays.asList(nodes),
+				Arrays.asList(labels));
+		Assert.assertEquals(2, gradients.size());
+		Assert.assertTrue(gradients.get(0) instanceof RowSparseMatrix || gradients.get(1) instanceof RowSparseMatrix);
+	}
+
+	@Test
+	public void testSparseOperandGradientsShareTheirPattern() {
+		Matrix adjacency = new SparseMatrix(6, 6);
+		for (long node = 0; node < 6; node++)
+			adjacency.put(node, (node + 1) % 6, 1).put(node, node, 0.5);
+		CsrMatrix csr = adjacency.toCsr();
+		Matrix features = (Matrix) new DenseMatrix(6, 4).setToRandom(new Normal().setSeed(1));
+		Matrix error = (Matrix) new DenseMatrix(6, 4).setToRandom(new Normal().setSeed(2));
+		ModelBuilder builder = new ModelBuilder().var("A").var("h").operation("y = A@h").out("y");
+		Tensor derivative = builder.get("y").partial(0, Arrays.asList(csr, features), null, error);
+		Assert.assertTrue(derivative instanceof CsrMatrix);
+		Assert.assertSame(csr.getRowPtr(), ((CsrMatrix) derivative).getRowPtr());
+		Assert.assertSame(csr.getColIdx(), ((CsrMatrix) derivative).getColIdx());
+		for (long row = 0; row < 6; row++)
+			for (long col = 0; col < 6; col++) {
+				double expected = 0;
+				if (adjacency.get(row, col) != 0)
+					for (long k = 0; k < 4; k++)
+						expected += error.get(row, k) * features.get(col, k);
+				Assert.assertEquals(expected, ((Matrix) derivative).get(row, col), 1.E-12);
+			}
+	}
+
+	@Test
+	public void testDataParallelTraining() {
+		Model model = createModel();
+		ArrayList<Tensor> initial = new ArrayList<Tensor>();
+		for (Parameter parameter : model.getParameters())
+			initial.add(parameter.get().copy());
+		Model[] replicas = { createModel(), createModel() };
+		for (Model replica : replicas)
+			for (int i = 0; i < initial.size(); i++)
+				replica.getParameters().get(i).set(initial.get(i).copy());
+		List<Tensor> trained = trainWithBatches(model, false);
+		List<Tensor> parallel = trainWithBatches(replicas[0], true);
+		List<Tensor> repeated = trainWithBatches(replicas[1], true);
+		for (int i = 0; i < trained.size(); i++) {
+			Assert.assertNotEquals(0, trained.get(i).subtract(initial.get(i)).abs().sum(), 0);
+			Assert.assertEquals(0, parallel.get(i).subtract(trained.get(i)).abs().sum(), 1.E-9);
+			Assert.assertEquals(0, repeated.get(i).subtract(parallel.get(i)).abs().sum(), 0);
+		}
+	}
+
+	@Test
+	public void testNeighborSampling() {
+		Matrix graph = new SparseMatrix(40, 40);
+		for (long node = 0; node < 40; node++) {
+			graph.put(node, node, 0.5);
+			for (long step : new long[] { 1, 7, 13 }) {
+				graph.put(node, (node + step) % 40, 0.25);
+				graph.put((node + step) % 40, node, 0.25);
+			}
+		}
+		Matrix features = (Matrix) new DenseMatrix(40, 5).setToRandom(new Normal().setSeed(1));
+		Matrix labels = new DenseMatrix(40, 3);
+		ArrayList<Long> training = new ArrayList<Long>();
+		ArrayList<Long> validation = new ArrayList<Long>();
+		for (long node = 0; node < 40; node++) {
+			labels.put(node, node % 3, 1);
+			(node < 30 ? training : validation).add(node);
+		}
+		Model model = new ModelBuilder()
+				.config("features", 5)
+				.config("classes", 3)
+				.var("x")
+				.var("A0")
+				.var("A1")
+				.operation("h = relu(A0@x@matrix(features, 8)+vector(8))")
+				.operation("yhat = sigmoid(A1@h@matrix(8, classes)+vector(classes))")
+				.out("yhat")
+				.getModel()
+				.init(new XavierNormal());
+		NeighborSamplingClassification trainer = new NeighborSamplingClassification()
+				.setGraph(graph)
+				.setFeatures(features)
+				.setOutputs(labels)
+				.setTrainingSamples(new Slice(training))
+				.setValidationSamples(new Slice(validation))
+				.setFanouts(3, 2);
+
+		Tensor prediction = model.predict(features, graph, graph).get(0);
+		BatchData exact = trainer.neighborhood(new Slice(validation));
+		Matrix exactPrediction = model.predict(exact.getInputs()).get(0).cast(Matrix.class);
+		for (int i = 0; i < validation.size(); i++)
+			for (long col = 0; col < 3; col++)
+				Assert.assertEquals(prediction.cast(Matrix.class).get(validation.get(i), col), exactPrediction.get(i, col),
+						1.E-12);
+
+		BatchData sampled = trainer.sample(new Slice(training).range(0, 10), 1);
+		Assert.assertEquals(3, sampled.getInputs().size());
+		CsrMatrix last = (CsrMatrix) sampled.getInputs().get(2);
+		CsrMatrix first = (CsrMatrix) sampled.getInputs().get(1);
+		Assert.assertEquals(10, last.getRows());
+		Assert.assertEquals(last.getCols(), first.getRows());
+		Assert.assertEquals(first.getCols(), sampled.getInputs().get(0).cast(Matrix.class).getRows());
+		Assert.assertTrue(last.getCols() <= 10 * 3);
+		for (int row = 0; row < last.getRows(); row++)
+			Assert.assertEquals(2, last.getRowPtr()[row + 1] - last.getRowPtr()[row]);
+		for (int row = 0; row < first.getRows(); row++)
+			Assert.assertEquals(3, first.getRowPtr()[row + 1] - first.getRowPtr()[row]);
+
+		ArrayList<Tensor> initial = new ArrayList<Tensor>();
+		for (Parameter parameter : model.getParameters())
+			initial.add(parameter.get().copy());
+		trainer.setOptimizer(new Adam(0.01))
+				.setLoss(new BinaryCrossEntropy())
+				.setNumBatches(3)
+				.setEpochs(5)
+				.train(model);
+		for (int i = 0; i < initial.size(); i++)
+			Assert.assertNotEquals(0, model.getParameters().get(i).get().subtract(initial.get(i)).abs().sum(), 0);
+	}
+
+	@Test
+	public void testClusterTraining() {
+		Matrix graph = new SparseMatrix(40, 40);
+		for (long node = 0; node < 40; node++) {
+			graph.put(node, node, 0.5);
+			graph.put(node, (node + 1) % 40, 0.25);
+			graph.put((node + 1) % 40, node, 0.25);
+		}
+		Matrix features = (Matrix) new DenseMatrix(40, 5).setToRandom(new Normal().setSeed(1));
+		Matrix labels = new DenseMatrix(40, 3);
+		ArrayList<Long> training = new ArrayList<Long>();
+		ArrayList<Long> validation = new ArrayList<Long>();
+		for (long node = 0; node < 40; node++) {
+			labels.put(node, node * 3 / 40, 1);
+			(node % 4 != 0 ? training : validation).add(node);
+		}
+		ModelBuilder builder = new FastBuilder(graph, features)
+				.config("classes", 3)
+				.config("hidden", 8)
+				.layer("h{l+1}=relu(A@(h{l}@matrix(features, hidden))+vector(hidden))")
+				.layer("h{l+1}=A@(h{l}@matrix(hidden, classes))+vector(classes)")
+				.classify();
+		Model model = builder.getModel().init(new XavierNormal());
+		Tensor prediction = model.predict(new Slice(validation).asTensor().asColumn()).get(0);
+		ClusterClassification trainer = new ClusterClassification()
+				.setBuilder(builder)
+				.setOutputs(labels)
+				.setTrainingSamples(new Slice(training))
+				.setValidationSamples(new Slice(validation))
+				.setNumClusters(8);
+
+		List<Slice> clusters = trainer.getClusters();
+		Assert.assertEquals(8, clusters.size());
+		boolean[] covered = new boolean[40];
+		for (Slice cluster : clusters) {
+			Assert.assertTrue(cluster.size() > 0 && cluster.size() <= 6);
+			for (long node : cluster) {
+				Assert.assertFalse(covered[(int) node]);
+				covered[(int) node] = true;
+			}
+		}
+
+		trainer.setOptimizer(new Adam(0.01))
+				.setLoss(new CategoricalCrossEntropy())
+				.setNumBatches(4)
+				.setEpochs(5)
+				.train(model);
+		Assert.assertSame(graph, ((Constant) builder.get("A")).get());
+		Assert.assertSame(features, ((Constant) builder.get("h0")).get());
+		Tensor trained = model.predict(new Slice(validation).asTensor().asColumn()).get(0);
+		Assert.assertEquals(prediction.size(), trained.size());
+		Assert.assertNotEquals(0, trained.subtract(prediction).abs().sum(), 0);
+
+		trainer.setOptimizer(new Optimizer() {
+			@Override
+			public void update(Tensor value, Tensor gradient) {
+				throw new RuntimeException("Failed update");
+			}
+		});
+		Assert.assertThrows(RuntimeException.class, () -> trainer.train(model));
+		Assert.assertSame(graph, ((Constant) builder.get("A")).get());
+		Assert.assertSame(features, ((Constant) builder.get("h0")).get());
+	}
+
+	@Test
+	public void testBackpropagationThroughSortIndexes() {
+		Model model = new ModelBuilder()
+				.var("x")
+				.param("W", new DenseMatrix(5, 3).setToRandom(new Normal().setSeed(2)))
+				.operation("h = x@W")
+				.operation("z = sort(h, 4)")
+				.operation("yhat = sigmoid(h[z])")
+				.out("yhat")
+				.getModel();
+		Matrix features = features();
+		Matrix labels = new DenseMatrix(4, 3);
+		for (long row = 0; row < 4; row++)
+			labels.put(row, row % 3, 1);
+		Tensor initial = model.getParameters().get(0).get().copy();
+		trainStep(model, features, labels);
+		Assert.assertNotEquals(0, model.getParameters().get(0).get().subtract(initial).abs().sum(), 0);
+	}
+
+	@Test
+	public void testBlockDiagonalGraphBatching() {
+		AGFTraining trainer = new AGFTraining();
+		for (int graph = 0; graph < 6; graph++) {
+			int nodes = 3 + graph % 3;
+			Matrix adjacency = new SparseMatrix(nodes, nodes);
+			for (long node = 0; node < nodes; node++) {
+				adjacency.put(node, (node + 1) % nodes, 0.5);
+				adjacency.put((node + 1) % nodes, node, 0.5);
+			}
+			Matrix features = (Matrix) new DenseMatrix(nodes, 2).setToRandom(new Normal().setSeed(graph + 1));
+			trainer.addGraph(adjacency, features, new DenseTensor(2).put(graph % 2, 1));
+		}
+		Model model = new LayeredBuilder()
+				.var("A")
+				.var("graph")
+				.config("features", 2)
+				.config("classes", 2)
+				.config("hidden", 4)
+				.config("readout", 12)
+				.layer("h{l+1}=relu(A@(h{l}@matrix(features, hidden))+vector(hidden))")
+				.operation("z=segment_sort(h{l}, graph, 2)")
+				.operation("pooled=segment_mean(h{l}, graph) | segment_max(h{l}, graph) | segment_sum(h{l}[z], graph[z])")
+				.layer("h{l+1}=softmax(pooled@matrix(readout, classes), dim: \"row\")")
+				.out("h{l}")
+				.getModel()
+				.init(new XavierNormal());
+		ArrayList<Long> ids = new ArrayList<Long>();
+		for (long graph = 0; graph < 6; graph++)
+			ids.add(graph);
+		BatchData merged = trainer.setBlockDiagonalBatching(true).mergeGraphs(new Slice(ids));
+		Assert.assertEquals(3, merged.getInputs().size());
+		Matrix prediction = model.predict(merged.getInputs()).get(0).cast(Matrix.class);
+		Assert.assertEquals(6, prediction.getRows());
+		long offset = 0;
+		for (int graph = 0; graph < 6; graph++) {
+			int nodes = 3 + graph % 3;
+			Matrix adjacency = merged.getInputs().get(1).cast(Matrix.class);
+			Matrix features = merged.getInputs().get(0).cast(Matrix.class);
+			Matrix graphAdjacency = new DenseMatrix(nodes, nodes);
+			Matrix graphFeatures = new DenseMatrix(nodes, 2);
+			for (long row = 0; row < nodes; row++) {
+				for (long col = 0; col < nodes; col++)
+					graphAdjacency.put(row, col, adjacency.get(offset + row, offset + col));
+				for (long col = 0; col < 2; col++)
+					graphFeatures.put(row, col, features.get(offset + row, col));
+			}
+			Tensor graphPrediction = model.predict(graphFeatures, graphAdjacency, new DenseMatrix(nodes, 1)).get(0);
+			for (long col = 0; col < 2; col++)
+				Assert.assertEquals(graphPrediction.get(col), prediction.get(graph, col), 1.E-12);
+			offset += nodes;
+		}
+		ArrayList<Tensor> initial = new ArrayList<Tensor>();
+		for (Parameter parameter : model.getParameters())
+			initial.add(parameter.get().copy());
+		trainer.setValidationSplit(0.5)
+				.setOptimizer(new Adam(0.01))
+				.setLoss(new CategoricalCrossEntropy())
+				.setEpochs(3)
+				.train(model);
+		for (int i = 0; i < initial.size(); i++)
+			Assert.assertNotEquals(0, model.getParameters().get(i).get().subtract(initial.get(i)).abs().sum(), 0);
+	}
+
+	protected Model trainOnIdenticalGraphs(int numGraphs) {
+		AGFTraining trainer = new AGFTraining().setBlockDiagonalBatching(true);
+		Matrix adjacency = new SparseMatrix(4, 4);
+		for (long node = 0; node < 4; node++) {
+			adjacency.put(node, (node + 1) % 4, 0.5);
+			adjacency.put((node + 1) % 4, node, 0.5);
+		}
+		Matrix features = (Matrix) new DenseMatrix(4, 2).setToRandom(new Normal().setSeed(1));
+		for (int graph = 0; graph < numGraphs; graph++)
+			trainer.addGraph(adjacency, features, new DenseTensor(2).put(0, 1));
+		Model model = new ModelBuilder()
+				.var("h0")
+				.var("A")
+				.var("graph")
+				.param("W", new DenseMatrix(2, 3).setToRandom(new Normal().setSeed(2)))
+				.param("V", new DenseMatrix(3, 2).setToRandom(new Normal().setSeed(3)))
+				.operation("h1 = relu(A@h0@W)")
+				.operation("yhat = softmax(segment_mean(h1, graph)@V, dim: \"row\")")
+				.out("yhat")
+				.getModel();
+		trainer.setValidationSplit(0.5)
+				.setOptimizer(new GradientDescent(0.1))
+				.setLoss(new CategoricalCrossEntropy())
+				.setEpochs(1)
+				.train(model);
+		return model;
+	}
+
+	@Test
+	public void testBlockDiagonalBatchingAveragesGraphs() {
+		Model single = trainOnIdenticalGraphs(2);
+		Model merged = trainOnIdenticalGraphs(6);
+		for (int i = 0; i < single.getParameters().size(); i++)
+			Assert.assertEquals(0,
+					merged.getParameters().get(i).get().subtract(single.getParameters().get(i).get()).abs().sum(),
+					1.E-12);
+
+		AGFTraining trainer = new AGFTraining().setBlockDiagonalBatching(true);
+		ArrayList<Matrix> graphs = new ArrayList<Matrix>();
+		ArrayList<Matrix> features = new ArrayList<Matrix>();
+		ArrayList<Tensor> labels = new ArrayList<Tensor>();
+		for (int graph = 0; graph < 5; graph++) {
+			int nodes = 3 + graph % 2;
+			Matrix adjacency = new SparseMatrix(nodes, nodes);
+			for (long node = 0; node < nodes; node++) {
+				adjacency.put(node, (node + 1) % nodes, 0.5);
+				adjacency.put((node + 1) % nodes, node, 0.5);
+			}
+			graphs.add(adjacency);
+			features.add((Matrix) new DenseMatrix(nodes, 2).setToRandom(new Normal().setSeed(graph + 1)));
+			labels.add(new DenseTensor(2).put(0, (graph + 1) / 10.).put(1, 1 - (graph + 1) / 10.));
+			trainer.addGraph(graphs.get(graph), features.get(graph), labels.get(graph));
+		}
+		Model model = new ModelBuilder()
+				.var("h0")
+				.var("A")
+				.var("graph")
+				.param("W", new DenseMatrix(2, 3).setToRandom(new Normal().setSeed(2)))
+				.param("V", new DenseMatrix(3, 2).setToRandom(new Normal().setSeed(3)))
+				.operation("h1 = relu(A@h0@W)")
+				.operation("yhat = softmax(segment_mean(h1, graph)@V, dim: \"row\")")
+				.out("yhat")
+				.getModel();
+		ArrayList<Integer> trained = new ArrayList<Integer>();
+		Loss recordingLoss = new Loss() {
+			private final Loss baseLoss = new CategoricalCrossEntropy();
+
+			@Override
+			public double evaluate(Tensor output, Tensor desired) {
+				return baseLoss.evaluate(output, desired);
+			}
+
+			@Override
+			public Tensor derivative(Tensor output, Tensor desired) {
+				trained.add((int) Math.round(desired.get(0) * 10) - 1);
+				return baseLoss.derivative(output, desired);
+			}
+		};
+		// training restores parameters to new tensors, so gradients are mapped to parameter positions
+		IdentityHashMap<Tensor, Integer> positions = new IdentityHashMap<Tensor, Integer>();
+		for (Parameter parameter : model.getParameters())
+			positions.put(parameter.get(), positions.size());
+		Tensor[] mergedGradients = new Tensor[positions.size()];
+		trainer.setValidationSplit(0.4)
+				.setOptimizer((value, gradient) -> mergedGradients[positions.get(value)] = gradient.copy())
+				.setLoss(recordingLoss)
+				.setEpochs(1)
+				.train(model);
+		Assert.assertEquals(3, trained.size());
+		positions.clear();
+		for (Parameter parameter : model.getParameters())
+			positions.put(parameter.get(), positions.size());
+		Tensor[] graphGradients = new Tensor[positions.size()];
+		for (int graph : trained) {
+			Matrix adjacency = graphs.get(graph);
+			model.train(new CategoricalCrossEntropy(), (value, gradient) -> {
+				int position = positions.get(value);
+				graphGradients[position] = graphGradients[position] == null ? gradient.copy()
+						: graphGradients[position].selfAdd(gradient);
+			}, Arrays.asList(features.get(graph), adjacency, new DenseMatrix(adjacency.getRows(), 1)),
+					Arrays.asList(labels.get(graph).asRow()));
+		}
+		for (int i = 0; i < positions.size(); i++)
+			Assert.assertEquals(0, mergedGradients[i].subtract(graphGradients[i].multiply(1. / trained.size())).abs().sum(),
+					1.E-12);
+	}
+
+	@Test
+	public void testPropagationCache() throws Exception {
+		Matrix graph = new SparseMatrix(30, 30);
+		for (long node = 0; node < 30; node++) {
+			graph.put(node, node, 0.5);
+			graph.put(node, (node + 1) % 30, 0.25);
+			graph.put((node + 7) % 30, node, 0.25);
+		}
+		Matrix features = (Matrix) new DenseMatrix(30, 5).setToRandom(new Normal().setSeed(1));
+		PropagationCache cache = new PropagationCache(graph, features).compute(3);
+		PropagationCache restarted = new PropagationCache(graph, features).setRestart(0.1).compute(1).compute(3);
+		Parallelism.setParallelism(4);
+		PropagationCache spilled;
+		try {
+			spilled = new PropagationCache(graph, features).setSpillFile(folder.newFile("propagation.bin").toPath())
+					.setBlockRows(7).compute(3);
+		} finally {
+			Parallelism.setParallelism(1);
+		}
+		Tensor expected = features;
+		Tensor expectedRestarted = features;
+		for (int hop = 0; hop <= 3; hop++) {
+			Assert.assertEquals(0, cache.get(hop).subtract(expected).abs().sum(), 1.E-12);
+			Assert.assertEquals(0, restarted.get(hop).subtract(expectedRestarted).abs().sum(), 1.E-12);
+			Assert.assertEquals(0, spilled.get(hop).subtract(expected).abs().sum(), 1.E-12);
+			expected = graph.matmul(expected.cast(Matrix.class));
+			expectedRestarted = graph.matmul(expectedRestarted.cast(Matrix.class)).multiply(0.9)
+					.add(features.multiply(0.1));
+		}
+		Assert.assertTrue(spilled.get(3) instanceof MappedMatrix);
+		Matrix weights = (Matrix) new DenseMatrix(5, 3).setToRandom(new Normal().setSeed(2));
+		Assert.assertEquals(0, spilled.get(3).matmul(weights).subtract(cache.get(3).matmul(weights)).abs().sum(),
+				1.E-12);
+		Matrix errors = (Matrix) new DenseMatrix(30, 3).setToRandom(new Normal().setSeed(3));
+		Assert.assertEquals(0, spilled.get(3).matmul(errors, true, false)
+				.subtract(cache.get(3).matmul(errors, true, false)).abs().sum(), 1.E-12);
+
+		ModelBuilder builder = new FastBuilder(graph, features)
+				.config("classes", 3)
+				.propagate(2)
+				.layer("h{l+1}=p2@matrix(features, classes)+vector(classes)")
+				.classify();
+		Assert.assertEquals(0, ((Constant) builder.get("p2")).get().subtract(cache.get(2)).abs().sum(), 1.E-12);
+		Model model = builder.getModel().init(new XavierNormal());
+		Matrix output = model.predict(Tensor.fromRange(0, 30).asColumn()).get(0).cast(Matrix.class);
+		Assert.assertEquals(30, output.getRows());
+		Assert.assertEquals(3, output.getCols());
+	}
+}
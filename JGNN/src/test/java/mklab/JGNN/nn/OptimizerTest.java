@@ -0,0 +1,125 @@
+package mklab.JGNN.nn;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.ThreadPool;
+import mklab.JGNN.core.distribution.Normal;
+import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.core.matrix.RowSparseMatrix;
+import mklab.JGNN.core.tensor.DenseTensor;
+import mklab.JGNN.nn.optimizers.Adam;
+import mklab.JGNN.nn.optimizers.BatchOptimizer;
+import mklab.JGNN.nn.optimizers.FusedAdam;
+import mklab.JGNN.nn.optimizers.GradientDescent;
+import mklab.JGNN.nn.optimizers.LazyAdam;
+import mklab.JGNN.nn.optimizers.Regularization;
+
+public class OptimizerTest {
+	@Test
+	public void testLazyAdamMatchesAdamOnDenseGradients() {
+		Tensor value = new DenseMatrix(6, 3).setToRandom(new Normal().setSeed(1));
+		Tensor lazyValue = value.copy();
+		Optimizer adam = new Adam(0.01);
+		Optimizer lazyAdam = new LazyAdam(0.01);
+		for (int step = 0; step < 3; step++) {
+			Tensor gradient = new DenseMatrix(6, 3).setToRandom(new Normal().setSeed(step + 2));
+			adam.update(value, gradient);
+			lazyAdam.update(lazyValue, gradient);
+		}
+		Assert.assertEquals(0, value.subtract(lazyValue).abs().sum(), 1.E-12);
+	}
+
+	@Test
+	public void testLazyAdamUpdatesOnlyTouchedRows() {
+		Matrix value = new DenseMatrix(100, 3).setToRandom(new Normal().setSeed(1)).cast(Matrix.class);
+		Matrix initial = value.copy().cast(Matrix.class);
+		Matrix source = new DenseMatrix(2, 3).setToRandom(new Normal().setSeed(2)).cast(Matrix.class);
+		Optimizer optimizer = new LazyAdam(0.01);
+		optimizer.update(value, new RowSparseMatrix(100, 3).addToRow(5, source, 0, 1).addToRow(70, source, 1, 1));
+		optimizer.update(value, new RowSparseMatrix(100, 3).addToRow(5, source, 1, 1));
+		for (long row = 0; row < 100; row++)
+			for (long col = 0; col < 3; col++)
+				if (row == 5 || row == 70)
+					Assert.assertNotEquals(initial.get(row, col), value.get(row, col), 0);
+				else
+					Assert.assertEquals(initial.get(row, col), value.get(row, col), 0);
+	}
+
+	@Test
+	public void testFusedAdamMatchesRegularizedAdam() {
+		Tensor matrix = new DenseMatrix(60, 3).setToRandom(new Normal().setSeed(1));
+		Tensor vector = new DenseTensor(7).setToRandom(new Normal().setSeed(2));
+		Tensor fusedMatrix = matrix.copy();
+		Tensor fusedVector = vector.copy();
+		Optimizer adam = new Regularization(new Adam(0.01), 0.1);
+		Optimizer fused = new FusedAdam(0.01).setWeightDecay(0.1);
+		for (int step = 0; step < 3; step++) {
+			Tensor gradient = new DenseMatrix(60, 3).setToRandom(new Normal().setSeed(step + 3));
+			adam.update(matrix, gradient);
+			fused.update(fusedMatrix, gradient);
+			Tensor vectorGradient = new DenseTensor(7).setToRandom(new Normal().setSeed(step + 6));
+			adam.update(vector, vectorGradient);
+			fused.update(fusedVector, vectorGradient);
+		}
+		Assert.assertEquals(0, matrix.subtract(fusedMatrix).abs().sum(), 1.E-12);
+		Assert.assertEquals(0, vector.subtract(fusedVector).abs().sum(), 1.E-12);
+	}
+
+	@Test
+	public void testBatchOptimizerMergesThreadAccumulations() {
+		Tensor value = new DenseTensor(10).setToRandom(new Normal().setSeed(1));
+		Tensor expected = value.copy();
+		Tensor average = new DenseTensor(10);
+		BatchOptimizer optimizer = new BatchOptimizer(new GradientDescent(0.1));
+		for (int batch = 0; batch < 9; batch++) {
+			Tensor gradient = new DenseTensor(10).setToRandom(new Normal().setSeed(batch + 2));
+			average.selfAdd(gradient, 1. / 9);
+			ThreadPool.getInstance().submit(() -> optimizer.update(value, gradient));
+		}
+		ThreadPool.getInstance().waitForConclusion();
+		optimizer.updateAll();
+		expected.selfAdd(average, -0.1);
+		Assert.assertEquals(0, value.subtract(expected).abs().sum(), 1.E-12);
+	}
+
+	@Test
+	public void testHogwildBatchOptimizerUpdatesImmediately() {
+		Tensor value = new DenseTensor(10).setToRandom(new Normal().setSeed(1));
+		Tensor expected = value.copy();
+		BatchOptimizer optimizer = new BatchOptimizer(new GradientDescent(0.1)).setHogwild(true);
+		for (int batch = 0; batch < 4; batch++) {
+			Tensor gradient = new DenseTensor(10).setToRandom(new Normal().setSeed(batch + 2));
+			expected.selfAdd(gradient, -0.1);
+			optimizer.update(value, gradient);
+			Assert.assertEquals(0, value.subtract(expected).abs().sum(), 1.E-12);
+		}
+		optimizer.updateAll();
+		Assert.assertEquals(0, value.subtract(expected).abs().sum(), 1.E-12);
+	}
+
+	@Test
+	public void testHogwildAdamTracksEachParameter() {
+		Tensor[] values = new Tensor[200];
+		Tensor[] expected = new Tensor[values.length];
+		Adam serial = new Adam(0.1);
+		BatchOptimizer optimizer = new BatchOptimizer(new Adam(0.1)).setHogwild(true);
+		for (int i = 0; i < values.length; i++) {
+			values[i] = new DenseTensor(10).setToRandom(new Normal().setSeed(i));
+			expected[i] = values[i].copy();
+			Tensor gradient = new DenseTensor(10).setToRandom(new Normal().setSeed(i + values.length));
+			serial.update(expected[i], gradient);
+			serial.update(expected[i], gradient);
+			Tensor value = values[i];
+			ThreadPool.getInstance().submit(() -> {
+				optimizer.update(value, gradient);
+				optimizer.update(value, gradient);
+			});
+		}
+		ThreadPool.getInstance().waitForConclusion();
+		for (int i = 0; i < values.length; i++)
+			Assert.assertEquals(0, values[i].subtract(expected[i]).abs().sum(), 1.E-12);
+	}
+}
@@ -0,0 +1,105 @@
+package mklab.JGNN.nn;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import mklab.JGNN.adhoc.ModelBuilder;
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.distribution.Normal;
+import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.core.tensor.DenseTensor;
+import mklab.JGNN.nn.pooling.SegmentMax;
+import mklab.JGNN.nn.pooling.SegmentMean;
+import mklab.JGNN.nn.pooling.SegmentSoftMax;
+import mklab.JGNN.nn.pooling.SegmentSum;
+
+public class PoolingTest {
+	private static final Tensor index = new DenseTensor(2, 0, 2, 1, 0, 2, 2);
+
+	private static Matrix values() {
+		return new DenseMatrix(7, 3).setToRandom(new Normal().setSeed(1)).cast(Matrix.class);
+	}
+
+	private static double loss(NNOperation operation, Matrix values, Matrix weights) {
+		return operation.forward(Arrays.asList(values, index)).multiply(weights).sum();
+	}
+
+	private static void assertGradient(NNOperation operation) {
+		Matrix values = values();
+		List<Tensor> inputs = Arrays.asList(values, index);
+		Tensor output = operation.forward(inputs);
+		Matrix weights = output.zeroCopy().setToRandom(new Normal().setSeed(2)).cast(Matrix.class);
+		Tensor derivative = operation.partial(0, inputs, output, weights);
+		Assert.assertNull(operation.partial(1, inputs, output, weights));
+		double epsilon = 1.E-6;
+		for (long pos = 0; pos < values.size(); pos++) {
+			double value = values.get(pos);
+			values.put(pos, value + epsilon);
+			double increased = loss(operation, values, weights);
+			values.put(pos, value - epsilon);
+			double decreased = loss(operation, values, weights);
+			values.put(pos, value);
+			Assert.assertEquals((increased - decreased) / 2 / epsilon, derivative.get(pos), 1.E-6);
+		}
+	}
+
+	@Test
+	public void testSegmentReductionsMatchPerSegmentComputation() {
+		Matrix values = values();
+		List<Tensor> inputs = Arrays.asList(values, index);
+		NNOperation sumOperation = new SegmentSum();
+		NNOperation meanOperation = new SegmentMean();
+		NNOperation maxOperation = new SegmentMax();
+		Matrix sum = sumOperation.forward(inputs).cast(Matrix.class);
+		Matrix mean = meanOperation.forward(inputs).cast(Matrix.class);
+		Matrix max = maxOperation.forward(inputs).cast(Matrix.class);
+		Assert.assertEquals(3, sum.getRows());
+		for (long segment = 0; segment < 3; segment++)
+			for (long col = 0; col < 3; col++) {
+				double expectedSum = 0;
+				double expectedMax = Double.NEGATIVE_INFINITY;
+				int count = 0;
+				for (long row = 0; row < 7; row++)
+					if (index.get(row) == segment) {
+						expectedSum += values.get(row, col);
+						expectedMax = Math.max(expectedMax, values.get(row, col));
+						count++;
+					}
+				Assert.assertEquals(expectedSum, sum.get(segment, col), 1.E-12);
+				Assert.assertEquals(expectedSum / count, mean.get(segment, col), 1.E-12);
+				Assert.assertEquals(expectedMax, max.get(segment, col), 0);
+			}
+	}
+
+	@Test
+	public void testSegmentSoftMaxNormalizesEachSegment() {
+		Matrix values = values();
+		NNOperation operation = new SegmentSoftMax();
+		Matrix output = operation.forward(Arrays.asList(values, index)).cast(Matrix.class);
+		for (long row = 0; row < 7; row++)
+			for (long col = 0; col < 3; col++) {
+				double normalization = 0;
+				for (long other = 0; other < 7; other++)
+					if (index.get(other) == index.get(row))
+						normalization += Math.exp(values.get(other, col));
+				Assert.assertEquals(Math.exp(values.get(row, col)) / normalization, output.get(row, col), 1.E-12);
+			}
+	}
+
+	@Test
+	public void testSegmentGradients() {
+		assertGradient(new SegmentSum());
+		assertGradient(new SegmentMean());
+		assertGradient(new SegmentMax());
+		assertGradient(new SegmentSoftMax());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSegmentSortRequiresK() {
+		new ModelBuilder().var("h").var("graph").operation("z = segment_sort(h, graph)");
+	}
+}